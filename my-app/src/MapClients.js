@@ -32,6 +32,8 @@ const timestampToJSX = (timestamp, col = "orange") => {
 function MapClients({setToast, setNumLines, configObj, displayNone}) {
   const [isRequestingLatest, setIsRequestingLatest] = useState(false)
   const [checkinsList, setCheckinsList] = useState([])
+  // This tab's own cursor, so other tabs do not take its checkins
+  const [checkinsCursor, setCheckinsCursor] = useState(0)
   const [isMaxed, setIsMaxed] = useState(false)
 
   const [isRequestingOneUsers, setIsRequestingOneUsers] = useState(false)
@@ -43,13 +45,14 @@ function MapClients({setToast, setNumLines, configObj, displayNone}) {
       return
     }
     setIsRequestingLatest(true)
-    axios.post("http://localhost:4567/get-checkins", {}, configObj)
+    axios.post("http://localhost:4567/get-checkins", {cursor: checkinsCursor}, configObj)
         .then(response => {
           setIsRequestingLatest(false)
           if (response.data.errorMessage) {
             setToast({type: "error", message: "Error: " + response.data.errorMessage})
             return
           }
+          setCheckinsCursor(response.data.cursor)
           setCheckinsList((prev) =>
               [...response.data.checkins.sort((a, b) => b.timestamp - a.timestamp),
                   ...prev.slice(0, maxCheckins - response.data.checkins.length)])
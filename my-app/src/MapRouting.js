@@ -3,6 +3,7 @@ import MapRouteNames from "./MapRouteNames";
 import MapRouteClear from "./MapRouteClear"
 import React, {useState} from "react";
 import axios from "axios";
+import {readWays, waysConfig} from "./waysWire";
 
 const usingSelectedNodeMessage = "Using Selected Node!"
 
@@ -31,19 +32,20 @@ function MapRouting({
     }
     setIsRouting(true)
     console.log("%cQuerying server for route.", "color: orange", body)
-    axios.post(url, body, configObj)
+    axios.post(url, body, waysConfig(configObj))
         .then(response => {
           setIsRouting(false)
-          if (response.data.errorMessage) {
-            setToast({type: "error", message: "Error: " + response.data.errorMessage})
-            console.error(response.data.errorMessage)
+          const data = readWays(response)
+          if (data.errorMessage) {
+            setToast({type: "error", message: "Error: " + data.errorMessage})
+            console.error(data.errorMessage)
             return
           }
           setToast({type: "success", message: "Route found!"})
           setWaysAndCells((prev) => {
-            return {ways: {...prev.ways, ...response.data.ways}, cells: prev.cells}
+            return {ways: {...prev.ways, ...data.ways}, cells: prev.cells}
           })
-          setRoute(response.data.route)
+          setRoute(data.route)
         })
         .catch(error => {
           setIsRouting(false)
@@ -5,6 +5,7 @@ import MapWindowTab from "./MapWindowTab";
 import MapRouting from "./MapRouting";
 import MapClients from "./MapClients";
 import {ToastBox} from "./ToastBox";
+import {readWays, waysConfig} from "./waysWire";
 
 const config = {
   headers: {
@@ -13,6 +14,11 @@ const config = {
   }
 }
 
+// Each tile holds tileSize by tileSize cells of 0.01 degrees; see MapTiles.java
+const tileZoom = 2
+const tileSize = 1 << tileZoom
+const cellsPerDegree = 100
+
 /**
  * A helper function for deepMergeWaysAndCells
  * @param currWays   the current map of way Ids to way objects
@@ -35,7 +41,8 @@ const cellsDividerHelper = (currWays, currCell, importList) => {
 /**
  * A function which takes an object containing new ways and cells and merges it
  * into another object containing existing ways and cells, then returns a new
- * object containing a union of the old and new ways and cells.
+ * object containing a union of the old and new ways and cells. Cells which are
+ * already loaded are kept as they are, since tiles can overlap loaded cells.
  *
  * @param x old ways and cells
  * @param y new ways and cells
@@ -59,8 +66,8 @@ const deepMergeWaysAndCells = (x, y) => {
     for (const [k2, v2] of Object.entries(v1)) {
       if (!z.cells[k1][k2]) {
         z.cells[k1][k2] = {roads: [], nonRoads: []}
+        cellsDividerHelper(z.ways, z.cells[k1][k2], v2)
       }
-      cellsDividerHelper(z.ways, z.cells[k1][k2], v2)
     }
   }
   return z
@@ -87,9 +94,9 @@ function MapWindow() {
    * the top-left cell, and botRightLat and botRightLon refer to the coordinates
    * of the bottom-right cell.
    *
-   * Note that this query includes both the top-left and the bottom-right cell;
-   * this would be somewhat analogous to calling:
-   * "ways  topLeftLat  topLeftLon  botRightLat-interval  botRightLon+interval"
+   * The region is fetched as the tiles covering it, rather than as one box, so
+   * that the server can answer from its tile cache, and the browser can
+   * revalidate tiles it has already fetched.
    *
    * @param topLeftLat  the latitude of the top-left cell's top-left point
    * @param topLeftLon  the longitude of the top-left cell's top-left point
@@ -101,16 +108,22 @@ function MapWindow() {
       return
     }
     setIsQuerying(true)
-    const body = {topLeftLat, topLeftLon, botRightLat, botRightLon}
-    axios.post("http://localhost:4567/ways-and-cells", body, config)
-        .then(response => {
+    // A cell's row and column are its top-left latitude and longitude, in
+    // hundredths of a degree; rows grow northwards
+    const tileOf = (degrees) => Math.floor(Math.round(degrees * cellsPerDegree) / tileSize)
+    const requests = []
+    for (let y = tileOf(botRightLat); y <= tileOf(topLeftLat); y++) {
+      for (let x = tileOf(topLeftLon); x <= tileOf(botRightLon); x++) {
+        requests.push(axios.get("http://localhost:4567/tiles/" + tileZoom + "/" + x + "/" + y,
+            waysConfig({})))
+      }
+    }
+    Promise.all(requests)
+        .then(responses => {
           setIsQuerying(false)
           setToast({type: "success", message: "Loaded map section!"})
-          if (response.data.newMap) {
-            setWaysAndCells(deepMergeWaysAndCells({ways: {}, cells: {}}, response.data))
-          } else {
-            setWaysAndCells((prev) => deepMergeWaysAndCells(prev, response.data))
-          }
+          const tiles = responses.map(readWays)
+          setWaysAndCells((prev) => tiles.reduce(deepMergeWaysAndCells, prev))
         })
         .catch(error => {
           setIsQuerying(false)
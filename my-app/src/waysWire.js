@@ -0,0 +1,166 @@
+// The compact binary format the server sends ways-and-cells, tile and route
+// responses in, when a request's Accept header lists WAYS_MEDIA_TYPE. See
+// BinaryWaysEncoder.java for the format. Decoded responses are the same
+// objects as the JSON ones:
+// {errorMessage, ways: {wayId: {startLat, startLon, endLat, endLon, type,
+// name}}, cells: {lat: {lon: [wayId]}}, route: [wayId]}
+
+export const WAYS_MEDIA_TYPE = "application/x-maps-ways"
+
+const WAYS_VERSION = 1
+const WAYS_END = 0
+const WAYS_ERROR = 1
+const WAYS_WAYS = 2
+const WAYS_CELLS = 3
+const WAYS_ROUTE = 4
+const WAYS_FIXED_POINT = 1e7
+
+/**
+ * A function which adds to an axios config what a request needs to opt in to
+ * the binary format: the Accept header, and reading the body as bytes.
+ * Responses to such requests are read with readWays.
+ *
+ * @param config an axios config
+ * @returns a new axios config
+ */
+export const waysConfig = (config) => {
+  return {
+    ...config,
+    headers: {...config.headers, "Accept": WAYS_MEDIA_TYPE + ", application/json"},
+    responseType: "arraybuffer"
+  }
+}
+
+/**
+ * A function which reads the body of a response to a request made with
+ * waysConfig, whichever format the server picked.
+ *
+ * @param response an axios response
+ * @returns the decoded response
+ */
+export const readWays = (response) => {
+  const contentType = response.headers["content-type"] || ""
+  if (contentType.startsWith(WAYS_MEDIA_TYPE)) {
+    return decodeWays(response.data)
+  }
+  return JSON.parse(new TextDecoder().decode(response.data))
+}
+
+/**
+ * A function which decodes a response in the binary format.
+ *
+ * @param buffer an ArrayBuffer, the response's body
+ * @returns the decoded response
+ */
+export const decodeWays = (buffer) => {
+  const bytes = new Uint8Array(buffer)
+  const utf8 = new TextDecoder()
+  let offset = 0
+
+  // Varints hold at most 53 bits, so plain numbers are exact
+  const readVarint = () => {
+    let value = 0
+    let scale = 1
+    let b
+    do {
+      b = bytes[offset++]
+      if (b === undefined) {
+        throw new Error("Truncated ways response")
+      }
+      value += (b & 0x7F) * scale
+      scale *= 128
+    } while (b & 0x80)
+    return value
+  }
+
+  const readZigzag = () => {
+    const value = readVarint()
+    return value % 2 === 0 ? value / 2 : -(value + 1) / 2
+  }
+
+  const readString = () => {
+    const length = readVarint()
+    const value = utf8.decode(bytes.subarray(offset, offset + length))
+    offset += length
+    return value
+  }
+
+  const strings = []
+  const readReference = () => {
+    const reference = readVarint()
+    if (reference === 0) {
+      return null
+    } else if (reference === 1) {
+      const value = readString()
+      strings.push(value)
+      return value
+    }
+    return strings[reference - 2]
+  }
+
+  if (bytes[0] !== 0x4D || bytes[1] !== 0x57 || bytes[2] !== WAYS_VERSION) {
+    throw new Error("Not a ways response")
+  }
+  offset = 3
+  const result = {ways: {}}
+  const wayIds = []
+  for (;;) {
+    const tag = bytes[offset++]
+    if (tag === WAYS_END) {
+      return result
+    } else if (tag === WAYS_ERROR) {
+      result.errorMessage = readString()
+    } else if (tag === WAYS_WAYS) {
+      let lat = 0
+      let lon = 0
+      for (let i = readVarint(); i > 0; i--) {
+        const id = readString()
+        const type = readReference()
+        const name = readReference()
+        lat += readZigzag()
+        lon += readZigzag()
+        const endLat = lat + readZigzag()
+        const endLon = lon + readZigzag()
+        wayIds.push(id)
+        result.ways[id] = {
+          startLat: lat / WAYS_FIXED_POINT,
+          startLon: lon / WAYS_FIXED_POINT,
+          endLat: endLat / WAYS_FIXED_POINT,
+          endLon: endLon / WAYS_FIXED_POINT,
+          type: type,
+          name: name
+        }
+      }
+    } else if (tag === WAYS_CELLS) {
+      const rowKeys = []
+      for (let i = readVarint(); i > 0; i--) {
+        rowKeys.push(readString())
+      }
+      const columnKeys = []
+      for (let i = readVarint(); i > 0; i--) {
+        columnKeys.push(readString())
+      }
+      result.cells = {}
+      for (const rowKey of rowKeys) {
+        const row = {}
+        for (const columnKey of columnKeys) {
+          const cell = []
+          let position = 0
+          for (let i = readVarint(); i > 0; i--) {
+            position += readZigzag()
+            cell.push(wayIds[position])
+          }
+          row[columnKey] = cell
+        }
+        result.cells[rowKey] = row
+      }
+    } else if (tag === WAYS_ROUTE) {
+      result.route = []
+      for (let i = readVarint(); i > 0; i--) {
+        result.route.push(wayIds[readVarint()])
+      }
+    } else {
+      throw new Error("Unknown ways response section " + tag)
+    }
+  }
+}
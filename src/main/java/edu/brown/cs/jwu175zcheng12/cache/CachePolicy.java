@@ -0,0 +1,20 @@
+package edu.brown.cs.jwu175zcheng12.cache;
+
+/**
+ * An enum of the ways a MyCache can choose which key-value pairs to keep once it is full.
+ */
+public enum CachePolicy {
+
+  /**
+   * Evict the least recently used pair.
+   */
+  LRU,
+
+  /**
+   * Window TinyLFU. New pairs enter a small LRU window. When they leave it, a pair is only
+   * admitted to the rest of the cache if it has been used more often than the pair it would
+   * evict, as estimated by a frequency sketch which forgets old counts over time. This keeps
+   * frequently used pairs from being flushed out by a scan of one-off keys.
+   */
+  TINY_LFU
+}
@@ -0,0 +1,93 @@
+package edu.brown.cs.jwu175zcheng12.cache;
+
+/**
+ * A count-min sketch which estimates how often each key has been used recently, in a fixed
+ * amount of memory. Each key hashes to one counter in each of DEPTH rows, and its estimate is
+ * the smallest of those counters. Counters saturate at MAX_COUNT, and once the sketch has been
+ * incremented sampleSize times every counter is halved, so old popularity fades away.
+ * <p>
+ * Updates are deliberately not synchronised: a lost increment only makes an estimate slightly
+ * low, which is cheaper than making every cache read take a shared lock.
+ */
+final class FrequencySketch {
+
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int MIN_WIDTH = 64;
+  private static final int MAX_WIDTH = 1 << 22;
+  private static final int SAMPLE_FACTOR = 10;
+  private static final int[] SEEDS = {
+      0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F
+  };
+
+  private final byte[] counters;
+  private final int widthBits;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * Constructor.
+   * @param expectedKeys roughly how many distinct keys the cache can hold
+   */
+  FrequencySketch(int expectedKeys) {
+    int width = Integer.highestOneBit(Math.max(MIN_WIDTH, Math.min(MAX_WIDTH, expectedKeys)));
+    if (width < expectedKeys && width < MAX_WIDTH) {
+      width <<= 1;
+    }
+    this.widthBits = Integer.numberOfTrailingZeros(width);
+    this.counters = new byte[DEPTH << this.widthBits];
+    this.sampleSize = SAMPLE_FACTOR * width;
+  }
+
+  /**
+   * Method to record one use of a key.
+   * @param hash the key's hash code
+   */
+  void increment(int hash) {
+    boolean added = false;
+    for (int row = 0; row < DEPTH; row++) {
+      int index = this.indexOf(hash, row);
+      if (this.counters[index] < MAX_COUNT) {
+        this.counters[index]++;
+        added = true;
+      }
+    }
+    if (added && ++this.additions >= this.sampleSize) {
+      this.reset();
+    }
+  }
+
+  /**
+   * Method to estimate how often a key has been used recently.
+   * @param hash the key's hash code
+   * @return the estimated number of uses, at most MAX_COUNT
+   */
+  int frequency(int hash) {
+    int frequency = MAX_COUNT;
+    for (int row = 0; row < DEPTH; row++) {
+      frequency = Math.min(frequency, this.counters[this.indexOf(hash, row)]);
+    }
+    return frequency;
+  }
+
+  /**
+   * Method used by the sketch to age its counts, by halving every counter.
+   */
+  private void reset() {
+    for (int i = 0; i < this.counters.length; i++) {
+      this.counters[i] >>= 1;
+    }
+    this.additions = 0;
+  }
+
+  /**
+   * Method to find a key's counter in one row.
+   * @param hash the key's hash code
+   * @param row the row of counters
+   * @return the index of the key's counter in that row
+   */
+  private int indexOf(int hash, int row) {
+    int spread = (hash ^ (hash >>> 16)) * SEEDS[row];
+    return (row << this.widthBits) + (spread >>> (Integer.SIZE - this.widthBits));
+  }
+}
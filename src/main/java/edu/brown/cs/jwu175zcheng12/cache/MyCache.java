@@ -1,22 +1,50 @@
 package edu.brown.cs.jwu175zcheng12.cache;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * A caching class. It stores key and value objects with different sizes, making sure that the
- * cache size does not exceed a specified limit.
+ * cache size does not exceed a specified limit. Once it does, pairs are evicted according to the
+ * cache's CachePolicy: least recently used first, or by Window TinyLFU.
+ * <p>
+ * The cache is safe to share between threads. Keys are spread over a number of segments, each
+ * with access-ordered LinkedHashMaps behind its own lock, so threads working on different
+ * segments do not contend. Every read or write stamps its pair from one shared clock, so eviction
+ * can pick the least recently used pair across all segments: it is the oldest of the segments'
+ * heads. Evictions take one more lock, so only one thread evicts at a time.
+ * <p>
+ * Under TINY_LFU, each segment has a window map as well as a main map. New pairs enter the
+ * window, which holds WINDOW_PERCENT of the cache's size. The least recently used pair to leave
+ * the window is admitted to the main maps only if the FrequencySketch says it has been used more
+ * often than the main maps' least recently used pair; otherwise it is the one evicted.
  * @param <K> the key type of the cache
  * @param <V> the value type of the cache
  */
 public class MyCache<K, V> {
 
-  private final Map<K, CacheObject<V>> cache;
+  private static final int DEFAULT_SEGMENTS = 16;
+  private static final int WINDOW_PERCENT = 1;
+  // The sketch is sized assuming pairs are a quarter of the largest allowed
+  private static final int PAIRS_PER_MAX_PAIR = 4;
+
+  private final Segment<K, V>[] segments;
   private final int maxCacheSize;
   private final int maxKeySize;
   private final int maxValueSize;
-  private int curSize;
+  private final long maxWindowSize;
+  private final FrequencySketch sketch;
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AtomicLong curSize = new AtomicLong();
+  private final AtomicLong windowSize = new AtomicLong();
+  private final AtomicLong clock = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
 
   /**
    * Constructor.
@@ -25,16 +53,70 @@ public class MyCache<K, V> {
    * @param maxValueSize max value size
    */
   public MyCache(int maxCacheSize, int maxKeySize, int maxValueSize) {
-    this.cache = new LinkedHashMap<>();
+    this(maxCacheSize, maxKeySize, maxValueSize, DEFAULT_SEGMENTS, CachePolicy.LRU);
+  }
+
+  /**
+   * Constructor.
+   * @param maxCacheSize max cache size
+   * @param maxKeySize max key size
+   * @param maxValueSize max value size
+   * @param policy how to choose which pairs to keep once the cache is full
+   */
+  public MyCache(int maxCacheSize, int maxKeySize, int maxValueSize, CachePolicy policy) {
+    this(maxCacheSize, maxKeySize, maxValueSize, DEFAULT_SEGMENTS, policy);
+  }
+
+  /**
+   * Constructor.
+   * @param maxCacheSize max cache size
+   * @param maxKeySize max key size
+   * @param maxValueSize max value size
+   * @param numSegments the number of independently locked segments, rounded up to a power of two
+   */
+  public MyCache(int maxCacheSize, int maxKeySize, int maxValueSize, int numSegments) {
+    this(maxCacheSize, maxKeySize, maxValueSize, numSegments, CachePolicy.LRU);
+  }
+
+  /**
+   * Constructor.
+   * @param maxCacheSize max cache size
+   * @param maxKeySize max key size
+   * @param maxValueSize max value size
+   * @param numSegments the number of independently locked segments, rounded up to a power of two
+   * @param policy how to choose which pairs to keep once the cache is full
+   */
+  @SuppressWarnings("unchecked")
+  public MyCache(int maxCacheSize, int maxKeySize, int maxValueSize, int numSegments,
+                 CachePolicy policy) {
+    if (numSegments <= 0) {
+      throw new IllegalArgumentException("A cache needs at least one segment.");
+    }
+    int size = Integer.highestOneBit(numSegments);
+    if (size < numSegments) {
+      size <<= 1;
+    }
+    this.segments = (Segment<K, V>[]) new Segment<?, ?>[size];
+    for (int i = 0; i < size; i++) {
+      this.segments[i] = new Segment<>();
+    }
     this.maxCacheSize = maxCacheSize;
     this.maxKeySize = maxKeySize;
     this.maxValueSize = maxValueSize;
-    this.curSize = 0;
+    if (policy == CachePolicy.TINY_LFU) {
+      this.maxWindowSize = Math.max(1, (long) maxCacheSize * WINDOW_PERCENT / 100);
+      long maxPair = Math.max(1, (long) maxKeySize + maxValueSize);
+      this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE,
+          (long) maxCacheSize * PAIRS_PER_MAX_PAIR / maxPair));
+    } else {
+      this.maxWindowSize = 0;
+      this.sketch = null;
+    }
   }
 
   /**
    * Method to add a key-value pair to the cache, checking the size and adjusting the cache
-   * accordingly.
+   * accordingly. Adding a key which is already cached replaces its value and size.
    * @param key the key to add
    * @param value the value which corresponds to the given key
    * @param keySize the cache size taken up by the key
@@ -42,50 +124,260 @@ public class MyCache<K, V> {
    * @return true if the pair was added successfully, false otherwise
    */
   public boolean addToCache(K key, V value, int keySize, int valueSize) {
-    if (keySize <= this.maxKeySize && valueSize <= this.maxValueSize) {
-      this.cache.put(key, new CacheObject<>(value, valueSize + keySize));
-      this.curSize += keySize + valueSize;
-      while (this.curSize > this.maxCacheSize) {
-        this.removeOldest();
+    if (keySize > this.maxKeySize || valueSize > this.maxValueSize) {
+      return false;
+    }
+    if (this.sketch != null) {
+      this.sketch.increment(key.hashCode());
+    }
+    Segment<K, V> segment = this.segmentFor(key);
+    CacheEntry<K, V> entry =
+        new CacheEntry<>(key, new CacheObject<>(value, keySize + valueSize));
+    segment.lock.lock();
+    try {
+      entry.lastAccess = this.clock.incrementAndGet();
+      // An overwritten pair stays where it was; a new one starts in the window, if any
+      CacheEntry<K, V> old = segment.window.remove(key);
+      if (old == null) {
+        old = segment.main.remove(key);
+      }
+      entry.inWindow = old != null ? old.inWindow : this.sketch != null;
+      (entry.inWindow ? segment.window : segment.main).put(key, entry);
+      long delta = entry.object.getSize() - (old == null ? 0 : old.object.getSize());
+      this.curSize.addAndGet(delta);
+      if (entry.inWindow) {
+        this.windowSize.addAndGet(delta);
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+    // Evict outside the segment's lock, as eviction locks other segments
+    this.evictIfNeeded();
+    return true;
+  }
+
+  /**
+   * Method used by the cache to evict pairs until the window and the whole cache are within
+   * their sizes.
+   */
+  private void evictIfNeeded() {
+    if (this.curSize.get() <= this.maxCacheSize
+        && this.windowSize.get() <= this.maxWindowSize) {
+      return;
+    }
+    this.evictionLock.lock();
+    try {
+      while (this.windowSize.get() > this.maxWindowSize) {
+        CacheEntry<K, V> candidate = this.moveOldestWindowEntryToMain();
+        if (candidate == null) {
+          break;
+        }
+        this.admit(candidate);
+      }
+      while (this.curSize.get() > this.maxCacheSize) {
+        if (!this.removeOldest()) {
+          break;
+        }
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Method used by the cache to move the least recently used pair in the window to the main
+   * maps, as a candidate for admission.
+   * @return the moved pair, or null if the window is empty
+   */
+  private CacheEntry<K, V> moveOldestWindowEntryToMain() {
+    Segment<K, V> oldest = null;
+    long oldestAccess = Long.MAX_VALUE;
+    for (Segment<K, V> segment : this.segments) {
+      segment.lock.lock();
+      try {
+        if (!segment.window.isEmpty()) {
+          long access = segment.window.values().iterator().next().lastAccess;
+          if (access < oldestAccess) {
+            oldestAccess = access;
+            oldest = segment;
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    oldest.lock.lock();
+    try {
+      Iterator<CacheEntry<K, V>> iterator = oldest.window.values().iterator();
+      if (!iterator.hasNext()) {
+        return null;
+      }
+      CacheEntry<K, V> candidate = iterator.next();
+      iterator.remove();
+      this.windowSize.addAndGet(-candidate.object.getSize());
+      candidate.inWindow = false;
+      candidate.lastAccess = this.clock.incrementAndGet();
+      oldest.main.put(candidate.key, candidate);
+      return candidate;
+    } finally {
+      oldest.lock.unlock();
+    }
+  }
+
+  /**
+   * Method used by the cache to make room for a pair which has just left the window. While the
+   * cache is too big, the pair competes with the main maps' least recently used pair, and
+   * whichever has been used less often is evicted.
+   * @param candidate the pair which has just left the window
+   */
+  private void admit(CacheEntry<K, V> candidate) {
+    while (this.curSize.get() > this.maxCacheSize) {
+      CacheEntry<K, V> victim = this.oldestMainEntry(candidate);
+      if (victim == null) {
+        return;
+      }
+      int candidateFrequency = this.sketch.frequency(candidate.key.hashCode());
+      int victimFrequency = this.sketch.frequency(victim.key.hashCode());
+      if (candidateFrequency <= victimFrequency) {
+        this.remove(candidate);
+        return;
       }
-      return true;
+      this.remove(victim);
     }
-    return false;
   }
 
   /**
-   * Method used by the cache to remove the oldest key-value pair in the cache
+   * Method used by the cache to find the least recently used pair in the main maps.
+   * @param excluded a pair to skip over, or null
+   * @return that pair, or null if there is none
+   */
+  private CacheEntry<K, V> oldestMainEntry(CacheEntry<K, V> excluded) {
+    CacheEntry<K, V> oldest = null;
+    for (Segment<K, V> segment : this.segments) {
+      segment.lock.lock();
+      try {
+        for (CacheEntry<K, V> entry : segment.main.values()) {
+          if (entry != excluded) {
+            if (oldest == null || entry.lastAccess < oldest.lastAccess) {
+              oldest = entry;
+            }
+            break;
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return oldest;
+  }
+
+  /**
+   * Method used by the cache to remove the least recently used key-value pair in the main maps
    * and adjust the size of the cache accordingly.
+   * @return true if a pair was removed, false if the main maps were empty
+   */
+  private boolean removeOldest() {
+    CacheEntry<K, V> oldest = this.oldestMainEntry(null);
+    if (oldest == null) {
+      return false;
+    }
+    // It may have been used or replaced since, but is still a fair victim
+    this.remove(oldest);
+    return true;
+  }
+
+  /**
+   * Method used by the cache to evict one pair from the main maps, unless it has been replaced
+   * since it was chosen.
+   * @param entry the pair to evict
    */
-  private void removeOldest() {
-    Map.Entry<K, CacheObject<V>> entry = cache.entrySet().iterator().next();
-    this.curSize -= entry.getValue().getSize();
-    this.cache.remove(entry.getKey());
+  private void remove(CacheEntry<K, V> entry) {
+    Segment<K, V> segment = this.segmentFor(entry.key);
+    segment.lock.lock();
+    try {
+      if (!segment.main.remove(entry.key, entry)) {
+        return;
+      }
+      this.curSize.addAndGet(-entry.object.getSize());
+    } finally {
+      segment.lock.unlock();
+    }
+    this.evictions.increment();
   }
 
   /**
-   * Getter method for a value given a specific key.
+   * Getter method for a value given a specific key, which marks the pair as recently used.
    * @param key the key to search for
-   * @return the corresponding value of the key in the hashmap
+   * @return the corresponding value of the key in the cache, or null if it is not cached
    */
   public V get(K key) {
-    return this.cache.get(key).getValue();
+    if (this.sketch != null) {
+      this.sketch.increment(key.hashCode());
+    }
+    Segment<K, V> segment = this.segmentFor(key);
+    CacheEntry<K, V> entry;
+    segment.lock.lock();
+    try {
+      entry = segment.window.get(key);
+      if (entry == null) {
+        entry = segment.main.get(key);
+      }
+      if (entry != null) {
+        entry.lastAccess = this.clock.incrementAndGet();
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+    if (entry == null) {
+      this.misses.increment();
+      return null;
+    }
+    this.hits.increment();
+    return entry.object.getValue();
   }
 
   /**
-   * Method to check if a key exists in this cache.
+   * Method to check if a key exists in this cache. This does not count as a use of the pair,
+   * nor as a hit or miss.
    * @param key the key to search for
    * @return true if the key is contained, false otherwise
    */
   public boolean containsKey(K key) {
-    return this.cache.containsKey(key);
+    Segment<K, V> segment = this.segmentFor(key);
+    segment.lock.lock();
+    try {
+      return segment.window.containsKey(key) || segment.main.containsKey(key);
+    } finally {
+      segment.lock.unlock();
+    }
   }
 
   /**
-   * Method used to reset the cache.
+   * Method used to reset the cache. The hit, miss and eviction counts are kept.
    */
   public void clearCache() {
-    this.cache.clear();
+    for (Segment<K, V> segment : this.segments) {
+      segment.lock.lock();
+      try {
+        long removedFromWindow = 0;
+        for (CacheEntry<K, V> entry : segment.window.values()) {
+          removedFromWindow += entry.object.getSize();
+        }
+        long removed = removedFromWindow;
+        for (CacheEntry<K, V> entry : segment.main.values()) {
+          removed += entry.object.getSize();
+        }
+        segment.window.clear();
+        segment.main.clear();
+        this.windowSize.addAndGet(-removedFromWindow);
+        this.curSize.addAndGet(-removed);
+      } finally {
+        segment.lock.unlock();
+      }
+    }
   }
 
   /**
@@ -93,6 +385,77 @@ public class MyCache<K, V> {
    * @return the current size of the cache
    */
   public int getSize() {
-    return this.curSize;
+    return (int) this.curSize.get();
+  }
+
+  /**
+   * Getter method for the number of gets which found their key.
+   * @return the number of cache hits
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Getter method for the number of gets which did not find their key.
+   * @return the number of cache misses
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Getter method for the number of pairs evicted to keep the cache within its size.
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Method to find the segment which holds a key.
+   * @param key the key to search for
+   * @return the segment for that key
+   */
+  private Segment<K, V> segmentFor(K key) {
+    int hash = key.hashCode();
+    // Spread the high bits down, as HashMap does
+    hash ^= hash >>> 16;
+    return this.segments[hash & (this.segments.length - 1)];
+  }
+
+  /**
+   * A segment of the cache: its access-ordered maps and the lock guarding them.
+   * @param <K> the key type of the cache
+   * @param <V> the value type of the cache
+   */
+  private static final class Segment<K, V> {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, CacheEntry<K, V>> window =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, CacheEntry<K, V>> main =
+        new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * A cached CacheObject, with its key and when it was last used.
+   * @param <K> the key type of the cache
+   * @param <V> the value type of the cache
+   */
+  private static final class CacheEntry<K, V> {
+    private final K key;
+    private final CacheObject<V> object;
+    private long lastAccess;
+    private boolean inWindow;
+
+    /**
+     * Constructor.
+     * @param key the key of the pair
+     * @param object the CacheObject to hold
+     */
+    private CacheEntry(K key, CacheObject<V> object) {
+      this.key = key;
+      this.object = object;
+    }
   }
 }
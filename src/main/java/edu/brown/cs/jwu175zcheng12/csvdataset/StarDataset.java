@@ -1,6 +1,7 @@
 package edu.brown.cs.jwu175zcheng12.csvdataset;
 
-import edu.brown.cs.jwu175zcheng12.kdtree.KDTree;
+import edu.brown.cs.jwu175zcheng12.kdtree.FlatKDTree;
+import edu.brown.cs.jwu175zcheng12.kdtree.NeighborIndex;
 import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
 import edu.brown.cs.jwu175zcheng12.stars.Star;
 
@@ -28,7 +29,7 @@ public final class StarDataset extends GeneralCSVDataset<Star> {
   // class that implements the List interface to store your star data".
   private Map<String, Star> starNameMap;
   private Set<Integer> starIdSet;
-  private KDTree<Star> starKDTree;
+  private NeighborIndex<Star> starKDTree;
   private static final double HALF = 0.5;
 
   // ---------------------- Constructor and Overrides ----------------------
@@ -55,7 +56,7 @@ public final class StarDataset extends GeneralCSVDataset<Star> {
       return;
     }
     // Generate KDTree
-    this.starKDTree = new KDTree<>(3, new ArrayList<>(super.getAllData()));
+    this.starKDTree = new FlatKDTree<>(3, new ArrayList<>(super.getAllData()));
   }
 
   @Override
@@ -101,10 +102,10 @@ public final class StarDataset extends GeneralCSVDataset<Star> {
    *
    * @param list a list of Stars
    * @param map  a HashMap of Star names to Stars
-   * @param tree a KDTree of Stars
+   * @param tree a KDTree (or other NeighborIndex) of Stars
    */
   public void setStarListHashAndTree(List<Star> list, Map<String, Star> map,
-                                     KDTree<Star> tree) {
+                                     NeighborIndex<Star> tree) {
     assert list.size() == map.size();
     super.setAllData(list);
     this.starNameMap = map;
@@ -1,6 +1,7 @@
 package edu.brown.cs.jwu175zcheng12.graph;
 
 import edu.brown.cs.jwu175zcheng12.kdtree.ObjectInNDSpace;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -11,6 +12,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
  * An abstract class which represents a GeneralNode in some unknown-dimensional
@@ -70,82 +72,75 @@ public abstract class GeneralNode<N extends GeneralNode<N, E>, E extends General
   /**
    * A function which uses an A* algorithm to find the optimal path,
    * represented as an ordered list of E's, from this N to the target N where
-   * N extends GeneralNode.
+   * N extends GeneralNode. The heuristic is the "distanceTo()" the target N.
    *
    * @param targetNode the target N (where N extends GeneralNode!)
    * @return a List of E's that make up the shortest path from start to end
    */
   public List<E> runDijkstraStar(N targetNode) {
-    return aStarHelper(targetNode, 1.0);
+    return runAStar(targetNode, (node, target) -> node.distanceTo(target));
   }
 
   /**
-   * A helper function which uses an A* algorithm to find the optimal path,
-   * represented as an ordered list of E, from this N to the target N. The
-   * heuristic is the "distanceTo()" the target N, and the input heuristicWeight
-   * determines how much weight to give to this heuristic.
+   * A function which uses an A* algorithm with the given heuristic to find
+   * the optimal path, represented as an ordered list of E, from this N to the
+   * target N. Passing a heuristic which always returns 0 gives Dijkstra's
+   * algorithm.
    *
-   * @param targetNode      the target N
-   * @param heuristicWeight a double, by which to scale the distance heuristic
+   * @param targetNode the target N
+   * @param heuristic  a Heuristic, which must be admissible and consistent
+   *                   for the returned path to be optimal
    * @return a List of E which represents the optimal path from this N to the
    * target N. The List will be empty if the targetNode is this N. Null will be
    * returned if the targetNode cannot be reached from this N.
    */
-  private List<E> aStarHelper(N targetNode, double heuristicWeight) {
+  @SuppressWarnings("unchecked")
+  public List<E> runAStar(N targetNode, Heuristic<N> heuristic) {
+    N start = (N) this;
 
     // Check if the start node and the end node are the same
     if (this.equals(targetNode)) {
       return new ArrayList<E>();
     }
 
-    Map<GeneralNode<N, E>, Double> gScore = new HashMap<>();
-    Map<GeneralNode<N, E>, Double> fScore = new HashMap<>();
-
-    /**
-     * Comparator class in order to compare the node scores stored in the fScore
-     * Map.
-     */
-    class NodeComparator implements Comparator<GeneralNode<N, E>> {
-      public int compare(GeneralNode<N, E> a, GeneralNode<N, E> b) {
-        return Double.compare(fScore.get(a), fScore.get(b));
-      }
-    }
-
-    PriorityQueue<GeneralNode<N, E>> unvisited = new PriorityQueue<>(new NodeComparator());
-
-    // Set the g score and the f score of the start node and re-add it to the priority queue
-    gScore.put(this, (double) 0);
-    fScore.put(this, this.distanceTo(targetNode));
-    unvisited.add(this);
-
-    HashSet<GeneralNode<N, E>> visited = new HashSet<>();
-
+    Map<N, Double> gScore = new HashMap<>();
     Map<N, E> cameFrom = new HashMap<>();
-
-    while (unvisited.peek() != null) {
-      GeneralNode<N, E> current = unvisited.poll();
-
-      if (!visited.contains(current)) {
-        for (E edge : this.getEdgesOut()) {
-          N next = edge.getEnd();
-          double d = gScore.get(current) + edge.getWeight();
-          if (!gScore.containsKey(next) || d <= gScore.get(next)) {
-            cameFrom.put(next, edge);
-            gScore.put(next, d);
-            double heuristic = 0;
-            if (heuristicWeight == 0) {
-              heuristic = heuristicWeight * next.distanceTo(targetNode);
-            }
-            fScore.put(next, d + heuristic);
-            unvisited.add(next);
-          }
+    Set<N> visited = new HashSet<>();
+    // Queue (node, fScore) pairs; stale pairs are skipped when polled
+    PriorityQueue<GeneralPair<N, Double>> unvisited = new PriorityQueue<>(
+        Comparator.comparingDouble(GeneralPair::getSecond));
+
+    // Set the g score and the f score of the start node
+    gScore.put(start, 0.);
+    unvisited.add(
+        new GeneralPair<>(start, heuristic.estimate(start, targetNode)));
+
+    while (!unvisited.isEmpty()) {
+      N current = unvisited.poll().getFirst();
+      if (!visited.add(current)) {
+        continue;
+      }
+      if (current.equals(targetNode)) {
+        break;
+      }
+      for (E edge : current.getEdgesOut()) {
+        N next = edge.getEnd();
+        double d = gScore.get(current) + edge.getWeight();
+        if (!visited.contains(next)
+            && (!gScore.containsKey(next) || d < gScore.get(next))) {
+          cameFrom.put(next, edge);
+          gScore.put(next, d);
+          unvisited.add(new GeneralPair<>(next,
+              d + heuristic.estimate(next, targetNode)));
         }
       }
-      visited.add(current);
     }
 
+    // Return null if no path exists
+    if (!cameFrom.containsKey(targetNode)) {
+      return null;
+    }
     List<E> path = new ArrayList<>();
-
     E lastEdge = cameFrom.get(targetNode);
     while (lastEdge != null) {
       path.add(lastEdge);
@@ -0,0 +1,24 @@
+package edu.brown.cs.jwu175zcheng12.graph;
+
+/**
+ * An interface which represents an A* heuristic: an estimate of the distance
+ * left from some node to a target node.
+ * <p>
+ * For A* to return optimal paths, the estimate must never exceed the true
+ * distance (admissible), and should never drop by more than an edge's weight
+ * across that edge (consistent).
+ *
+ * @param <N> the type of node which this Heuristic estimates distances for
+ */
+@FunctionalInterface
+public interface Heuristic<N> {
+
+  /**
+   * A function which estimates the distance from a node to a target node.
+   *
+   * @param node   the node to estimate from
+   * @param target the target node
+   * @return a lower bound on the distance from node to target
+   */
+  double estimate(N node, N target);
+}
@@ -0,0 +1,213 @@
+package edu.brown.cs.jwu175zcheng12.graph;
+
+import java.util.Arrays;
+
+/**
+ * A class which represents an indexed 4-ary min-heap of dense int ids, keyed
+ * by primitive doubles. Every id in [0, capacity) can be in the heap at most
+ * once, and its key can be lowered in place (decrease-key), so searches never
+ * need to push stale duplicates.
+ * <p>
+ * The heap allocates nothing after construction, and clear() only touches
+ * the ids still in the heap, so one IndexedMinHeap can be reused across many
+ * searches.
+ */
+public final class IndexedMinHeap {
+
+  private static final int ARITY = 4;
+
+  private final int[] heap;
+  private final double[] keys;
+  private final int[] position;
+  private int size = 0;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param capacity an int, one more than the largest id which will be put
+   *                 into this heap
+   */
+  public IndexedMinHeap(int capacity) {
+    this.heap = new int[capacity];
+    this.keys = new double[capacity];
+    this.position = new int[capacity];
+    Arrays.fill(this.position, -1);
+  }
+
+  /**
+   * A function which checks whether the heap is empty.
+   *
+   * @return true if the heap is empty, false otherwise
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * A getter function for the number of ids in the heap.
+   *
+   * @return the number of ids in the heap
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * A function which checks whether an id is currently in the heap.
+   *
+   * @param id an int, the id to look for
+   * @return true if the id is in the heap, false otherwise
+   */
+  public boolean contains(int id) {
+    return this.position[id] >= 0;
+  }
+
+  /**
+   * A getter function for the smallest key in the heap. The heap must not be
+   * empty.
+   *
+   * @return the smallest key in the heap
+   */
+  public double peekKey() {
+    return this.keys[0];
+  }
+
+  /**
+   * A getter function for the id with the smallest key in the heap. The heap
+   * must not be empty.
+   *
+   * @return the id with the smallest key in the heap
+   */
+  public int peek() {
+    return this.heap[0];
+  }
+
+  /**
+   * A function which inserts an id with the given key, or lowers the key of
+   * an id already in the heap. Keys are never raised.
+   *
+   * @param id  an int, the id to insert or update
+   * @param key a double, the new key of that id
+   * @return true if the heap changed, false if the id already had a key no
+   * greater than the given one
+   */
+  public boolean insertOrDecrease(int id, double key) {
+    int pos = this.position[id];
+    if (pos < 0) {
+      pos = this.size++;
+    } else if (this.keys[pos] <= key) {
+      return false;
+    }
+    siftUp(pos, id, key);
+    return true;
+  }
+
+  /**
+   * A function which inserts an id with the given key, or changes the key of
+   * an id already in the heap, in either direction.
+   *
+   * @param id  an int, the id to insert or update
+   * @param key a double, the new key of that id
+   */
+  public void update(int id, double key) {
+    int pos = this.position[id];
+    if (pos < 0) {
+      siftUp(this.size++, id, key);
+    } else if (key < this.keys[pos]) {
+      siftUp(pos, id, key);
+    } else {
+      siftDown(pos, id, key);
+    }
+  }
+
+  /**
+   * A function which removes and returns the id with the smallest key. The
+   * heap must not be empty.
+   *
+   * @return the id which had the smallest key
+   */
+  public int poll() {
+    int top = this.heap[0];
+    this.position[top] = -1;
+    int last = --this.size;
+    if (last > 0) {
+      siftDown(0, this.heap[last], this.keys[last]);
+    }
+    return top;
+  }
+
+  /**
+   * A function which removes every id from the heap.
+   */
+  public void clear() {
+    for (int i = 0; i < this.size; i++) {
+      this.position[this.heap[i]] = -1;
+    }
+    this.size = 0;
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which moves an id up from a hole at pos until its
+   * parent's key is no greater than its own.
+   *
+   * @param pos an int, the position of the hole
+   * @param id  an int, the id to place
+   * @param key a double, the key of that id
+   */
+  private void siftUp(int pos, int id, double key) {
+    while (pos > 0) {
+      int parent = (pos - 1) / ARITY;
+      if (this.keys[parent] <= key) {
+        break;
+      }
+      place(pos, this.heap[parent], this.keys[parent]);
+      pos = parent;
+    }
+    place(pos, id, key);
+  }
+
+  /**
+   * A helper function which moves an id down from a hole at pos until none
+   * of its children has a smaller key.
+   *
+   * @param pos an int, the position of the hole
+   * @param id  an int, the id to place
+   * @param key a double, the key of that id
+   */
+  private void siftDown(int pos, int id, double key) {
+    while (true) {
+      int firstChild = pos * ARITY + 1;
+      if (firstChild >= this.size) {
+        break;
+      }
+      int lastChild = Math.min(firstChild + ARITY, this.size);
+      int minChild = firstChild;
+      for (int child = firstChild + 1; child < lastChild; child++) {
+        if (this.keys[child] < this.keys[minChild]) {
+          minChild = child;
+        }
+      }
+      if (this.keys[minChild] >= key) {
+        break;
+      }
+      place(pos, this.heap[minChild], this.keys[minChild]);
+      pos = minChild;
+    }
+    place(pos, id, key);
+  }
+
+  /**
+   * A helper function which writes an id and its key into a position.
+   *
+   * @param pos an int, the heap position
+   * @param id  an int, the id
+   * @param key a double, the key of that id
+   */
+  private void place(int pos, int id, double key) {
+    this.heap[pos] = id;
+    this.keys[pos] = key;
+    this.position[id] = pos;
+  }
+}
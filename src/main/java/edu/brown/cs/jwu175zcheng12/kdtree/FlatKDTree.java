@@ -0,0 +1,519 @@
+package edu.brown.cs.jwu175zcheng12.kdtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A class which represents a KDTree stored as flat primitive arrays, rather
+ * than as a graph of KDTreeNodes.
+ * <p>
+ * The tree is implicit in the order of its points: any range [lo, hi) of
+ * positions is a subtree whose root, the median along that depth's axis, is
+ * at position (lo + hi) / 2, with the lower half of the range to its left and
+ * the upper half to its right. Axes cycle with depth. Point coordinates sit
+ * in one double array in this order, dim per point, next to an int array of
+ * each point's index into the original list, so a query touches no boxed
+ * Doubles and every subtree is contiguous in memory.
+ *
+ * @param <C> the type of the data stored at each point
+ */
+public class FlatKDTree<C extends ObjectInNDSpace> implements NeighborIndex<C> {
+
+  private final int maxDim;
+  private final List<C> items;
+  private final double[] coordinates;
+  private final int[] payload;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class, which builds the tree from a list.
+   *
+   * @param dim            the number of dimensions of every point
+   * @param coordBasedList the list of points to store, which is not modified
+   */
+  public FlatKDTree(int dim, List<C> coordBasedList) {
+    if (dim <= 0) {
+      throw new Error(
+          "ERROR: KDTrees can only have positive dimensions, Input Dim: " + dim);
+    }
+    this.maxDim = dim;
+    this.items = new ArrayList<>(coordBasedList);
+    int size = this.items.size();
+    double[] unordered = new double[size * dim];
+    for (int i = 0; i < size; i++) {
+      C item = this.items.get(i);
+      if (item.getNumDimensions() != dim) {
+        throw new Error("ERROR: Dimension Mismatch, Expected coordinates to have "
+            + dim
+            + " dimensions. Offending Coordinate Based Data: "
+            + item);
+      }
+      for (int d = 0; d < dim; d++) {
+        unordered[i * dim + d] = item.getNthCoordinate(d);
+      }
+    }
+    this.payload = arrange(unordered, dim);
+    this.coordinates = new double[size * dim];
+    for (int pos = 0; pos < size; pos++) {
+      System.arraycopy(unordered, this.payload[pos] * dim,
+          this.coordinates, pos * dim, dim);
+    }
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the number of dimensions of this tree.
+   *
+   * @return the number of dimensions of every point in this tree
+   */
+  public int getMaxDim() {
+    return this.maxDim;
+  }
+
+  /**
+   * A getter function for the number of points in this tree.
+   *
+   * @return the number of points in this tree
+   */
+  public int size() {
+    return this.payload.length;
+  }
+
+  // ------------------------------- Searching -----------------------------
+
+  @Override
+  public List<C> findKNearestNeighbors(int k, Double[] target) {
+    if (k < 0) {
+      throw new Error("ERROR: Cannot find a negative number of Neighbors");
+    }
+    double[] query = unbox(target);
+    if (k == 0 || this.payload.length == 0) {
+      return new ArrayList<>(0);
+    }
+    // Find the k-th smallest distance, then everything at most that far
+    double kthDist = Double.POSITIVE_INFINITY;
+    if (k < this.payload.length) {
+      double[] heap = new double[k];
+      Arrays.fill(heap, Double.POSITIVE_INFINITY);
+      kthDistance(query, 0, this.payload.length, 0, heap);
+      kthDist = heap[0];
+    }
+    List<C> results = collectWithin(query, kthDist);
+    // Shuffle the Neighbors tied for the k-th place, then drop the extras
+    if (results.size() > k) {
+      int firstTie = k - 1;
+      while (firstTie > 0
+          && squaredDistance(results.get(firstTie - 1), query) == kthDist) {
+        firstTie--;
+      }
+      Collections.shuffle(results.subList(firstTie, results.size()));
+      return new ArrayList<>(results.subList(0, k));
+    }
+    return results;
+  }
+
+  @Override
+  public List<C> findRadiusSearch(Double r, Double[] target) {
+    if (r < 0) {
+      throw new Error("ERROR: Radius must be non negative");
+    }
+    return collectWithin(unbox(target), r * r);
+  }
+
+  @Override
+  public C findNearestNeighbor(double[] target) {
+    if (target.length != this.maxDim) {
+      throw new Error("ERROR: Mismatched Dimension, input coordinates have "
+          + target.length
+          + " dimensions, expected "
+          + this.maxDim
+          + " Dimensions!");
+    }
+    double[] best = {Double.POSITIVE_INFINITY};
+    int[] bestPos = {-1};
+    nearest(target, 0, this.payload.length, 0, best, bestPos);
+    return bestPos[0] < 0 ? null : this.items.get(this.payload[bestPos[0]]);
+  }
+
+  // --------------------------- Tree Construction -------------------------
+
+  /**
+   * A function which arranges points into the implicit layout used by this
+   * class, by selecting each range's median in place. Runs in O(n log n)
+   * expected time; ranges of more than KDTreeBuilder.PARALLEL_THRESHOLD points
+   * have their halves arranged in parallel on the common ForkJoinPool.
+   *
+   * @param coordinates a double array of points, dim coordinates each
+   * @param dim         the number of dimensions of every point
+   * @return an int array, the index of the point at each tree position
+   */
+  public static int[] arrange(double[] coordinates, int dim) {
+    int[] order = new int[coordinates.length / dim];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    if (order.length > KDTreeBuilder.PARALLEL_THRESHOLD) {
+      ForkJoinPool.commonPool()
+          .invoke(new ArrangeTask(order, coordinates, dim, 0, order.length, 0));
+    } else {
+      arrange(order, coordinates, dim, 0, order.length, 0);
+    }
+    return order;
+  }
+
+  /**
+   * A helper function which arranges one range of positions into a subtree.
+   *
+   * @param order       an int array, the index of the point at each position
+   * @param coordinates a double array of points, dim coordinates each
+   * @param dim         the number of dimensions of every point
+   * @param lo          an int, the start of the range (inclusive)
+   * @param hi          an int, the end of the range (exclusive)
+   * @param depth       an int, the depth of the range's root
+   */
+  private static void arrange(int[] order, double[] coordinates, int dim,
+                              int lo, int hi, int depth) {
+    if (hi - lo <= 1) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    select(order, coordinates, dim, depth % dim, lo, hi, mid);
+    arrange(order, coordinates, dim, lo, mid, depth + 1);
+    arrange(order, coordinates, dim, mid + 1, hi, depth + 1);
+  }
+
+  /**
+   * A helper function which partially sorts a range of positions along one
+   * axis, so that position k holds the point which belongs there, with
+   * nothing greater before it and nothing smaller after it. Uses a three-way
+   * partition, so runs of equal coordinates (common in gridded data) stay
+   * linear.
+   *
+   * @param order       an int array, the index of the point at each position
+   * @param coordinates a double array of points, dim coordinates each
+   * @param dim         the number of dimensions of every point
+   * @param axis        an int, the axis to select along
+   * @param lo          an int, the start of the range (inclusive)
+   * @param hi          an int, the end of the range (exclusive)
+   * @param k           an int, the position to select
+   */
+  private static void select(int[] order, double[] coordinates, int dim,
+                             int axis, int lo, int hi, int k) {
+    while (hi - lo > 1) {
+      double pivot = coordinates[order[(lo + hi) >>> 1] * dim + axis];
+      int lt = lo;
+      int i = lo;
+      int gt = hi;
+      while (i < gt) {
+        double value = coordinates[order[i] * dim + axis];
+        if (value < pivot) {
+          swap(order, lt++, i++);
+        } else if (value > pivot) {
+          swap(order, i, --gt);
+        } else {
+          i++;
+        }
+      }
+      if (k < lt) {
+        hi = lt;
+      } else if (k >= gt) {
+        lo = gt;
+      } else {
+        return;
+      }
+    }
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which walks a subtree depth-first, keeping the k
+   * smallest squared distances seen in a bounded max-heap, and skipping any
+   * subtree which lies farther than the current k-th distance.
+   *
+   * @param query a double array, the position to search from
+   * @param lo    an int, the start of the subtree's range (inclusive)
+   * @param hi    an int, the end of the subtree's range (exclusive)
+   * @param depth an int, the depth of the subtree's root
+   * @param heap  a double array of length k, a max-heap of distances
+   */
+  private void kthDistance(double[] query, int lo, int hi, int depth,
+                           double[] heap) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    double dist = squaredDistance(mid, query);
+    if (dist < heap[0]) {
+      replaceTop(heap, dist);
+    }
+    double diff = query[depth % this.maxDim]
+        - this.coordinates[mid * this.maxDim + depth % this.maxDim];
+    if (diff < 0) {
+      kthDistance(query, lo, mid, depth + 1, heap);
+      if (diff * diff < heap[0]) {
+        kthDistance(query, mid + 1, hi, depth + 1, heap);
+      }
+    } else {
+      kthDistance(query, mid + 1, hi, depth + 1, heap);
+      if (diff * diff < heap[0]) {
+        kthDistance(query, lo, mid, depth + 1, heap);
+      }
+    }
+  }
+
+  /**
+   * A helper function which finds the position of the point nearest to a
+   * position, in one subtree.
+   *
+   * @param query   a double array, the position to search from
+   * @param lo      an int, the start of the subtree's range (inclusive)
+   * @param hi      an int, the end of the subtree's range (exclusive)
+   * @param depth   an int, the depth of the subtree's root
+   * @param best    a one-element array, the smallest squared distance yet
+   * @param bestPos a one-element array, the position of that point
+   */
+  private void nearest(double[] query, int lo, int hi, int depth,
+                       double[] best, int[] bestPos) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    double dist = squaredDistance(mid, query);
+    if (dist < best[0]) {
+      best[0] = dist;
+      bestPos[0] = mid;
+    }
+    double diff = query[depth % this.maxDim]
+        - this.coordinates[mid * this.maxDim + depth % this.maxDim];
+    if (diff < 0) {
+      nearest(query, lo, mid, depth + 1, best, bestPos);
+      if (diff * diff < best[0]) {
+        nearest(query, mid + 1, hi, depth + 1, best, bestPos);
+      }
+    } else {
+      nearest(query, mid + 1, hi, depth + 1, best, bestPos);
+      if (diff * diff < best[0]) {
+        nearest(query, lo, mid, depth + 1, best, bestPos);
+      }
+    }
+  }
+
+  /**
+   * A helper function which finds every point within a squared distance of
+   * a position.
+   *
+   * @param query  a double array, the position to search from
+   * @param sqDist a double, the largest squared distance to include
+   * @return a List of those points, closest first
+   */
+  private List<C> collectWithin(double[] query, double sqDist) {
+    int[] found = new int[Math.min(this.payload.length, 16)];
+    int[] count = {0};
+    found = collectWithin(query, sqDist, 0, this.payload.length, 0, found,
+        count);
+    double[] dists = new double[count[0]];
+    Integer[] byDistance = new Integer[count[0]];
+    for (int i = 0; i < count[0]; i++) {
+      dists[i] = squaredDistance(found[i], query);
+      byDistance[i] = i;
+    }
+    Arrays.sort(byDistance, (i, j) -> Double.compare(dists[i], dists[j]));
+    List<C> results = new ArrayList<>(count[0]);
+    for (Integer i : byDistance) {
+      results.add(this.items.get(this.payload[found[i]]));
+    }
+    return results;
+  }
+
+  /**
+   * A helper function which collects the positions of every point within a
+   * squared distance of a position, in one subtree.
+   *
+   * @param query  a double array, the position to search from
+   * @param sqDist a double, the largest squared distance to include
+   * @param lo     an int, the start of the subtree's range (inclusive)
+   * @param hi     an int, the end of the subtree's range (exclusive)
+   * @param depth  an int, the depth of the subtree's root
+   * @param found  an int array of positions found so far
+   * @param count  a one-element array, the number of positions found so far
+   * @return the array of positions found, grown if needed
+   */
+  private int[] collectWithin(double[] query, double sqDist, int lo, int hi,
+                              int depth, int[] found, int[] count) {
+    if (lo >= hi) {
+      return found;
+    }
+    int mid = (lo + hi) >>> 1;
+    if (squaredDistance(mid, query) <= sqDist) {
+      if (count[0] == found.length) {
+        found = Arrays.copyOf(found, Math.max(1, found.length * 2));
+      }
+      found[count[0]++] = mid;
+    }
+    double diff = query[depth % this.maxDim]
+        - this.coordinates[mid * this.maxDim + depth % this.maxDim];
+    if (diff <= 0 || diff * diff <= sqDist) {
+      found = collectWithin(query, sqDist, lo, mid, depth + 1, found, count);
+    }
+    if (diff >= 0 || diff * diff <= sqDist) {
+      found = collectWithin(query, sqDist, mid + 1, hi, depth + 1, found,
+          count);
+    }
+    return found;
+  }
+
+  /**
+   * A helper function which replaces the largest distance in a max-heap,
+   * and sifts the new one down into place.
+   *
+   * @param heap a double array, a max-heap of distances
+   * @param dist a double, the new distance
+   */
+  private static void replaceTop(double[] heap, double dist) {
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heap.length) {
+        break;
+      }
+      if (child + 1 < heap.length && heap[child + 1] > heap[child]) {
+        child++;
+      }
+      if (heap[child] <= dist) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = dist;
+  }
+
+  /**
+   * A helper function which computes the squared distance from the point at
+   * a tree position to a query.
+   *
+   * @param pos   an int, a tree position
+   * @param query a double array, the query position
+   * @return the squared Euclidean distance between them
+   */
+  private double squaredDistance(int pos, double[] query) {
+    double dist = 0;
+    int base = pos * this.maxDim;
+    for (int d = 0; d < this.maxDim; d++) {
+      double diff = query[d] - this.coordinates[base + d];
+      dist += diff * diff;
+    }
+    return dist;
+  }
+
+  /**
+   * A helper function which computes the squared distance from a stored
+   * object to a query.
+   *
+   * @param item  an object in this tree
+   * @param query a double array, the query position
+   * @return the squared Euclidean distance between them
+   */
+  private double squaredDistance(C item, double[] query) {
+    double dist = 0;
+    for (int d = 0; d < this.maxDim; d++) {
+      double diff = query[d] - item.getNthCoordinate(d);
+      dist += diff * diff;
+    }
+    return dist;
+  }
+
+  /**
+   * A helper function which checks and unboxes a query position.
+   *
+   * @param target an array of Doubles, the query position
+   * @return the query position as a double array
+   */
+  private double[] unbox(Double[] target) {
+    if (target.length != this.maxDim) {
+      throw new Error("ERROR: Mismatched Dimension, input coordinates have "
+          + target.length
+          + " dimensions, expected "
+          + this.maxDim
+          + " Dimensions!");
+    }
+    double[] query = new double[this.maxDim];
+    for (int d = 0; d < this.maxDim; d++) {
+      query[d] = target[d];
+    }
+    return query;
+  }
+
+  /**
+   * A helper function which swaps two entries of an int array.
+   *
+   * @param array an int array
+   * @param i     an int, the first position
+   * @param j     an int, the second position
+   */
+  private static void swap(int[] array, int i, int j) {
+    int temp = array[i];
+    array[i] = array[j];
+    array[j] = temp;
+  }
+
+  /**
+   * A class which arranges one range of positions into a subtree, forking its
+   * halves if it is large. The halves are disjoint, so they share the arrays.
+   */
+  private static final class ArrangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] order;
+    private final double[] coordinates;
+    private final int dim;
+    private final int lo;
+    private final int hi;
+    private final int depth;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param order       an int array, the index of the point at each position
+     * @param coordinates a double array of points, dim coordinates each
+     * @param dim         the number of dimensions of every point
+     * @param lo          an int, the start of the range (inclusive)
+     * @param hi          an int, the end of the range (exclusive)
+     * @param depth       an int, the depth of the range's root
+     */
+    ArrangeTask(int[] order, double[] coordinates, int dim,
+                int lo, int hi, int depth) {
+      this.order = order;
+      this.coordinates = coordinates;
+      this.dim = dim;
+      this.lo = lo;
+      this.hi = hi;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.hi - this.lo <= KDTreeBuilder.PARALLEL_THRESHOLD) {
+        arrange(this.order, this.coordinates, this.dim,
+            this.lo, this.hi, this.depth);
+        return;
+      }
+      int mid = (this.lo + this.hi) >>> 1;
+      select(this.order, this.coordinates, this.dim, this.depth % this.dim,
+          this.lo, this.hi, mid);
+      invokeAll(
+          new ArrangeTask(this.order, this.coordinates, this.dim,
+              this.lo, mid, this.depth + 1),
+          new ArrangeTask(this.order, this.coordinates, this.dim,
+              mid + 1, this.hi, this.depth + 1));
+    }
+  }
+}
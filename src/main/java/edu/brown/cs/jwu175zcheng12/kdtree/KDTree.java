@@ -14,12 +14,11 @@ import java.util.ArrayDeque;
  *
  * @param <C> the type of the data which will be stored at each node
  */
-public class KDTree<C extends ObjectInNDSpace> {
+public class KDTree<C extends ObjectInNDSpace> implements NeighborIndex<C> {
 
   private KDTreeNode<C> tree;
   private final int maxDim;
   private static final int DEFAULT_PQ_SIZE = 11;
-  private static final double TOLERANCE = 0.000000000000000000000000000000001;
 
   /**
    * Creates an empty KDTree with the given dimensions if possible.
@@ -97,14 +96,16 @@ public class KDTree<C extends ObjectInNDSpace> {
   }
 
   /**.
-   * Builds the KDTree by running the Recursive Builder with initial conditions set up
+   * Builds the KDTree by selecting the median of each subtree with quickselect
+   * (see KDTreeBuilder), building large subtrees in parallel. The list itself
+   * is not reordered.
    * @param coordBasedList
    *      The list containing all the Coordinate Based Data
    * @return a KDTreeNode containing the entire KDTree from the List
    */
   public KDTreeNode<C> buildKDTree(List<C> coordBasedList) {
     enforceDimensions(coordBasedList);
-    tree = recurBuildKDTree(coordBasedList, 0);
+    tree = new KDTreeBuilder<>(coordBasedList, maxDim).build();
     return tree;
   }
 
@@ -116,6 +117,7 @@ public class KDTree<C extends ObjectInNDSpace> {
    *      The localized position whose neighbors you want to find
    * @return a List containing the Nearest Neighbors of the target
    */
+  @Override
   public List<C> findKNearestNeighbors(int k, Double[] target) {
     if (k < 0) {
       throw new Error("ERROR: Cannot find a negative number of Neighbors");
@@ -123,29 +125,7 @@ public class KDTree<C extends ObjectInNDSpace> {
     if (k == 0) {
       return new ArrayList<>(0);
     }
-    PriorityQueue<C> nearestNeighbors = priorityNearestNeighbors(k, target);
-    List<C> nearestNeighborsList = new ArrayList<>();
-    List<C> runningNeighborTiesList = new ArrayList<>();
-    double runningNeighborTiesDistance = 0;
-
-    while (!nearestNeighbors.isEmpty()) {
-      C nextNeighbor = nearestNeighbors.poll();
-      if (Math.abs(nextNeighbor.squaredEuclideanDistance(target) - runningNeighborTiesDistance)
-          > TOLERANCE) {
-        if (nearestNeighborsList.size() + runningNeighborTiesList.size() < k) {
-          nearestNeighborsList.addAll(runningNeighborTiesList);
-          runningNeighborTiesDistance = nextNeighbor.squaredEuclideanDistance(target);
-          runningNeighborTiesList = new ArrayList<>();
-        } else {
-          break;
-        }
-      }
-      runningNeighborTiesList.add(nextNeighbor);
-    }
-
-    Collections.shuffle(runningNeighborTiesList);
-    nearestNeighborsList.addAll(runningNeighborTiesList);
-    return nearestNeighborsList.subList(0, Math.min(k, nearestNeighborsList.size()));
+    return nearestNeighbors(k, target);
   }
 
   /**.
@@ -156,6 +136,7 @@ public class KDTree<C extends ObjectInNDSpace> {
    *      The localized position whose neighbors you want to find
    * @return a List containing the Neighbors within the radius of the target
    */
+  @Override
   public List<C> findRadiusSearch(Double r, Double[] target) {
     if (r < 0) {
       throw new Error("ERROR: Radius must be non negative");
@@ -169,49 +150,19 @@ public class KDTree<C extends ObjectInNDSpace> {
   }
 
   /**.
-   * Recursively builds the KDTree from a list of Coordinate Based Data
-   * @param coordBasedList
-   *      The list containing all the Coordinate Based Data
-   * @param currDim
-   *      Temporary Variable telling the function what axis it's currently on
-   * @return a KDTreeNode containing the entire KDTree
-   */
-  private KDTreeNode<C> recurBuildKDTree(List<C> coordBasedList, int currDim) {
-    if (coordBasedList.isEmpty()) {
-      return new KDTreeNode<>();
-    }
-
-    //currDim is locally final and should not change before the sort
-    final int currDimLocal = currDim;
-
-    // Sorts the coordBasedList with the currDim as priority
-    coordBasedList.sort((C o1, C o2) ->
-        Double.compare(o1.getCoordinates()[currDimLocal], o2.getCoordinates()[currDimLocal]));
-
-    // Breaks the coordBasedList into the middle value on the axis and 2 coordBasedLists.
-    int cblSize = coordBasedList.size();
-    C currCBData = coordBasedList.get(cblSize / 2);
-
-    // Partition the rest of the CBDataList into left (< currCBData) or right (>= currCBData)
-    List<C> leftCBDatas = coordBasedList.subList(0, cblSize / 2);
-    List<C> rightCBDatas = coordBasedList.subList(cblSize / 2 + 1, cblSize);
-
-    // Update Axis you're looking at and recursively build the KDTree
-    currDim = (currDim + 1) % maxDim; // 0 = X, 1 = Y, ... maxDim - 1 = Max Axis
-    KDTreeNode<C> leftKDTreeNode = recurBuildKDTree(leftCBDatas, currDim);
-    KDTreeNode<C> rightKDTreeNode = recurBuildKDTree(rightCBDatas, currDim);
-    return new KDTreeNode<>(currCBData, leftKDTreeNode, rightKDTreeNode);
-  }
-
-  /**.
-   * Iteratively Finds the K Nearest Neighbors of the target in the KDTree
+   * Finds the K Nearest Neighbors of the target with a depth-first search.
+   * The k best candidates so far sit in a max-heap keyed by their precomputed
+   * squared distances, so the worst of them bounds the search: a subtree is
+   * skipped once its splitting plane is farther away than that. Candidates
+   * tied with the worst are set aside rather than dropped, and the tie group
+   * at the k-th place is shuffled before the result is cut to k.
    * @param k
-   *      The number of Neighbors you want to find
+   *      The number of Neighbors you want to find (positive)
    * @param target
    *      The localized position whose neighbors you want to find
-   * @return a Priority Queue containing the Nearest Neighbors of the target
+   * @return a List containing the Nearest Neighbors of the target, closest first
    */
-  private PriorityQueue<C> priorityNearestNeighbors(int k, Double[] target) {
+  private List<C> nearestNeighbors(int k, Double[] target) {
 
     // Enforces that target has the right number of dimensions
     if (target.length != maxDim) {
@@ -222,65 +173,111 @@ public class KDTree<C extends ObjectInNDSpace> {
       + " Dimensions!");
     }
 
-    Comparator<C> sqDistanceComparator = new Comparator<>() {
-      @Override
-      public int compare(C o1, C o2) {
-        return Double.compare(o1.squaredEuclideanDistance(target),
-            o2.squaredEuclideanDistance(target));
-      }
-    };
-
-    PriorityQueue<C> nearestNeighbors = new PriorityQueue<>(DEFAULT_PQ_SIZE, sqDistanceComparator);
-    Deque<KDTreeNode<C>> searchSpace = new ArrayDeque<>();
-    searchSpace.add(tree); // Adds to the end of the deque
-
-    int currDim = 0;
-    while (!searchSpace.isEmpty()) {
-      KDTreeNode<C> currKDTreeNode = searchSpace.pop(); // Pops from the front of the deque
-      if (currKDTreeNode.isEmpty()) {
-        continue;
-      }
-      nearestNeighbors.add(currKDTreeNode.getNodeVal());
-
-      KDTreeNode<C> leftKDTreeNode = currKDTreeNode.getLeftNode();
-      KDTreeNode<C> rightKDTreeNode = currKDTreeNode.getRightNode();
-      KDTreeNode<C> minKDTreeNode;
-
-      if ((leftKDTreeNode == null || leftKDTreeNode.isEmpty())
-          && (rightKDTreeNode == null || rightKDTreeNode.isEmpty())) {
-        continue;
-      } else if (leftKDTreeNode == null || leftKDTreeNode.isEmpty()) {
-        minKDTreeNode = rightKDTreeNode;
-      } else if (rightKDTreeNode == null || rightKDTreeNode.isEmpty()) {
-        minKDTreeNode = leftKDTreeNode;
+    double[] query = new double[maxDim];
+    for (int d = 0; d < maxDim; d++) {
+      query[d] = target[d];
+    }
+    PriorityQueue<Neighbor<C>> best = new PriorityQueue<>(
+        Math.min(k, DEFAULT_PQ_SIZE), (o1, o2) -> Double.compare(o2.distance, o1.distance));
+    List<Neighbor<C>> ties = new ArrayList<>();
+    searchNearest(tree, 0, query, k, best, ties);
+
+    // Everything strictly closer than the k-th place, closest first
+    double kthDistance = best.isEmpty() ? 0 : best.peek().distance;
+    List<Neighbor<C>> closer = new ArrayList<>(best.size());
+    for (Neighbor<C> neighbor : best) {
+      if (neighbor.distance < kthDistance) {
+        closer.add(neighbor);
       } else {
-        double leftCutDist =
-            Math.abs(leftKDTreeNode.getNodeVal().getCoordinates()[currDim]
-                - target[currDim]);
-        double rightCutDist =
-            Math.abs(rightKDTreeNode.getNodeVal().getCoordinates()[currDim]
-                - target[currDim]);
-        if (leftCutDist < rightCutDist) {
-          minKDTreeNode = leftKDTreeNode;
-        } else {
-          minKDTreeNode = rightKDTreeNode;
-        }
+        ties.add(neighbor);
       }
+    }
+    closer.sort((o1, o2) -> Double.compare(o1.distance, o2.distance));
+    List<C> nearestNeighborsList = new ArrayList<>(Math.min(k, closer.size() + ties.size()));
+    for (Neighbor<C> neighbor : closer) {
+      nearestNeighborsList.add(neighbor.item);
+    }
 
-      // Distance to the cut line
-      double cutDist = Math.abs(minKDTreeNode.getNodeVal()
-          .getCoordinates()[currDim] - target[currDim]);
-      double minDist = minKDTreeNode.getNodeVal().squaredEuclideanDistance(target);
+    // Then a random selection of those tied for the k-th place
+    Collections.shuffle(ties);
+    for (int i = 0; nearestNeighborsList.size() < k && i < ties.size(); i++) {
+      nearestNeighborsList.add(ties.get(i).item);
+    }
+    return nearestNeighborsList;
+  }
 
-      if (nearestNeighbors.size() < k - 1 || Math.pow(cutDist, 2) <= minDist) {
-        searchSpace.add(leftKDTreeNode);
-        searchSpace.add(rightKDTreeNode);
-      } else {
-        searchSpace.add(minKDTreeNode);
-      }
+  /**.
+   * Recursively searches a subtree for the K Nearest Neighbors, nearer side first
+   * @param node
+   *      The root of the subtree to search
+   * @param depth
+   *      The depth of the root, which picks its splitting axis
+   * @param query
+   *      The target position, unboxed
+   * @param k
+   *      The number of Neighbors you want to find
+   * @param best
+   *      A max-heap of the (at most k) closest candidates found so far
+   * @param ties
+   *      The candidates outside best which are tied with its farthest
+   */
+  private void searchNearest(KDTreeNode<C> node, int depth, double[] query, int k,
+                             PriorityQueue<Neighbor<C>> best, List<Neighbor<C>> ties) {
+    if (node == null || node.isEmpty()) {
+      return;
     }
+    C item = node.getNodeVal();
+    double distance = 0;
+    for (int d = 0; d < maxDim; d++) {
+      double diff = query[d] - item.getNthCoordinate(d);
+      distance += diff * diff;
+    }
+    offer(new Neighbor<>(distance, item), k, best, ties);
+
+    int axis = depth % maxDim;
+    double cutDist = query[axis] - item.getNthCoordinate(axis);
+    KDTreeNode<C> nearNode = cutDist < 0 ? node.getLeftNode() : node.getRightNode();
+    KDTreeNode<C> farNode = cutDist < 0 ? node.getRightNode() : node.getLeftNode();
+    searchNearest(nearNode, depth + 1, query, k, best, ties);
+    // Points on the far side may tie with the k-th place, so only a plane
+    // strictly farther away than it is pruned
+    if (best.size() < k || cutDist * cutDist <= best.peek().distance) {
+      searchNearest(farNode, depth + 1, query, k, best, ties);
+    }
+  }
 
-    return nearestNeighbors;
+  /**.
+   * Offers a candidate to the bounded heap of the K Nearest Neighbors
+   * @param candidate
+   *      The candidate, with its squared distance to the target
+   * @param k
+   *      The number of Neighbors you want to find
+   * @param best
+   *      A max-heap of the (at most k) closest candidates found so far
+   * @param ties
+   *      The candidates outside best which are tied with its farthest
+   */
+  private static <C> void offer(Neighbor<C> candidate, int k,
+                                PriorityQueue<Neighbor<C>> best, List<Neighbor<C>> ties) {
+    if (best.size() < k) {
+      best.add(candidate);
+      return;
+    }
+    double kthDistance = best.peek().distance;
+    if (candidate.distance > kthDistance) {
+      return;
+    }
+    if (candidate.distance == kthDistance) {
+      ties.add(candidate);
+      return;
+    }
+    Neighbor<C> evicted = best.poll();
+    best.add(candidate);
+    if (evicted.distance == best.peek().distance) {
+      ties.add(evicted);
+    } else {
+      ties.clear();
+    }
   }
 
   /**
@@ -342,4 +339,18 @@ public class KDTree<C extends ObjectInNDSpace> {
 
     return withinRadius;
   }
+
+  /**.
+   * A candidate neighbor, with its squared distance to the target
+   * @param <C> the type of the data which will be stored at each node
+   */
+  private static final class Neighbor<C> {
+    private final double distance;
+    private final C item;
+
+    private Neighbor(double distance, C item) {
+      this.distance = distance;
+      this.item = item;
+    }
+  }
 }
@@ -0,0 +1,234 @@
+package edu.brown.cs.jwu175zcheng12.kdtree;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A class which builds the KDTreeNodes of a KDTree in O(n log n) expected
+ * time, by selecting each subtree's median with quickselect rather than
+ * sorting every level.
+ * <p>
+ * The tree is exactly the one that repeatedly stable-sorting each sublist
+ * would build. Each stable sort breaks ties by the order the previous level
+ * left behind, so the order at depth d is lexicographic on the coordinate of
+ * axis d, then axis d - 1, and so on down to axis 0 (each axis once), then
+ * on position in the input list. Selecting by that total order picks the
+ * same median and the same halves, even among tied coordinates.
+ * <p>
+ * Coordinates are unboxed once up front. Subtrees of more than
+ * PARALLEL_THRESHOLD points are built in parallel on the common ForkJoinPool.
+ *
+ * @param <C> the type of the data which will be stored at each node
+ */
+final class KDTreeBuilder<C extends ObjectInNDSpace> {
+
+  static final int PARALLEL_THRESHOLD = 1 << 13;
+
+  private final List<C> items;
+  private final int maxDim;
+  private final double[] coordinates;
+  private final int[] order;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param items  the list of points to build a tree of, which is not
+   *               modified
+   * @param maxDim the number of dimensions of every point
+   */
+  KDTreeBuilder(List<C> items, int maxDim) {
+    this.items = items;
+    this.maxDim = maxDim;
+    int size = items.size();
+    this.coordinates = new double[size * maxDim];
+    this.order = new int[size];
+    for (int i = 0; i < size; i++) {
+      C item = items.get(i);
+      for (int d = 0; d < maxDim; d++) {
+        this.coordinates[i * maxDim + d] = item.getNthCoordinate(d);
+      }
+      this.order[i] = i;
+    }
+  }
+
+  /**
+   * A function which builds the tree.
+   *
+   * @return the root KDTreeNode of the tree
+   */
+  KDTreeNode<C> build() {
+    if (this.order.length > PARALLEL_THRESHOLD) {
+      return ForkJoinPool.commonPool()
+          .invoke(new SubtreeTask(0, this.order.length, 0));
+    }
+    return build(0, this.order.length, 0);
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which builds the subtree over one range of positions
+   * on the calling thread.
+   *
+   * @param lo    an int, the start of the range (inclusive)
+   * @param hi    an int, the end of the range (exclusive)
+   * @param depth an int, the depth of the subtree's root
+   * @return the root KDTreeNode of the subtree
+   */
+  private KDTreeNode<C> build(int lo, int hi, int depth) {
+    if (lo >= hi) {
+      return new KDTreeNode<>();
+    }
+    int mid = select(lo, hi, depth);
+    return new KDTreeNode<>(this.items.get(this.order[mid]),
+        build(lo, mid, depth + 1), build(mid + 1, hi, depth + 1));
+  }
+
+  /**
+   * A helper function which moves the median of a range of positions (by
+   * the order at a depth) to the middle, with smaller points before it and
+   * larger ones after.
+   *
+   * @param lo    an int, the start of the range (inclusive)
+   * @param hi    an int, the end of the range (exclusive)
+   * @param depth an int, the depth whose order to select by
+   * @return the middle position, (lo + hi) / 2
+   */
+  private int select(int lo, int hi, int depth) {
+    int k = (lo + hi) >>> 1;
+    while (hi - lo > 1) {
+      int pivot = partition(lo, hi, medianOfThree(lo, hi, depth), depth);
+      if (k == pivot) {
+        break;
+      } else if (k < pivot) {
+        hi = pivot;
+      } else {
+        lo = pivot + 1;
+      }
+    }
+    return k;
+  }
+
+  /**
+   * A helper function which partitions a range of positions around the
+   * point at one of them.
+   *
+   * @param lo    an int, the start of the range (inclusive)
+   * @param hi    an int, the end of the range (exclusive)
+   * @param pivot an int, the position of the point to partition around
+   * @param depth an int, the depth whose order to partition by
+   * @return the position the pivot point ends up at
+   */
+  private int partition(int lo, int hi, int pivot, int depth) {
+    int pivotItem = this.order[pivot];
+    swap(pivot, hi - 1);
+    int store = lo;
+    for (int i = lo; i < hi - 1; i++) {
+      if (compare(this.order[i], pivotItem, depth) < 0) {
+        swap(i, store++);
+      }
+    }
+    swap(store, hi - 1);
+    return store;
+  }
+
+  /**
+   * A helper function which picks the median of the first, middle and last
+   * positions of a range, so already-sorted input stays fast.
+   *
+   * @param lo    an int, the start of the range (inclusive)
+   * @param hi    an int, the end of the range (exclusive)
+   * @param depth an int, the depth whose order to compare by
+   * @return the position of the median of the three
+   */
+  private int medianOfThree(int lo, int hi, int depth) {
+    int mid = (lo + hi) >>> 1;
+    int last = hi - 1;
+    int a = this.order[lo];
+    int b = this.order[mid];
+    int c = this.order[last];
+    if (compare(a, b, depth) < 0) {
+      if (compare(b, c, depth) < 0) {
+        return mid;
+      }
+      return compare(a, c, depth) < 0 ? last : lo;
+    }
+    if (compare(a, c, depth) < 0) {
+      return lo;
+    }
+    return compare(b, c, depth) < 0 ? last : mid;
+  }
+
+  /**
+   * A helper function which compares two points by the order at a depth.
+   *
+   * @param i     an int, the input position of the first point
+   * @param j     an int, the input position of the second point
+   * @param depth an int, the depth whose order to compare by
+   * @return a negative int, zero, or a positive int as the first point is
+   * before, the same as, or after the second
+   */
+  private int compare(int i, int j, int depth) {
+    int axes = Math.min(depth + 1, this.maxDim);
+    for (int t = 0; t < axes; t++) {
+      int axis = (depth - t) % this.maxDim;
+      int comparison = Double.compare(this.coordinates[i * this.maxDim + axis],
+          this.coordinates[j * this.maxDim + axis]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(i, j);
+  }
+
+  /**
+   * A helper function which swaps two positions.
+   *
+   * @param i an int, the first position
+   * @param j an int, the second position
+   */
+  private void swap(int i, int j) {
+    int temp = this.order[i];
+    this.order[i] = this.order[j];
+    this.order[j] = temp;
+  }
+
+  /**
+   * A class which builds one subtree, forking its halves if it is large.
+   */
+  private final class SubtreeTask extends RecursiveTask<KDTreeNode<C>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int lo;
+    private final int hi;
+    private final int depth;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param lo    an int, the start of the subtree's range (inclusive)
+     * @param hi    an int, the end of the subtree's range (exclusive)
+     * @param depth an int, the depth of the subtree's root
+     */
+    SubtreeTask(int lo, int hi, int depth) {
+      this.lo = lo;
+      this.hi = hi;
+      this.depth = depth;
+    }
+
+    @Override
+    protected KDTreeNode<C> compute() {
+      if (this.hi - this.lo <= PARALLEL_THRESHOLD) {
+        return build(this.lo, this.hi, this.depth);
+      }
+      int mid = select(this.lo, this.hi, this.depth);
+      SubtreeTask left = new SubtreeTask(this.lo, mid, this.depth + 1);
+      left.fork();
+      KDTreeNode<C> right =
+          new SubtreeTask(mid + 1, this.hi, this.depth + 1).compute();
+      return new KDTreeNode<>(items.get(order[mid]), left.join(), right);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package edu.brown.cs.jwu175zcheng12.kdtree;
+
+import java.util.List;
+
+/**
+ * An interface which represents a spatial index over ObjectInNDSpaces, which
+ * can find the objects nearest to (or within a radius of) a position.
+ *
+ * @param <C> the type of the data stored in the index
+ */
+public interface NeighborIndex<C extends ObjectInNDSpace> {
+
+  /**
+   * A function which finds up to k objects nearest to a position, sorted
+   * from closest to farthest away. If several objects tie for the k-th
+   * place, a random selection of them is returned.
+   *
+   * @param k      the number of neighbors to find
+   * @param target the position whose neighbors to find
+   * @return a List of up to k nearest objects, closest first
+   */
+  List<C> findKNearestNeighbors(int k, Double[] target);
+
+  /**
+   * A function which finds every object within a radius of a position,
+   * sorted from closest to farthest away.
+   *
+   * @param r      the radius in which to look for neighbors
+   * @param target the position whose neighbors to find
+   * @return a List of the objects within r of the target, closest first
+   */
+  List<C> findRadiusSearch(Double r, Double[] target);
+
+  /**
+   * A function which finds one object nearest to a position. If several tie,
+   * any one of them may be returned. Indices which can search on unboxed
+   * coordinates override this to skip building the one-element List.
+   *
+   * @param target the position whose nearest neighbor to find
+   * @return the nearest object, or null if the index is empty
+   */
+  default C findNearestNeighbor(double[] target) {
+    Double[] boxed = new Double[target.length];
+    for (int d = 0; d < target.length; d++) {
+      boxed[d] = target[d];
+    }
+    List<C> nearest = findKNearestNeighbors(1, boxed);
+    return nearest.isEmpty() ? null : nearest.get(0);
+  }
+}
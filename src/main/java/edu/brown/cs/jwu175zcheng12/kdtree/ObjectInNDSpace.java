@@ -164,8 +164,8 @@ public abstract class ObjectInNDSpace {
     double lam1 = this.getCoordinates()[1];
     double phi2 = refCoordinates[0];
     double lam2 = refCoordinates[1];
-    double sinSqPhiTerm = Math.pow(Math.sin(Math.toRadians((phi1 + phi2) / 2)), 2);
-    double sinSqLamTerm = Math.pow(Math.sin(Math.toRadians((lam1 + lam2) / 2)), 2);
+    double sinSqPhiTerm = Math.pow(Math.sin(Math.toRadians((phi2 - phi1) / 2)), 2);
+    double sinSqLamTerm = Math.pow(Math.sin(Math.toRadians((lam2 - lam1) / 2)), 2);
     double insideSqrtTerm = sinSqPhiTerm + Math.cos(Math.toRadians(phi1))
         * Math.cos(Math.toRadians(phi2)) * sinSqLamTerm;
     return 2 * this.sphereRadius * Math.asin(Math.sqrt(insideSqrtTerm));
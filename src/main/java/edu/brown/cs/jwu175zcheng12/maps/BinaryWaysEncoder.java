@@ -0,0 +1,214 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class which streams responses to the GUI in a compact binary format,
+ * which my-app/src/waysWire.js decodes into the same objects as the JSON
+ * format.
+ * <p>
+ * A response is the bytes 'M', 'W', the format version, then a series of
+ * sections, each starting with a tag byte:
+ * <ul>
+ * <li>ERROR: a string, the error message.</li>
+ * <li>WAYS: a varint count, then for each way: its id as a string, its type
+ * and name as string references, then its coordinates as zigzag varints of
+ * fixed-point degrees (multiplied by 10^7): the start's latitude and
+ * longitude as deltas from the previous way's start, then the end's latitude
+ * and longitude as deltas from this way's start.</li>
+ * <li>CELLS: a varint count and strings of the row keys, then likewise of
+ * the column keys, then for each row, for each column: a varint count and
+ * the positions of the ways in the cell, as zigzag varint deltas from the
+ * previous position in the cell (the first from 0).</li>
+ * <li>ROUTE: a varint count and the positions of the ways along the route,
+ * as varints.</li>
+ * <li>END: the end of the response.</li>
+ * </ul>
+ * A varint is an unsigned LEB128 integer, and a zigzag varint maps signed
+ * integers to unsigned ones as 0, -1, 1, -2, ... first. A string is a varint
+ * length in bytes, then UTF-8. A string reference is a varint: 0 for null,
+ * 1 for a new string, which follows and is added to the string table, or
+ * i + 2 for the i-th string in the table.
+ */
+final class BinaryWaysEncoder implements WaysEncoder {
+
+  static final int VERSION = 1;
+  static final int END = 0;
+  static final int ERROR = 1;
+  static final int WAYS = 2;
+  static final int CELLS = 3;
+  static final int ROUTE = 4;
+  static final double FIXED_POINT = 1e7;
+  private static final int NULL_REFERENCE = 0;
+  private static final int NEW_REFERENCE = 1;
+  private static final int FIRST_REFERENCE = 2;
+  private static final int VARINT_BITS = 7;
+  private static final int VARINT_MORE = 0x80;
+  private static final int VARINT_MASK = 0x7F;
+
+  private final OutputStream out;
+  private final Map<String, Integer> strings = new HashMap<>();
+  private long lastLat;
+  private long lastLon;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param out the OutputStream to write to
+   */
+  BinaryWaysEncoder(OutputStream out) {
+    this.out = new BufferedOutputStream(out);
+  }
+
+  @Override
+  public void begin() throws IOException {
+    this.out.write('M');
+    this.out.write('W');
+    this.out.write(VERSION);
+  }
+
+  @Override
+  public void writeError(String message) throws IOException {
+    this.out.write(ERROR);
+    this.writeString(message);
+  }
+
+  @Override
+  public void beginWays(int numWays) throws IOException {
+    this.out.write(WAYS);
+    this.writeVarint(numWays);
+    this.lastLat = 0;
+    this.lastLon = 0;
+  }
+
+  @Override
+  public void writeWay(String id, double startLat, double startLon,
+                       double endLat, double endLon, String type, String name)
+      throws IOException {
+    this.writeString(id);
+    this.writeReference(type);
+    this.writeReference(name);
+    long fixedStartLat = Math.round(startLat * FIXED_POINT);
+    long fixedStartLon = Math.round(startLon * FIXED_POINT);
+    this.writeZigzag(fixedStartLat - this.lastLat);
+    this.writeZigzag(fixedStartLon - this.lastLon);
+    this.writeZigzag(Math.round(endLat * FIXED_POINT) - fixedStartLat);
+    this.writeZigzag(Math.round(endLon * FIXED_POINT) - fixedStartLon);
+    this.lastLat = fixedStartLat;
+    this.lastLon = fixedStartLon;
+  }
+
+  @Override
+  public void endWays() {
+    // The count at the start of the ways is enough
+  }
+
+  @Override
+  public void beginCells(String[] rowKeys, String[] columnKeys)
+      throws IOException {
+    this.out.write(CELLS);
+    this.writeVarint(rowKeys.length);
+    for (String key : rowKeys) {
+      this.writeString(key);
+    }
+    this.writeVarint(columnKeys.length);
+    for (String key : columnKeys) {
+      this.writeString(key);
+    }
+  }
+
+  @Override
+  public void writeCell(int[] positions, int count) throws IOException {
+    this.writeVarint(count);
+    int last = 0;
+    for (int i = 0; i < count; i++) {
+      this.writeZigzag(positions[i] - last);
+      last = positions[i];
+    }
+  }
+
+  @Override
+  public void endCells() {
+    // The counts at the start of the cells are enough
+  }
+
+  @Override
+  public void writeRoute(int[] positions, int count) throws IOException {
+    this.out.write(ROUTE);
+    this.writeVarint(count);
+    for (int i = 0; i < count; i++) {
+      this.writeVarint(positions[i]);
+    }
+  }
+
+  @Override
+  public void end() throws IOException {
+    this.out.write(END);
+    this.out.flush();
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which writes a non-negative long as a varint.
+   *
+   * @param value a long, at least 0
+   * @throws IOException if the response cannot be written
+   */
+  private void writeVarint(long value) throws IOException {
+    while ((value & ~VARINT_MASK) != 0) {
+      this.out.write((int) (value & VARINT_MASK) | VARINT_MORE);
+      value >>>= VARINT_BITS;
+    }
+    this.out.write((int) value);
+  }
+
+  /**
+   * A helper function which writes a long as a zigzag varint.
+   *
+   * @param value a long
+   * @throws IOException if the response cannot be written
+   */
+  private void writeZigzag(long value) throws IOException {
+    this.writeVarint((value << 1) ^ (value >> (Long.SIZE - 1)));
+  }
+
+  /**
+   * A helper function which writes a string.
+   *
+   * @param value a String
+   * @throws IOException if the response cannot be written
+   */
+  private void writeString(String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    this.writeVarint(bytes.length);
+    this.out.write(bytes);
+  }
+
+  /**
+   * A helper function which writes a reference to a string, adding it to the
+   * string table the first time.
+   *
+   * @param value a String, or null
+   * @throws IOException if the response cannot be written
+   */
+  private void writeReference(String value) throws IOException {
+    if (value == null) {
+      this.writeVarint(NULL_REFERENCE);
+      return;
+    }
+    Integer index = this.strings.get(value);
+    if (index != null) {
+      this.writeVarint(index + FIRST_REFERENCE);
+      return;
+    }
+    this.strings.put(value, this.strings.size());
+    this.writeVarint(NEW_REFERENCE);
+    this.writeString(value);
+  }
+}
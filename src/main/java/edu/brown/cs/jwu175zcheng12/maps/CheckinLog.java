@@ -0,0 +1,144 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A class which hands the latest checkins from the checkin poller to the
+ * GUI, as a ring buffer with one producer and any number of consumers.
+ * <p>
+ * Every checkin appended gets the next sequence number, starting from 0, and
+ * is kept until capacity more checkins have been appended after it. Each
+ * consumer keeps its own cursor, the sequence number of the next checkin it
+ * wants, so every consumer sees every checkin exactly once, in order, unless
+ * it falls more than capacity checkins behind, when it skips to the oldest
+ * checkin still kept. Neither appending nor reading takes a lock: the
+ * producer publishes each slot before advancing the volatile head, and
+ * readers check each slot's sequence number to notice slots overwritten
+ * while they read.
+ */
+final class CheckinLog {
+
+  static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final AtomicReferenceArray<Entry> entries;
+  private final int mask;
+  // The sequence number of the next checkin to be appended
+  private volatile long head = 0;
+  // The cursor shared by readers which do not keep their own
+  private final AtomicLong sharedCursor = new AtomicLong();
+
+  /**
+   * The constructor for this class.
+   *
+   * @param capacity an int, how many checkins to keep; a power of two
+   */
+  CheckinLog(int capacity) {
+    if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two.");
+    }
+    this.entries = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * A function which appends a checkin. Only one thread may append.
+   *
+   * @param checkin the UserCheckin
+   */
+  void append(UserCheckin checkin) {
+    long sequence = this.head;
+    this.entries.set((int) sequence & this.mask, new Entry(sequence, checkin));
+    // Publishes the entry to readers
+    this.head = sequence + 1;
+  }
+
+  /**
+   * A getter function for this class' head field.
+   *
+   * @return the sequence number of the next checkin to be appended, i.e.
+   * how many checkins have ever been appended
+   */
+  long getHead() {
+    return this.head;
+  }
+
+  /**
+   * A function which reads the checkins from a cursor onwards.
+   *
+   * @param cursor a long, the sequence number of the first checkin wanted;
+   *               cursors before the oldest checkin kept start from it, and
+   *               cursors after the head start from the head
+   * @param max    an int, the most checkins to read
+   * @param out    the List to add the checkins to
+   * @return the cursor to read the following checkins from
+   */
+  long read(long cursor, int max, List<UserCheckin> out) {
+    long end = this.head;
+    long sequence = Math.max(Math.min(cursor, end), this.oldest(end));
+    int count = 0;
+    while (sequence < end && count < max) {
+      Entry entry = this.entries.get((int) sequence & this.mask);
+      if (entry.sequence != sequence) {
+        // Overwritten since we read the head, so skip what was lost
+        sequence = Math.max(sequence + 1, this.oldest(this.head));
+        continue;
+      }
+      out.add(entry.checkin);
+      sequence++;
+      count++;
+    }
+    return sequence;
+  }
+
+  /**
+   * A function which reads the checkins from the shared cursor onwards, and
+   * advances it, so that among readers which use it, each checkin is read
+   * exactly once.
+   *
+   * @param max an int, the most checkins to read
+   * @param out the List to add the checkins to
+   */
+  void readShared(int max, List<UserCheckin> out) {
+    int size = out.size();
+    while (true) {
+      long cursor = this.sharedCursor.get();
+      long next = this.read(cursor, max, out);
+      if (next == cursor || this.sharedCursor.compareAndSet(cursor, next)) {
+        return;
+      }
+      // Another reader got there first, so try again from its cursor
+      out.subList(size, out.size()).clear();
+    }
+  }
+
+  /**
+   * A helper function which finds the oldest checkin kept.
+   *
+   * @param end a long, the head
+   * @return the sequence number of the oldest checkin kept
+   */
+  private long oldest(long end) {
+    return Math.max(0, end - this.entries.length());
+  }
+
+  /**
+   * A class which represents one slot of the ring buffer.
+   */
+  private static final class Entry {
+    private final long sequence;
+    private final UserCheckin checkin;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param sequence a long, the checkin's sequence number
+     * @param checkin  the UserCheckin
+     */
+    Entry(long sequence, UserCheckin checkin) {
+      this.sequence = sequence;
+      this.checkin = checkin;
+    }
+  }
+}
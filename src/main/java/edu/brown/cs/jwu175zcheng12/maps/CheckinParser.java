@@ -0,0 +1,575 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A class which parses the checkin server's responses, a JSON array of
+ * [timestamp, id, "name", lat, lon] arrays, straight from the response's
+ * bytes into the primitive fields of a reusable current checkin.
+ * <p>
+ * Nothing is allocated per checkin in the common case: bytes are read into
+ * a reused buffer, numbers are accumulated as they are read rather than cut
+ * out as Strings, and each user's name String is reused while it is
+ * unchanged. Numbers are rounded exactly as Double.parseDouble() would;
+ * those too long for the fast paths fall back to it.
+ * <p>
+ * One parser can read many responses, one after another, but is not thread
+ * safe.
+ */
+final class CheckinParser {
+
+  private static final int BUFFER_SIZE = 1 << 13;
+  private static final int NAME_CACHE_SIZE = 1 << 12;
+  private static final int INITIAL_CHARS = 64;
+  private static final int MAX_NUMBER_LENGTH = 64;
+
+  // The largest decimal exponent whose power of 10 is an exact double, the
+  // largest whose power of 5 fits in a long, and the first non-exact long
+  private static final int MAX_EXACT_POW10 = 22;
+  private static final int MAX_LONG_POW5 = 27;
+  private static final long MAX_EXACT_LONG = 1L << 53;
+  private static final long MAX_MANTISSA = (Long.MAX_VALUE - 9) / 10;
+  private static final double[] POW10 = new double[MAX_EXACT_POW10 + 1];
+  private static final long[] POW5 = new long[MAX_LONG_POW5 + 1];
+
+  // For rounding 64 bits of quotient to the 53 bits of a double
+  private static final int DROPPED_BITS = 11;
+  private static final long DROPPED_MASK = (1L << DROPPED_BITS) - 1;
+  private static final long DROPPED_HALF = 1L << (DROPPED_BITS - 1);
+
+  // For decoding UTF-8
+  private static final int BYTE_MASK = 0xFF;
+  private static final int CONTINUATION_MASK = 0x3F;
+  private static final int CONTINUATION_BITS = 6;
+  private static final int TWO_BYTE_LEAD = 0xC0;
+  private static final int THREE_BYTE_LEAD = 0xE0;
+  private static final int FOUR_BYTE_LEAD = 0xF0;
+  private static final int HEX_DIGITS = 4;
+  private static final int HEX_RADIX = 16;
+
+  static {
+    POW10[0] = 1;
+    POW5[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+    for (int i = 1; i < POW5.length; i++) {
+      POW5[i] = POW5[i - 1] * 5;
+    }
+  }
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final char[] number = new char[MAX_NUMBER_LENGTH];
+  private final int[] cachedIds = new int[NAME_CACHE_SIZE];
+  private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+  private char[] chars = new char[INITIAL_CHARS];
+  private InputStream in;
+  private int position;
+  private int limit;
+  private long offset;
+  private boolean started;
+  private boolean finished;
+
+  private int id;
+  private String name;
+  private double timestamp;
+  private double lat;
+  private double lon;
+
+  /**
+   * A function which starts parsing a new response.
+   *
+   * @param input the InputStream of the response, which is not closed
+   */
+  void reset(InputStream input) {
+    this.in = input;
+    this.position = 0;
+    this.limit = 0;
+    this.offset = 0;
+    this.started = false;
+    this.finished = false;
+  }
+
+  /**
+   * A function which parses the next checkin of the response into this
+   * parser's fields.
+   *
+   * @return true if there was another checkin, or false at the end
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  boolean next() throws IOException {
+    if (this.finished) {
+      return false;
+    }
+    int c = this.skipWhitespace();
+    if (!this.started) {
+      this.expect('[', c);
+      this.started = true;
+      c = this.skipWhitespace();
+    } else if (c == ',') {
+      c = this.skipWhitespace();
+    } else if (c != ']') {
+      throw this.malformed("',' or ']'");
+    }
+    if (c == ']') {
+      this.finished = true;
+      this.in = null;
+      return false;
+    }
+    this.expect('[', c);
+    this.timestamp = this.readDouble();
+    this.expect(',', this.skipWhitespace());
+    this.id = this.readInt();
+    this.expect(',', this.skipWhitespace());
+    this.name = this.readName();
+    this.expect(',', this.skipWhitespace());
+    this.lat = this.readDouble();
+    this.expect(',', this.skipWhitespace());
+    this.lon = this.readDouble();
+    this.expect(']', this.skipWhitespace());
+    return true;
+  }
+
+  /**
+   * A getter function for the current checkin's id.
+   *
+   * @return the id
+   */
+  int getId() {
+    return this.id;
+  }
+
+  /**
+   * A getter function for the current checkin's name.
+   *
+   * @return the name, or null if it was null
+   */
+  String getName() {
+    return this.name;
+  }
+
+  /**
+   * A getter function for the current checkin's timestamp.
+   *
+   * @return the timestamp
+   */
+  double getTimestamp() {
+    return this.timestamp;
+  }
+
+  /**
+   * A getter function for the current checkin's latitude.
+   *
+   * @return the latitude
+   */
+  double getLat() {
+    return this.lat;
+  }
+
+  /**
+   * A getter function for the current checkin's longitude.
+   *
+   * @return the longitude
+   */
+  double getLon() {
+    return this.lon;
+  }
+
+  /**
+   * A function which makes a UserCheckin of the current checkin.
+   *
+   * @return the UserCheckin
+   */
+  UserCheckin toUserCheckin() {
+    return new UserCheckin(this.id, this.name, this.timestamp, this.lat,
+        this.lon);
+  }
+
+  // ---- Tokens ----
+
+  /**
+   * A helper function which reads an int.
+   *
+   * @return the int
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  private int readInt() throws IOException {
+    int c = this.skipWhitespace();
+    boolean negative = c == '-';
+    if (negative) {
+      c = this.read();
+    }
+    if (c < '0' || c > '9') {
+      throw this.malformed("an id");
+    }
+    long value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        throw this.malformed("an id which fits in an int");
+      }
+      c = this.read();
+    }
+    this.unread(c);
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw this.malformed("an id which fits in an int");
+    }
+    return (int) value;
+  }
+
+  /**
+   * A helper function which reads a JSON number as a double.
+   *
+   * @return the double
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  private double readDouble() throws IOException {
+    int length = 0;
+    int c = this.skipWhitespace();
+    boolean negative = c == '-';
+    if (negative) {
+      this.number[length++] = (char) c;
+      c = this.read();
+    }
+    long mantissa = 0;
+    boolean overflow = false;
+    int exponent = 0;
+    int digits = 0;
+    boolean fraction = false;
+    while (true) {
+      if (c >= '0' && c <= '9') {
+        digits++;
+        if (mantissa > MAX_MANTISSA) {
+          overflow = true;
+        } else {
+          mantissa = mantissa * 10 + (c - '0');
+          if (fraction) {
+            exponent--;
+          }
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+      length = this.append(length, c);
+      c = this.read();
+    }
+    if (digits == 0) {
+      throw this.malformed("a number");
+    }
+    if (c == 'e' || c == 'E') {
+      length = this.append(length, c);
+      c = this.read();
+      boolean negativeExponent = c == '-';
+      if (c == '-' || c == '+') {
+        length = this.append(length, c);
+        c = this.read();
+      }
+      if (c < '0' || c > '9') {
+        throw this.malformed("an exponent");
+      }
+      int explicit = 0;
+      while (c >= '0' && c <= '9') {
+        // Any exponent this large falls back, so it need not be exact
+        explicit = Math.min(explicit * 10 + (c - '0'), MAX_NUMBER_LENGTH * 10);
+        length = this.append(length, c);
+        c = this.read();
+      }
+      exponent += negativeExponent ? -explicit : explicit;
+    }
+    this.unread(c);
+
+    double value;
+    if (overflow) {
+      return Double.parseDouble(new String(this.number, 0, length));
+    } else if (exponent >= 0 && exponent <= MAX_EXACT_POW10
+        && mantissa < MAX_EXACT_LONG) {
+      // Both operands are exact, so one rounding gives the nearest double
+      value = mantissa * POW10[exponent];
+    } else if (exponent < 0 && -exponent <= MAX_EXACT_POW10
+        && mantissa < MAX_EXACT_LONG) {
+      value = mantissa / POW10[-exponent];
+    } else if (exponent < 0 && -exponent <= MAX_LONG_POW5) {
+      value = divideByPow10(mantissa, -exponent);
+    } else {
+      return Double.parseDouble(new String(this.number, 0, length));
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * A helper function which reads a JSON string, or null, reusing the
+   * previous String for the current id if its name has not changed.
+   *
+   * @return the String, or null
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  private String readName() throws IOException {
+    int c = this.skipWhitespace();
+    if (c == 'n') {
+      this.expect('u', this.read());
+      this.expect('l', this.read());
+      this.expect('l', this.read());
+      return null;
+    }
+    this.expect('"', c);
+    int length = 0;
+    while ((c = this.read()) != '"') {
+      if (c < 0) {
+        throw this.malformed("'\"'");
+      } else if (c == '\\') {
+        c = this.readEscape();
+      } else if (c >= FOUR_BYTE_LEAD) {
+        int codePoint = this.readContinuations(c & (~FOUR_BYTE_LEAD), 3);
+        length = this.appendChar(length, Character.highSurrogate(codePoint));
+        c = Character.lowSurrogate(codePoint);
+      } else if (c >= THREE_BYTE_LEAD) {
+        c = this.readContinuations(c & (~THREE_BYTE_LEAD), 2);
+      } else if (c >= TWO_BYTE_LEAD) {
+        c = this.readContinuations(c & (~TWO_BYTE_LEAD), 1);
+      }
+      length = this.appendChar(length, (char) c);
+    }
+
+    int slot = this.id & (NAME_CACHE_SIZE - 1);
+    String cached = this.cachedNames[slot];
+    if (cached != null && this.cachedIds[slot] == this.id
+        && this.matches(cached, length)) {
+      return cached;
+    }
+    String parsed = new String(this.chars, 0, length);
+    this.cachedIds[slot] = this.id;
+    this.cachedNames[slot] = parsed;
+    return parsed;
+  }
+
+  /**
+   * A helper function which reads the rest of a backslash escape.
+   *
+   * @return the escaped char
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  private int readEscape() throws IOException {
+    int c = this.read();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < HEX_DIGITS; i++) {
+          int digit = Character.digit(this.read(), HEX_RADIX);
+          if (digit < 0) {
+            throw this.malformed("a hex digit");
+          }
+          value = value * HEX_RADIX + digit;
+        }
+        return value;
+      default:
+        throw this.malformed("an escape");
+    }
+  }
+
+  /**
+   * A helper function which reads the continuation bytes of a UTF-8
+   * character.
+   *
+   * @param lead  an int, the bits of the character's lead byte
+   * @param count an int, how many continuation bytes there are
+   * @return the code point
+   * @throws IOException if the response cannot be read or is malformed
+   */
+  private int readContinuations(int lead, int count) throws IOException {
+    int codePoint = lead;
+    for (int i = 0; i < count; i++) {
+      int c = this.read();
+      if (c < 0) {
+        throw this.malformed("a UTF-8 continuation byte");
+      }
+      codePoint = (codePoint << CONTINUATION_BITS) | (c & CONTINUATION_MASK);
+    }
+    return codePoint;
+  }
+
+  /**
+   * A helper function which checks whether a String is the name just read.
+   *
+   * @param string the String
+   * @param length an int, the length of the name just read
+   * @return true if they are equal
+   */
+  private boolean matches(String string, int length) {
+    if (string.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (string.charAt(i) != this.chars[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A helper function which adds a char to the name being read, growing
+   * the array if needed.
+   *
+   * @param length an int, the name's length so far
+   * @param c      the char
+   * @return the name's new length
+   */
+  private int appendChar(int length, char c) {
+    if (length == this.chars.length) {
+      char[] grown = new char[2 * length];
+      System.arraycopy(this.chars, 0, grown, 0, length);
+      this.chars = grown;
+    }
+    this.chars[length] = c;
+    return length + 1;
+  }
+
+  /**
+   * A helper function which adds a char to the number being read, in case
+   * it has to fall back to Double.parseDouble().
+   *
+   * @param length an int, the number's length so far
+   * @param c      an int, the char
+   * @return the number's new length
+   * @throws IOException if the number is too long
+   */
+  private int append(int length, int c) throws IOException {
+    if (length == MAX_NUMBER_LENGTH) {
+      throw this.malformed("a shorter number");
+    }
+    this.number[length] = (char) c;
+    return length + 1;
+  }
+
+  // ---- Bytes ----
+
+  /**
+   * A helper function which reads the next byte which is not whitespace.
+   *
+   * @return the byte, or -1 at the end of the response
+   * @throws IOException if the response cannot be read
+   */
+  private int skipWhitespace() throws IOException {
+    int c;
+    do {
+      c = this.read();
+    } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+    return c;
+  }
+
+  /**
+   * A helper function which reads the next byte.
+   *
+   * @return the byte, or -1 at the end of the response
+   * @throws IOException if the response cannot be read
+   */
+  private int read() throws IOException {
+    if (this.position == this.limit) {
+      if (this.in == null) {
+        return -1;
+      }
+      this.offset += this.limit;
+      this.position = 0;
+      this.limit = Math.max(this.in.read(this.buffer), 0);
+      if (this.limit == 0) {
+        return -1;
+      }
+    }
+    return this.buffer[this.position++] & BYTE_MASK;
+  }
+
+  /**
+   * A helper function which puts back the byte just read, so that the next
+   * read() gives it again.
+   *
+   * @param c an int, the byte just read, or -1 at the end of the response
+   */
+  private void unread(int c) {
+    if (c >= 0) {
+      this.position--;
+    }
+  }
+
+  /**
+   * A helper function which checks that a byte is the one expected.
+   *
+   * @param expected the expected char
+   * @param c        an int, the byte
+   * @throws IOException if it is not
+   */
+  private void expect(char expected, int c) throws IOException {
+    if (c != expected) {
+      throw this.malformed("'" + expected + "'");
+    }
+  }
+
+  /**
+   * A helper function which makes an exception for a malformed response.
+   *
+   * @param expected a description of what was expected
+   * @return the IOException
+   */
+  private IOException malformed(String expected) {
+    return new IOException("Malformed checkins: expected " + expected
+        + " at byte " + (this.offset + this.position - 1));
+  }
+
+  // ---- Numbers ----
+
+  /**
+   * A function which divides a long by a power of 10, rounding to the
+   * nearest double, ties to even, as Double.parseDouble() would.
+   * <p>
+   * Dividing by 10^k is dividing by 5^k and scaling by 2^-k, which is
+   * exact, so this divides by 5^k, one bit at a time until there are 64
+   * bits of quotient, and rounds those to the 53 of a double.
+   *
+   * @param mantissa a long, the non-negative dividend
+   * @param power    an int, the power of 10, at most 27
+   * @return the nearest double to mantissa / 10^power
+   */
+  static double divideByPow10(long mantissa, int power) {
+    if (mantissa == 0) {
+      return 0;
+    }
+    long divisor = POW5[power];
+    long quotient = mantissa / divisor;
+    long remainder = mantissa % divisor;
+    int shift = 0;
+    // The divisor is below 2^63, so the doubled remainder fits unsigned
+    while (quotient >= 0) {
+      quotient <<= 1;
+      remainder <<= 1;
+      if (Long.compareUnsigned(remainder, divisor) >= 0) {
+        quotient |= 1;
+        remainder -= divisor;
+      }
+      shift++;
+    }
+    long result = quotient >>> DROPPED_BITS;
+    long dropped = quotient & DROPPED_MASK;
+    if (dropped > DROPPED_HALF || (dropped == DROPPED_HALF
+        && (remainder != 0 || (result & 1) == 1))) {
+      result++;
+    }
+    return Math.scalb((double) result, DROPPED_BITS - shift - power);
+  }
+}
@@ -0,0 +1,23 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An interface for the sources of user checkins which a CheckinThread
+ * polls: the checkin server, a replayed recording, or a synthetic
+ * generator for load testing.
+ */
+public interface CheckinSource {
+
+  /**
+   * A function which gets the checkins which have arrived since the last
+   * call. Nothing is added if an exception is thrown, and those checkins
+   * are got by the next call instead, where the source allows it.
+   *
+   * @param out the List to add the new checkins to, oldest first
+   * @throws IOException if the source cannot be read, e.g. a
+   *                     ConnectException if a server refuses connections
+   */
+  void poll(List<UserCheckin> out) throws IOException;
+}
@@ -0,0 +1,135 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printInfo;
+
+/**
+ * A class which stands in for the checkin server, serving checkins from a
+ * CheckinSource in the same format, so that the whole HTTP ingestion path
+ * can be load tested locally. Each request gets the checkins which arrived
+ * since the previous request; the last parameter is ignored.
+ * <p>
+ * Run with e.g. --port 8080 --checkin-synthetic 100000, or --port 8080
+ * --checkin-replay day.ndjson --checkin-speedup 100; see
+ * Main.acceptCheckinOptions().
+ */
+public final class CheckinStandInServer {
+
+  private static final int DEFAULT_PORT = 8080;
+  private static final int HTTP_OK = 200;
+
+  private final CheckinSource source;
+  private final HttpServer server;
+
+  /**
+   * The constructor for this class. The server is not started.
+   *
+   * @param source the CheckinSource to serve
+   * @param port   an int, the port to listen on, or 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  CheckinStandInServer(CheckinSource source, int port) throws IOException {
+    this.source = source;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.createContext("/", this::handle);
+  }
+
+  /**
+   * Runs a stand-in checkin server until killed.
+   *
+   * @param args the command line arguments
+   * @throws IOException if the server cannot start
+   */
+  public static void main(String[] args) throws IOException {
+    OptionParser parser = new OptionParser();
+    parser.accepts("port").withRequiredArg().ofType(Integer.class)
+        .defaultsTo(DEFAULT_PORT);
+    Main.acceptCheckinOptions(parser);
+    OptionSet options = parser.parse(args);
+    CheckinStandInServer standIn = new CheckinStandInServer(
+        Main.checkinSource(options), (int) options.valueOf("port"));
+    standIn.start();
+    printInfo("Serving checkins on port " + standIn.getPort());
+  }
+
+  /**
+   * A function which starts serving.
+   */
+  void start() {
+    this.server.start();
+  }
+
+  /**
+   * A function which stops serving.
+   */
+  void stop() {
+    this.server.stop(0);
+  }
+
+  /**
+   * A getter function for the port this server listens on.
+   *
+   * @return the port
+   */
+  int getPort() {
+    return this.server.getAddress().getPort();
+  }
+
+  /**
+   * A function which formats checkins as the checkin server does, as a JSON
+   * array of [timestamp, id, "name", lat, lon] arrays.
+   *
+   * @param checkins the UserCheckins
+   * @return the response body
+   */
+  static String format(List<UserCheckin> checkins) {
+    StringBuilder sb = new StringBuilder("[");
+    for (UserCheckin checkin : checkins) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append('[').append(checkin.getTimestamp())
+          .append(", ").append(checkin.getId())
+          .append(", ").append(JSONObject.quote(checkin.getName()))
+          .append(", ").append(checkin.getLat())
+          .append(", ").append(checkin.getLon()).append(']');
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * A helper function which answers one request.
+   *
+   * @param exchange the HttpExchange
+   * @throws IOException if the response cannot be sent
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    List<UserCheckin> checkins = new ArrayList<>();
+    // Requests are handled one at a time, so the source needs no locking
+    try {
+      this.source.poll(checkins);
+    } catch (IOException e) {
+      printError("IO Exception in CheckinStandInServer handle() method: "
+          + e.getMessage());
+    }
+    byte[] body = format(checkins).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(HTTP_OK, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
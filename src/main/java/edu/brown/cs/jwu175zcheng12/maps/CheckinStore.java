@@ -0,0 +1,391 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which stores user checkins in the checkins table of a sqlite db.
+ * <p>
+ * Checkins are queued, then written by a dedicated writer thread in
+ * batches, each one transaction, whenever maxBatchSize checkins are queued
+ * or maxBatchDelay has passed. The db is put in WAL mode with synchronous
+ * set to NORMAL, so a commit appends to the log without waiting for an
+ * fsync, and readers do not block the writer or each other. Reads use a
+ * small pool of read-only connections of their own.
+ * <p>
+ * The checkins table is indexed by user, then timestamp, so a user's
+ * checkins between two times are one contiguous stretch of the index,
+ * however long the table grows. They are read newest first, a page at a
+ * time, each page continuing from where the last stopped.
+ */
+final class CheckinStore {
+
+  static final int DEFAULT_MAX_BATCH_SIZE = 1 << 10;
+  static final long DEFAULT_MAX_BATCH_DELAY = 200;
+  static final int DEFAULT_PAGE_SIZE = 1 << 10;
+  private static final int MAX_QUEUED = 1 << 16;
+  private static final int NUM_READERS = 4;
+  private static final int NAME = 2;
+  private static final int TIMESTAMP = 3;
+  private static final int LATITUDE = 4;
+  private static final int LONGITUDE = 5;
+  // Paged queries also select the rowid, before the checkins' columns
+  private static final int PAGE_OFFSET = 1;
+  private static final int PAGE_FROM = 2;
+  private static final int PAGE_TO = 3;
+  private static final int PAGE_BEFORE_TO = 4;
+  private static final int PAGE_BEFORE_ROW = 5;
+  private static final int PAGE_LIMIT = 6;
+
+  private final Connection writer;
+  private final BlockingQueue<Connection> readers =
+      new ArrayBlockingQueue<>(NUM_READERS);
+  private final BlockingQueue<UserCheckin> queue =
+      new LinkedBlockingQueue<>(MAX_QUEUED);
+  private final int maxBatchSize;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "checkin-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+  /**
+   * A class which represents one page of a user's checkins, and where the
+   * next page starts, if there is one.
+   */
+  static final class HistoryPage {
+    private final List<UserCheckin> checkins;
+    private final boolean hasMore;
+    private final double nextTo;
+    private final long nextBeforeRow;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param checkins      the page's UserCheckins, newest first
+     * @param hasMore       a boolean, true if there are older checkins
+     * @param nextTo        a double, the timestamp the next page ends at
+     * @param nextBeforeRow a long, the row the next page ends before
+     */
+    HistoryPage(List<UserCheckin> checkins, boolean hasMore, double nextTo,
+                long nextBeforeRow) {
+      this.checkins = checkins;
+      this.hasMore = hasMore;
+      this.nextTo = nextTo;
+      this.nextBeforeRow = nextBeforeRow;
+    }
+
+    /**
+     * A getter function for this class' checkins field.
+     *
+     * @return the page's UserCheckins, newest first
+     */
+    List<UserCheckin> getCheckins() {
+      return this.checkins;
+    }
+
+    /**
+     * A getter function for this class' hasMore field.
+     *
+     * @return true if there are older checkins in the range
+     */
+    boolean hasMore() {
+      return this.hasMore;
+    }
+
+    /**
+     * A getter function for this class' nextTo field.
+     *
+     * @return the to to pass for the next page
+     */
+    double getNextTo() {
+      return this.nextTo;
+    }
+
+    /**
+     * A getter function for this class' nextBeforeRow field.
+     *
+     * @return the beforeRow to pass for the next page
+     */
+    long getNextBeforeRow() {
+      return this.nextBeforeRow;
+    }
+  }
+
+  /**
+   * The constructor for this class. Clears the checkins table, then starts
+   * the writer thread.
+   *
+   * @param dbPath        the path to the sqlite db
+   * @param maxBatchSize  an int, how many queued checkins trigger a write
+   * @param maxBatchDelay a long, the longest a checkin stays queued, in
+   *                      milliseconds
+   * @throws SQLException           if the db cannot be opened
+   * @throws ClassNotFoundException if the sqlite driver is missing
+   */
+  CheckinStore(String dbPath, int maxBatchSize, long maxBatchDelay)
+      throws SQLException, ClassNotFoundException {
+    this.maxBatchSize = maxBatchSize;
+    // Setup SQL Driver Manager Class
+    Class.forName("org.sqlite.JDBC");
+    String urlToDB = "jdbc:sqlite:" + dbPath;
+    SQLiteConfig writerConfig = new SQLiteConfig();
+    writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+    writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+    this.writer = DriverManager.getConnection(urlToDB,
+        writerConfig.toProperties());
+    // Clear database
+    try (Statement stat = this.writer.createStatement()) {
+      stat.executeUpdate("DELETE FROM checkins WHERE true;");
+      stat.executeUpdate("CREATE INDEX IF NOT EXISTS checkins_by_user_time "
+          + "ON checkins (id, timestamp);");
+    }
+    this.writer.setAutoCommit(false);
+    SQLiteConfig readerConfig = new SQLiteConfig();
+    readerConfig.setReadOnly(true);
+    for (int i = 0; i < NUM_READERS; i++) {
+      this.readers.add(DriverManager.getConnection(urlToDB,
+          readerConfig.toProperties()));
+    }
+    this.executor.scheduleWithFixedDelay(this::flushQuietly, maxBatchDelay,
+        maxBatchDelay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A function which queues a checkin to be written, waiting if too many are
+   * queued already.
+   *
+   * @param checkin the UserCheckin
+   * @throws InterruptedException if interrupted while waiting
+   */
+  void add(UserCheckin checkin) throws InterruptedException {
+    this.queue.put(checkin);
+    if (this.queue.size() >= this.maxBatchSize
+        && this.flushQueued.compareAndSet(false, true)) {
+      try {
+        this.executor.execute(this::flushQuietly);
+      } catch (RejectedExecutionException e) {
+        this.flushQueued.set(false);
+      }
+    }
+  }
+
+  /**
+   * A function which writes every queued checkin, in transactions of at
+   * most maxBatchSize checkins.
+   *
+   * @throws SQLException if a batch cannot be written; it is rolled back,
+   *                      and its checkins are lost
+   */
+  void flush() throws SQLException {
+    this.flushQueued.set(false);
+    List<UserCheckin> batch = new ArrayList<>(this.maxBatchSize);
+    synchronized (this.writer) {
+      while (this.queue.drainTo(batch, this.maxBatchSize) > 0) {
+        // Use Try-with-resources
+        try (
+            PreparedStatement prep = this.writer.prepareStatement(
+                "INSERT INTO checkins VALUES (?, ?, ?, ?, ?);")
+        ) {
+          for (UserCheckin checkin : batch) {
+            prep.setInt(1, checkin.getId());
+            prep.setString(NAME, checkin.getName());
+            prep.setDouble(TIMESTAMP, checkin.getTimestamp());
+            prep.setDouble(LATITUDE, checkin.getLat());
+            prep.setDouble(LONGITUDE, checkin.getLon());
+            prep.addBatch();
+          }
+          prep.executeBatch();
+          this.writer.commit();
+        } catch (SQLException e) {
+          this.writer.rollback();
+          throw e;
+        } finally {
+          batch.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * A function which gets all the checkins for a single user. Histories can
+   * be long, so prefer getting them a page at a time.
+   *
+   * @param id an int, the user's id
+   * @return the user's checkins, newest first
+   * @throws SQLException if the checkins cannot be read
+   */
+  List<UserCheckin> getUserCheckins(int id) throws SQLException {
+    return this.getUserCheckins(id, Double.NEGATIVE_INFINITY,
+        Double.POSITIVE_INFINITY, Long.MAX_VALUE, Integer.MAX_VALUE)
+        .getCheckins();
+  }
+
+  /**
+   * A function which gets a page of a user's checkins from a time range,
+   * newest first. The range is from, inclusive, to to, exclusive, but for
+   * the checkins at to whose row is before beforeRow. A first page is got
+   * with a beforeRow of 0, and each next page by passing the last page's
+   * getNextTo() and getNextBeforeRow(), so checkins sharing a timestamp are
+   * never skipped or repeated between pages.
+   *
+   * @param id        an int, the user's id
+   * @param from      a double, the earliest timestamp in the range
+   * @param to        a double, the timestamp the range ends at
+   * @param beforeRow a long, the row before which checkins at to are in
+   *                  the range
+   * @param max       an int, the most checkins in the page
+   * @return the HistoryPage
+   * @throws SQLException if the checkins cannot be read
+   */
+  HistoryPage getUserCheckins(int id, double from, double to, long beforeRow,
+                              int max) throws SQLException {
+    if (Double.isNaN(from) || Double.isNaN(to) || max <= 0) {
+      throw new IllegalArgumentException(
+          "A page needs a time range and a positive size.");
+    }
+    List<UserCheckin> checkins = new ArrayList<>();
+    boolean hasMore = false;
+    double nextTo = to;
+    long nextBeforeRow = beforeRow;
+    Connection reader = this.borrowReader();
+    // Use Try-with-resources
+    try (
+        PreparedStatement prep = reader.prepareStatement(
+            "SELECT rowid, * FROM checkins WHERE id = ? AND timestamp >= ? "
+                + "AND timestamp <= ? AND (timestamp < ? OR rowid < ?) "
+                + "ORDER BY timestamp DESC, rowid DESC LIMIT ?;")
+    ) {
+      prep.setInt(1, id);
+      prep.setDouble(PAGE_FROM, from);
+      prep.setDouble(PAGE_TO, to);
+      prep.setDouble(PAGE_BEFORE_TO, to);
+      prep.setLong(PAGE_BEFORE_ROW, beforeRow);
+      // One more than a page, to tell whether there is a next page
+      prep.setLong(PAGE_LIMIT, (long) max + 1);
+      // Nested Try-with-resources necessary
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          if (checkins.size() == max) {
+            hasMore = true;
+            break;
+          }
+          nextBeforeRow = rs.getLong(1);
+          checkins.add(new UserCheckin(rs.getInt(PAGE_OFFSET + 1),
+              rs.getString(PAGE_OFFSET + NAME),
+              rs.getDouble(PAGE_OFFSET + TIMESTAMP),
+              rs.getDouble(PAGE_OFFSET + LATITUDE),
+              rs.getDouble(PAGE_OFFSET + LONGITUDE)));
+          nextTo = checkins.get(checkins.size() - 1).getTimestamp();
+        }
+      }
+    } finally {
+      this.readers.add(reader);
+    }
+    return new HistoryPage(checkins, hasMore, nextTo, nextBeforeRow);
+  }
+
+  /**
+   * A function which deletes all the checkins for a single user, including
+   * any still queued.
+   *
+   * @param id an int, the user's id
+   * @throws SQLException if the checkins cannot be deleted
+   */
+  void deleteUserCheckins(int id) throws SQLException {
+    synchronized (this.writer) {
+      this.flush();
+      // Use Try-with-resources
+      try (
+          PreparedStatement prep = this.writer.prepareStatement(
+              "DELETE FROM checkins WHERE id = ?;")
+      ) {
+        prep.setInt(1, id);
+        prep.executeUpdate();
+        this.writer.commit();
+      } catch (SQLException e) {
+        this.writer.rollback();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * A function which stops the writer thread, writes any queued checkins,
+   * then closes every connection.
+   */
+  void close() {
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(DEFAULT_MAX_BATCH_DELAY,
+          TimeUnit.MILLISECONDS);
+      this.flush();
+    } catch (SQLException e) {
+      printError("SQL Exception in CheckinStore close() method: "
+          + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      synchronized (this.writer) {
+        this.writer.close();
+      }
+      for (Connection reader : this.readers) {
+        reader.close();
+      }
+    } catch (SQLException e) {
+      printError("SQL Exception in CheckinStore close() method: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * A helper function which writes the queued checkins on the writer
+   * thread, reporting rather than throwing errors so that later writes are
+   * still scheduled.
+   */
+  private void flushQuietly() {
+    try {
+      this.flush();
+    } catch (SQLException e) {
+      printError("SQL Exception in CheckinStore flush() method: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * A helper function which takes a read-only connection from the pool,
+   * waiting for one to be returned if need be.
+   *
+   * @return a read-only Connection, to be added back to the pool
+   * @throws SQLException if interrupted while waiting
+   */
+  private Connection borrowReader() throws SQLException {
+    try {
+      return this.readers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a connection.", e);
+    }
+  }
+}
@@ -2,38 +2,56 @@ package edu.brown.cs.jwu175zcheng12.maps;
 
 import com.google.common.collect.ImmutableMap;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
 
 /**
- * thread that continuously communicates with checkin server.
+ * A class which polls a CheckinSource, normally the checkin server, for new
+ * user checkins on a schedule, appending them to a CheckinLog for the GUI
+ * and queueing them to be written to a sqlite db by a CheckinStore.
+ * <p>
+ * Polls run on a single daemon thread of a ScheduledExecutorService, once
+ * every poll interval, so the poller sleeps between polls instead of
+ * spinning. While the source refuses connections or fails, the delay between
+ * polls doubles with each failure, up to a maximum, and drops back to the
+ * poll interval once a poll succeeds. If the db cannot be opened, checkins
+ * are still polled, but not written to it.
  */
-public final class CheckinThread extends Thread {
-  private long last = 0;
-  private Map<Double, UserCheckin> checkins;
-  private boolean pause = false;
+public final class CheckinThread {
   static final long MS_CONVERSION = 1000;
-  private Connection dbConn = null;
+  static final long DEFAULT_POLL_INTERVAL = 1000;
+  static final long DEFAULT_MAX_BACKOFF = 30000;
+  private static final int MAX_BACKOFF_SHIFT = 20;
+
+  private final CheckinSource source;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "checkin-poller");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+  private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+  // Only used by the poller thread
+  private int failures = 0;
+  private final CheckinLog checkinLog =
+      new CheckinLog(CheckinLog.DEFAULT_CAPACITY);
+  private final CheckinStore checkinStore;
+  private final LiveUserIndex liveUsers =
+      new LiveUserIndex(LiveUserIndex.DEFAULT_CELL_DEGREES);
+  private volatile MapMatcher mapMatcher;
 
   /**
    * The constructor for this class.
@@ -41,196 +59,314 @@ public final class CheckinThread extends Thread {
    * @param dbPath the path to the sqlite db to be used for our checkins
    */
   public CheckinThread(String dbPath) {
-    checkins = Collections.synchronizedMap(new HashMap<>());
-    // Create connection
+    this(dbPath, new HttpCheckinSource(HttpCheckinSource.DEFAULT_SERVER_URL));
+  }
+
+  /**
+   * The constructor for this class.
+   *
+   * @param dbPath the path to the sqlite db to be used for our checkins
+   * @param source the CheckinSource to poll for checkins
+   */
+  public CheckinThread(String dbPath, CheckinSource source) {
+    this.source = source;
+    // Create connections, and clear database
+    CheckinStore store = null;
     try {
-      // Setup SQL Driver Manager Class
-      Class.forName("org.sqlite.JDBC");
-      String urlToDB = "jdbc:sqlite:" + dbPath;
-      this.dbConn = DriverManager.getConnection(urlToDB);
+      store = new CheckinStore(dbPath, CheckinStore.DEFAULT_MAX_BATCH_SIZE,
+          CheckinStore.DEFAULT_MAX_BATCH_DELAY);
     } catch (ClassNotFoundException | SQLException e) {
       printError("SQL or ClassNotFound Exception in CheckinThread constructor: "
           + e.getMessage());
     }
-    // Clear database
-    try (
-        PreparedStatement prep = this.dbConn.prepareStatement(
-            "DELETE FROM checkins WHERE true;")
-    ) {
-      prep.executeUpdate();
-    } catch (SQLException e) {
-      printError("SQL Exception in CheckinThread run() method: "
-          + e.getMessage());
+    this.checkinStore = store;
+  }
+
+  /**
+   * A setter function for this class' pollInterval field. Takes effect from
+   * the next poll.
+   *
+   * @param pollInterval a long, the time between polls, in milliseconds
+   */
+  public void setPollInterval(long pollInterval) {
+    if (pollInterval <= 0) {
+      throw new IllegalArgumentException("Poll interval must be positive.");
     }
+    this.pollInterval = pollInterval;
+  }
+
+  /**
+   * A setter function for this class' maxBackoff field. Takes effect from
+   * the next poll.
+   *
+   * @param maxBackoff a long, the longest time between polls while the
+   *                   checkin server is down, in milliseconds
+   */
+  public void setMaxBackoff(long maxBackoff) {
+    if (maxBackoff <= 0) {
+      throw new IllegalArgumentException("Max backoff must be positive.");
+    }
+    this.maxBackoff = maxBackoff;
+  }
+
+  /**
+   * A function which starts polling the checkin server.
+   */
+  public void start() {
+    this.executor.execute(this::poll);
   }
 
   /**
-   * runs the thread by querying the url for information on user checkins.
-   */
-  public synchronized void run() {
-    List<List<String>> updates = null;
-
-    long lastSec = 0;
-
-    while (true) {
-      long sec = System.currentTimeMillis() / MS_CONVERSION;
-      if (sec != lastSec && !pause) {
-        try {
-          updates = this.update();
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-
-        if (updates != null && !updates.isEmpty()) {
-          // Use Try-with-resources
-          try (
-              PreparedStatement prep = this.dbConn.prepareStatement(
-                  "INSERT INTO checkins VALUES (?, ?, ?, ?, ?);")
-          ) {
-            // Iterate over new updates
-            for (List<String> el : updates) {
-              double timestamp = Double.parseDouble(el.get(0));
-              int id = Integer.parseInt(el.get(1));
-              String name = el.get(2);
-              double lat = Double.parseDouble(el.get(3));
-              double lon = Double.parseDouble(el.get(4));
-
-              // Put in concurrent hashmap
-              UserCheckin uc = new UserCheckin(id, name, timestamp, lat, lon);
-              checkins.put(timestamp, uc);
-
-              // Add to prepared statement batch
-              prep.setInt(1, id);
-              prep.setString(2, name);
-              prep.setDouble(3, timestamp);
-              prep.setDouble(4, lat);
-              prep.setDouble(5, lon);
-              prep.addBatch();
-            }
-            // Finally execute batch
-            prep.executeBatch();
-          } catch (SQLException e) {
-            printError("SQL Exception in CheckinThread run() method: "
-                + e.getMessage());
-          }
-        }
-        lastSec = sec;
+   * A function which stops polling, waits for any poll in progress to
+   * finish, then writes any queued checkins and closes the db. Does nothing
+   * if already stopped.
+   */
+  public void stop() {
+    this.executor.shutdownNow();
+    try {
+      if (!this.executor.awaitTermination(
+          this.maxBackoff, TimeUnit.MILLISECONDS)) {
+        printError("Checkin poller did not stop in time.");
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    synchronized (this) {
+      if (this.stopped.getCount() == 0) {
+        return;
+      }
+      if (this.checkinStore != null) {
+        this.checkinStore.close();
+      }
+      if (this.mapMatcher != null) {
+        this.mapMatcher.close();
+      }
+      this.stopped.countDown();
+    }
+  }
+
+  /**
+   * A function which blocks until this poller is stopped.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void join() throws InterruptedException {
+    this.stopped.await();
   }
 
-  private synchronized List<List<String>> update() throws IOException {
-    URL serverURL = new URL("http://localhost:8080?last=" + last);
-    last = Instant.now().getEpochSecond();
-
-    HttpURLConnection conn = (HttpURLConnection) serverURL.openConnection();
-    conn.setRequestMethod("GET");
-
-    Pattern pattern = Pattern.compile(
-        "\\[(.*?)\\, (.*?)\\, \"(.*?)\", (.*?)\\, (.*?)\\]");
-    String line;
-    List<List<String>> output = new ArrayList<>();
-
-    // Use try-with-resources
-    try (
-        BufferedReader br = new BufferedReader(
-            new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))
-    ) {
-      while ((line = br.readLine()) != null) {
-        Matcher matcher = pattern.matcher(line);
-        while (matcher.find()) {
-          List<String> data = new ArrayList<>();
-          String parsedTimestamp = matcher.group(1);
-          if (parsedTimestamp.charAt(0) == '[') {
-            data.add(parsedTimestamp.substring(1));
-          } else {
-            data.add(parsedTimestamp);
-          }
-          data.add(matcher.group(2));
-          data.add(matcher.group(3));
-          data.add(matcher.group(4));
-          data.add(matcher.group(5));
-          output.add(data);
-        }
+  /**
+   * A function which polls the CheckinSource once, stores any new
+   * checkins, then schedules the next poll.
+   */
+  private void poll() {
+    long delay = this.pollInterval;
+    try {
+      List<UserCheckin> updates = new ArrayList<>();
+      this.source.poll(updates);
+      this.failures = 0;
+      this.store(updates);
+    } catch (ConnectException e) {
+      // The checkin server is not running (yet), so back off
+      this.failures++;
+      delay = backoffDelay(this.pollInterval, this.maxBackoff, this.failures);
+    } catch (IOException e) {
+      this.failures++;
+      delay = backoffDelay(this.pollInterval, this.maxBackoff, this.failures);
+      printError("IO Exception in CheckinThread poll() method: "
+          + e.getMessage());
+    } catch (RuntimeException e) {
+      // Otherwise lost in the executor, and retried at the full rate
+      this.failures++;
+      delay = backoffDelay(this.pollInterval, this.maxBackoff, this.failures);
+      printError("Runtime Exception in CheckinThread poll() method: " + e);
+    } finally {
+      try {
+        this.executor.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ignored) {
+        // Stopped meanwhile
       }
-    } catch (ConnectException ignored) {
-      // printInfo("Connection refused. Check that the checkin server is running!");
     }
+  }
 
-    return output;
+  /**
+   * A function which finds the delay before the next poll after a number of
+   * failed polls in a row.
+   *
+   * @param pollInterval a long, the time between polls, in milliseconds
+   * @param maxBackoff   a long, the longest delay, in milliseconds
+   * @param failures     an int, how many polls in a row have failed
+   * @return the poll interval doubled for each failure, but at most
+   * maxBackoff (and at least pollInterval)
+   */
+  static long backoffDelay(long pollInterval, long maxBackoff, int failures) {
+    int shift = Math.min(failures, MAX_BACKOFF_SHIFT);
+    if (pollInterval > (maxBackoff >> shift)) {
+      return Math.max(pollInterval, maxBackoff);
+    }
+    return pollInterval << shift;
+  }
+
+  /**
+   * A function which hands new checkins to the CheckinLog, moves their users
+   * in the LiveUserIndex, queues them to be matched onto the map, if there
+   * is a MapMatcher, and queues them to be written to the db, if it could be
+   * opened.
+   *
+   * @param updates the new checkins
+   */
+  private void store(List<UserCheckin> updates) {
+    liveUsers.update(updates);
+    MapMatcher matcher = this.mapMatcher;
+    if (matcher != null) {
+      matcher.addAll(updates);
+    }
+    // Iterate over new updates
+    for (UserCheckin checkin : updates) {
+      // Hand to the GUI
+      checkinLog.append(checkin);
+
+      // Queue for the db
+      if (checkinStore == null) {
+        continue;
+      }
+      try {
+        checkinStore.add(checkin);
+      } catch (InterruptedException e) {
+        // Stopping, so the rest are dropped
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
   }
 
   /**
-   * gets the latest checkin updates. Refreshes hashmap so only new
-   * checkin updates are returned next time.
+   * A function which gets the checkins which no caller of this function has
+   * got yet, so each is returned once, however many callers there are.
    *
-   * @return map from a string to a double of timestamps to checkin objects
+   * @param max an int, the most checkins to get
+   * @return the checkins, oldest first
    */
-  public Map<Double, UserCheckin> getLatestCheckins() {
-    pause = true;
-    Map<Double, UserCheckin> temp = checkins;
-    checkins = Collections.synchronizedMap(new HashMap<>());
-    pause = false;
-    return temp;
+  public List<UserCheckin> getLatestCheckins(int max) {
+    List<UserCheckin> latest = new ArrayList<>();
+    checkinLog.readShared(max, latest);
+    return latest;
   }
 
   /**
-   * A function which gets the all the checkins for a single user and returns it
-   * as a list of Objects (for frontend).
+   * A function which gets the checkins from a cursor onwards, for a caller
+   * which keeps its own cursor and so sees every checkin exactly once,
+   * unless it falls too far behind. See CheckinLog.
+   *
+   * @param cursor a long, the cursor returned by the caller's last call, or
+   *               0 to start from the oldest checkin kept
+   * @param max    an int, the most checkins to get
+   * @param out    the List to add the checkins to, oldest first
+   * @return the cursor to pass next time
+   */
+  public long getCheckinsFrom(long cursor, int max, List<UserCheckin> out) {
+    return checkinLog.read(cursor, max, out);
+  }
+
+  /**
+   * A getter function for the index of every user's latest position.
+   *
+   * @return the LiveUserIndex
+   */
+  LiveUserIndex getLiveUsers() {
+    return liveUsers;
+  }
+
+  /**
+   * A setter function for this class' mapMatcher field. New checkins are
+   * matched onto the map by it from then on; it is closed on stop().
+   *
+   * @param mapMatcher the MapMatcher, or null to stop matching
+   */
+  void setMapMatcher(MapMatcher mapMatcher) {
+    this.mapMatcher = mapMatcher;
+  }
+
+  /**
+   * A getter function for this class' mapMatcher field.
+   *
+   * @return the MapMatcher, or null if checkins are not being matched
+   */
+  MapMatcher getMapMatcher() {
+    return this.mapMatcher;
+  }
+
+  /**
+   * A function which gets the latest checkins for a single user, up to a
+   * page of them, and returns it as a list of Objects (for frontend).
    *
    * @param id an int, the id of the user whose data is being requested
    * @return a list of Objects representing the checkins of one user
    */
   public List<Object> getOneUsersCheckinsHandlerForGUI(int id) {
-    pause = true;
     List<Object> oneUsersCheckinsList = new ArrayList<>();
-    // Use Try-with-resources
-    try (
-        PreparedStatement prep = this.dbConn.prepareStatement(
-            "SELECT * FROM checkins WHERE id = ?;")
-    ) {
-      prep.setInt(1, id);
-      // Nested Try-with-resources necessary
-      try (ResultSet rs = prep.executeQuery()) {
-        while (rs.next()) {
-          Map<String, Object> checkinInfo = ImmutableMap.<String, Object>builder()
-              .put("id", rs.getInt(1))
-              .put("name", rs.getString(2))
-              .put("timestamp", rs.getDouble(3))
-              .put("latitude", rs.getDouble(4))
-              .put("longitude", rs.getDouble(5))
-              .build();
-          oneUsersCheckinsList.add(checkinInfo);
-        }
+    try {
+      for (UserCheckin checkin : this.getUserHistory(id,
+          Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Long.MAX_VALUE,
+          CheckinStore.DEFAULT_PAGE_SIZE).getCheckins()) {
+        Map<String, Object> checkinInfo = ImmutableMap.<String, Object>builder()
+            .put("id", checkin.getId())
+            .put("name", checkin.getName())
+            .put("timestamp", checkin.getTimestamp())
+            .put("latitude", checkin.getLat())
+            .put("longitude", checkin.getLon())
+            .build();
+        oneUsersCheckinsList.add(checkinInfo);
       }
     } catch (SQLException e) {
       printError("SQL Exception in CheckinThread getOneUsersCheckinsHandlerForGUI() method: "
           + e.getMessage());
     }
     // Return
-    pause = false;
     return oneUsersCheckinsList;
   }
 
+  /**
+   * A function which gets a page of a user's checkins from a time range,
+   * newest first. See CheckinStore.getUserCheckins.
+   *
+   * @param id        an int, the user's id
+   * @param from      a double, the earliest timestamp in the range
+   * @param to        a double, the timestamp the range ends at
+   * @param beforeRow a long, the row before which checkins at to are in
+   *                  the range, or 0 for a first page
+   * @param max       an int, the most checkins in the page
+   * @return the HistoryPage
+   * @throws SQLException if the checkins cannot be read, or the db could not
+   *                      be opened
+   */
+  CheckinStore.HistoryPage getUserHistory(int id, double from, double to,
+                                          long beforeRow, int max)
+      throws SQLException {
+    if (checkinStore == null) {
+      throw new SQLException("The checkins db could not be opened.");
+    }
+    return checkinStore.getUserCheckins(id, from, to, beforeRow, max);
+  }
+
   /**
    * A function which deletes all the checkins for a single user.
    *
    * @param id an int, the id of the user whose data is being requested
    */
   public void deleteUserData(int id) {
-    pause = true;
-    try (
-        PreparedStatement prep = this.dbConn.prepareStatement(
-            "DELETE FROM checkins WHERE id = ?;")
-    ) {
-      prep.setInt(1, id);
-      // Nested Try-with-resources necessary
-      prep.executeQuery();
+    liveUsers.remove(id);
+    MapMatcher matcher = this.mapMatcher;
+    if (matcher != null) {
+      matcher.remove(id);
+    }
+    if (checkinStore == null) {
+      return;
+    }
+    try {
+      checkinStore.deleteUserCheckins(id);
     } catch (SQLException e) {
-      printError("SQL Exception in CheckinThread getOneUsersCheckinsHandlerForGUI() method: "
+      printError("SQL Exception in CheckinThread deleteUserData() method: "
           + e.getMessage());
     }
-    // Return
-    pause = false;
   }
 }
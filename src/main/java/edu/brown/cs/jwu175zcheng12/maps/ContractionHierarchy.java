@@ -0,0 +1,385 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class which represents a contraction hierarchy over a RoadGraph, and
+ * answers shortest-path queries with it.
+ * <p>
+ * Every Node has a rank (the order in which it was contracted). Edges
+ * 0 to numOriginalEdges - 1 are the RoadGraph's own edges; every later edge
+ * is a shortcut, standing for the two edges (first, then second) which it
+ * replaced when the Node between them was contracted. A query runs Dijkstra
+ * upwards (towards higher ranks) from both ends, and the two searches meet
+ * at the highest-ranked Node of an optimal path. Shortcuts on the result are
+ * then unpacked back into Ways.
+ * <p>
+ * A ContractionHierarchy is built by ContractionHierarchyBuilder, and can be
+ * saved to (and loaded from) a sidecar file next to the database, whose name
+ * is given by sidecarFor.
+ */
+public final class ContractionHierarchy {
+
+  private static final int MAGIC = 0x4348_4D50; // "CHMP"
+  private static final int VERSION = 1;
+  private static final int INITIAL_STACK_SIZE = 16;
+
+  private final RoadGraph graph;
+  private final int[] rank;
+  private final int[] edgeFrom;
+  private final int[] edgeTo;
+  private final double[] edgeWeight;
+  private final int[] edgeFirst;
+  private final int[] edgeSecond;
+  private final int[] firstUpOut;
+  private final int[] upOut;
+  private final int[] firstUpIn;
+  private final int[] upIn;
+  private final ThreadLocal<SearchScratch> forwardScratch;
+  private final ThreadLocal<SearchScratch> backwardScratch;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class. The shortcut arrays all have one entry
+   * per shortcut; shortcut i has edge id graph.getNumEdges() + i.
+   *
+   * @param graph          the RoadGraph which was contracted
+   * @param rank           an int array, the rank of each Node
+   * @param shortcutFrom   an int array, the start Node of each shortcut
+   * @param shortcutTo     an int array, the end Node of each shortcut
+   * @param shortcutWeight a double array, the weight of each shortcut
+   * @param shortcutFirst  an int array, the edge id of each shortcut's first
+   *                       half
+   * @param shortcutSecond an int array, the edge id of each shortcut's second
+   *                       half
+   */
+  ContractionHierarchy(RoadGraph graph, int[] rank, int[] shortcutFrom,
+                       int[] shortcutTo, double[] shortcutWeight,
+                       int[] shortcutFirst, int[] shortcutSecond) {
+    this.graph = graph;
+    this.rank = rank;
+    int numNodes = graph.getNumNodes();
+    int numOriginal = graph.getNumEdges();
+    int numEdges = numOriginal + shortcutFrom.length;
+
+    // Lay original edges and shortcuts out in one set of edge arrays
+    this.edgeFrom = new int[numEdges];
+    this.edgeTo = new int[numEdges];
+    this.edgeWeight = new double[numEdges];
+    this.edgeFirst = new int[numEdges];
+    this.edgeSecond = new int[numEdges];
+    for (int e = 0; e < numOriginal; e++) {
+      this.edgeFrom[e] = graph.source(e);
+      this.edgeTo[e] = graph.target(e);
+      this.edgeWeight[e] = graph.weight(e);
+      this.edgeFirst[e] = -1;
+      this.edgeSecond[e] = -1;
+    }
+    System.arraycopy(shortcutFrom, 0, this.edgeFrom, numOriginal,
+        shortcutFrom.length);
+    System.arraycopy(shortcutTo, 0, this.edgeTo, numOriginal,
+        shortcutTo.length);
+    System.arraycopy(shortcutWeight, 0, this.edgeWeight, numOriginal,
+        shortcutWeight.length);
+    System.arraycopy(shortcutFirst, 0, this.edgeFirst, numOriginal,
+        shortcutFirst.length);
+    System.arraycopy(shortcutSecond, 0, this.edgeSecond, numOriginal,
+        shortcutSecond.length);
+
+    // Counting-sort upward edges by their lower-ranked end, in two CSRs:
+    // upOut for edges climbing out of a Node, upIn for edges climbing into it
+    // when followed backwards
+    this.firstUpOut = new int[numNodes + 1];
+    this.firstUpIn = new int[numNodes + 1];
+    for (int e = 0; e < numEdges; e++) {
+      int from = this.edgeFrom[e];
+      int to = this.edgeTo[e];
+      if (rank[from] < rank[to]) {
+        this.firstUpOut[from + 1]++;
+      } else if (rank[from] > rank[to]) {
+        this.firstUpIn[to + 1]++;
+      }
+    }
+    for (int node = 0; node < numNodes; node++) {
+      this.firstUpOut[node + 1] += this.firstUpOut[node];
+      this.firstUpIn[node + 1] += this.firstUpIn[node];
+    }
+    this.upOut = new int[this.firstUpOut[numNodes]];
+    this.upIn = new int[this.firstUpIn[numNodes]];
+    int[] nextOut = Arrays.copyOf(this.firstUpOut, numNodes);
+    int[] nextIn = Arrays.copyOf(this.firstUpIn, numNodes);
+    for (int e = 0; e < numEdges; e++) {
+      int from = this.edgeFrom[e];
+      int to = this.edgeTo[e];
+      if (rank[from] < rank[to]) {
+        this.upOut[nextOut[from]++] = e;
+      } else if (rank[from] > rank[to]) {
+        this.upIn[nextIn[to]++] = e;
+      }
+    }
+
+    this.forwardScratch = ThreadLocal.withInitial(
+        () -> new SearchScratch(numNodes));
+    this.backwardScratch = ThreadLocal.withInitial(
+        () -> new SearchScratch(numNodes));
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the number of shortcuts added by contraction.
+   *
+   * @return the number of shortcuts in this ContractionHierarchy
+   */
+  public int getNumShortcuts() {
+    return this.edgeFrom.length - this.graph.getNumEdges();
+  }
+
+  /**
+   * A getter function for the rank of a Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the rank of that Node, i.e. the order it was contracted in
+   */
+  public int getRank(int node) {
+    return this.rank[node];
+  }
+
+  /**
+   * A function which checks whether a Node belongs to this
+   * ContractionHierarchy's RoadGraph, i.e. whether it can be passed to
+   * shortestPath.
+   *
+   * @param node a Node
+   * @return true if the Node is in the contracted RoadGraph
+   */
+  public boolean owns(Node node) {
+    int index = node.getGraphIndex();
+    return index >= 0 && index < this.graph.getNumNodes()
+        && this.graph.getNode(index) == node;
+  }
+
+  // ----------------------------- Pathfinding -----------------------------
+
+  /**
+   * A function which uses the contraction hierarchy to find the optimal path,
+   * represented as an ordered list of Ways, from one Node to another. Both
+   * Nodes must be owned by this ContractionHierarchy.
+   *
+   * @param startNode  the starting Node
+   * @param targetNode the target Node
+   * @return a List of Ways which represents the optimal path from startNode
+   * to targetNode. The List will be empty if they are the same Node. Null
+   * will be returned if targetNode cannot be reached from startNode.
+   */
+  public List<Way> shortestPath(Node startNode, Node targetNode) {
+    int source = startNode.getGraphIndex();
+    int target = targetNode.getGraphIndex();
+
+    // Handle base case
+    if (source == target) {
+      return new ArrayList<>(0);
+    }
+
+    // Prepare this thread's scratch space
+    SearchScratch forward = this.forwardScratch.get();
+    SearchScratch backward = this.backwardScratch.get();
+    forward.reset();
+    backward.reset();
+    IndexedMinHeap forwardHeap = forward.heap();
+    IndexedMinHeap backwardHeap = backward.heap();
+
+    // Add starting and target Nodes
+    forward.relax(source, 0, null, -1);
+    forwardHeap.insertOrDecrease(source, 0);
+    backward.relax(target, 0, null, -1);
+    backwardHeap.insertOrDecrease(target, 0);
+    // Climb from both ends; a side is done once it can't beat bestDist
+    double bestDist = Double.POSITIVE_INFINITY;
+    int meeting = -1;
+    while (true) {
+      boolean forwardLive = !forwardHeap.isEmpty()
+          && forwardHeap.peekKey() < bestDist;
+      boolean backwardLive = !backwardHeap.isEmpty()
+          && backwardHeap.peekKey() < bestDist;
+      if (!forwardLive && !backwardLive) {
+        break;
+      }
+      boolean isForward = forwardLive && (!backwardLive
+          || forwardHeap.peekKey() <= backwardHeap.peekKey());
+      SearchScratch search = isForward ? forward : backward;
+      SearchScratch other = isForward ? backward : forward;
+      int[] firstUp = isForward ? this.firstUpOut : this.firstUpIn;
+      int[] up = isForward ? this.upOut : this.upIn;
+
+      int curr = search.heap().poll();
+      search.settle(curr);
+      double currDist = search.dist(curr);
+      for (int i = firstUp[curr]; i < firstUp[curr + 1]; i++) {
+        int e = up[i];
+        int next = isForward ? this.edgeTo[e] : this.edgeFrom[e];
+        double nextDist = currDist + this.edgeWeight[e];
+        if (!search.isSettled(next)
+            && search.relax(next, nextDist, null, e)) {
+          search.heap().insertOrDecrease(next, nextDist);
+        }
+        if (other.isReached(next)
+            && search.dist(next) + other.dist(next) < bestDist) {
+          bestDist = search.dist(next) + other.dist(next);
+          meeting = next;
+        }
+      }
+    }
+
+    // Return null if the searches never met
+    if (meeting < 0) {
+      return null;
+    }
+    // Collect the hierarchy edges up to the meeting Node, then down from it
+    List<Integer> pathEdges = new ArrayList<>();
+    for (int e = forward.lastEdge(meeting); e >= 0;
+         e = forward.lastEdge(this.edgeFrom[e])) {
+      pathEdges.add(e);
+    }
+    Collections.reverse(pathEdges);
+    for (int e = backward.lastEdge(meeting); e >= 0;
+         e = backward.lastEdge(this.edgeTo[e])) {
+      pathEdges.add(e);
+    }
+    // Unpack every shortcut into the Ways it stands for
+    List<Way> results = new ArrayList<>();
+    int[] stack = new int[INITIAL_STACK_SIZE];
+    for (int pathEdge : pathEdges) {
+      int size = 0;
+      stack[size++] = pathEdge;
+      while (size > 0) {
+        int e = stack[--size];
+        if (this.edgeFirst[e] < 0) {
+          results.add(this.graph.getWay(e));
+          continue;
+        }
+        if (size + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        // Push second half first, so the first half is unpacked first
+        stack[size++] = this.edgeSecond[e];
+        stack[size++] = this.edgeFirst[e];
+      }
+    }
+    return results;
+  }
+
+  // ------------------------------ Persistence ----------------------------
+
+  /**
+   * A function which gets the sidecar File that a database's contraction
+   * hierarchy is saved to.
+   *
+   * @param dbPath the path to a database
+   * @return the File next to that database which holds its hierarchy
+   */
+  public static File sidecarFor(String dbPath) {
+    return new File(dbPath + ".ch");
+  }
+
+  /**
+   * A function which saves this ContractionHierarchy to a file.
+   *
+   * @param file the File to write to
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    int numOriginal = this.graph.getNumEdges();
+    // Use Try-with-resources
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(this.graph.fingerprint());
+      out.writeInt(this.graph.getNumNodes());
+      out.writeInt(numOriginal);
+      for (int r : this.rank) {
+        out.writeInt(r);
+      }
+      out.writeInt(this.getNumShortcuts());
+      for (int e = numOriginal; e < this.edgeFrom.length; e++) {
+        out.writeInt(this.edgeFrom[e]);
+        out.writeInt(this.edgeTo[e]);
+        out.writeDouble(this.edgeWeight[e]);
+        out.writeInt(this.edgeFirst[e]);
+        out.writeInt(this.edgeSecond[e]);
+      }
+    }
+  }
+
+  /**
+   * A function which loads a ContractionHierarchy from a file, checking that
+   * it was built from the same RoadGraph.
+   *
+   * @param file  the File to read from
+   * @param graph the RoadGraph of the database which the file sits next to
+   * @return the ContractionHierarchy stored in the file
+   * @throws IOException if the file cannot be read, is malformed, or was
+   *                     built from a different RoadGraph
+   */
+  public static ContractionHierarchy read(File file, RoadGraph graph)
+      throws IOException {
+    // Use Try-with-resources
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a contraction hierarchy file: " + file);
+      }
+      if (in.readLong() != graph.fingerprint()
+          || in.readInt() != graph.getNumNodes()
+          || in.readInt() != graph.getNumEdges()) {
+        throw new IOException("Contraction hierarchy " + file
+            + " was built from a different database.");
+      }
+      int[] rank = new int[graph.getNumNodes()];
+      for (int i = 0; i < rank.length; i++) {
+        rank[i] = in.readInt();
+      }
+      int numShortcuts = in.readInt();
+      if (numShortcuts < 0) {
+        throw new IOException("Malformed contraction hierarchy: " + file);
+      }
+      int[] from = new int[numShortcuts];
+      int[] to = new int[numShortcuts];
+      double[] weight = new double[numShortcuts];
+      int[] first = new int[numShortcuts];
+      int[] second = new int[numShortcuts];
+      for (int i = 0; i < numShortcuts; i++) {
+        from[i] = in.readInt();
+        to[i] = in.readInt();
+        weight[i] = in.readDouble();
+        first[i] = in.readInt();
+        second[i] = in.readInt();
+        // Halves must be earlier edges, so unpacking always terminates
+        int id = graph.getNumEdges() + i;
+        if (from[i] < 0 || from[i] >= rank.length
+            || to[i] < 0 || to[i] >= rank.length
+            || first[i] < 0 || first[i] >= id
+            || second[i] < 0 || second[i] >= id) {
+          throw new IOException("Malformed contraction hierarchy: " + file);
+        }
+      }
+      return new ContractionHierarchy(graph, rank, from, to, weight, first,
+          second);
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * A class which contracts a RoadGraph into a ContractionHierarchy.
+ * <p>
+ * Nodes are contracted one at a time, least important first, where
+ * importance is the edge difference (shortcuts added minus edges removed)
+ * plus the number of already-contracted neighbours, which spreads
+ * contraction evenly over the map. Priorities are updated lazily: a Node is
+ * only contracted if its recomputed priority is still the smallest. When a
+ * Node v is contracted, a shortcut u -> w is added for each pair of
+ * neighbours unless a witness search, which avoids v, finds a path from u to
+ * w at least as short. Witness searches settle at most WITNESS_LIMIT Nodes
+ * (ESTIMATE_LIMIT when only estimating a priority); giving up early only ever
+ * adds unneeded shortcuts, never wrong ones.
+ */
+final class ContractionHierarchyBuilder {
+
+  private static final int WITNESS_LIMIT = 200;
+  private static final int ESTIMATE_LIMIT = 40;
+  private static final int INITIAL_LIST_SIZE = 4;
+
+  private final RoadGraph graph;
+  private final int numOriginal;
+
+  // Every edge, original then shortcut, as parallel growable arrays
+  private int numEdges;
+  private int[] edgeFrom;
+  private int[] edgeTo;
+  private double[] edgeWeight;
+  private int[] edgeFirst;
+  private int[] edgeSecond;
+
+  // Adjacency lists of edge ids, pruned as neighbouring Nodes are contracted
+  private final int[][] outEdges;
+  private final int[] outSize;
+  private final int[][] inEdges;
+  private final int[] inSize;
+
+  private final boolean[] contracted;
+  private final int[] contractedNeighbours;
+  private final SearchScratch witness;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param graph the RoadGraph to contract
+   */
+  ContractionHierarchyBuilder(RoadGraph graph) {
+    this.graph = graph;
+    int numNodes = graph.getNumNodes();
+    this.numOriginal = graph.getNumEdges();
+    this.numEdges = 0;
+    int capacity = Math.max(INITIAL_LIST_SIZE, this.numOriginal * 2);
+    this.edgeFrom = new int[capacity];
+    this.edgeTo = new int[capacity];
+    this.edgeWeight = new double[capacity];
+    this.edgeFirst = new int[capacity];
+    this.edgeSecond = new int[capacity];
+    this.outEdges = new int[numNodes][];
+    this.outSize = new int[numNodes];
+    this.inEdges = new int[numNodes][];
+    this.inSize = new int[numNodes];
+    for (int node = 0; node < numNodes; node++) {
+      this.outEdges[node] = new int[Math.max(INITIAL_LIST_SIZE,
+          graph.endOut(node) - graph.firstOut(node))];
+      this.inEdges[node] = new int[Math.max(INITIAL_LIST_SIZE,
+          graph.endIn(node) - graph.firstIn(node))];
+    }
+    this.contracted = new boolean[numNodes];
+    this.contractedNeighbours = new int[numNodes];
+    this.witness = new SearchScratch(numNodes);
+
+    // Start with the original edges, keeping their RoadGraph ids
+    for (int e = 0; e < this.numOriginal; e++) {
+      addEdge(graph.source(e), graph.target(e), graph.weight(e), -1, -1);
+    }
+  }
+
+  /**
+   * A function which contracts every Node of the RoadGraph.
+   *
+   * @return the resulting ContractionHierarchy
+   */
+  ContractionHierarchy build() {
+    int numNodes = this.graph.getNumNodes();
+    int[] rank = new int[numNodes];
+    IndexedMinHeap queue = new IndexedMinHeap(numNodes);
+    for (int node = 0; node < numNodes; node++) {
+      queue.insertOrDecrease(node, priority(node));
+    }
+
+    int nextRank = 0;
+    while (!queue.isEmpty()) {
+      int node = queue.poll();
+      // Lazy update: requeue if no longer the least important Node
+      double currPriority = priority(node);
+      if (!queue.isEmpty() && currPriority > queue.peekKey()) {
+        queue.insertOrDecrease(node, currPriority);
+        continue;
+      }
+      contract(node, true);
+      this.contracted[node] = true;
+      rank[node] = nextRank++;
+      // Unlink the contracted Node from its neighbours, and reprioritize them
+      for (int i = 0; i < this.outSize[node]; i++) {
+        int neighbour = this.edgeTo[this.outEdges[node][i]];
+        if (!this.contracted[neighbour]) {
+          this.contractedNeighbours[neighbour]++;
+          pruneContracted(neighbour);
+          queue.update(neighbour, priority(neighbour));
+        }
+      }
+      for (int i = 0; i < this.inSize[node]; i++) {
+        int neighbour = this.edgeFrom[this.inEdges[node][i]];
+        if (!this.contracted[neighbour]) {
+          this.contractedNeighbours[neighbour]++;
+          pruneContracted(neighbour);
+          queue.update(neighbour, priority(neighbour));
+        }
+      }
+    }
+
+    return new ContractionHierarchy(this.graph, rank,
+        Arrays.copyOfRange(this.edgeFrom, this.numOriginal, this.numEdges),
+        Arrays.copyOfRange(this.edgeTo, this.numOriginal, this.numEdges),
+        Arrays.copyOfRange(this.edgeWeight, this.numOriginal, this.numEdges),
+        Arrays.copyOfRange(this.edgeFirst, this.numOriginal, this.numEdges),
+        Arrays.copyOfRange(this.edgeSecond, this.numOriginal, this.numEdges));
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which computes the contraction priority of a Node;
+   * smaller is contracted sooner.
+   *
+   * @param node an int, the graph index of an uncontracted Node
+   * @return the priority of that Node
+   */
+  private double priority(int node) {
+    int removed = 0;
+    for (int i = 0; i < this.outSize[node]; i++) {
+      if (!this.contracted[this.edgeTo[this.outEdges[node][i]]]) {
+        removed++;
+      }
+    }
+    for (int i = 0; i < this.inSize[node]; i++) {
+      if (!this.contracted[this.edgeFrom[this.inEdges[node][i]]]) {
+        removed++;
+      }
+    }
+    return contract(node, false) - removed
+        + this.contractedNeighbours[node];
+  }
+
+  /**
+   * A helper function which finds the shortcuts needed to contract a Node,
+   * and adds them if asked to.
+   *
+   * @param node  an int, the graph index of an uncontracted Node
+   * @param apply a boolean, true to add the shortcuts, false to only count
+   * @return the number of shortcuts needed
+   */
+  private int contract(int node, boolean apply) {
+    int shortcuts = 0;
+    for (int i = 0; i < this.inSize[node]; i++) {
+      int in = this.inEdges[node][i];
+      int from = this.edgeFrom[in];
+      if (this.contracted[from] || from == node) {
+        continue;
+      }
+      // Find the longest path through this Node that might need a shortcut
+      double maxDist = -1;
+      for (int j = 0; j < this.outSize[node]; j++) {
+        int out = this.outEdges[node][j];
+        int to = this.edgeTo[out];
+        if (!this.contracted[to] && to != node && to != from) {
+          maxDist = Math.max(maxDist,
+              this.edgeWeight[in] + this.edgeWeight[out]);
+        }
+      }
+      if (maxDist < 0) {
+        continue;
+      }
+      witnessSearch(from, node, maxDist,
+          apply ? WITNESS_LIMIT : ESTIMATE_LIMIT);
+      for (int j = 0; j < this.outSize[node]; j++) {
+        int out = this.outEdges[node][j];
+        int to = this.edgeTo[out];
+        if (this.contracted[to] || to == node || to == from) {
+          continue;
+        }
+        double viaDist = this.edgeWeight[in] + this.edgeWeight[out];
+        if (!this.witness.isReached(to) || this.witness.dist(to) > viaDist) {
+          shortcuts++;
+          if (apply) {
+            addEdge(from, to, viaDist, in, out);
+          }
+        }
+      }
+    }
+    return shortcuts;
+  }
+
+  /**
+   * A helper function which runs a bounded Dijkstra search from a Node over
+   * uncontracted Nodes, avoiding one Node, leaving its distances in the
+   * witness SearchScratch.
+   *
+   * @param source  an int, the graph index of the Node to search from
+   * @param avoid   an int, the graph index of the Node being contracted
+   * @param maxDist a double, the distance beyond which to stop searching
+   * @param limit   an int, the number of Nodes after which to stop searching
+   */
+  private void witnessSearch(int source, int avoid, double maxDist,
+                             int limit) {
+    this.witness.reset();
+    IndexedMinHeap heap = this.witness.heap();
+    this.witness.relax(source, 0, null);
+    heap.insertOrDecrease(source, 0);
+    while (!heap.isEmpty() && heap.peekKey() <= maxDist
+        && this.witness.numSettled() < limit) {
+      int curr = heap.poll();
+      this.witness.settle(curr);
+      double currDist = this.witness.dist(curr);
+      for (int i = 0; i < this.outSize[curr]; i++) {
+        int e = this.outEdges[curr][i];
+        int next = this.edgeTo[e];
+        if (this.contracted[next] || next == avoid
+            || this.witness.isSettled(next)) {
+          continue;
+        }
+        double nextDist = currDist + this.edgeWeight[e];
+        if (this.witness.relax(next, nextDist, null)) {
+          heap.insertOrDecrease(next, nextDist);
+        }
+      }
+    }
+  }
+
+  /**
+   * A helper function which drops every edge to or from a contracted Node
+   * out of an uncontracted Node's adjacency lists.
+   *
+   * @param node an int, the graph index of an uncontracted Node
+   */
+  private void pruneContracted(int node) {
+    int kept = 0;
+    for (int i = 0; i < this.outSize[node]; i++) {
+      int e = this.outEdges[node][i];
+      if (!this.contracted[this.edgeTo[e]]) {
+        this.outEdges[node][kept++] = e;
+      }
+    }
+    this.outSize[node] = kept;
+    kept = 0;
+    for (int i = 0; i < this.inSize[node]; i++) {
+      int e = this.inEdges[node][i];
+      if (!this.contracted[this.edgeFrom[e]]) {
+        this.inEdges[node][kept++] = e;
+      }
+    }
+    this.inSize[node] = kept;
+  }
+
+  /**
+   * A helper function which appends an edge and links it into the adjacency
+   * lists of both its ends.
+   *
+   * @param from   an int, the start Node of the edge
+   * @param to     an int, the end Node of the edge
+   * @param weight a double, the weight of the edge
+   * @param first  an int, the first half of a shortcut, or -1
+   * @param second an int, the second half of a shortcut, or -1
+   */
+  private void addEdge(int from, int to, double weight, int first,
+                       int second) {
+    if (this.numEdges == this.edgeFrom.length) {
+      int capacity = this.numEdges * 2;
+      this.edgeFrom = Arrays.copyOf(this.edgeFrom, capacity);
+      this.edgeTo = Arrays.copyOf(this.edgeTo, capacity);
+      this.edgeWeight = Arrays.copyOf(this.edgeWeight, capacity);
+      this.edgeFirst = Arrays.copyOf(this.edgeFirst, capacity);
+      this.edgeSecond = Arrays.copyOf(this.edgeSecond, capacity);
+    }
+    int e = this.numEdges++;
+    this.edgeFrom[e] = from;
+    this.edgeTo[e] = to;
+    this.edgeWeight[e] = weight;
+    this.edgeFirst[e] = first;
+    this.edgeSecond[e] = second;
+    // Self-loops never lie on a shortest path, so leave them unlinked
+    if (from == to) {
+      return;
+    }
+    if (this.outSize[from] == this.outEdges[from].length) {
+      this.outEdges[from] = Arrays.copyOf(this.outEdges[from],
+          this.outSize[from] * 2);
+    }
+    this.outEdges[from][this.outSize[from]++] = e;
+    if (this.inSize[to] == this.inEdges[to].length) {
+      this.inEdges[to] = Arrays.copyOf(this.inEdges[to], this.inSize[to] * 2);
+    }
+    this.inEdges[to][this.inSize[to]++] = e;
+  }
+}
@@ -3,8 +3,8 @@ package edu.brown.cs.jwu175zcheng12.maps;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import edu.brown.cs.jwu175zcheng12.csvdataset.StarDataset;
-import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
 import edu.brown.cs.jwu175zcheng12.stars.Star;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import spark.ModelAndView;
 import spark.QueryParamsMap;
@@ -12,8 +12,13 @@ import spark.Request;
 import spark.Response;
 import spark.Route;
 import spark.TemplateViewRoute;
+import spark.utils.GzipUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -21,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
 import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printInfo;
 
 /**
@@ -31,6 +37,9 @@ final class GUIHandlers {
   private final StarDataset starDataset;
   private final MapDatabase mapDatabase;
   private final CheckinThread checkinThread;
+  private final RouteCache routeCache =
+      new RouteCache(RouteCache.DEFAULT_MAX_SIZE);
+  private final MapTiles mapTiles;
 
   // For GUI things
   private static final DecimalFormat DP_3 = new DecimalFormat("#.###");
@@ -39,6 +48,11 @@ final class GUIHandlers {
       + "<th>x</th><th>y</th><th>z</th></tr>";
   private static final Gson GSON = new Gson();
   private static final BigDecimal INTERVAL = new BigDecimal("0.01");
+  private static final int HTTP_NOT_MODIFIED = 304;
+  private static final int HTTP_BAD_REQUEST = 400;
+  private static final int HTTP_NOT_FOUND = 404;
+  private static final String VARY = "Accept, Accept-Encoding";
+  private static final int MAX_CHECKINS_PER_RESPONSE = 1 << 12;
 
   /**
    * The constructor for this class.
@@ -54,6 +68,7 @@ final class GUIHandlers {
     this.starDataset = starDataset;
     this.mapDatabase = mapDatabase;
     this.checkinThread = checkinThread;
+    this.mapTiles = new MapTiles(mapDatabase, MapTiles.DEFAULT_MAX_SIZE);
   }
 
   /**
@@ -73,6 +88,48 @@ final class GUIHandlers {
     }
   }
 
+  /**
+   * Handles requests for the nearest nodes to a batch of points, given as
+   * parallel "lats" and "lons" arrays. Responds with a "nodes" array holding,
+   * for each point, {id, lat, lon} of its nearest node, or null.
+   */
+  class MapNearestNodesHandler implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+      printInfo("===== Request to MapNearestNodesHandler received.");
+      // Begin extracting request information
+      JSONObject data = new JSONObject(request.body());
+      JSONArray latArray = data.getJSONArray("lats");
+      JSONArray lonArray = data.getJSONArray("lons");
+      double[] lats = new double[latArray.length()];
+      double[] lons = new double[lonArray.length()];
+      for (int i = 0; i < lats.length; i++) {
+        lats[i] = latArray.getDouble(i);
+      }
+      for (int i = 0; i < lons.length; i++) {
+        lons[i] = lonArray.getDouble(i);
+      }
+      // Getting results
+      Node[] nearest = mapDatabase.getNearestNodes(lats, lons);
+      if (nearest == null) {
+        return GSON.toJson(ImmutableMap.of(
+            "errorMessage", "Cannot snap these points!",
+            "nodes", Collections.emptyList()));
+      }
+      List<Object> nodes = new ArrayList<>(nearest.length);
+      for (Node node : nearest) {
+        if (node == null) {
+          nodes.add(null);
+          continue;
+        }
+        nodes.add(ImmutableMap.of("id", node.getNodeId(),
+            "lat", node.getNthCoordinate(0),
+            "lon", node.getNthCoordinate(1)));
+      }
+      return GSON.toJson(ImmutableMap.of("nodes", nodes));
+    }
+  }
+
   /**
    * Handles requests for a route.
    */
@@ -80,6 +137,7 @@ final class GUIHandlers {
     @Override
     public Object handle(Request request, Response response) throws Exception {
       printInfo("===== Request to MapRouteCoordinatesHandler received.");
+      WireFormat format = negotiateFormat(request, response);
       // Begin extracting request information
       JSONObject data = new JSONObject(request.body());
       double sLat = data.getDouble("srcLat");
@@ -88,15 +146,20 @@ final class GUIHandlers {
       double dLon = data.getDouble("desLon");
       printInfo("Raw coordinates: " + sLat + ", " + sLon + ", "
           + sLat + ", " + sLon);
+      RouteAlgorithm algorithm = getRouteAlgorithm(data);
+      if (algorithm == null) {
+        return badRouteResponse("Unknown route algorithm!", format);
+      }
       // Get start and end nodes
       Node start = mapDatabase.getNearestNode(sLat, sLon);
       Node end = mapDatabase.getNearestNode(dLat, dLon);
       printInfo("Corresponding to Nodes: " + start + ", " + end);
       if (start == null || end == null) {
-        return badRouteResponse("There are no Nodes in this database!");
+        return badRouteResponse("There are no Nodes in this database!",
+            format);
       }
       // Pass start and end nodes to helper
-      return getAndFormatWaysForRoute(start, end);
+      return getAndFormatWaysForRoute(start, end, algorithm, format);
     }
   }
 
@@ -107,6 +170,7 @@ final class GUIHandlers {
     @Override
     public Object handle(Request request, Response response) throws Exception {
       printInfo("===== Request to MapRouteNamesHandler received.");
+      WireFormat format = negotiateFormat(request, response);
       // Begin extracting request information
       JSONObject data = new JSONObject(request.body());
       String way1Name = data.getString("way1");
@@ -115,16 +179,20 @@ final class GUIHandlers {
       String way4Name = data.getString("way4");
       printInfo("Raw way names: " + way1Name + ", " + way2Name
           + ", " + way3Name + ", " + way4Name);
+      RouteAlgorithm algorithm = getRouteAlgorithm(data);
+      if (algorithm == null) {
+        return badRouteResponse("Unknown route algorithm!", format);
+      }
       // Get start and end nodes
       Node start = mapDatabase.getIntersectionNode(way1Name, way2Name);
       Node end = mapDatabase.getIntersectionNode(way3Name, way4Name);
       printInfo("Corresponding to Nodes: " + start + ", " + end);
       if (start == null || end == null) {
         return badRouteResponse("At least one street + cross-street pair "
-            + "does not intersect!");
+            + "does not intersect!", format);
       }
       // Pass start and end nodes to helper
-      return getAndFormatWaysForRoute(start, end);
+      return getAndFormatWaysForRoute(start, end, algorithm, format);
     }
   }
 
@@ -135,6 +203,7 @@ final class GUIHandlers {
     @Override
     public Object handle(Request request, Response response) throws Exception {
       printInfo("===== Request to MapRouteMixedHandler received.");
+      WireFormat format = negotiateFormat(request, response);
       // Begin extracting request information
       JSONObject data = new JSONObject(request.body());
       double lat = data.getDouble("lat");
@@ -144,22 +213,29 @@ final class GUIHandlers {
       boolean forward = data.getBoolean("forward");
       printInfo("Raw information: " + lat + ", " + lon
           + ", " + wayAName + ", " + wayBName + ", forward? = " + forward);
+      RouteAlgorithm algorithm = getRouteAlgorithm(data);
+      if (algorithm == null) {
+        return badRouteResponse("Unknown route algorithm!", format);
+      }
       // Get start and end nodes
       Node coordNode = mapDatabase.getNearestNode(lat, lon);
       Node waysNode = mapDatabase.getIntersectionNode(wayAName, wayBName);
       printInfo("Corresponding to Nodes: " + coordNode + ", " + waysNode);
       if (coordNode == null) {
-        return badRouteResponse("There are no Nodes in this database!");
+        return badRouteResponse("There are no Nodes in this database!",
+            format);
       }
       if (waysNode == null) {
         return badRouteResponse("The given street + cross-street pair "
-            + "does not intersect!");
+            + "does not intersect!", format);
       }
       // Pass start and end nodes to helper
       if (forward) {
-        return getAndFormatWaysForRoute(coordNode, waysNode);
+        return getAndFormatWaysForRoute(coordNode, waysNode, algorithm,
+            format);
       } else {
-        return getAndFormatWaysForRoute(waysNode, coordNode);
+        return getAndFormatWaysForRoute(waysNode, coordNode, algorithm,
+            format);
       }
     }
   }
@@ -179,47 +255,171 @@ final class GUIHandlers {
       BigDecimal botRightLon = new BigDecimal(data.getString("botRightLon"));
       printInfo("Ways-And-Cells inputs: " + topLeftLat
           + ", " + topLeftLon + ", " + botRightLat + ", " + botRightLon);
+      // Stream the response, rather than building it in memory first
+      WireFormat format = negotiateFormat(request, response);
+      OutputStream body = GzipUtils.checkAndWrap(request.raw(), response.raw(),
+          true);
+      WaysEncoder out = format.encoder(body);
+      if (!mapDatabase.writeWaysAndCellsForGUI(topLeftLat, topLeftLon,
+          botRightLat.subtract(INTERVAL), botRightLon.add(INTERVAL), out)) {
+        out.begin();
+        out.writeError("Bad bounding box!");
+        out.beginWays(0);
+        out.endWays();
+        out.beginCells(new String[0], new String[0]);
+        out.endCells();
+        out.end();
+      }
+      // Closing finishes the gzip stream; Spark leaves the committed
+      // response alone
+      body.close();
+      printInfo("Sent response");
+      return "";
+    }
+  }
+
+  /**
+   * Handles GET requests for one tile of ways and cells, at
+   * /tiles/:zoom/:x/:y. See MapTiles for how tiles are numbered. Responses
+   * carry an ETag, and requests whose If-None-Match matches it get an empty
+   * 304 response. Tiles are sent in the WireFormat picked by the Accept
+   * header.
+   */
+  class MapTileHandler implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+      // Data extraction
+      int zoom;
+      int x;
+      int y;
+      try {
+        zoom = Integer.parseInt(request.params(":zoom"));
+        x = Integer.parseInt(request.params(":x"));
+        y = Integer.parseInt(request.params(":y"));
+      } catch (NumberFormatException e) {
+        response.status(HTTP_BAD_REQUEST);
+        return GSON.toJson(ImmutableMap.of("errorMessage", "Bad tile."));
+      }
       // Getting results
-      GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
-          answer = mapDatabase.getWaysAndCellsForGUI(topLeftLat, topLeftLon,
-          botRightLat.subtract(INTERVAL), botRightLon.add(INTERVAL));
-      Map<String, Object> variables =
-          ImmutableMap.of("ways", ImmutableMap.copyOf(answer.getFirst()),
-              "cells", ImmutableMap.copyOf(answer.getSecond()));
-      printInfo("Sending response");
-      return GSON.toJson(variables);
+      WireFormat format = WireFormat.fromAccept(request.headers("Accept"));
+      MapTiles.Tile tile = mapTiles.getTile(zoom, x, y, format);
+      if (tile == null) {
+        response.status(HTTP_NOT_FOUND);
+        return GSON.toJson(ImmutableMap.of("errorMessage", "No such tile."));
+      }
+      // Tiles change when a new map is loaded, so clients must revalidate
+      response.header("ETag", tile.getEtag());
+      response.header("Cache-Control", "no-cache");
+      response.header("Vary", VARY);
+      String ifNoneMatch = request.headers("If-None-Match");
+      if (ifNoneMatch != null && ifNoneMatch.contains(tile.getEtag())) {
+        response.status(HTTP_NOT_MODIFIED);
+        return "";
+      }
+      response.type(format.getMediaType());
+      negotiateEncoding(request, response);
+      return tile.getBody();
     }
   }
 
   /**
-   * Handles requests for getting checkins.
+   * Handles requests for getting checkins. A client which sends the cursor
+   * from its last response, e.g. {cursor: 42}, or 0 on its first request,
+   * gets every checkin exactly once; clients which send no cursor share one,
+   * so between them each checkin is sent once. Responses are of the format
+   * {checkins: [...], cursor: next}.
    */
   class GetCheckinsHandler implements Route {
     @Override
     public Object handle(Request request, Response response) throws Exception {
       //printInfo("===== Request to GetCheckinsHandler received.");
+      String body = request.body();
+      JSONObject data = body == null || body.isBlank()
+          ? new JSONObject() : new JSONObject(body);
       // Getting results
-      Map<Double, UserCheckin> recentCheckinsMap = checkinThread.getLatestCheckins();
+      List<UserCheckin> recentCheckins = new ArrayList<>();
+      Long cursor = null;
+      if (data.has("cursor")) {
+        cursor = checkinThread.getCheckinsFrom(data.getLong("cursor"),
+            MAX_CHECKINS_PER_RESPONSE, recentCheckins);
+      } else {
+        recentCheckins = checkinThread.getLatestCheckins(
+            MAX_CHECKINS_PER_RESPONSE);
+      }
       // Make into list
-      List<Object> recentCheckinsList = new ArrayList<>(recentCheckinsMap.size());
-      for (Map.Entry<Double, UserCheckin> entry : recentCheckinsMap.entrySet()) {
-        Map<String, Object> checkinInfo = ImmutableMap.<String, Object>builder()
-            .put("id", entry.getValue().getId())
-            .put("name", entry.getValue().getName())
-            .put("timestamp", entry.getValue().getTimestamp())
-            .put("latitude", entry.getValue().getLat())
-            .put("longitude", entry.getValue().getLon())
-            .build();
-        recentCheckinsList.add(checkinInfo);
-      }
-      return GSON.toJson(
-          ImmutableMap.of("checkins", recentCheckinsList)
-      );
+      List<Object> recentCheckinsList = new ArrayList<>(recentCheckins.size());
+      for (UserCheckin checkin : recentCheckins) {
+        recentCheckinsList.add(checkinInfo(checkin).build());
+      }
+      if (cursor == null) {
+        return GSON.toJson(ImmutableMap.of("checkins", recentCheckinsList));
+      }
+      return GSON.toJson(ImmutableMap.of("checkins", recentCheckinsList,
+          "cursor", cursor));
     }
   }
 
   /**
-   * Handles requests for getting the checkins for a single user.
+   * Handles requests for the live users within a radius, in kilometres, of a
+   * point, e.g. {lat: 41.82, lon: -71.4, radius: 0.5}. Responds with a
+   * "users" array of each user's latest checkin and "distance" from the
+   * point, closest first, and at most MAX_CHECKINS_PER_RESPONSE of them.
+   */
+  class LiveUsersRadiusHandler implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+      printInfo("===== Request to LiveUsersRadiusHandler received.");
+      // Begin extracting request information
+      JSONObject data = new JSONObject(request.body());
+      double lat = data.getDouble("lat");
+      double lon = data.getDouble("lon");
+      double radius = data.getDouble("radius");
+      if (!(radius >= 0)) {
+        response.status(HTTP_BAD_REQUEST);
+        return GSON.toJson(ImmutableMap.of("errorMessage",
+            "Radius must be non-negative."));
+      }
+      // Getting results
+      List<LiveUserIndex.LiveUser> users = checkinThread.getLiveUsers()
+          .findRadiusSearch(radius, new Double[]{lat, lon});
+      return liveUsersResponse(users, lat, lon);
+    }
+  }
+
+  /**
+   * Handles requests for the k live users nearest a point, e.g.
+   * {lat: 41.82, lon: -71.4, k: 10}, with k at most
+   * MAX_CHECKINS_PER_RESPONSE. Responds as LiveUsersRadiusHandler does.
+   */
+  class LiveUsersNearestHandler implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+      printInfo("===== Request to LiveUsersNearestHandler received.");
+      // Begin extracting request information
+      JSONObject data = new JSONObject(request.body());
+      double lat = data.getDouble("lat");
+      double lon = data.getDouble("lon");
+      int k = data.getInt("k");
+      if (k < 0 || k > MAX_CHECKINS_PER_RESPONSE) {
+        response.status(HTTP_BAD_REQUEST);
+        return GSON.toJson(ImmutableMap.of("errorMessage",
+            "k must be between 0 and " + MAX_CHECKINS_PER_RESPONSE + "."));
+      }
+      // Getting results
+      List<LiveUserIndex.LiveUser> users = checkinThread.getLiveUsers()
+          .findKNearestNeighbors(k, new Double[]{lat, lon});
+      return liveUsersResponse(users, lat, lon);
+    }
+  }
+
+  /**
+   * Handles requests for a page of a single user's checkins, newest first,
+   * e.g. {id: 7, from: 1617000000, to: 1618000000, limit: 100}. The range
+   * is from, inclusive, to to, exclusive, and either bound may be left out;
+   * limit is at most, and defaults to, MAX_CHECKINS_PER_RESPONSE. Responds
+   * with a "checkins" array and, if there are older checkins in the range,
+   * a "next" object, whose "to" and "beforeRow" are sent along with the
+   * same id, from and limit to get the next page.
    */
   class GetOneUsersCheckinsHandler implements Route {
     @Override
@@ -228,13 +428,113 @@ final class GUIHandlers {
       // Begin extracting request information
       JSONObject data = new JSONObject(request.body());
       int id = data.getInt("id");
+      double from = data.optDouble("from", Double.NEGATIVE_INFINITY);
+      double to = data.optDouble("to", Double.POSITIVE_INFINITY);
+      long beforeRow = data.optLong("beforeRow", 0);
+      int limit = data.optInt("limit", MAX_CHECKINS_PER_RESPONSE);
+      if (Double.isNaN(from) || Double.isNaN(to)
+          || limit <= 0 || limit > MAX_CHECKINS_PER_RESPONSE) {
+        response.status(HTTP_BAD_REQUEST);
+        return GSON.toJson(ImmutableMap.of("errorMessage",
+            "from and to must be numbers, and limit between 1 and "
+                + MAX_CHECKINS_PER_RESPONSE + "."));
+      }
       // Getting results
-      return GSON.toJson(ImmutableMap.of("checkins",
-          checkinThread.getOneUsersCheckinsHandlerForGUI(id))
-      );
+      CheckinStore.HistoryPage page;
+      try {
+        page = checkinThread.getUserHistory(id, from, to, beforeRow, limit);
+      } catch (SQLException e) {
+        printError("SQL Exception in GetOneUsersCheckinsHandler: "
+            + e.getMessage());
+        return GSON.toJson(ImmutableMap.of("errorMessage",
+            "Could not read checkins."));
+      }
+      List<Object> checkinsList = new ArrayList<>(page.getCheckins().size());
+      for (UserCheckin checkin : page.getCheckins()) {
+        checkinsList.add(checkinInfo(checkin).build());
+      }
+      if (!page.hasMore()) {
+        return GSON.toJson(ImmutableMap.of("checkins", checkinsList));
+      }
+      return GSON.toJson(ImmutableMap.of("checkins", checkinsList,
+          "next", ImmutableMap.of("to", page.getNextTo(),
+              "beforeRow", page.getNextBeforeRow())));
     }
   }
 
+  /**
+   * Handles requests for a single user's checkins matched onto Ways, e.g.
+   * {id: 7}. Responds with a "matches" array of the user's decided matches,
+   * oldest first, each with its checkin, the Way's "wayId" and "wayName",
+   * how far along the Way it is as a "fraction", its "matchedLatitude" and
+   * "matchedLongitude", and its "distance" from the checkin, in kilometres.
+   * The array is empty if checkins are not being matched.
+   */
+  class GetOneUsersMatchedTraceHandler implements Route {
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+      printInfo("===== Request to GetOneUsersMatchedTraceHandler received.");
+      // Begin extracting request information
+      JSONObject data = new JSONObject(request.body());
+      int id = data.getInt("id");
+      // Getting results
+      MapMatcher matcher = checkinThread.getMapMatcher();
+      List<Object> matchesList = new ArrayList<>();
+      if (matcher != null) {
+        for (MapMatcher.MatchedCheckin match : matcher.getTrace(id)) {
+          Way way = match.getWay();
+          matchesList.add(checkinInfo(match.getCheckin())
+              .put("wayId", way.getWayId())
+              .put("wayName", way.getName())
+              .put("fraction", match.getFraction())
+              .put("matchedLatitude", match.getLat())
+              .put("matchedLongitude", match.getLon())
+              .put("distance", match.getDistance())
+              .build());
+        }
+      }
+      return GSON.toJson(ImmutableMap.of("matches", matchesList));
+    }
+  }
+
+  /**
+   * A helper function which describes a checkin for the frontend.
+   *
+   * @param checkin the UserCheckin
+   * @return a builder of the checkin's Map, to which more can be added
+   */
+  private static ImmutableMap.Builder<String, Object> checkinInfo(
+      UserCheckin checkin) {
+    return ImmutableMap.<String, Object>builder()
+        .put("id", checkin.getId())
+        .put("name", checkin.getName())
+        .put("timestamp", checkin.getTimestamp())
+        .put("latitude", checkin.getLat())
+        .put("longitude", checkin.getLon());
+  }
+
+  /**
+   * A helper function which formats live users found near a point.
+   *
+   * @param users the LiveUsers, closest first
+   * @param lat   a double, the point's latitude
+   * @param lon   a double, the point's longitude
+   * @return the JSON response
+   */
+  private static String liveUsersResponse(List<LiveUserIndex.LiveUser> users,
+                                          double lat, double lon) {
+    int size = Math.min(users.size(), MAX_CHECKINS_PER_RESPONSE);
+    List<Object> usersList = new ArrayList<>(size);
+    for (LiveUserIndex.LiveUser user : users.subList(0, size)) {
+      UserCheckin checkin = user.getCheckin();
+      usersList.add(checkinInfo(checkin)
+          .put("distance", LiveUserIndex.distance(lat, lon,
+              checkin.getLat(), checkin.getLon()))
+          .build());
+    }
+    return GSON.toJson(ImmutableMap.of("users", usersList));
+  }
+
   /**
    * Handle GET requests for the front page of our Stars website.
    */
@@ -410,61 +710,164 @@ final class GUIHandlers {
     }
   }
 
+  /**
+   * A helper function which reads the optional "algorithm" field of a route
+   * query, defaulting to the MapDatabase's default when it is absent.
+   *
+   * @param data the JSONObject of the route query
+   * @return the requested RouteAlgorithm, or null if the name is unknown
+   */
+  private RouteAlgorithm getRouteAlgorithm(JSONObject data) {
+    if (!data.has("algorithm")) {
+      return mapDatabase.getDefaultRouteAlgorithm();
+    }
+    return RouteAlgorithm.fromName(data.optString("algorithm"));
+  }
+
   /**
    * A helper function which gets the route between two Nodes, then formats a
-   * JSON to send to the frontend GUI in response to a route query.
+   * JSON to send to the frontend GUI in response to a route query. Responses
+   * are cached by start Node, end Node and algorithm until a new map loads.
    *
-   * @param start The starting node in the route query
-   * @param end   The ending node in the route query
-   * @return a JSON object of the format:
+   * @param start     The starting node in the route query
+   * @param end       The ending node in the route query
+   * @param algorithm The RouteAlgorithm to find the route with
+   * @param format    The WireFormat to encode the response in
+   * @return the encoded response, which in JSON is an object of the format:
    * {ways: {wayID1: {way1Info}, wayID2: {way2Info}, ... },
    * route: [wayID1, ... ]}
+   * @throws IOException if the response cannot be encoded
    */
-  private static Object getAndFormatWaysForRoute(Node start, Node end) {
+  private Object getAndFormatWaysForRoute(Node start, Node end,
+                                          RouteAlgorithm algorithm,
+                                          WireFormat format)
+      throws IOException {
     if (start.equals(end)) {
-      return badRouteResponse("Same starting and ending Node!");
+      return badRouteResponse("Same starting and ending Node!", format);
     }
-    List<Way> pathWays = start.aStarPath(end);
+    // Read the version first, so a route found on a map which is replaced
+    // meanwhile is cached under the old version
+    long mapVersion = mapDatabase.getMapVersion();
+    byte[] cached = routeCache.get(mapVersion, start.getNodeId(),
+        end.getNodeId(), algorithm, format);
+    if (cached != null) {
+      printInfo("Sending cached route response");
+      return cached;
+    }
+    byte[] response = formatWaysForRoute(start, end, algorithm, format);
+    routeCache.put(mapVersion, start.getNodeId(), end.getNodeId(), algorithm,
+        format, response);
+    return response;
+  }
+
+  /**
+   * A helper function which finds the route between two different Nodes,
+   * then encodes the response to a route query. The response is kept as
+   * bytes, since it is cached.
+   *
+   * @param start     The starting node in the route query
+   * @param end       The ending node in the route query
+   * @param algorithm The RouteAlgorithm to find the route with
+   * @param format    The WireFormat to encode the response in
+   * @return the encoded response, as in getAndFormatWaysForRoute
+   * @throws IOException if the response cannot be encoded
+   */
+  private static byte[] formatWaysForRoute(Node start, Node end,
+                                           RouteAlgorithm algorithm,
+                                           WireFormat format)
+      throws IOException {
+    List<Way> pathWays = start.findPath(end, algorithm);
     if (pathWays == null) {
-      return badRouteResponse("No route found; Nodes are not connected!");
+      return badRouteResponse("No route found; Nodes are not connected!",
+          format);
+    }
+    // Number each distinct way by its position, for the route to refer to
+    Map<String, Integer> positions = new HashMap<>();
+    List<Way> distinctWays = new ArrayList<>();
+    int[] route = new int[pathWays.size()];
+    for (int i = 0; i < route.length; i++) {
+      Way w = pathWays.get(i);
+      Integer position = positions.get(w.getWayId());
+      if (position == null) {
+        position = distinctWays.size();
+        positions.put(w.getWayId(), position);
+        distinctWays.add(w);
+      }
+      route[i] = position;
     }
-    List<String> pathWayIds = new ArrayList<>(pathWays.size());
-    Map<String, Object> waysIntermediate = new HashMap<>();
-    for (Way w : pathWays) {
-      pathWayIds.add(w.getWayId());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WaysEncoder out = format.encoder(bytes);
+    out.begin();
+    out.beginWays(distinctWays.size());
+    for (Way w : distinctWays) {
       Double[] wayStart = w.getStart().getCoordinates();
       Double[] wayEnd = w.getEnd().getCoordinates();
-      Map<String, Object> wayInfo = ImmutableMap.<String, Object>builder()
-          .put("startLat", wayStart[0])
-          .put("startLon", wayStart[1])
-          .put("endLat", wayEnd[0])
-          .put("endLon", wayEnd[1])
-          .put("type", w.getType())
-          .put("name", w.getName())
-          .build();
-      waysIntermediate.put(w.getWayId(), wayInfo);
+      out.writeWay(w.getWayId(), wayStart[0], wayStart[1], wayEnd[0],
+          wayEnd[1], w.getType(), w.getName());
     }
-    Map<String, Object> variables = ImmutableMap.of(
-        "ways", ImmutableMap.copyOf(waysIntermediate),
-        "route", pathWayIds);
+    out.endWays();
+    out.writeRoute(route, route.length);
+    out.end();
     printInfo("Sending good route response");
-    return GSON.toJson(variables);
+    return bytes.toByteArray();
   }
 
   /**
-   * A helper function which formats a JSON to send to the frontend GUI in
-   * response to a route query which failed.
+   * A helper function which encodes the response to a route query which
+   * failed.
    *
    * @param errorMessage a String, the error message to be printed
-   * @return a JSON object of the format:
+   * @param format       The WireFormat to encode the response in
+   * @return the encoded response, which in JSON is an object of the format:
    * {errorMessage: errorMessage, ways: {}, route: []}
+   * @throws IOException if the response cannot be encoded
    */
-  private static Object badRouteResponse(String errorMessage) {
+  private static byte[] badRouteResponse(String errorMessage,
+                                         WireFormat format)
+      throws IOException {
     printInfo("Sending bad route response: \"" + errorMessage + "\"");
-    return GSON.toJson(ImmutableMap.of(
-        "errorMessage", errorMessage,
-        "ways", Collections.emptyMap(),
-        "route", Collections.emptyList()));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WaysEncoder out = format.encoder(bytes);
+    out.begin();
+    out.writeError(errorMessage);
+    out.beginWays(0);
+    out.endWays();
+    out.writeRoute(new int[0], 0);
+    out.end();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * A helper function which picks the WireFormat of a response from the
+   * request's Accept header, sets the response's type to match, and marks it
+   * to be gzipped if the request accepts that.
+   *
+   * @param request  the Request
+   * @param response the Response
+   * @return the WireFormat to encode the response in
+   */
+  private static WireFormat negotiateFormat(Request request,
+                                            Response response) {
+    WireFormat format = WireFormat.fromAccept(request.headers("Accept"));
+    response.type(format.getMediaType());
+    response.header("Vary", VARY);
+    negotiateEncoding(request, response);
+    return format;
+  }
+
+  /**
+   * A helper function which marks a response to be gzipped, if the request
+   * accepts gzip. Spark then gzips the body it returns; streamed bodies must
+   * be wrapped with GzipUtils.
+   *
+   * @param request  the Request
+   * @param response the Response
+   */
+  private static void negotiateEncoding(Request request, Response response) {
+    String acceptEncoding = request.headers("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      response.header("Content-Encoding", "gzip");
+    }
   }
 
   /**
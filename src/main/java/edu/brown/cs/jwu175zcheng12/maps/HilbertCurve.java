@@ -0,0 +1,97 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.util.Arrays;
+
+/**
+ * A class which orders 2D points along a Hilbert curve, so that points which
+ * are close in the order are close in space. Batches of nearest-Node queries
+ * are run in this order, so consecutive queries walk mostly the same part of
+ * the KD-tree while it is still in cache.
+ */
+final class HilbertCurve {
+
+  // The curve covers a SIDE x SIDE grid; curve indices, plus one, must fit in
+  // the 31 bits of a key above INDEX_SHIFT
+  private static final int BITS = 15;
+  static final int SIDE = 1 << BITS;
+  private static final int INDEX_SHIFT = 32;
+  private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+  /**
+   * The constructor for this class, which cannot be instantiated.
+   */
+  private HilbertCurve() {
+  }
+
+  /**
+   * A function which orders points along the Hilbert curve over their
+   * bounding box. Points with a non-finite coordinate go first.
+   *
+   * @param xs a double array, the first coordinate of each point
+   * @param ys a double array, the second coordinate of each point (the same
+   *           length as xs)
+   * @return an int array, the index of each point in curve order
+   */
+  static int[] order(double[] xs, double[] ys) {
+    int n = xs.length;
+    double minX = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      if (Double.isFinite(xs[i]) && Double.isFinite(ys[i])) {
+        minX = Math.min(minX, xs[i]);
+        maxX = Math.max(maxX, xs[i]);
+        minY = Math.min(minY, ys[i]);
+        maxY = Math.max(maxY, ys[i]);
+      }
+    }
+    double scaleX = maxX > minX ? (SIDE - 1) / (maxX - minX) : 0;
+    double scaleY = maxY > minY ? (SIDE - 1) / (maxY - minY) : 0;
+    // Pack each curve index above its point's index, so one primitive sort
+    // orders both
+    long[] keys = new long[n];
+    for (int i = 0; i < n; i++) {
+      long index = 0;
+      if (Double.isFinite(xs[i]) && Double.isFinite(ys[i])) {
+        index = 1 + index((int) ((xs[i] - minX) * scaleX),
+            (int) ((ys[i] - minY) * scaleY));
+      }
+      keys[i] = index << INDEX_SHIFT | i;
+    }
+    Arrays.sort(keys);
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = (int) (keys[i] & INDEX_MASK);
+    }
+    return order;
+  }
+
+  /**
+   * A function which finds the distance along the Hilbert curve of a cell of
+   * the grid it covers.
+   *
+   * @param x an int in [0, SIDE), the cell's column
+   * @param y an int in [0, SIDE), the cell's row
+   * @return a long in [0, SIDE * SIDE), the cell's position on the curve
+   */
+  static long index(int x, int y) {
+    long d = 0;
+    for (int s = SIDE >>> 1; s > 0; s >>>= 1) {
+      int rx = (x & s) != 0 ? 1 : 0;
+      int ry = (y & s) != 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      // Rotate the quadrant so the curve inside it is in standard position
+      if (ry == 0) {
+        if (rx == 1) {
+          x = SIDE - 1 - x;
+          y = SIDE - 1 - y;
+        }
+        int temp = x;
+        x = y;
+        y = temp;
+      }
+    }
+    return d;
+  }
+}
@@ -0,0 +1,60 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A class which gets checkins from the checkin server, by asking it for
+ * those since the last successful poll, as ?last=epochSecond. The server
+ * responds with a JSON array of [timestamp, id, "name", lat, lon] arrays,
+ * which a CheckinParser reads as it arrives.
+ */
+final class HttpCheckinSource implements CheckinSource {
+
+  static final String DEFAULT_SERVER_URL = "http://localhost:8080";
+  private static final int TIMEOUT = 5000;
+
+  private final String serverUrl;
+  private final CheckinParser parser = new CheckinParser();
+  private long last = 0;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param serverUrl the URL of the checkin server, without a query
+   */
+  HttpCheckinSource(String serverUrl) {
+    this.serverUrl = serverUrl;
+  }
+
+  @Override
+  public void poll(List<UserCheckin> out) throws IOException {
+    URL serverURL = new URL(this.serverUrl + "?last=" + last);
+    long now = Instant.now().getEpochSecond();
+
+    HttpURLConnection conn = (HttpURLConnection) serverURL.openConnection();
+    conn.setRequestMethod("GET");
+    conn.setConnectTimeout(TIMEOUT);
+    conn.setReadTimeout(TIMEOUT);
+
+    int size = out.size();
+
+    // Use try-with-resources
+    try (InputStream in = conn.getInputStream()) {
+      this.parser.reset(in);
+      while (this.parser.next()) {
+        out.add(this.parser.toUserCheckin());
+      }
+    } catch (IOException e) {
+      out.subList(size, out.size()).clear();
+      throw e;
+    }
+    // Only move on once the checkins have been read, so none are skipped
+    // after a failed poll
+    last = now;
+  }
+}
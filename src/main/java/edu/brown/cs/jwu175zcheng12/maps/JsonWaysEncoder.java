@@ -0,0 +1,125 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class which streams responses to the GUI as JSON, in the format
+ * {errorMessage: "...", ways: {wayId: {startLat, startLon, endLat, endLon,
+ * type, name}, ...}, cells: {lat: {lon: [wayId, ...], ...}, ...},
+ * route: [wayId, ...]}, where errorMessage is only there on errors, and
+ * there are either cells or a route.
+ */
+final class JsonWaysEncoder implements WaysEncoder {
+
+  private final JsonWriter out;
+  private String[] wayIds = new String[0];
+  private int numWays;
+  private String[] rowKeys;
+  private String[] columnKeys;
+  private int row;
+  private int column;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param out the OutputStream to write UTF-8 JSON to
+   */
+  JsonWaysEncoder(OutputStream out) {
+    this.out = new JsonWriter(new BufferedWriter(
+        new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+  }
+
+  @Override
+  public void begin() throws IOException {
+    this.out.beginObject();
+  }
+
+  @Override
+  public void writeError(String message) throws IOException {
+    this.out.name("errorMessage").value(message);
+  }
+
+  @Override
+  public void beginWays(int numWays) throws IOException {
+    this.wayIds = new String[numWays];
+    this.numWays = 0;
+    this.out.name("ways").beginObject();
+  }
+
+  @Override
+  public void writeWay(String id, double startLat, double startLon,
+                       double endLat, double endLon, String type, String name)
+      throws IOException {
+    this.wayIds[this.numWays++] = id;
+    this.out.name(id).beginObject();
+    this.out.name("startLat").value(startLat);
+    this.out.name("startLon").value(startLon);
+    this.out.name("endLat").value(endLat);
+    this.out.name("endLon").value(endLon);
+    this.out.name("type").value(type);
+    this.out.name("name").value(name);
+    this.out.endObject();
+  }
+
+  @Override
+  public void endWays() throws IOException {
+    this.out.endObject();
+  }
+
+  @Override
+  public void beginCells(String[] rowKeys, String[] columnKeys)
+      throws IOException {
+    this.rowKeys = rowKeys;
+    this.columnKeys = columnKeys;
+    this.row = 0;
+    this.column = 0;
+    this.out.name("cells").beginObject();
+  }
+
+  @Override
+  public void writeCell(int[] positions, int count) throws IOException {
+    if (this.column == 0) {
+      this.out.name(this.rowKeys[this.row]).beginObject();
+    }
+    this.out.name(this.columnKeys[this.column]).beginArray();
+    for (int i = 0; i < count; i++) {
+      this.out.value(this.wayIds[positions[i]]);
+    }
+    this.out.endArray();
+    if (++this.column == this.columnKeys.length) {
+      this.out.endObject();
+      this.column = 0;
+      this.row++;
+    }
+  }
+
+  @Override
+  public void endCells() throws IOException {
+    // Rows with no columns never had a cell written
+    for (; this.row < this.rowKeys.length; this.row++) {
+      this.out.name(this.rowKeys[this.row]).beginObject().endObject();
+    }
+    this.out.endObject();
+  }
+
+  @Override
+  public void writeRoute(int[] positions, int count) throws IOException {
+    this.out.name("route").beginArray();
+    for (int i = 0; i < count; i++) {
+      this.out.value(this.wayIds[positions[i]]);
+    }
+    this.out.endArray();
+  }
+
+  @Override
+  public void end() throws IOException {
+    this.out.endObject();
+    this.out.flush();
+  }
+}
@@ -0,0 +1,321 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.Heuristic;
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A class which represents an ALT (A*, landmarks, triangle inequality)
+ * heuristic over a RoadGraph.
+ * <p>
+ * For a few landmark Nodes L, the exact distances d(L, v) and d(v, L) to and
+ * from every Node v are precomputed. By the triangle inequality, both
+ * d(L, t) - d(L, v) and d(v, L) - d(t, L) are lower bounds on d(v, t), and the
+ * heuristic is the largest such bound over all landmarks. Unlike haversine
+ * distance, this follows the road network, so A* expands far fewer Nodes.
+ * <p>
+ * Distances are stored landmark-major in flat double arrays, with
+ * Double.POSITIVE_INFINITY for unreachable pairs. A LandmarkTable can be
+ * saved to (and loaded from) a sidecar file next to the database, whose name
+ * is given by sidecarFor.
+ */
+public final class LandmarkTable implements Heuristic<Node> {
+
+  private static final int MAGIC = 0x414C_544D; // "ALTM"
+  private static final int VERSION = 1;
+
+  private final RoadGraph graph;
+  private final int[] landmarks;
+  private final double[] fromLandmark;
+  private final double[] toLandmark;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class.
+   *
+   * @param graph        the RoadGraph which the distances were computed over
+   * @param landmarks    an int array, the graph index of each landmark
+   * @param fromLandmark a double array, where entry l * n + v is the distance
+   *                     from landmark l to Node v
+   * @param toLandmark   a double array, where entry l * n + v is the distance
+   *                     from Node v to landmark l
+   */
+  private LandmarkTable(RoadGraph graph, int[] landmarks,
+                        double[] fromLandmark, double[] toLandmark) {
+    this.graph = graph;
+    this.landmarks = landmarks;
+    this.fromLandmark = fromLandmark;
+    this.toLandmark = toLandmark;
+  }
+
+  /**
+   * A function which picks landmarks and computes their distance tables.
+   * <p>
+   * Landmarks are picked by farthest-point selection: the first is the Node
+   * farthest from Node 0, and each later one is the Node whose distance to
+   * its nearest landmark so far is largest. This spreads landmarks around the
+   * edges of the map, where their bounds are tightest.
+   *
+   * @param graph        the RoadGraph to compute distances over
+   * @param numLandmarks an int, the number of landmarks to pick
+   * @return a LandmarkTable with at most numLandmarks landmarks
+   */
+  public static LandmarkTable build(RoadGraph graph, int numLandmarks) {
+    int numNodes = graph.getNumNodes();
+    int count = Math.min(numLandmarks, numNodes);
+    int[] landmarks = new int[count];
+    double[] fromLandmark = new double[count * numNodes];
+    double[] toLandmark = new double[count * numNodes];
+    SearchScratch scratch = new SearchScratch(numNodes);
+    if (count == 0) {
+      return new LandmarkTable(graph, landmarks, fromLandmark, toLandmark);
+    }
+
+    // Distance from each Node to its nearest landmark so far, either way
+    double[] nearest = new double[numNodes];
+    Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+    double[] seed = new double[numNodes];
+    distances(graph, 0, true, scratch, seed, 0);
+    int next = farthest(seed);
+    for (int l = 0; l < count; l++) {
+      landmarks[l] = next;
+      int offset = l * numNodes;
+      distances(graph, next, true, scratch, fromLandmark, offset);
+      distances(graph, next, false, scratch, toLandmark, offset);
+      for (int v = 0; v < numNodes; v++) {
+        double dist = Math.min(fromLandmark[offset + v],
+            toLandmark[offset + v]);
+        nearest[v] = Math.min(nearest[v], dist);
+      }
+      next = farthest(nearest);
+    }
+    return new LandmarkTable(graph, landmarks, fromLandmark, toLandmark);
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the number of landmarks in this LandmarkTable.
+   *
+   * @return the number of landmarks
+   */
+  public int getNumLandmarks() {
+    return this.landmarks.length;
+  }
+
+  /**
+   * A getter function for the Node which is a given landmark.
+   *
+   * @param landmark an int, the index of a landmark
+   * @return the Node which is that landmark
+   */
+  public Node getLandmark(int landmark) {
+    return this.graph.getNode(this.landmarks[landmark]);
+  }
+
+  /**
+   * A function which checks whether a Node belongs to this LandmarkTable's
+   * RoadGraph, i.e. whether it can be passed to estimate.
+   *
+   * @param node a Node
+   * @return true if the Node is in the RoadGraph
+   */
+  public boolean owns(Node node) {
+    int index = node.getGraphIndex();
+    return index >= 0 && index < this.graph.getNumNodes()
+        && this.graph.getNode(index) == node;
+  }
+
+  // ------------------------------ Heuristic ------------------------------
+
+  @Override
+  public double estimate(Node node, Node target) {
+    return estimate(node.getGraphIndex(), target.getGraphIndex());
+  }
+
+  /**
+   * A function which gives the ALT lower bound on the distance between two
+   * Nodes, by graph index.
+   *
+   * @param node   an int, the graph index of the Node to estimate from
+   * @param target an int, the graph index of the target Node
+   * @return a lower bound on the distance from node to target
+   */
+  public double estimate(int node, int target) {
+    int numNodes = this.graph.getNumNodes();
+    double best = 0;
+    for (int offset = 0; offset < this.fromLandmark.length;
+         offset += numNodes) {
+      // d(L, t) <= d(L, v) + d(v, t)
+      double bound = this.fromLandmark[offset + target]
+          - this.fromLandmark[offset + node];
+      if (bound > best && bound != Double.POSITIVE_INFINITY) {
+        best = bound;
+      }
+      // d(v, L) <= d(v, t) + d(t, L)
+      bound = this.toLandmark[offset + node]
+          - this.toLandmark[offset + target];
+      if (bound > best && bound != Double.POSITIVE_INFINITY) {
+        best = bound;
+      }
+    }
+    return best;
+  }
+
+  // ------------------------------ Persistence ----------------------------
+
+  /**
+   * A function which gets the sidecar File that a database's landmark
+   * distances are saved to.
+   *
+   * @param dbPath the path to a database
+   * @return the File next to that database which holds its landmarks
+   */
+  public static File sidecarFor(String dbPath) {
+    return new File(dbPath + ".alt");
+  }
+
+  /**
+   * A function which saves this LandmarkTable to a file.
+   *
+   * @param file the File to write to
+   * @throws IOException if the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    // Use Try-with-resources
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(this.graph.fingerprint());
+      out.writeInt(this.graph.getNumNodes());
+      out.writeInt(this.landmarks.length);
+      for (int landmark : this.landmarks) {
+        out.writeInt(landmark);
+      }
+      for (double dist : this.fromLandmark) {
+        out.writeDouble(dist);
+      }
+      for (double dist : this.toLandmark) {
+        out.writeDouble(dist);
+      }
+    }
+  }
+
+  /**
+   * A function which loads a LandmarkTable from a file, checking that it was
+   * built from the same RoadGraph.
+   *
+   * @param file  the File to read from
+   * @param graph the RoadGraph of the database which the file sits next to
+   * @return the LandmarkTable stored in the file
+   * @throws IOException if the file cannot be read, is malformed, or was
+   *                     built from a different RoadGraph
+   */
+  public static LandmarkTable read(File file, RoadGraph graph)
+      throws IOException {
+    // Use Try-with-resources
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a landmark file: " + file);
+      }
+      int numNodes = graph.getNumNodes();
+      if (in.readLong() != graph.fingerprint() || in.readInt() != numNodes) {
+        throw new IOException("Landmark file " + file
+            + " was built from a different database.");
+      }
+      int count = in.readInt();
+      if (count < 0 || count > numNodes) {
+        throw new IOException("Malformed landmark file: " + file);
+      }
+      int[] landmarks = new int[count];
+      for (int l = 0; l < count; l++) {
+        landmarks[l] = in.readInt();
+        if (landmarks[l] < 0 || landmarks[l] >= numNodes) {
+          throw new IOException("Malformed landmark file: " + file);
+        }
+      }
+      double[] fromLandmark = new double[count * numNodes];
+      for (int i = 0; i < fromLandmark.length; i++) {
+        fromLandmark[i] = in.readDouble();
+      }
+      double[] toLandmark = new double[count * numNodes];
+      for (int i = 0; i < toLandmark.length; i++) {
+        toLandmark[i] = in.readDouble();
+      }
+      return new LandmarkTable(graph, landmarks, fromLandmark, toLandmark);
+    }
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which runs a full Dijkstra search from (or, backwards,
+   * to) a Node, and writes every Node's distance into an array.
+   *
+   * @param graph     the RoadGraph to search
+   * @param source    an int, the graph index of the Node to search from
+   * @param isForward a boolean, true to follow ways out, false for ways in
+   * @param scratch   a SearchScratch to search with
+   * @param out       a double array to write distances into
+   * @param offset    an int, the position in out of Node 0's distance
+   */
+  private static void distances(RoadGraph graph, int source,
+                                boolean isForward, SearchScratch scratch,
+                                double[] out, int offset) {
+    scratch.reset();
+    IndexedMinHeap heap = scratch.heap();
+    scratch.relax(source, 0, null);
+    heap.insertOrDecrease(source, 0);
+    while (!heap.isEmpty()) {
+      int curr = heap.poll();
+      scratch.settle(curr);
+      double currDist = scratch.dist(curr);
+      int first = isForward ? graph.firstOut(curr) : graph.firstIn(curr);
+      int end = isForward ? graph.endOut(curr) : graph.endIn(curr);
+      for (int i = first; i < end; i++) {
+        int e = isForward ? i : graph.inEdge(i);
+        int next = isForward ? graph.target(e) : graph.source(e);
+        double nextDist = currDist + graph.weight(e);
+        if (!scratch.isSettled(next) && scratch.relax(next, nextDist, null)) {
+          heap.insertOrDecrease(next, nextDist);
+        }
+      }
+    }
+    for (int v = 0; v < graph.getNumNodes(); v++) {
+      out[offset + v] = scratch.isReached(v)
+          ? scratch.dist(v) : Double.POSITIVE_INFINITY;
+    }
+  }
+
+  /**
+   * A helper function which finds the Node with the largest finite distance.
+   * Nodes which are already landmarks have distance 0, so are never picked
+   * while any other reachable Node remains.
+   *
+   * @param dist a double array, a distance for every Node
+   * @return the graph index of the farthest Node, or 0 if none is finite
+   */
+  private static int farthest(double[] dist) {
+    int best = 0;
+    double bestDist = -1;
+    for (int v = 0; v < dist.length; v++) {
+      if (dist[v] > bestDist && dist[v] != Double.POSITIVE_INFINITY) {
+        best = v;
+        bestDist = dist[v];
+      }
+    }
+    return best;
+  }
+}
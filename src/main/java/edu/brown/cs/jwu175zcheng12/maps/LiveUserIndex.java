@@ -0,0 +1,508 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.kdtree.NeighborIndex;
+import edu.brown.cs.jwu175zcheng12.kdtree.ObjectInNDSpace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A class which indexes the latest position of every user, as of their
+ * latest checkin, so that the users near a position can be found without
+ * scanning them all. Positions are [latitude, longitude] in degrees, and
+ * distances are great-circle kilometres.
+ * <p>
+ * Users are bucketed into a grid of square cells, a few of which a query
+ * reads. Only occupied cells are kept, in a hash map, so moving a user is
+ * removing them from one cell and adding them to another, both O(1).
+ * Updates take a write lock, once per batch, and queries a read lock, so
+ * the index is safe to update from the poller while the GUI queries it.
+ */
+final class LiveUserIndex implements NeighborIndex<LiveUserIndex.LiveUser> {
+
+  static final double DEFAULT_CELL_DEGREES = 0.01;
+  static final double EARTH_RADIUS = 6371.0;
+  private static final double MAX_LATITUDE = 90;
+  private static final double MAX_LONGITUDE = 180;
+  private static final double HAVERSINE_SLACK = 1e-9;
+
+  private final double cellDegrees;
+  private final int numRows;
+  private final int numColumns;
+  private final Map<Integer, LiveUser> users = new HashMap<>();
+  private final Map<Long, List<LiveUser>> cells = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * A class which represents a user at their latest position.
+   */
+  static final class LiveUser extends ObjectInNDSpace {
+
+    private final UserCheckin checkin;
+    private final double cosLat;
+    // Where this user is in the grid, only used under the write lock
+    private long cell;
+    private int slot;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param checkin the UserCheckin which put the user here
+     */
+    LiveUser(UserCheckin checkin) {
+      super(new Double[]{checkin.getLat(), checkin.getLon()}, EARTH_RADIUS);
+      this.checkin = checkin;
+      this.cosLat = Math.cos(Math.toRadians(checkin.getLat()));
+    }
+
+    /**
+     * A getter function for this class' checkin field.
+     *
+     * @return the UserCheckin which put the user here
+     */
+    UserCheckin getCheckin() {
+      return this.checkin;
+    }
+  }
+
+  /**
+   * The constructor for this class.
+   *
+   * @param cellDegrees a double, the width and height of a cell, in degrees
+   */
+  LiveUserIndex(double cellDegrees) {
+    if (!(cellDegrees > 0) || cellDegrees > MAX_LATITUDE) {
+      throw new IllegalArgumentException(
+          "Cell size must be positive and at most " + MAX_LATITUDE + ".");
+    }
+    this.cellDegrees = cellDegrees;
+    this.numRows = (int) Math.ceil(2 * MAX_LATITUDE / cellDegrees);
+    this.numColumns = (int) Math.ceil(2 * MAX_LONGITUDE / cellDegrees);
+  }
+
+  // ------------------------------- Updates -------------------------------
+
+  /**
+   * A function which moves each user to the position of their checkin,
+   * adding them if they are new. A checkin older than the user's latest is
+   * ignored, as are checkins without a position.
+   *
+   * @param checkins the UserCheckins, in any order
+   */
+  void update(Collection<UserCheckin> checkins) {
+    this.lock.writeLock().lock();
+    try {
+      for (UserCheckin checkin : checkins) {
+        this.move(checkin);
+      }
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * A function which removes a user.
+   *
+   * @param id an int, the user's id
+   * @return true if the user was in this index
+   */
+  boolean remove(int id) {
+    this.lock.writeLock().lock();
+    try {
+      LiveUser user = this.users.remove(id);
+      if (user == null) {
+        return false;
+      }
+      this.removeFromCell(user);
+      return true;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  // ------------------------------- Queries -------------------------------
+
+  /**
+   * A getter function for the number of users in this index.
+   *
+   * @return the number of users
+   */
+  int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.users.size();
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * A getter function for a user.
+   *
+   * @param id an int, the user's id
+   * @return the LiveUser, or null if the user is not in this index
+   */
+  LiveUser get(int id) {
+    this.lock.readLock().lock();
+    try {
+      return this.users.get(id);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc} The search looks within a radius which doubles until it
+   * holds k users. Ties for the k-th place are broken arbitrarily.
+   *
+   * @param k      the number of users to find
+   * @param target the [latitude, longitude] whose nearest users to find
+   * @return a List of up to k nearest users, closest first
+   */
+  @Override
+  public List<LiveUser> findKNearestNeighbors(int k, Double[] target) {
+    checkTarget(target);
+    if (k <= 0) {
+      return new ArrayList<>();
+    }
+    double lat = target[0];
+    double lon = target[1];
+    List<Found> found = new ArrayList<>();
+    this.lock.readLock().lock();
+    try {
+      // Start with about the users of the target's cell
+      double radius = this.cellDegrees * Math.toRadians(EARTH_RADIUS) / 2;
+      while (true) {
+        found.clear();
+        this.collect(radius, lat, lon, found);
+        if (found.size() >= k || found.size() == this.users.size()) {
+          break;
+        }
+        radius *= 2;
+      }
+    } finally {
+      this.lock.readLock().unlock();
+    }
+    return sorted(found, k);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @param r      the radius in which to look for users, in kilometres
+   * @param target the [latitude, longitude] whose nearby users to find
+   * @return a List of the users within r of the target, closest first
+   */
+  @Override
+  public List<LiveUser> findRadiusSearch(Double r, Double[] target) {
+    checkTarget(target);
+    if (r == null || r.isNaN() || r < 0) {
+      throw new IllegalArgumentException("Radius must be non-negative.");
+    }
+    List<Found> found = new ArrayList<>();
+    this.lock.readLock().lock();
+    try {
+      this.collect(r, target[0], target[1], found);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+    return sorted(found, found.size());
+  }
+
+  /**
+   * A function which finds the great-circle distance between two positions.
+   *
+   * @param lat1 a double, the first position's latitude
+   * @param lon1 a double, the first position's longitude
+   * @param lat2 a double, the second position's latitude
+   * @param lon2 a double, the second position's longitude
+   * @return the distance, in kilometres
+   */
+  static double distance(double lat1, double lon1, double lat2, double lon2) {
+    return toDistance(haversine(lat1, lon1, Math.cos(Math.toRadians(lat1)),
+        lat2, lon2, Math.cos(Math.toRadians(lat2))));
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A class which pairs a user found with their distance from the target.
+   */
+  private static final class Found {
+    private final LiveUser user;
+    private final double distance;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param user     the LiveUser
+     * @param distance a double, the user's distance from the target
+     */
+    Found(LiveUser user, double distance) {
+      this.user = user;
+      this.distance = distance;
+    }
+  }
+
+  /**
+   * A helper function which moves a user to the position of a checkin,
+   * under the write lock.
+   *
+   * @param checkin the UserCheckin
+   */
+  private void move(UserCheckin checkin) {
+    double lat = checkin.getLat();
+    double lon = checkin.getLon();
+    if (Double.isNaN(lat) || Double.isNaN(lon)
+        || Double.isInfinite(lat) || Double.isInfinite(lon)) {
+      return;
+    }
+    LiveUser old = this.users.get(checkin.getId());
+    if (old != null) {
+      if (old.checkin.getTimestamp() > checkin.getTimestamp()) {
+        return;
+      }
+      this.removeFromCell(old);
+    }
+    LiveUser user = new LiveUser(checkin);
+    user.cell = this.key(this.row(lat), this.column(lon));
+    List<LiveUser> cell =
+        this.cells.computeIfAbsent(user.cell, k -> new ArrayList<>());
+    user.slot = cell.size();
+    cell.add(user);
+    this.users.put(checkin.getId(), user);
+  }
+
+  /**
+   * A helper function which removes a user from their cell, by moving the
+   * cell's last user into their slot, under the write lock.
+   *
+   * @param user the LiveUser
+   */
+  private void removeFromCell(LiveUser user) {
+    List<LiveUser> cell = this.cells.get(user.cell);
+    LiveUser last = cell.remove(cell.size() - 1);
+    if (last != user) {
+      cell.set(user.slot, last);
+      last.slot = user.slot;
+    }
+    if (cell.isEmpty()) {
+      this.cells.remove(user.cell);
+    }
+  }
+
+  /**
+   * A helper function which finds every user within a radius of a
+   * position, in no particular order, under the read lock. It reads the
+   * cells which the radius could reach, or every occupied cell if those are
+   * fewer.
+   *
+   * @param radius a double, the radius, in kilometres
+   * @param lat    a double, the position's latitude
+   * @param lon    a double, the position's longitude
+   * @param out    the List to add the users found to
+   */
+  private void collect(double radius, double lat, double lon,
+                       List<Found> out) {
+    // The angle the radius subtends at the centre of the earth
+    double angle = radius / EARTH_RADIUS;
+    double latDegrees = Math.toDegrees(angle);
+    Target target = new Target(lat, lon, radius, latDegrees);
+    int firstRow = this.row(lat - latDegrees);
+    int lastRow = this.row(lat + latDegrees);
+    int firstColumn = 0;
+    int lastColumn = this.numColumns - 1;
+    // Away from the poles, the radius reaches a bounded longitude
+    if (angle < Math.PI / 2 && Math.abs(lat) + latDegrees < MAX_LATITUDE) {
+      double lonDegrees = Math.toDegrees(
+          Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(lat))));
+      if (2 * lonDegrees + 2 * this.cellDegrees < 2 * MAX_LONGITUDE) {
+        firstColumn = this.column(lon - lonDegrees);
+        lastColumn = this.column(lon + lonDegrees);
+        if (lastColumn < firstColumn) {
+          lastColumn += this.numColumns;
+        }
+      }
+    }
+
+    long numCells = (long) (lastRow - firstRow + 1)
+        * (lastColumn - firstColumn + 1);
+    if (numCells > this.cells.size()) {
+      for (List<LiveUser> cell : this.cells.values()) {
+        addWithin(cell, target, out);
+      }
+      return;
+    }
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        List<LiveUser> cell =
+            this.cells.get(this.key(row, column % this.numColumns));
+        if (cell != null) {
+          addWithin(cell, target, out);
+        }
+      }
+    }
+  }
+
+  /**
+   * A class which holds what is needed to test users against a query's
+   * radius cheaply: most users are ruled out by their latitude alone, or by
+   * their haversine, without the arcsine of the distance.
+   */
+  private static final class Target {
+    private final double lat;
+    private final double lon;
+    private final double cosLat;
+    private final double radius;
+    private final double latDegrees;
+    private final double maxHaversine;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param lat        a double, the target's latitude
+     * @param lon        a double, the target's longitude
+     * @param radius     a double, the radius, in kilometres
+     * @param latDegrees a double, the radius in degrees of latitude
+     */
+    Target(double lat, double lon, double radius, double latDegrees) {
+      this.lat = lat;
+      this.lon = lon;
+      this.cosLat = Math.cos(Math.toRadians(lat));
+      this.radius = radius;
+      this.latDegrees = latDegrees;
+      double sinHalfAngle =
+          Math.sin(Math.min(radius / EARTH_RADIUS, Math.PI) / 2);
+      // Padded, so that rounding never rules out a user within the radius;
+      // those which pass are then checked against the radius exactly
+      this.maxHaversine = sinHalfAngle * sinHalfAngle * (1 + HAVERSINE_SLACK)
+          + Double.MIN_NORMAL;
+    }
+  }
+
+  /**
+   * A helper function which adds the users of a cell within a query's
+   * radius.
+   *
+   * @param cell   the List of LiveUsers in the cell
+   * @param target the query's Target
+   * @param out    the List to add the users found to
+   */
+  private static void addWithin(List<LiveUser> cell, Target target,
+                                List<Found> out) {
+    for (LiveUser user : cell) {
+      double userLat = user.checkin.getLat();
+      if (Math.abs(userLat - target.lat) > target.latDegrees) {
+        continue;
+      }
+      double h = haversine(target.lat, target.lon, target.cosLat, userLat,
+          user.checkin.getLon(), user.cosLat);
+      if (h <= target.maxHaversine) {
+        double d = toDistance(h);
+        if (d <= target.radius) {
+          out.add(new Found(user, d));
+        }
+      }
+    }
+  }
+
+  /**
+   * A helper function which finds the haversine of the angle between two
+   * positions, given the cosines of their latitudes.
+   *
+   * @param lat1    a double, the first position's latitude
+   * @param lon1    a double, the first position's longitude
+   * @param cosLat1 a double, the cosine of the first position's latitude
+   * @param lat2    a double, the second position's latitude
+   * @param lon2    a double, the second position's longitude
+   * @param cosLat2 a double, the cosine of the second position's latitude
+   * @return the haversine, from 0 to 1
+   */
+  private static double haversine(double lat1, double lon1, double cosLat1,
+                                  double lat2, double lon2, double cosLat2) {
+    double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+    double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+    return sinLat * sinLat + cosLat1 * cosLat2 * sinLon * sinLon;
+  }
+
+  /**
+   * A helper function which turns a haversine into a distance.
+   *
+   * @param h a double, the haversine of the angle between two positions
+   * @return the distance, in kilometres
+   */
+  private static double toDistance(double h) {
+    return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1, h)));
+  }
+
+  /**
+   * A helper function which sorts the users found, closest first.
+   *
+   * @param found the List of users found
+   * @param max   an int, the most users to return
+   * @return a List of the closest max users
+   */
+  private static List<LiveUser> sorted(List<Found> found, int max) {
+    found.sort(Comparator.comparingDouble(f -> f.distance));
+    int size = Math.min(max, found.size());
+    List<LiveUser> output = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      output.add(found.get(i).user);
+    }
+    return Collections.unmodifiableList(output);
+  }
+
+  /**
+   * A helper function which checks that a target is a [latitude, longitude].
+   *
+   * @param target the target
+   */
+  private static void checkTarget(Double[] target) {
+    if (target == null || target.length != 2 || target[0] == null
+        || target[1] == null) {
+      throw new IllegalArgumentException(
+          "Target must have [latitude, longitude] form.");
+    }
+  }
+
+  /**
+   * A helper function which finds the row of the cell a latitude lies in.
+   *
+   * @param lat a double, a latitude
+   * @return the row, clamped to the grid
+   */
+  private int row(double lat) {
+    int row = (int) Math.floor((lat + MAX_LATITUDE) / this.cellDegrees);
+    return Math.max(0, Math.min(this.numRows - 1, row));
+  }
+
+  /**
+   * A helper function which finds the column of the cell a longitude lies
+   * in, wrapping around the antimeridian.
+   *
+   * @param lon a double, a longitude
+   * @return the column
+   */
+  private int column(double lon) {
+    long column = (long) Math.floor((lon + MAX_LONGITUDE) / this.cellDegrees);
+    return (int) Math.floorMod(column, (long) this.numColumns);
+  }
+
+  /**
+   * A helper function which packs a cell's row and column into a key.
+   *
+   * @param row    an int, a cell row
+   * @param column an int, a cell column
+   * @return the cell's key
+   */
+  private long key(int row, int column) {
+    return (long) row * this.numColumns + column;
+  }
+}
@@ -6,12 +6,17 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 import edu.brown.cs.jwu175zcheng12.csvdataset.StarDataset;
 import edu.brown.cs.jwu175zcheng12.csvdataset.MockPersonDataset;
+import edu.brown.cs.jwu175zcheng12.mapscommands.CommandContract;
+import edu.brown.cs.jwu175zcheng12.mapscommands.CommandLandmarks;
 import edu.brown.cs.jwu175zcheng12.mapscommands.CommandMap;
 import edu.brown.cs.jwu175zcheng12.mapscommands.CommandNearest;
 import edu.brown.cs.jwu175zcheng12.mapscommands.CommandRoute;
+import edu.brown.cs.jwu175zcheng12.mapscommands.CommandSnap;
+import edu.brown.cs.jwu175zcheng12.mapscommands.CommandSnapshot;
 import edu.brown.cs.jwu175zcheng12.mapscommands.CommandWays;
 import edu.brown.cs.jwu175zcheng12.repl.GeneralREPL;
 import edu.brown.cs.jwu175zcheng12.starscommands.CommandNaiveNeighbors;
@@ -43,8 +48,7 @@ public final class Main {
   private static final StarDataset STAR_DATASET = new StarDataset();
   private static final MapDatabase MAP_DATABASE = new MapDatabase();
   // For Maps
-  private static final CheckinThread CHECKIN_THREAD =
-      new CheckinThread("data/maps/userCheckins.sqlite3");
+  private static final String CHECKINS_DB = "data/maps/userCheckins.sqlite3";
 
   /**
    * The initial method called when execution begins.
@@ -65,12 +69,48 @@ public final class Main {
     // Parse command line arguments
     OptionParser parser = new OptionParser();
     parser.accepts("gui");
+    parser.accepts("preload-graph");
+    parser.accepts("contract").withRequiredArg().ofType(String.class);
+    parser.accepts("snapshot").withRequiredArg().ofType(String.class);
     parser.accepts("port").withRequiredArg().ofType(Integer.class)
         .defaultsTo(DEFAULT_PORT);
+    parser.accepts("checkin-interval").withRequiredArg().ofType(Long.class)
+        .defaultsTo(CheckinThread.DEFAULT_POLL_INTERVAL);
+    acceptCheckinOptions(parser);
     OptionSet options = parser.parse(args);
 
+    // Stream each map's ways into a RoadGraph on load, if requested
+    MAP_DATABASE.setPreloadGraph(options.has("preload-graph"));
+
+    // Preprocess a map offline, then exit, if requested
+    if (options.has("contract")) {
+      new CommandMap(MAP_DATABASE).executeCommand(
+          new String[]{"map", (String) options.valueOf("contract")});
+      new CommandContract(MAP_DATABASE).executeCommand(
+          new String[]{"contract"});
+      return;
+    }
+
+    // Export a map's snapshot offline, then exit, if requested
+    if (options.has("snapshot")) {
+      new CommandMap(MAP_DATABASE).executeCommand(
+          new String[]{"map", (String) options.valueOf("snapshot")});
+      new CommandSnapshot(MAP_DATABASE).executeCommand(
+          new String[]{"snapshot"});
+      return;
+    }
+
+    CheckinThread checkinThread = null;
     if (options.has("gui")) {
-      runSparkServer((int) options.valueOf("port"));
+      try {
+        checkinThread = new CheckinThread(CHECKINS_DB, checkinSource(options));
+      } catch (IOException e) {
+        printError("Could not open checkin source: " + e.getMessage());
+        return;
+      }
+      checkinThread.setPollInterval((long) options.valueOf("checkin-interval"));
+      checkinThread.setMapMatcher(new MapMatcher(MAP_DATABASE));
+      runSparkServer((int) options.valueOf("port"), checkinThread);
     }
 
     // Create new REPL
@@ -93,15 +133,19 @@ public final class Main {
     newREPL.registerCommand(new CommandMap(MAP_DATABASE));
     newREPL.registerCommand(new CommandWays(MAP_DATABASE));
     newREPL.registerCommand(new CommandNearest(MAP_DATABASE));
+    newREPL.registerCommand(new CommandSnap(MAP_DATABASE));
     newREPL.registerCommand(new CommandRoute(MAP_DATABASE));
+    newREPL.registerCommand(new CommandContract(MAP_DATABASE));
+    newREPL.registerCommand(new CommandSnapshot(MAP_DATABASE));
+    newREPL.registerCommand(new CommandLandmarks(MAP_DATABASE));
 
     // Run the REPL
     newREPL.startREPL();
 
-    // Join thread once REPL is done
+    // Keep serving the GUI once REPL is done
     try {
-      if (options.has("gui")) {
-        CHECKIN_THREAD.join();
+      if (checkinThread != null) {
+        checkinThread.join();
       }
     } catch (InterruptedException e) {
       printError("Thread failed to join in Main.java!");
@@ -121,7 +165,53 @@ public final class Main {
     return new FreeMarkerEngine(config);
   }
 
-  private void runSparkServer(int port) {
+  /**
+   * A function which adds the options which choose where checkins come
+   * from: the checkin server at --checkin-server (the default), a
+   * recording at --checkin-replay, replayed --checkin-speedup times faster
+   * than real time, or --checkin-synthetic checkins per second by
+   * --checkin-users synthetic users.
+   *
+   * @param parser the OptionParser
+   */
+  static void acceptCheckinOptions(OptionParser parser) {
+    parser.accepts("checkin-server").withRequiredArg().ofType(String.class)
+        .defaultsTo(HttpCheckinSource.DEFAULT_SERVER_URL);
+    parser.accepts("checkin-replay").withRequiredArg().ofType(String.class);
+    parser.accepts("checkin-speedup").withRequiredArg().ofType(Double.class)
+        .defaultsTo(1.0);
+    parser.accepts("checkin-synthetic").withRequiredArg()
+        .ofType(Double.class);
+    parser.accepts("checkin-users").withRequiredArg().ofType(Integer.class)
+        .defaultsTo(SyntheticCheckinSource.DEFAULT_USERS);
+  }
+
+  /**
+   * A function which makes the CheckinSource chosen by the options added by
+   * acceptCheckinOptions().
+   *
+   * @param options the parsed OptionSet
+   * @return the CheckinSource
+   * @throws IOException if a recording cannot be opened
+   */
+  static CheckinSource checkinSource(OptionSet options) throws IOException {
+    if (options.has("checkin-replay")) {
+      return new ReplayCheckinSource(
+          Paths.get((String) options.valueOf("checkin-replay")),
+          (double) options.valueOf("checkin-speedup"));
+    }
+    if (options.has("checkin-synthetic")) {
+      return new SyntheticCheckinSource(
+          (double) options.valueOf("checkin-synthetic"),
+          (int) options.valueOf("checkin-users"),
+          SyntheticCheckinSource.DEFAULT_LAT,
+          SyntheticCheckinSource.DEFAULT_LON,
+          SyntheticCheckinSource.DEFAULT_RADIUS, System.nanoTime());
+    }
+    return new HttpCheckinSource((String) options.valueOf("checkin-server"));
+  }
+
+  private void runSparkServer(int port, CheckinThread checkinThread) {
     Spark.port(port);
     Spark.externalStaticFileLocation("src/main/resources/static");
 
@@ -144,12 +234,13 @@ public final class Main {
 
     FreeMarkerEngine freeMarker = createEngine();
 
-    // Start checkin thread
-    CHECKIN_THREAD.start();
+    // Start polling for checkins, and stop cleanly on exit
+    checkinThread.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(checkinThread::stop));
 
     // Prepare GUIHandler class
     GUIHandlers myGuiHandlers =
-        new GUIHandlers(STAR_DATASET, MAP_DATABASE, CHECKIN_THREAD);
+        new GUIHandlers(STAR_DATASET, MAP_DATABASE, checkinThread);
 
     // Setup Spark Routes
     Spark.before((request, response) -> response.header("Access-Control-Allow-Origin", "*"));
@@ -157,12 +248,20 @@ public final class Main {
     Spark.get("/neighbors", myGuiHandlers.new StarsNeighborsHandler(), freeMarker);
     Spark.get("/radius", myGuiHandlers.new StarsRadiusHandler(), freeMarker);
     Spark.post("/nearest-node", myGuiHandlers.new MapNearestNodeHandler());
+    Spark.post("/nearest-nodes", myGuiHandlers.new MapNearestNodesHandler());
     Spark.post("/route-coordinates", myGuiHandlers.new MapRouteCoordinatesHandler());
     Spark.post("/route-names", myGuiHandlers.new MapRouteNamesHandler());
     Spark.post("/route-mixed", myGuiHandlers.new MapRouteMixedHandler());
     Spark.post("/ways-and-cells", myGuiHandlers.new MapWaysAndCellsHandler());
+    Spark.get("/tiles/:zoom/:x/:y", myGuiHandlers.new MapTileHandler());
     Spark.post("/get-checkins", myGuiHandlers.new GetCheckinsHandler());
     Spark.post("/get-one-users-checkins", myGuiHandlers.new GetOneUsersCheckinsHandler());
+    Spark.post("/live-users-radius",
+        myGuiHandlers.new LiveUsersRadiusHandler());
+    Spark.post("/live-users-nearest",
+        myGuiHandlers.new LiveUsersNearestHandler());
+    Spark.post("/get-one-users-matched-trace",
+        myGuiHandlers.new GetOneUsersMatchedTraceHandler());
   }
 
   /**
@@ -1,11 +1,13 @@
 package edu.brown.cs.jwu175zcheng12.maps;
 
 import com.google.common.collect.ImmutableMap;
-import edu.brown.cs.jwu175zcheng12.kdtree.KDTree;
+import edu.brown.cs.jwu175zcheng12.kdtree.FlatKDTree;
+import edu.brown.cs.jwu175zcheng12.kdtree.NeighborIndex;
 import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -13,11 +15,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
 
@@ -29,17 +35,29 @@ public class MapDatabase {
   // CheckStyle catches magic numbers...
   private static final int SEVEN = 7;
   private static final int EIGHT = 8;
-  private static final int TEN = 10;
-  private static final int ELEVEN = 11;
-  private static final int INTERVAL_POW = 2;
   private static final BigDecimal INTERVAL = new BigDecimal("0.01");
+  // Slack on the range queries for a tile, whose ends are then checked exactly
+  private static final double TILE_PADDING = 1e-9;
+  // Queries per task when snapping a batch of points
+  private static final int BATCH_CHUNK = 1024;
 
   private Connection conn = null;
   private String dbPath = null;
 
   private final Map<String, Node> tNodeHashMap = new HashMap<>();
   private final Map<String, Way> wayHashMap = new HashMap<>();
-  private KDTree<Node> nodeKDTree = null;
+  private NeighborIndex<Node> nodeKDTree = null;
+  private List<Node> graphNodes = null;
+  private MapSnapshot snapshot = null;
+  private RoadGraph roadGraph = null;
+  private RouteEngine routeEngine = null;
+  private ContractionHierarchy contractionHierarchy = null;
+  private LandmarkTable landmarkTable = null;
+  // Built on the first box or tile query, as it reads every way
+  private volatile WayIndex wayIndex = null;
+  private final Object wayIndexLock = new Object();
+  private boolean preloadGraph = false;
+  private final AtomicLong mapVersion = new AtomicLong();
 
   // ----------------------------- Constructors ----------------------------
 
@@ -64,12 +82,109 @@ public class MapDatabase {
     this.setUpMapDatabase(dbPath);
   }
 
+  /**
+   * Another constructor for this class. This constructor offers the ability to
+   * choose whether the whole traversable way table is streamed into a
+   * RoadGraph when the database is set up.
+   *
+   * @param dbPath       the path to the database
+   * @param preloadGraph a boolean, whether to build a RoadGraph on setup
+   * @throws SQLException           whenever one of the SQL commands sent by
+   *                                Java is malformed
+   * @throws ClassNotFoundException when the JDBC driver is not registered
+   */
+  public MapDatabase(String dbPath, boolean preloadGraph)
+      throws SQLException, ClassNotFoundException {
+    this.preloadGraph = preloadGraph;
+    this.setUpMapDatabase(dbPath);
+  }
+
   // ------------------------ Connection and Caching -----------------------
 
+  /**
+   * A setter function for this class' preloadGraph field. When true, every
+   * subsequent setUpMapDatabase also streams the whole traversable way table
+   * into a RoadGraph, so that pathfinding never has to query the database.
+   *
+   * @param preloadGraph a boolean, whether to build a RoadGraph on setup
+   */
+  public void setPreloadGraph(boolean preloadGraph) {
+    this.preloadGraph = preloadGraph;
+  }
+
+  /**
+   * A getter function for this class' roadGraph field.
+   *
+   * @return the RoadGraph of the loaded database, or null if no database is
+   * loaded or the RoadGraph was not preloaded
+   */
+  public RoadGraph getRoadGraph() {
+    return this.roadGraph;
+  }
+
+  /**
+   * A getter function for this class' routeEngine field.
+   *
+   * @return the RouteEngine over the loaded database's Nodes, or null if no
+   * database is loaded
+   */
+  public RouteEngine getRouteEngine() {
+    return this.routeEngine;
+  }
+
+  /**
+   * A getter function for this class' contractionHierarchy field.
+   *
+   * @return the ContractionHierarchy of the loaded database, or null if none
+   * has been built or loaded
+   */
+  public ContractionHierarchy getContractionHierarchy() {
+    return this.contractionHierarchy;
+  }
+
+  /**
+   * A getter function for this class' landmarkTable field.
+   *
+   * @return the LandmarkTable of the loaded database, or null if none has
+   * been built or loaded
+   */
+  public LandmarkTable getLandmarkTable() {
+    return this.landmarkTable;
+  }
+
+  /**
+   * A getter function for this class' mapVersion field, which changes when
+   * setUpMapDatabase starts and finishes loading a map. Results derived from
+   * the loaded map can be keyed by it, so they are never reused across maps.
+   *
+   * @return the current map version
+   */
+  public long getMapVersion() {
+    return this.mapVersion.get();
+  }
+
+  /**
+   * A function which gets the RouteAlgorithm to use when a route request
+   * doesn't name one: contraction hierarchies if they are loaded, else A*.
+   *
+   * @return the default RouteAlgorithm for the loaded database
+   */
+  public RouteAlgorithm getDefaultRouteAlgorithm() {
+    if (this.contractionHierarchy != null) {
+      return RouteAlgorithm.CONTRACTION_HIERARCHY;
+    }
+    return RouteAlgorithm.A_STAR;
+  }
+
   /**
    * A function which sets up the MapDatabase with a new databasePath by
    * clearing all cached data, setting up the database connection, and caching
-   * the new data (Nodes only).
+   * the new data (Nodes only, plus every traversable Way if preloadGraph is
+   * set). If a contraction hierarchy or landmark sidecar file sits next to
+   * the database, the RoadGraph is always built, and the sidecars are loaded
+   * over it. If an up-to-date snapshot sits next to the database, it is
+   * mapped instead of reading any Nodes or Ways, and serves as the RoadGraph.
+   * The ways are only read for box and tile queries once one is made.
    *
    * @param inputDatabasePath the path to the database
    * @throws SQLException           whenever one of the SQL commands sent by
@@ -103,19 +218,201 @@ public class MapDatabase {
       printError("SQL Failed on setup: " + e.getMessage());
       throw e;
     }
-    // Create and fill nodeHashMap and KDTree
-    this.fillNodeHashMapAndKDTree();
+    // Map the snapshot, if one was exported from this database as it is now
+    File snapshotSidecar = MapSnapshot.sidecarFor(inputDatabasePath);
+    if (snapshotSidecar.isFile()) {
+      try {
+        this.snapshot = MapSnapshot.open(snapshotSidecar,
+            new File(inputDatabasePath));
+      } catch (IOException e) {
+        printError("Ignoring snapshot: " + e.getMessage());
+      }
+    }
+    File chSidecar = ContractionHierarchy.sidecarFor(inputDatabasePath);
+    File altSidecar = LandmarkTable.sidecarFor(inputDatabasePath);
+    if (this.snapshot != null) {
+      // Route over the snapshot, creating Nodes and Ways as they are reached
+      this.roadGraph = this.snapshot.toRoadGraph(this);
+      this.routeEngine = new RouteEngine(null, this.roadGraph);
+    } else if (this.preloadGraph || chSidecar.isFile()
+        || altSidecar.isFile()) {
+      // Create and fill nodeHashMap and KDTree, then stream every traversable
+      // Way into a RoadGraph
+      this.graphNodes = this.fillNodeHashMapAndKDTree();
+      this.loadRoadGraph();
+    } else {
+      // Create and fill nodeHashMap and KDTree
+      this.graphNodes = this.fillNodeHashMapAndKDTree();
+      // Route over fetched ways
+      this.routeEngine = new RouteEngine(
+          this.graphNodes.toArray(new Node[0]), null);
+    }
+    // Load contraction hierarchy, if one was built for this database
+    if (chSidecar.isFile()) {
+      try {
+        this.contractionHierarchy =
+            ContractionHierarchy.read(chSidecar, this.roadGraph);
+      } catch (IOException e) {
+        printError("Ignoring contraction hierarchy: " + e.getMessage());
+      }
+    }
+    // Load landmark distances, if they were built for this database
+    if (altSidecar.isFile()) {
+      try {
+        this.landmarkTable = LandmarkTable.read(altSidecar, this.roadGraph);
+      } catch (IOException e) {
+        printError("Ignoring landmarks: " + e.getMessage());
+      }
+    }
+    // Anything derived from the map while it was loading is stale too
+    this.mapVersion.incrementAndGet();
+  }
+
+  /**
+   * A function which contracts the loaded database's RoadGraph (building
+   * that first, if needed), saves the resulting ContractionHierarchy to the
+   * database's sidecar file, and starts routing with it.
+   *
+   * @return the new ContractionHierarchy, or null if no database is loaded
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   * @throws IOException  if the sidecar file cannot be written
+   */
+  public ContractionHierarchy buildContractionHierarchy()
+      throws SQLException, IOException {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return null;
+    }
+    if (this.roadGraph == null) {
+      this.loadRoadGraph();
+    }
+    ContractionHierarchy hierarchy =
+        new ContractionHierarchyBuilder(this.roadGraph).build();
+    hierarchy.write(ContractionHierarchy.sidecarFor(this.dbPath));
+    this.contractionHierarchy = hierarchy;
+    return hierarchy;
+  }
+
+  /**
+   * A function which picks landmarks in the loaded database's RoadGraph
+   * (building that first, if needed), computes their distance tables, saves
+   * them to the database's sidecar file, and starts using them as the A*
+   * heuristic.
+   *
+   * @param numLandmarks an int, the number of landmarks to pick
+   * @return the new LandmarkTable, or null if no database is loaded
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   * @throws IOException  if the sidecar file cannot be written
+   */
+  public LandmarkTable buildLandmarkTable(int numLandmarks)
+      throws SQLException, IOException {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return null;
+    }
+    if (this.roadGraph == null) {
+      this.loadRoadGraph();
+    }
+    LandmarkTable table = LandmarkTable.build(this.roadGraph, numLandmarks);
+    table.write(LandmarkTable.sidecarFor(this.dbPath));
+    this.landmarkTable = table;
+    return table;
+  }
+
+  /**
+   * A function which exports the loaded database's RoadGraph (building that
+   * first, if needed), along with its Nodes' ids and a KD-tree over them, to
+   * the database's snapshot sidecar file. Later setUpMapDatabase calls on the
+   * same, unchanged database map the snapshot instead of reading the tables.
+   *
+   * @return the snapshot File written, or null if no database is loaded
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   * @throws IOException  if the sidecar file cannot be written
+   */
+  public File exportSnapshot() throws SQLException, IOException {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return null;
+    }
+    if (this.roadGraph == null) {
+      this.loadRoadGraph();
+    }
+    File snapshotSidecar = MapSnapshot.sidecarFor(this.dbPath);
+    MapSnapshot.write(snapshotSidecar, new File(this.dbPath), this.roadGraph);
+    return snapshotSidecar;
+  }
+
+  /**
+   * A helper function which checks whether a database has been set up, and
+   * its Nodes cached or mapped.
+   *
+   * @return true if map data is loaded
+   */
+  private boolean isLoaded() {
+    return this.dbPath != null && this.conn != null
+        && (this.nodeKDTree != null || this.snapshot != null);
+  }
+
+  /**
+   * A helper function which finds a traversable Node by id, in the
+   * nodeHashMap or, if a snapshot is mapped, in the snapshot.
+   *
+   * @param nodeId the nodeId of a Node
+   * @return the traversable Node with that nodeId, or null if there is none
+   */
+  private Node lookupNode(String nodeId) {
+    if (this.snapshot != null) {
+      int index = this.snapshot.indexOf(nodeId);
+      return index < 0 ? null : this.roadGraph.getNode(index);
+    }
+    return this.tNodeHashMap.get(nodeId);
+  }
+
+  /**
+   * A helper function which finds the nearest traversable Node to a point,
+   * without validating anything or allocating a result List. Safe to call
+   * from several threads at once.
+   *
+   * @param query a double array, [latitude, longitude]
+   * @return the nearest traversable Node, or null if there are none
+   */
+  private Node nearestNode(double[] query) {
+    if (this.snapshot != null) {
+      int index = this.snapshot.nearest(query[0], query[1]);
+      return index < 0 ? null : this.roadGraph.getNode(index);
+    }
+    return this.nodeKDTree.findNearestNeighbor(query);
+  }
+
+  /**
+   * A helper function which streams every traversable Way into a RoadGraph,
+   * and points the RouteEngine at it.
+   *
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   */
+  private void loadRoadGraph() throws SQLException {
+    this.roadGraph = RoadGraph.load(this.conn, this.graphNodes,
+        this.tNodeHashMap, this.wayHashMap);
+    // Route over the RoadGraph
+    this.routeEngine = new RouteEngine(
+        this.graphNodes.toArray(new Node[0]), this.roadGraph);
   }
 
   /**
    * A helper function which fills the nodeHashMap and KDTree in this
-   * MapDatabase with all the traversable Nodes from the database.
+   * MapDatabase with all the traversable Nodes from the database. Each Node is
+   * given a graph index equal to its position in the returned List.
    *
+   * @return a List of every traversable Node, in graph index order
    * @throws SQLException whenever one of the SQL commands sent by Java is
    *                      malformed. Usually if the connection is to a nonsense,
    *                      non-.sqlite3 file.
    */
-  private void fillNodeHashMapAndKDTree() throws SQLException {
+  private List<Node> fillNodeHashMapAndKDTree() throws SQLException {
     // Prepare for creation of KDTree
     List<Node> tempKDTreeList = new ArrayList<>();
     // Attempt to query database for Nodes, and fill the Node data structures
@@ -141,6 +438,7 @@ public class MapDatabase {
           // Create Node
           Node newNode = new Node(nodeId, nodeLatitude,
               nodeLongitude, this);
+          newNode.setGraphIndex(tempKDTreeList.size());
           // Put Node in HashMap and tempKDTreeList
           this.tNodeHashMap.put(nodeId, newNode);
           tempKDTreeList.add(newNode);
@@ -152,7 +450,8 @@ public class MapDatabase {
       throw e;
     }
     // Set nodeKDTree
-    this.nodeKDTree = new KDTree<>(2, tempKDTreeList);
+    this.nodeKDTree = new FlatKDTree<>(2, tempKDTreeList);
+    return tempKDTreeList;
   }
 
   /**
@@ -164,8 +463,44 @@ public class MapDatabase {
     // Clear nodeHashMap and wayHashMap
     this.tNodeHashMap.clear();
     this.wayHashMap.clear();
-    // Set nodeKDTree to null
+    // Set nodeKDTree, snapshot and routing structures to null
     this.nodeKDTree = null;
+    this.graphNodes = null;
+    this.snapshot = null;
+    this.roadGraph = null;
+    this.routeEngine = null;
+    this.contractionHierarchy = null;
+    this.landmarkTable = null;
+    synchronized (this.wayIndexLock) {
+      this.wayIndex = null;
+    }
+    // Anything derived from the cleared map is stale
+    this.mapVersion.incrementAndGet();
+  }
+
+  /**
+   * A helper function which gets the index of the loaded database's way
+   * ends, building it on first use. It reads every way, so is left out of
+   * setUpMapDatabase() to keep mapping a snapshot quick.
+   *
+   * @return the WayIndex, or null if it could not be built
+   */
+  private WayIndex getWayIndex() {
+    WayIndex index = this.wayIndex;
+    if (index != null) {
+      return index;
+    }
+    synchronized (this.wayIndexLock) {
+      if (this.wayIndex == null) {
+        try {
+          this.wayIndex = WayIndex.load(this.conn);
+        } catch (SQLException e) {
+          printError("SQL Failed to index ways: " + e.getMessage());
+          return null;
+        }
+      }
+      return this.wayIndex;
+    }
   }
 
   // ------------------------- Searching for Nodes -------------------------
@@ -180,22 +515,23 @@ public class MapDatabase {
    * nodeId equal to searchNodeId. Returns null if no such Node is found.
    */
   public Node getNodeById(String searchNodeId) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
-    if (!this.tNodeHashMap.containsKey(searchNodeId)) {
+    Node node = this.lookupNode(searchNodeId);
+    if (node == null) {
       printError("No such Node (ID = \"" + searchNodeId
           + "\") in loaded data.");
       return null;
     }
-    return this.tNodeHashMap.get(searchNodeId);
+    return node;
   }
 
   /**
-   * A function which uses the nodeKDTree to get the nearest traversable Node
-   * to the input point, given by coordinates = [latitude, longitude]. If no
-   * Node is found, null will be returned.
+   * A function which uses the nodeKDTree (or the snapshot's KD-tree) to get
+   * the nearest traversable Node to the input point, given by coordinates =
+   * [latitude, longitude]. If no Node is found, null will be returned.
    *
    * @param latitude  a double, the latitude of the search point
    * @param longitude a double, the longitude of the search point
@@ -203,10 +539,18 @@ public class MapDatabase {
    * Node is found (which implies that there are no Nodes in this database).
    */
   public Node getNearestNode(double latitude, double longitude) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
+    if (this.snapshot != null) {
+      int nearest = this.snapshot.nearest(latitude, longitude);
+      if (nearest < 0) {
+        printError("No Nodes in loaded data.");
+        return null;
+      }
+      return this.roadGraph.getNode(nearest);
+    }
     List<Node> ans = this.nodeKDTree
         .findKNearestNeighbors(1, new Double[]{latitude, longitude});
     if (ans.size() == 0) {
@@ -216,6 +560,84 @@ public class MapDatabase {
     return ans.get(0);
   }
 
+  /**
+   * A function which gets the nearest traversable Node to each of a batch of
+   * points, validating the loaded data once for the whole batch. The points
+   * are visited in Hilbert curve order, so consecutive queries walk mostly
+   * the same part of the KD-tree, and chunks of them run in parallel. If
+   * several Nodes tie for nearest to a point, any one of them may be chosen.
+   *
+   * @param latitudes  a double array, the latitude of each search point
+   * @param longitudes a double array, the longitude of each search point
+   * @return a Node array, the nearest traversable Node to each point (null for
+   * points with a non-finite coordinate, or if there are no Nodes). Returns
+   * null if no data is loaded or the arrays differ in length.
+   */
+  public Node[] getNearestNodes(double[] latitudes, double[] longitudes) {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return null;
+    }
+    if (latitudes.length != longitudes.length) {
+      printError("Got " + latitudes.length + " latitudes but "
+          + longitudes.length + " longitudes.");
+      return null;
+    }
+    int numPoints = latitudes.length;
+    Node[] nearest = new Node[numPoints];
+    if (this.snapshot != null
+        ? this.snapshot.getNumNodes() == 0 : this.tNodeHashMap.isEmpty()) {
+      if (numPoints > 0) {
+        printError("No Nodes in loaded data.");
+      }
+      return nearest;
+    }
+    int[] order = HilbertCurve.order(latitudes, longitudes);
+    int numChunks = (numPoints + BATCH_CHUNK - 1) / BATCH_CHUNK;
+    IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+      double[] query = new double[2];
+      int end = Math.min(numPoints, (chunk + 1) * BATCH_CHUNK);
+      for (int i = chunk * BATCH_CHUNK; i < end; i++) {
+        int point = order[i];
+        query[0] = latitudes[point];
+        query[1] = longitudes[point];
+        if (Double.isFinite(query[0]) && Double.isFinite(query[1])) {
+          nearest[point] = this.nearestNode(query);
+        }
+      }
+    });
+    return nearest;
+  }
+
+  /**
+   * A function which uses the nodeKDTree (or the snapshot's KD-tree) to get
+   * every traversable Node within a radius of a point. Like the KD-tree, the
+   * radius is a Euclidean distance over latitude and longitude, in degrees.
+   *
+   * @param latitude  a double, the latitude of the search point
+   * @param longitude a double, the longitude of the search point
+   * @param radius    a double, the radius, in degrees
+   * @return a List of the traversable Nodes within the radius, in no
+   * particular order. Returns null if no map data is loaded.
+   */
+  public List<Node> getNodesNear(double latitude, double longitude,
+                                 double radius) {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return null;
+    }
+    if (this.snapshot != null) {
+      int[] near = this.snapshot.within(latitude, longitude, radius);
+      List<Node> nodes = new ArrayList<>(near.length);
+      for (int node : near) {
+        nodes.add(this.roadGraph.getNode(node));
+      }
+      return nodes;
+    }
+    return this.nodeKDTree.findRadiusSearch(radius,
+        new Double[]{latitude, longitude});
+  }
+
   /**
    * A function which gets the intersection Node between two ways, given their
    * names. If they do not intersect at all, this function returns null.
@@ -258,12 +680,9 @@ public class MapDatabase {
       try (ResultSet rs = prep.executeQuery()) {
         rs.next();
         String nodeId = rs.getString(1);
-        // Check if the idNodeMap contains a node with this id,
-        // i.e. check if the node with this id is traversable
-        if (!this.tNodeHashMap.containsKey(nodeId)) {
-          return null;
-        }
-        return this.tNodeHashMap.get(nodeId);
+        // Look up the node with this id, which is null unless the node
+        // with this id is traversable
+        return this.lookupNode(nodeId);
       }
     } catch (SQLException e) {
       if ("ResultSet closed".equals(e.getMessage())) {
@@ -337,11 +756,11 @@ public class MapDatabase {
    * @param lon2 the longitude of the southeast point of the bounding box
    * @return an alphabetically-sorted list of wayIds representing ways that lie
    * inside the bounding box, both traversable and non-traversable. Returns null
-   * if no map data is loaded, or an SQL exception is encountered.
+   * if no map data is loaded.
    */
   public List<String> getWayIdsInBox(double lat1, double lon1,
                                      double lat2, double lon2) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
@@ -350,53 +769,28 @@ public class MapDatabase {
           + " its northwest point first, then its southeast point.");
       return null;
     }
+    WayIndex index = this.getWayIndex();
+    if (index == null) {
+      return null;
+    }
     List<String> wayIdsInBox = new ArrayList<>();
-    // Use Try-with-resources
-    try (PreparedStatement prep = this.conn.prepareStatement(
-        "SELECT * FROM way "
-            + "INNER JOIN node s ON way.start == s.id "
-            + "INNER JOIN node e ON way.end == e.id "
-            + "WHERE (s.latitude <= ? AND s.latitude >= ? "
-            + "AND s.longitude >= ? AND s.longitude <= ?) "
-            + "OR (e.latitude <= ? AND e.latitude >= ? "
-            + "AND e.longitude >= ? AND e.longitude <= ?) "
-            + "ORDER BY way.id;")) {
-      prep.setDouble(1, lat1);
-      prep.setDouble(2, lat2);
-      prep.setDouble(3, lon1);
-      prep.setDouble(4, lon2);
-      prep.setDouble(5, lat1);
-      prep.setDouble(6, lat2);
-      prep.setDouble(SEVEN, lon1);
-      prep.setDouble(EIGHT, lon2);
-      // Nested Try-with-resources necessary
-      try (ResultSet rs = prep.executeQuery()) {
-        while (rs.next()) {
-          String wayId = rs.getString(1);
-          String name = rs.getString(2);
-          String type = rs.getString(3);
-          String startNodeID = rs.getString(4);
-          String endNodeID = rs.getString(5);
-          // If way is traversable and not already in wayHashMap
-          if (tNodeHashMap.containsKey(startNodeID)
-              && tNodeHashMap.containsKey(endNodeID)
-              && !wayHashMap.containsKey(wayId)
-              && !type.equals("")
-              && !type.equals("unclassified")) {
-            // Create Way and add to wayHashMap
-            this.wayHashMap.put(wayId,
-                new Way(wayId, tNodeHashMap.get(startNodeID),
-                    tNodeHashMap.get(endNodeID), name, type));
-          }
-          // Add wayId to wayIdsInBox
-          wayIdsInBox.add(wayId);
+    for (int way : index.findWays(lat1, lon1, lat2, lon2)) {
+      String wayId = index.getId(way);
+      String type = index.getType(way);
+      // If way is traversable and not already in wayHashMap
+      if (!wayHashMap.containsKey(wayId)
+          && !type.equals("")
+          && !type.equals("unclassified")) {
+        Node start = this.lookupNode(index.getNodeId(2 * way));
+        Node end = this.lookupNode(index.getNodeId(2 * way + 1));
+        if (start != null && end != null) {
+          // Create Way and add to wayHashMap
+          this.wayHashMap.put(wayId, new Way(wayId, start, end,
+              index.getName(way), type));
         }
       }
-    } catch (SQLException e) {
-      printError("SQL Exception when finding ways in bounding box (NorthWest = ["
-          + lat1 + ", " + lon1 + "] and SouthEast = ["
-          + lat2 + ", " + lon2 + "]: " + e.getMessage());
-      return null;
+      // Add wayId to wayIdsInBox
+      wayIdsInBox.add(wayId);
     }
     // Return
     return wayIdsInBox;
@@ -433,7 +827,7 @@ public class MapDatabase {
   public GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
         getWaysAndCellsForGUI(BigDecimal lat1, BigDecimal lon1,
                               BigDecimal lat2, BigDecimal lon2) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
@@ -443,62 +837,252 @@ public class MapDatabase {
       return null;
     }
 
+    WayIndex index = this.getWayIndex();
+    if (index == null) {
+      return null;
+    }
     // Prepare return variables
     Map<String, Object> ways = new HashMap<>();
     Map<String, Map<String, List<String>>> cells = new HashMap<>();
     initializeCellsWithEmptyLists(cells, lat1, lon1, lat2, lon2);
-    // Use Try-with-resources
-    try (PreparedStatement prep = this.conn.prepareStatement(
-        "SELECT * FROM way "
-            + "INNER JOIN node s ON way.start == s.id "
-            + "INNER JOIN node e ON way.end == e.id "
-            + "WHERE (s.latitude <= ? AND s.latitude >= ? "
-            + "AND s.longitude >= ? AND s.longitude <= ?) "
-            + "OR (e.latitude <= ? AND e.latitude >= ? "
-            + "AND e.longitude >= ? AND e.longitude <= ?);")) {
-      prep.setBigDecimal(1, lat1);
-      prep.setBigDecimal(2, lat2);
-      prep.setBigDecimal(3, lon1);
-      prep.setBigDecimal(4, lon2);
-      prep.setBigDecimal(5, lat1);
-      prep.setBigDecimal(6, lat2);
-      prep.setBigDecimal(SEVEN, lon1);
-      prep.setBigDecimal(EIGHT, lon2);
-      // Nested Try-with-resources necessary
-      try (ResultSet rs = prep.executeQuery()) {
-        while (rs.next()) {
-          String wayId = rs.getString(1);
-          String wayName = rs.getString(2);
-          String wayType = rs.getString(3);
-          BigDecimal startLat = rs.getBigDecimal(SEVEN);
-          BigDecimal startLon = rs.getBigDecimal(EIGHT);
-          BigDecimal endLat = rs.getBigDecimal(TEN);
-          BigDecimal endLon = rs.getBigDecimal(ELEVEN);
-          if (!ways.containsKey(wayId)) {
-            Map<String, Object> wayObject = ImmutableMap.<String, Object>builder()
-                .put("startLat", startLat)
-                .put("startLon", startLon)
-                .put("endLat", endLat)
-                .put("endLon", endLon)
-                .put("type", wayType)
-                .put("name", wayName)
-                .build();
-            ways.put(wayId, wayObject);
-          }
-          addWayToCell(wayId, cells, roundUpLat(startLat), roundDownLon(startLon));
-          addWayToCell(wayId, cells, roundUpLat(endLat), roundDownLon(endLon));
-        }
+    // Cell keys repeat a lot, so only format each once
+    Map<Integer, String> rowKeys = new HashMap<>();
+    Map<Integer, String> columnKeys = new HashMap<>();
+    for (int way : index.findWays(lat1.doubleValue(),
+        lon1.doubleValue(), lat2.doubleValue(), lon2.doubleValue())) {
+      String wayId = index.getId(way);
+      ways.put(wayId, wayObject(index, way));
+      for (int end = 2 * way; end <= 2 * way + 1; end++) {
+        addWayToCell(wayId, cells,
+            rowKeys.computeIfAbsent(MapTiles.cellRow(
+                index.getLatitude(end)), MapTiles::cellKey),
+            columnKeys.computeIfAbsent(MapTiles.cellColumn(
+                index.getLongitude(end)), MapTiles::cellKey));
       }
-    } catch (SQLException e) {
-      printError("SQL Exception when finding ways in bounding box (NorthWest = ["
-          + lat1 + ", " + lon1 + "] and SouthEast = ["
-          + lat2 + ", " + lon2 + "]: " + e.getMessage());
-      return null;
     }
     // Return
     return new GeneralPair<>(ways, cells);
   }
 
+  /**
+   * A function which does the same as getWaysAndCellsForGUI(), but streams
+   * the response straight to a WaysEncoder, without building any maps.
+   * Nothing is written if the box is invalid.
+   *
+   * @param lat1 the latitude of the northwest point of the bounding box
+   * @param lon1 the longitude of the northwest point of the bounding box
+   * @param lat2 the latitude of the southeast point of the bounding box
+   * @param lon2 the longitude of the southeast point of the bounding box
+   * @param out  the WaysEncoder to write the response to
+   * @return true if the response was written, false if no map data is
+   * loaded or the box is invalid
+   * @throws IOException if the response cannot be written
+   */
+  boolean writeWaysAndCellsForGUI(BigDecimal lat1, BigDecimal lon1,
+                                  BigDecimal lat2, BigDecimal lon2,
+                                  WaysEncoder out) throws IOException {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return false;
+    }
+    if (lat1.compareTo(lat2) <= 0 || lon1.compareTo(lon2) >= 0) {
+      printError("Check your coordinates. The bounding box must be defined by"
+          + " its northwest point first, then its southeast point.");
+      return false;
+    }
+    WayIndex index = this.getWayIndex();
+    if (index == null) {
+      return false;
+    }
+    // Format the cells' keys as initializeCellsWithEmptyLists() does
+    List<String> rowKeys = new ArrayList<>();
+    for (BigDecimal lat = lat1; lat.compareTo(lat2) > 0; lat = lat.subtract(INTERVAL)) {
+      rowKeys.add(lat.stripTrailingZeros().toPlainString());
+    }
+    List<String> columnKeys = new ArrayList<>();
+    for (BigDecimal lon = lon1; lon.compareTo(lon2) < 0; lon = lon.add(INTERVAL)) {
+      columnKeys.add(lon.stripTrailingZeros().toPlainString());
+    }
+    // Rows run southwards from lat1; the writer wants them northwards
+    Collections.reverse(rowKeys);
+    int[] ways = index.findWays(lat1.doubleValue(),
+        lon1.doubleValue(), lat2.doubleValue(), lon2.doubleValue());
+    // Way ends can only fall into cells on the grid
+    Integer lastRow = gridIndex(lat1);
+    Integer firstColumn = gridIndex(lon1);
+    int[] ends = new int[0];
+    if (lastRow != null && firstColumn != null) {
+      ends = new int[2 * ways.length];
+      for (int i = 0; i < ways.length; i++) {
+        ends[2 * i] = 2 * ways[i];
+        ends[2 * i + 1] = 2 * ways[i] + 1;
+      }
+    } else {
+      lastRow = 0;
+      firstColumn = 0;
+    }
+    writeWaysAndCells(index, out, ways, ends, lastRow - rowKeys.size() + 1,
+        rowKeys.toArray(new String[0]), firstColumn,
+        columnKeys.toArray(new String[0]));
+    return true;
+  }
+
+  /**
+   * A function which writes the ways and cells of one tile of the GUI's map
+   * to a WaysEncoder, as writeWaysAndCellsForGUI() does for a box. See
+   * MapTiles for how tiles are numbered. Every cell of the tile is included,
+   * and a way is included if either of its ends is in the tile.
+   * <p>
+   * Both traversable and non-traversable ways are written!
+   *
+   * @param zoom an int, the tile's zoom; it holds 2^zoom by 2^zoom cells
+   * @param x    an int, the tile's column
+   * @param y    an int, the tile's row
+   * @param out  the WaysEncoder to write the tile to
+   * @return true if the tile was written, false if no map data is loaded or
+   * the tile is out of range
+   * @throws IOException if the tile cannot be written
+   */
+  boolean writeWaysAndCellsForTile(int zoom, int x, int y,
+                                   WaysEncoder out) throws IOException {
+    if (!this.isLoaded()) {
+      printError("No map data loaded.");
+      return false;
+    }
+    if (!MapTiles.isValidTile(zoom, x, y)) {
+      printError("No tile " + zoom + "/" + x + "/" + y + ".");
+      return false;
+    }
+    WayIndex index = this.getWayIndex();
+    if (index == null) {
+      return false;
+    }
+    int size = 1 << zoom;
+    int firstRow = y * size;
+    int firstColumn = x * size;
+    String[] rowKeys = new String[size];
+    String[] columnKeys = new String[size];
+    for (int i = 0; i < size; i++) {
+      rowKeys[i] = MapTiles.cellKey(firstRow + i);
+      columnKeys[i] = MapTiles.cellKey(firstColumn + i);
+    }
+
+    // The tile covers latitudes in (south, north] and longitudes in
+    // [west, east); the query is padded, and each end is then checked exactly
+    double north = MapTiles.toDegrees(firstRow + size - 1) + TILE_PADDING;
+    double south = MapTiles.toDegrees(firstRow - 1) - TILE_PADDING;
+    double west = MapTiles.toDegrees(firstColumn) - TILE_PADDING;
+    double east = MapTiles.toDegrees(firstColumn + size) + TILE_PADDING;
+    int[] ends = index.findEnds(north, west, south, east);
+    int numEnds = 0;
+    int[] ways = new int[ends.length];
+    for (int end : ends) {
+      int row = MapTiles.cellRow(index.getLatitude(end)) - firstRow;
+      int column = MapTiles.cellColumn(index.getLongitude(end))
+          - firstColumn;
+      if (row >= 0 && row < size && column >= 0 && column < size) {
+        ways[numEnds] = end >> 1;
+        ends[numEnds++] = end;
+      }
+    }
+    // Each way is written once, however many of its ends are in the tile
+    Arrays.sort(ways, 0, numEnds);
+    int numWays = 0;
+    for (int i = 0; i < numEnds; i++) {
+      if (i == 0 || ways[i] != ways[i - 1]) {
+        ways[numWays++] = ways[i];
+      }
+    }
+    writeWaysAndCells(index, out, Arrays.copyOf(ways, numWays),
+        Arrays.copyOf(ends, numEnds), firstRow, rowKeys, firstColumn,
+        columnKeys);
+    return true;
+  }
+
+  /**
+   * A helper function which writes ways, and the cells their ends fall in,
+   * to a WaysEncoder. Row i of the cells has key rowKeys[i] and holds the
+   * ends whose cell row is firstRow + i, and likewise for columns. Ends
+   * outside these cells are skipped, and each cell lists its ways in the
+   * order their ends are given.
+   *
+   * @param index       the WayIndex the ways and ends are in
+   * @param out         the WaysEncoder
+   * @param ways        the ways in the index to write, sorted
+   * @param ends        the way ends in the index to put in cells
+   * @param firstRow    an int, the cell row of rowKeys[0]
+   * @param rowKeys     the keys of the rows of cells
+   * @param firstColumn an int, the cell column of columnKeys[0]
+   * @param columnKeys  the keys of the columns of cells
+   * @throws IOException if the response cannot be written
+   */
+  private static void writeWaysAndCells(WayIndex index, WaysEncoder out,
+                                        int[] ways, int[] ends, int firstRow,
+                                        String[] rowKeys, int firstColumn,
+                                        String[] columnKeys)
+      throws IOException {
+    // Sort the ends by cell, keeping their order within each cell
+    int numColumns = columnKeys.length;
+    long[] placed = new long[ends.length];
+    int numPlaced = 0;
+    for (int i = 0; i < ends.length; i++) {
+      long row = (long) MapTiles.cellRow(index.getLatitude(ends[i]))
+          - firstRow;
+      long column = (long) MapTiles.cellColumn(
+          index.getLongitude(ends[i])) - firstColumn;
+      if (row >= 0 && row < rowKeys.length
+          && column >= 0 && column < numColumns) {
+        placed[numPlaced++] = (row * numColumns + column) << Integer.SIZE | i;
+      }
+    }
+    Arrays.sort(placed, 0, numPlaced);
+
+    out.begin();
+    out.beginWays(ways.length);
+    for (int way : ways) {
+      out.writeWay(index.getId(way),
+          index.getLatitude(2 * way),
+          index.getLongitude(2 * way),
+          index.getLatitude(2 * way + 1),
+          index.getLongitude(2 * way + 1),
+          index.getType(way), index.getName(way));
+    }
+    out.endWays();
+    out.beginCells(rowKeys, columnKeys);
+    int[] positions = new int[numPlaced];
+    int next = 0;
+    long numCells = (long) rowKeys.length * numColumns;
+    for (long cell = 0; cell < numCells; cell++) {
+      int count = 0;
+      while (next < numPlaced && placed[next] >>> Integer.SIZE == cell) {
+        int end = ends[(int) placed[next++]];
+        positions[count++] = Arrays.binarySearch(ways, end >> 1);
+      }
+      out.writeCell(positions, count);
+    }
+    out.endCells();
+    out.end();
+  }
+
+  /**
+   * A helper function which describes a way for the GUI, as in
+   * getWaysAndCellsForGUI().
+   *
+   * @param index the WayIndex the way is in
+   * @param way   an int, a way in the index
+   * @return a map of the way's start and end coordinates, type and name
+   */
+  private static Map<String, Object> wayObject(WayIndex index, int way) {
+    return ImmutableMap.<String, Object>builder()
+        .put("startLat", index.getLatitude(2 * way))
+        .put("startLon", index.getLongitude(2 * way))
+        .put("endLat", index.getLatitude(2 * way + 1))
+        .put("endLon", index.getLongitude(2 * way + 1))
+        .put("type", index.getType(way))
+        .put("name", index.getName(way))
+        .build();
+  }
+
   /**
    * A function which searches the database to get all the Ways that lead in/out
    * from a given Node by doing a database query. The Node is assumed to already
@@ -516,11 +1100,11 @@ public class MapDatabase {
    * map data is loaded, or an SQL exception is encountered.
    */
   public Set<Way> getWaysInOrOutOfNode(String nodeId, boolean out) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
-    if (!this.tNodeHashMap.containsKey(nodeId)) {
+    if (this.lookupNode(nodeId) == null) {
       printError("No such Node (ID = \"" + nodeId
           + "\") in loaded data; cannot find ways in/out of Node.");
       return null;
@@ -550,8 +1134,8 @@ public class MapDatabase {
             result.add(wayHashMap.get(wayId));
           } else {
             // Create Way
-            Way newWay = new Way(wayId, tNodeHashMap.get(startNodeID),
-                tNodeHashMap.get(endNodeID), name, type);
+            Way newWay = new Way(wayId, this.lookupNode(startNodeID),
+                this.lookupNode(endNodeID), name, type);
             // Add to wayHashMap and results
             this.wayHashMap.put(wayId, newWay);
             result.add(newWay);
@@ -583,7 +1167,7 @@ public class MapDatabase {
    * Way is found, or an SQL exception is encountered.
    */
   public Way getWayById(String searchWayId) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
@@ -637,7 +1221,7 @@ public class MapDatabase {
    * Way is found, or an SQL exception is encountered.
    */
   public Way getWayByName(String searchWayName) {
-    if (this.dbPath == null || this.conn == null || this.nodeKDTree == null) {
+    if (!this.isLoaded()) {
       printError("No map data loaded.");
       return null;
     }
@@ -659,8 +1243,8 @@ public class MapDatabase {
           return this.wayHashMap.get(wayId);
         }
         // Create Way
-        Way newWay = new Way(wayId, tNodeHashMap.get(startNodeID),
-            tNodeHashMap.get(endNodeID), name, type);
+        Way newWay = new Way(wayId, this.lookupNode(startNodeID),
+            this.lookupNode(endNodeID), name, type);
         // Add to wayHashMap and return newWay
         this.wayHashMap.put(wayId, newWay);
         return newWay;
@@ -681,27 +1265,18 @@ public class MapDatabase {
   // --------------------------- Helper Functions --------------------------
 
   /**
-   * A private helper function which rounds BigDecimal values up to the
-   * nearest hundredth (or whatever interval).
-   *
-   * @param lat a BigDecimal to be rounded.
-   * @return lat rounded up to the nearest hundredth.
-   */
-  private static String roundUpLat(BigDecimal lat) {
-    return lat.setScale(INTERVAL_POW, RoundingMode.CEILING)
-        .stripTrailingZeros().toPlainString();
-  }
-
-  /**
-   * A private helper function which rounds BigDecimal values down to the
-   * nearest hundredth (or whatever interval).
+   * A private helper function which finds the grid line a BigDecimal
+   * latitude or longitude lies on, in hundredths (or whatever interval).
    *
-   * @param lon a BigDecimal to be rounded.
-   * @return lon rounded down to the nearest hundredth.
+   * @param value a BigDecimal latitude or longitude
+   * @return value divided by the interval, or null if that is not an int
    */
-  private static String roundDownLon(BigDecimal lon) {
-    return lon.setScale(INTERVAL_POW, RoundingMode.FLOOR)
-        .stripTrailingZeros().toPlainString();
+  private static Integer gridIndex(BigDecimal value) {
+    try {
+      return value.divide(INTERVAL).intValueExact();
+    } catch (ArithmeticException e) {
+      return null;
+    }
   }
 
   /**
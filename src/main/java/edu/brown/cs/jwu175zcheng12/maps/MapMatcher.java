@@ -0,0 +1,676 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which matches each user's checkins onto the Ways they were
+ * travelling along, as the checkins arrive, with a hidden Markov model
+ * solved by the Viterbi algorithm, after Newson and Krumm.
+ * <p>
+ * The candidates for a checkin are the closest points to it on the Ways
+ * with an end near it, found through the MapDatabase's KD-tree. A candidate
+ * is more likely the closer it is to the checkin, taking GPS noise to be
+ * Gaussian with deviation sigma. A move between candidates of consecutive
+ * checkins is more likely the closer its route distance, found with the
+ * RouteEngine, is to the great-circle distance between the checkins, falling
+ * off exponentially with scale beta. Distances are in kilometres.
+ * <p>
+ * Matching is incremental. Each user keeps the candidates of their
+ * undecided checkins, each linked to its most likely predecessor. A
+ * checkin's match is decided once every newest candidate descends from the
+ * same candidate of it, or once it is MAX_LAG checkins old, and decided
+ * matches are added to the user's trace. A gap in time, or a checkin which
+ * no route connects to the last, decides every undecided checkin and starts
+ * afresh. Checkins with no Way near them are skipped.
+ * <p>
+ * Matching runs on a dedicated matcher thread, so routing never holds up the
+ * poller. Checkins which arrive while too many are queued are dropped, and
+ * counted.
+ */
+final class MapMatcher {
+
+  static final double DEFAULT_SIGMA = 0.02;
+  static final double DEFAULT_BETA = 0.1;
+  static final double DEFAULT_SEARCH_RADIUS = 0.1;
+  static final double DEFAULT_MAX_GAP = 600;
+  static final int MAX_LAG = 32;
+  static final int MAX_TRACE = 1 << 10;
+  private static final int MAX_QUEUED = 1 << 16;
+  private static final int MAX_CANDIDATES = 8;
+  // Ways are found by their ends, so look for ends a little farther out
+  private static final double END_SEARCH_FACTOR = 2;
+  // Routes this many times longer than the great-circle distance, plus
+  // the candidates' distances from the checkins, are not looked for
+  private static final double MAX_DETOUR = 3;
+  private static final double MIN_COS_LAT = 0.01;
+  private static final double KM_PER_DEGREE =
+      Math.toRadians(LiveUserIndex.EARTH_RADIUS);
+
+  private final MapDatabase mapDatabase;
+  private final double sigma;
+  private final double beta;
+  private final double searchRadius;
+  private final double maxGap;
+  private final BlockingQueue<UserCheckin> queue =
+      new LinkedBlockingQueue<>(MAX_QUEUED);
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "map-matcher");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private final AtomicBoolean drainQueued = new AtomicBoolean();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Map<Integer, Deque<MatchedCheckin>> traces =
+      new ConcurrentHashMap<>();
+  // Only used by the matcher thread, or a test in its place
+  private final Map<Integer, UserState> states = new HashMap<>();
+  private long mapVersion = -1;
+
+  /**
+   * A class which represents a checkin matched onto a Way.
+   */
+  static final class MatchedCheckin {
+    private final UserCheckin checkin;
+    private final Way way;
+    private final double fraction;
+    private final double lat;
+    private final double lon;
+    private final double distance;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param checkin  the UserCheckin
+     * @param way      the Way it was matched onto
+     * @param fraction a double, how far along the Way the match is, from 0
+     *                 at its start to 1 at its end
+     * @param lat      a double, the latitude of the match
+     * @param lon      a double, the longitude of the match
+     * @param distance a double, the match's distance from the checkin
+     */
+    MatchedCheckin(UserCheckin checkin, Way way, double fraction,
+                   double lat, double lon, double distance) {
+      this.checkin = checkin;
+      this.way = way;
+      this.fraction = fraction;
+      this.lat = lat;
+      this.lon = lon;
+      this.distance = distance;
+    }
+
+    /**
+     * A getter function for this class' checkin field.
+     *
+     * @return the UserCheckin
+     */
+    UserCheckin getCheckin() {
+      return this.checkin;
+    }
+
+    /**
+     * A getter function for this class' way field.
+     *
+     * @return the Way the checkin was matched onto
+     */
+    Way getWay() {
+      return this.way;
+    }
+
+    /**
+     * A getter function for this class' fraction field.
+     *
+     * @return how far along the Way the match is, from 0 to 1
+     */
+    double getFraction() {
+      return this.fraction;
+    }
+
+    /**
+     * A getter function for this class' lat field.
+     *
+     * @return the latitude of the match
+     */
+    double getLat() {
+      return this.lat;
+    }
+
+    /**
+     * A getter function for this class' lon field.
+     *
+     * @return the longitude of the match
+     */
+    double getLon() {
+      return this.lon;
+    }
+
+    /**
+     * A getter function for this class' distance field.
+     *
+     * @return the match's distance from the checkin, in kilometres
+     */
+    double getDistance() {
+      return this.distance;
+    }
+  }
+
+  /**
+   * A class which represents one candidate match of a checkin, and the most
+   * likely sequence of candidates ending in it.
+   */
+  private static final class Candidate {
+    private final MatchedCheckin match;
+    private final double emission;
+    private double logProb;
+    private Candidate previous;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param match    the candidate match
+     * @param emission a double, the log likelihood of the checkin given it
+     */
+    Candidate(MatchedCheckin match, double emission) {
+      this.match = match;
+      this.emission = emission;
+    }
+  }
+
+  /**
+   * A class which holds one user's undecided checkins' candidates, oldest
+   * first. The candidates of the oldest have no previous candidate. Once a
+   * checkin is decided, its decided candidate is kept as the oldest layer,
+   * already in the trace, so the next checkin is still routed from it and
+   * checked against its time.
+   */
+  private static final class UserState {
+    private final List<List<Candidate>> layers = new ArrayList<>();
+    private boolean anchored = false;
+  }
+
+  /**
+   * The constructor for this class, which uses the default parameters.
+   *
+   * @param mapDatabase the MapDatabase whose Ways to match onto
+   */
+  MapMatcher(MapDatabase mapDatabase) {
+    this(mapDatabase, DEFAULT_SIGMA, DEFAULT_BETA, DEFAULT_SEARCH_RADIUS,
+        DEFAULT_MAX_GAP);
+  }
+
+  /**
+   * The constructor for this class.
+   *
+   * @param mapDatabase  the MapDatabase whose Ways to match onto
+   * @param sigma        a double, the deviation of GPS noise, in kilometres
+   * @param beta         a double, the scale of the difference between route
+   *                     and great-circle distances, in kilometres
+   * @param searchRadius a double, how far from a checkin its candidates may
+   *                     be, in kilometres
+   * @param maxGap       a double, the longest time between checkins in one
+   *                     trace, in seconds
+   */
+  MapMatcher(MapDatabase mapDatabase, double sigma, double beta,
+             double searchRadius, double maxGap) {
+    if (!(sigma > 0) || !(beta > 0) || !(searchRadius > 0)
+        || !(maxGap > 0)) {
+      throw new IllegalArgumentException(
+          "Map matching parameters must be positive.");
+    }
+    this.mapDatabase = mapDatabase;
+    this.sigma = sigma;
+    this.beta = beta;
+    this.searchRadius = searchRadius;
+    this.maxGap = maxGap;
+  }
+
+  // ----------------------------- Asynchronous ----------------------------
+
+  /**
+   * A function which queues checkins to be matched on the matcher thread.
+   * Checkins which do not fit in the queue are dropped.
+   *
+   * @param checkins the new UserCheckins, oldest first
+   */
+  void addAll(Collection<UserCheckin> checkins) {
+    for (UserCheckin checkin : checkins) {
+      if (!this.queue.offer(checkin)) {
+        this.dropped.incrementAndGet();
+      }
+    }
+    if (this.drainQueued.compareAndSet(false, true)) {
+      try {
+        this.executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        this.drainQueued.set(false);
+      }
+    }
+  }
+
+  /**
+   * A function which forgets a user, their trace and their undecided
+   * checkins.
+   *
+   * @param id an int, the user's id
+   */
+  void remove(int id) {
+    this.traces.remove(id);
+    try {
+      this.executor.execute(() -> {
+        this.states.remove(id);
+        this.traces.remove(id);
+      });
+    } catch (RejectedExecutionException e) {
+      // Closed, so there is nothing left to forget
+    }
+  }
+
+  /**
+   * A function which stops the matcher thread. Queued checkins are dropped.
+   */
+  void close() {
+    this.executor.shutdownNow();
+    try {
+      this.executor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * A getter function for the number of checkins dropped so far.
+   *
+   * @return the number of checkins dropped
+   */
+  long getDropped() {
+    return this.dropped.get();
+  }
+
+  /**
+   * A function which gets a user's trace: their decided matches, oldest
+   * first, up to the latest MAX_TRACE of them.
+   *
+   * @param id an int, the user's id
+   * @return a List of the user's MatchedCheckins
+   */
+  List<MatchedCheckin> getTrace(int id) {
+    Deque<MatchedCheckin> trace = this.traces.get(id);
+    if (trace == null) {
+      return new ArrayList<>();
+    }
+    synchronized (trace) {
+      return new ArrayList<>(trace);
+    }
+  }
+
+  // ------------------------------- Matching ------------------------------
+
+  /**
+   * A function which matches one checkin, deciding the matches of any
+   * earlier checkins which it settles. Must only be called from one thread.
+   *
+   * @param checkin the UserCheckin
+   */
+  void match(UserCheckin checkin) {
+    RouteEngine engine = this.mapDatabase.getRouteEngine();
+    long version = this.mapDatabase.getMapVersion();
+    if (version != this.mapVersion) {
+      // Candidates on an old map cannot be routed between on a new one
+      this.states.clear();
+      this.mapVersion = version;
+    }
+    if (engine == null || !Double.isFinite(checkin.getLat())
+        || !Double.isFinite(checkin.getLon())) {
+      return;
+    }
+    List<Candidate> candidates = this.candidates(checkin);
+    if (candidates.isEmpty()) {
+      return;
+    }
+    UserState state =
+        this.states.computeIfAbsent(checkin.getId(), k -> new UserState());
+    List<List<Candidate>> layers = state.layers;
+    if (!layers.isEmpty()) {
+      UserCheckin last = layers.get(layers.size() - 1).get(0).match.checkin;
+      double gap = checkin.getTimestamp() - last.getTimestamp();
+      if (gap < 0) {
+        // Out of order, so it cannot extend the trace
+        return;
+      }
+      if (gap > this.maxGap
+          || !this.transition(engine, layers.get(layers.size() - 1),
+          candidates, last, checkin)) {
+        this.decide(checkin.getId(), state, true);
+        // Start afresh, without routing from the decided checkin
+        layers.clear();
+        state.anchored = false;
+      }
+    }
+    if (layers.isEmpty()) {
+      for (Candidate candidate : candidates) {
+        candidate.logProb = candidate.emission;
+      }
+    }
+    layers.add(candidates);
+    this.decide(checkin.getId(), state, false);
+  }
+
+  /**
+   * A function which decides every undecided checkin of a user, as the end
+   * of their trace. Must only be called from the thread which calls
+   * match().
+   *
+   * @param id an int, the user's id
+   */
+  void finish(int id) {
+    UserState state = this.states.remove(id);
+    if (state != null) {
+      this.decide(id, state, true);
+    }
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which matches the queued checkins, on the matcher
+   * thread.
+   */
+  private void drain() {
+    this.drainQueued.set(false);
+    UserCheckin checkin;
+    while ((checkin = this.queue.poll()) != null) {
+      try {
+        this.match(checkin);
+      } catch (RuntimeException e) {
+        printError("Could not match checkin of user " + checkin.getId()
+            + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * A helper function which finds the candidate matches of a checkin: the
+   * closest point on each Way with an end near it, if within the search
+   * radius, up to MAX_CANDIDATES of them, closest first.
+   *
+   * @param checkin the UserCheckin
+   * @return a List of the Candidates, with their emission log likelihoods
+   */
+  private List<Candidate> candidates(UserCheckin checkin) {
+    double lat = checkin.getLat();
+    double lon = checkin.getLon();
+    // The KD-tree measures degrees, and degrees of longitude are shorter
+    double degrees = END_SEARCH_FACTOR * this.searchRadius / KM_PER_DEGREE
+        / Math.max(MIN_COS_LAT, Math.cos(Math.toRadians(lat)));
+    List<Node> nodes = this.mapDatabase.getNodesNear(lat, lon, degrees);
+    if (nodes == null) {
+      return new ArrayList<>();
+    }
+    Set<Way> ways = new LinkedHashSet<>();
+    for (Node node : nodes) {
+      Collection<Way> out = node.getWaysOut();
+      Collection<Way> in = node.getWaysIn();
+      if (out != null) {
+        ways.addAll(out);
+      }
+      if (in != null) {
+        ways.addAll(in);
+      }
+    }
+    List<Candidate> candidates = new ArrayList<>();
+    for (Way way : ways) {
+      MatchedCheckin match = project(checkin, way);
+      if (match.distance <= this.searchRadius) {
+        double z = match.distance / this.sigma;
+        candidates.add(new Candidate(match, -z * z / 2));
+      }
+    }
+    candidates.sort(Comparator.comparingDouble(c -> c.match.distance));
+    return new ArrayList<>(
+        candidates.subList(0, Math.min(MAX_CANDIDATES, candidates.size())));
+  }
+
+  /**
+   * A helper function which links each new candidate to its most likely
+   * previous candidate, and drops new candidates which none can reach.
+   *
+   * @param engine     the RouteEngine to route with
+   * @param previous   the previous checkin's Candidates
+   * @param candidates the new checkin's Candidates
+   * @param last       the previous UserCheckin
+   * @param checkin    the new UserCheckin
+   * @return true if any new candidate could be reached
+   */
+  private boolean transition(RouteEngine engine, List<Candidate> previous,
+                             List<Candidate> candidates, UserCheckin last,
+                             UserCheckin checkin) {
+    double straight = LiveUserIndex.distance(last.getLat(), last.getLon(),
+        checkin.getLat(), checkin.getLon());
+    double maxDist = MAX_DETOUR * straight + 2 * this.searchRadius;
+    // Route from each distinct end once, to every distinct start
+    Map<Node, Integer> starts = new LinkedHashMap<>();
+    for (Candidate candidate : candidates) {
+      starts.putIfAbsent(candidate.match.way.getStart(), starts.size());
+    }
+    Node[] targets = starts.keySet().toArray(new Node[0]);
+    Map<Node, double[]> routes = new HashMap<>();
+    for (Candidate from : previous) {
+      Node end = from.match.way.getEnd();
+      if (!routes.containsKey(end)) {
+        routes.put(end, engine.distances(end, targets, maxDist));
+      }
+    }
+
+    List<Candidate> reached = new ArrayList<>();
+    for (Candidate to : candidates) {
+      double best = Double.NEGATIVE_INFINITY;
+      Candidate bestFrom = null;
+      for (Candidate from : previous) {
+        double route = routeDistance(from.match, to.match,
+            routes.get(from.match.way.getEnd())[starts.get(
+                to.match.way.getStart())]);
+        double logProb = from.logProb
+            - Math.abs(route - straight) / this.beta;
+        if (logProb > best) {
+          best = logProb;
+          bestFrom = from;
+        }
+      }
+      if (bestFrom != null) {
+        to.logProb = best + to.emission;
+        to.previous = bestFrom;
+        reached.add(to);
+      }
+    }
+    if (reached.isEmpty()) {
+      return false;
+    }
+    // Keep log probabilities near 0, so they never lose precision
+    double max = Double.NEGATIVE_INFINITY;
+    for (Candidate candidate : reached) {
+      max = Math.max(max, candidate.logProb);
+    }
+    for (Candidate candidate : reached) {
+      candidate.logProb -= max;
+    }
+    candidates.retainAll(reached);
+    return true;
+  }
+
+  /**
+   * A helper function which finds the road distance between two candidate
+   * matches: along one Way, if the second is ahead on it, or else to the
+   * end of the first Way, by route to the start of the second, and along
+   * it.
+   *
+   * @param from      the earlier MatchedCheckin
+   * @param to        the later MatchedCheckin
+   * @param between a double, the route distance from the end of the first
+   *                  Way to the start of the second
+   * @return the road distance, or positive infinity if there is no route
+   */
+  private static double routeDistance(MatchedCheckin from, MatchedCheckin to,
+                                      double between) {
+    if (from.way.equals(to.way) && to.fraction >= from.fraction) {
+      return (to.fraction - from.fraction) * from.way.getWeight();
+    }
+    return (1 - from.fraction) * from.way.getWeight() + between
+        + to.fraction * to.way.getWeight();
+  }
+
+  /**
+   * A helper function which decides a user's undecided checkins as far as
+   * their newest candidates agree, or all of them if forced, and adds them
+   * to the user's trace. Forcing follows the most likely newest candidate.
+   * Checkins older than MAX_LAG are decided the same way.
+   *
+   * @param id    an int, the user's id
+   * @param state the user's UserState
+   * @param force a boolean, true to decide every checkin
+   */
+  private void decide(int id, UserState state, boolean force) {
+    List<List<Candidate>> layers = state.layers;
+    if (layers.isEmpty()) {
+      return;
+    }
+    int newest = layers.size() - 1;
+    if (force) {
+      this.emit(id, state, newest, best(layers.get(newest)));
+      return;
+    }
+    // The anchor, if any, is already in the trace
+    int first = state.anchored ? 1 : 0;
+    if (newest < first) {
+      return;
+    }
+    // Walk back from the newest candidates until they share an ancestor
+    int layer = newest;
+    Collection<Candidate> frontier = layers.get(newest);
+    while (frontier.size() > 1 && layer > 0) {
+      Set<Candidate> ancestors = new HashSet<>();
+      for (Candidate candidate : frontier) {
+        ancestors.add(candidate.previous);
+      }
+      frontier = ancestors;
+      layer--;
+    }
+    if (frontier.size() == 1 && layer >= first) {
+      this.emit(id, state, layer, frontier.iterator().next());
+    } else if (layers.size() - first > MAX_LAG) {
+      Candidate oldest = best(layers.get(newest));
+      for (int i = newest; i > first; i--) {
+        oldest = oldest.previous;
+      }
+      this.emit(id, state, first, oldest);
+    }
+  }
+
+  /**
+   * A helper function which adds the decided candidates of a user's oldest
+   * checkins to their trace, and forgets those checkins but the newest,
+   * which becomes the anchor. Candidates which do not descend from it are
+   * dropped.
+   *
+   * @param id      an int, the user's id
+   * @param state   the user's UserState
+   * @param layer   an int, the newest decided checkin's layer
+   * @param decided the decided Candidate of that checkin
+   */
+  private void emit(int id, UserState state, int layer, Candidate decided) {
+    List<List<Candidate>> layers = state.layers;
+    Candidate anchor = state.anchored ? layers.get(0).get(0) : null;
+    List<MatchedCheckin> matches = new ArrayList<>(layer + 1);
+    for (Candidate c = decided; c != null && c != anchor; c = c.previous) {
+      matches.add(c.match);
+    }
+    Collections.reverse(matches);
+    Deque<MatchedCheckin> trace =
+        this.traces.computeIfAbsent(id, k -> new ArrayDeque<>());
+    synchronized (trace) {
+      for (MatchedCheckin match : matches) {
+        if (trace.size() == MAX_TRACE) {
+          trace.removeFirst();
+        }
+        trace.addLast(match);
+      }
+    }
+    layers.subList(0, layer).clear();
+    layers.set(0, new ArrayList<>(Collections.singletonList(decided)));
+    decided.previous = null;
+    state.anchored = true;
+    Set<Candidate> kept = Collections.singleton(decided);
+    for (int i = 1; i < layers.size(); i++) {
+      Set<Candidate> reached = kept;
+      layers.get(i).removeIf(c -> !reached.contains(c.previous));
+      kept = new HashSet<>(layers.get(i));
+    }
+  }
+
+  /**
+   * A helper function which finds the most likely of a checkin's candidates.
+   *
+   * @param candidates the Candidates
+   * @return the Candidate with the greatest log probability
+   */
+  private static Candidate best(List<Candidate> candidates) {
+    Candidate best = candidates.get(0);
+    for (Candidate candidate : candidates) {
+      if (candidate.logProb > best.logProb) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * A helper function which finds the closest point on a Way to a checkin,
+   * treating the Way as straight on a plane around the checkin.
+   *
+   * @param checkin the UserCheckin
+   * @param way     the Way
+   * @return the MatchedCheckin of the checkin onto that point
+   */
+  static MatchedCheckin project(UserCheckin checkin, Way way) {
+    double lat = checkin.getLat();
+    double lon = checkin.getLon();
+    double lat1 = way.getStart().getNthCoordinate(0);
+    double lon1 = way.getStart().getNthCoordinate(1);
+    double lat2 = way.getEnd().getNthCoordinate(0);
+    double lon2 = way.getEnd().getNthCoordinate(1);
+    double cosLat = Math.cos(Math.toRadians(lat));
+    double ax = (lon1 - lon) * cosLat;
+    double ay = lat1 - lat;
+    double dx = (lon2 - lon1) * cosLat;
+    double dy = lat2 - lat1;
+    double lengthSq = dx * dx + dy * dy;
+    double fraction = lengthSq == 0 ? 0
+        : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSq));
+    double matchLat = lat1 + fraction * (lat2 - lat1);
+    double matchLon = lon1 + fraction * (lon2 - lon1);
+    return new MatchedCheckin(checkin, way, fraction, matchLat, matchLon,
+        LiveUserIndex.distance(lat, lon, matchLat, matchLon));
+  }
+}
@@ -0,0 +1,607 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.kdtree.FlatKDTree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * A class which represents a read-only, memory-mapped snapshot of a
+ * MapDatabase's traversable Nodes and Ways.
+ * <p>
+ * The snapshot is a single versioned binary file next to the database (see
+ * sidecarFor), holding every Node's coordinates and id, the RoadGraph's
+ * forward and reverse CSR structures with every Way's id, name and type, an
+ * id-sorted index of the Nodes, and a flattened KD-tree over their
+ * coordinates. Opening it maps the file with FileChannel.map and reads only
+ * the header, so startup takes constant time, the data lives off-heap, and
+ * the operating system's page cache shares it between processes. Node and
+ * Way objects are only created when first asked for (see RoadGraph).
+ * <p>
+ * The flattened KD-tree is an array of graph indices in FlatKDTree's
+ * layout: each range [lo, hi) holds its median point at (lo + hi) / 2,
+ * splitting on latitude at even depths and longitude at odd ones.
+ * <p>
+ * A null string is marked in the string pool's offsets by storing its start
+ * offset complemented (so negative), and is decoded back to null.
+ * <p>
+ * A snapshot records the size and modification time of the database it was
+ * exported from, and is refused if the database has changed since. It is
+ * written to a temporary file which then replaces the sidecar, so exporting
+ * over the snapshot that is mapped never changes the mapped file.
+ */
+public final class MapSnapshot {
+
+  private static final int MAGIC = 0x534E_4150; // "SNAP"
+  private static final int VERSION = 3;
+  private static final int HEADER_BYTES = 44;
+  private static final int STRINGS_PER_WAY = 3;
+
+  private final long fingerprint;
+  private final int numNodes;
+  private final int numEdges;
+  private final DoubleBuffer latitude;
+  private final DoubleBuffer longitude;
+  private final IntBuffer firstOut;
+  private final IntBuffer edgeTarget;
+  private final DoubleBuffer edgeWeight;
+  private final IntBuffer edgeSource;
+  private final IntBuffer firstIn;
+  private final IntBuffer inEdge;
+  private final IntBuffer kdOrder;
+  private final IntBuffer idOrder;
+  private final IntBuffer nodeIdOffset;
+  private final IntBuffer wayStringOffset;
+  private final ByteBuffer strings;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class, which slices a mapped file into its
+   * sections. The header must already have been checked.
+   *
+   * @param map         the whole mapped file
+   * @param fingerprint a long, the fingerprint of the RoadGraph it holds
+   * @param numNodes    an int, the number of Nodes it holds
+   * @param numEdges    an int, the number of edges (Ways) it holds
+   * @param poolBytes   an int, the length of its string pool
+   */
+  private MapSnapshot(ByteBuffer map, long fingerprint, int numNodes,
+                      int numEdges, int poolBytes) {
+    this.fingerprint = fingerprint;
+    this.numNodes = numNodes;
+    this.numEdges = numEdges;
+    int position = HEADER_BYTES;
+    this.latitude = doubles(map, position, numNodes);
+    position += numNodes * Double.BYTES;
+    this.longitude = doubles(map, position, numNodes);
+    position += numNodes * Double.BYTES;
+    this.edgeWeight = doubles(map, position, numEdges);
+    position += numEdges * Double.BYTES;
+    this.firstOut = ints(map, position, numNodes + 1);
+    position += (numNodes + 1) * Integer.BYTES;
+    this.edgeTarget = ints(map, position, numEdges);
+    position += numEdges * Integer.BYTES;
+    this.edgeSource = ints(map, position, numEdges);
+    position += numEdges * Integer.BYTES;
+    this.firstIn = ints(map, position, numNodes + 1);
+    position += (numNodes + 1) * Integer.BYTES;
+    this.inEdge = ints(map, position, numEdges);
+    position += numEdges * Integer.BYTES;
+    this.kdOrder = ints(map, position, numNodes);
+    position += numNodes * Integer.BYTES;
+    this.idOrder = ints(map, position, numNodes);
+    position += numNodes * Integer.BYTES;
+    this.nodeIdOffset = ints(map, position, numNodes + 1);
+    position += (numNodes + 1) * Integer.BYTES;
+    this.wayStringOffset = ints(map, position, numEdges * STRINGS_PER_WAY + 1);
+    position += (numEdges * STRINGS_PER_WAY + 1) * Integer.BYTES;
+    ByteBuffer pool = map.duplicate();
+    pool.position(position).limit(position + poolBytes);
+    this.strings = pool.slice();
+  }
+
+  // ------------------------------ Persistence ----------------------------
+
+  /**
+   * A function which gets the sidecar File that a database's snapshot is
+   * exported to.
+   *
+   * @param dbPath the path to a database
+   * @return the File next to that database which holds its snapshot
+   */
+  public static File sidecarFor(String dbPath) {
+    return new File(dbPath + ".snap");
+  }
+
+  /**
+   * A function which exports a RoadGraph (and so the traversable Nodes and
+   * Ways of its database) to a snapshot file. The snapshot is written to a
+   * temporary file in the same directory, then moved over the file, so a
+   * mapping of the old file (which the RoadGraph may be reading from) stays
+   * intact.
+   *
+   * @param file   the File to write to
+   * @param dbFile the database File which the RoadGraph was loaded from
+   * @param graph  the RoadGraph to export
+   * @throws IOException if the file cannot be written, or would be too large
+   *                     to map
+   */
+  public static void write(File file, File dbFile, RoadGraph graph)
+      throws IOException {
+    int numNodes = graph.getNumNodes();
+    int numEdges = graph.getNumEdges();
+    double[] coordinates = new double[numNodes * 2];
+    byte[][] nodeIds = new byte[numNodes][];
+    String[] nodeIdStrings = new String[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      Node node = graph.getNode(i);
+      coordinates[2 * i] = node.getNthCoordinate(0);
+      coordinates[2 * i + 1] = node.getNthCoordinate(1);
+      nodeIdStrings[i] = node.getNodeId();
+      nodeIds[i] = nodeIdStrings[i].getBytes(StandardCharsets.UTF_8);
+    }
+    byte[][] wayStrings = new byte[numEdges * STRINGS_PER_WAY][];
+    for (int e = 0; e < numEdges; e++) {
+      Way way = graph.getWay(e);
+      wayStrings[STRINGS_PER_WAY * e] = utf8(way.getWayId());
+      wayStrings[STRINGS_PER_WAY * e + 1] = utf8(way.getName());
+      wayStrings[STRINGS_PER_WAY * e + 2] = utf8(way.getType());
+    }
+    long poolBytes = 0;
+    for (byte[] bytes : nodeIds) {
+      poolBytes += bytes.length;
+    }
+    for (byte[] bytes : wayStrings) {
+      poolBytes += bytes == null ? 0 : bytes.length;
+    }
+    long fileBytes = HEADER_BYTES + poolBytes
+        + (2L * numNodes + numEdges) * Double.BYTES
+        + (5L * numNodes + (3L + STRINGS_PER_WAY) * numEdges + 4)
+        * Integer.BYTES;
+    if (fileBytes > Integer.MAX_VALUE) {
+      throw new IOException("Map is too large to snapshot: " + fileBytes
+          + " bytes.");
+    }
+
+    // Flatten a KD-tree over the Nodes, and index them by id
+    Integer[] boxedIdOrder = new Integer[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      boxedIdOrder[i] = i;
+    }
+    Arrays.sort(boxedIdOrder, Comparator.comparing(i -> nodeIdStrings[i]));
+    int[] kdOrder = FlatKDTree.arrange(coordinates, 2);
+
+    File directory = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    boolean moved = false;
+    try {
+      // Use Try-with-resources
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(dbFile.length());
+        out.writeLong(dbFile.lastModified());
+        out.writeLong(graph.fingerprint());
+        out.writeInt(numNodes);
+        out.writeInt(numEdges);
+        out.writeInt((int) poolBytes);
+        for (int i = 0; i < numNodes; i++) {
+          out.writeDouble(coordinates[2 * i]);
+        }
+        for (int i = 0; i < numNodes; i++) {
+          out.writeDouble(coordinates[2 * i + 1]);
+        }
+        for (int e = 0; e < numEdges; e++) {
+          out.writeDouble(graph.weight(e));
+        }
+        for (int i = 0; i < numNodes; i++) {
+          out.writeInt(graph.firstOut(i));
+        }
+        out.writeInt(numEdges);
+        for (int e = 0; e < numEdges; e++) {
+          out.writeInt(graph.target(e));
+        }
+        for (int e = 0; e < numEdges; e++) {
+          out.writeInt(graph.source(e));
+        }
+        for (int i = 0; i < numNodes; i++) {
+          out.writeInt(graph.firstIn(i));
+        }
+        out.writeInt(numEdges);
+        for (int e = 0; e < numEdges; e++) {
+          out.writeInt(graph.inEdge(e));
+        }
+        for (int node : kdOrder) {
+          out.writeInt(node);
+        }
+        for (Integer node : boxedIdOrder) {
+          out.writeInt(node);
+        }
+        // Node ids come first in the string pool, then Way strings
+        int offset = 0;
+        for (byte[] bytes : nodeIds) {
+          out.writeInt(offset);
+          offset += bytes.length;
+        }
+        out.writeInt(offset);
+        for (byte[] bytes : wayStrings) {
+          if (bytes == null) {
+            out.writeInt(~offset);
+          } else {
+            out.writeInt(offset);
+            offset += bytes.length;
+          }
+        }
+        out.writeInt(offset);
+        for (byte[] bytes : nodeIds) {
+          out.write(bytes);
+        }
+        for (byte[] bytes : wayStrings) {
+          if (bytes != null) {
+            out.write(bytes);
+          }
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(),
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      moved = true;
+    } finally {
+      if (!moved) {
+        Files.deleteIfExists(temp.toPath());
+      }
+    }
+  }
+
+  /**
+   * A function which maps a snapshot file into memory, checking that it was
+   * exported from the database as it is now.
+   *
+   * @param file   the File to map
+   * @param dbFile the database File which the snapshot sits next to
+   * @return the MapSnapshot stored in the file
+   * @throws IOException if the file cannot be read, is malformed, or was
+   *                     exported before the database last changed
+   */
+  public static MapSnapshot open(File file, File dbFile) throws IOException {
+    ByteBuffer map;
+    // Use Try-with-resources (the mapping outlives the channel)
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Not a snapshot file: " + file);
+      }
+      map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (map.getInt(0) != MAGIC || map.getInt(Integer.BYTES) != VERSION) {
+      throw new IOException("Not a snapshot file: " + file);
+    }
+    if (map.getLong(8) != dbFile.length()
+        || map.getLong(16) != dbFile.lastModified()) {
+      throw new IOException("Snapshot file " + file
+          + " is older than its database.");
+    }
+    long fingerprint = map.getLong(24);
+    int numNodes = map.getInt(32);
+    int numEdges = map.getInt(36);
+    int poolBytes = map.getInt(40);
+    long expectedBytes = HEADER_BYTES + (long) poolBytes
+        + (2L * numNodes + numEdges) * Double.BYTES
+        + (5L * numNodes + (3L + STRINGS_PER_WAY) * numEdges + 4)
+        * Integer.BYTES;
+    if (numNodes < 0 || numEdges < 0 || poolBytes < 0
+        || expectedBytes != map.capacity()) {
+      throw new IOException("Malformed snapshot file: " + file);
+    }
+    return new MapSnapshot(map, fingerprint, numNodes, numEdges, poolBytes);
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the fingerprint of the RoadGraph this snapshot
+   * was exported from.
+   *
+   * @return the RoadGraph's fingerprint
+   */
+  public long getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * A getter function for the number of Nodes in this snapshot.
+   *
+   * @return the number of Nodes in this snapshot
+   */
+  public int getNumNodes() {
+    return this.numNodes;
+  }
+
+  /**
+   * A getter function for the number of edges (Ways) in this snapshot.
+   *
+   * @return the number of edges in this snapshot
+   */
+  public int getNumEdges() {
+    return this.numEdges;
+  }
+
+  /**
+   * A getter function for the latitude of a Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the latitude of that Node
+   */
+  public double latitude(int node) {
+    return this.latitude.get(node);
+  }
+
+  /**
+   * A getter function for the longitude of a Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the longitude of that Node
+   */
+  public double longitude(int node) {
+    return this.longitude.get(node);
+  }
+
+  /**
+   * A getter function for the id of a Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the nodeId of that Node
+   */
+  public String nodeId(int node) {
+    return string(this.nodeIdOffset, node);
+  }
+
+  /**
+   * A getter function for the id of the Way which an edge represents.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the wayId of that edge's Way
+   */
+  public String wayId(int edge) {
+    return string(this.wayStringOffset, STRINGS_PER_WAY * edge);
+  }
+
+  /**
+   * A getter function for the name of the Way which an edge represents.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the name of that edge's Way, which may be null
+   */
+  public String wayName(int edge) {
+    return string(this.wayStringOffset, STRINGS_PER_WAY * edge + 1);
+  }
+
+  /**
+   * A getter function for the type of the Way which an edge represents.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the type of that edge's Way, which may be null
+   */
+  public String wayType(int edge) {
+    return string(this.wayStringOffset, STRINGS_PER_WAY * edge + 2);
+  }
+
+  // ------------------------------- Searching -----------------------------
+
+  /**
+   * A function which binary searches the id index for a Node.
+   *
+   * @param nodeId the nodeId of a Node
+   * @return the graph index of that Node, or -1 if it is not in the snapshot
+   */
+  public int indexOf(String nodeId) {
+    int lo = 0;
+    int hi = this.numNodes;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int node = this.idOrder.get(mid);
+      int comparison = nodeId(node).compareTo(nodeId);
+      if (comparison == 0) {
+        return node;
+      } else if (comparison < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * A function which walks the flattened KD-tree for the Node nearest (by
+   * Euclidean distance over latitude and longitude) to a point.
+   *
+   * @param lat a double, the latitude of the search point
+   * @param lon a double, the longitude of the search point
+   * @return the graph index of the nearest Node, or -1 if there are none
+   */
+  public int nearest(double lat, double lon) {
+    double[] best = {Double.POSITIVE_INFINITY};
+    int[] bestNode = {-1};
+    nearest(lat, lon, 0, this.numNodes, 0, best, bestNode);
+    return bestNode[0];
+  }
+
+  /**
+   * A function which walks the flattened KD-tree for the Nodes within a
+   * radius (by Euclidean distance over latitude and longitude) of a point.
+   *
+   * @param lat    a double, the latitude of the search point
+   * @param lon    a double, the longitude of the search point
+   * @param radius a double, the radius, in degrees
+   * @return an array of the graph indices of those Nodes, in no particular
+   * order
+   */
+  public int[] within(double lat, double lon, double radius) {
+    IntStream.Builder found = IntStream.builder();
+    within(lat, lon, radius * radius, 0, this.numNodes, 0, found);
+    return found.build().toArray();
+  }
+
+  /**
+   * A function which makes a RoadGraph which reads straight from this
+   * snapshot.
+   *
+   * @param database the MapDatabase which the RoadGraph's Nodes belong to
+   * @return a RoadGraph over this snapshot's Nodes and Ways
+   */
+  RoadGraph toRoadGraph(MapDatabase database) {
+    return new RoadGraph(this, database, this.firstOut, this.edgeTarget,
+        this.edgeWeight, this.edgeSource, this.firstIn, this.inEdge);
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which searches one range of the flattened KD-tree.
+   *
+   * @param lat      a double, the latitude of the search point
+   * @param lon      a double, the longitude of the search point
+   * @param lo       an int, the start of the range (inclusive)
+   * @param hi       an int, the end of the range (exclusive)
+   * @param depth    an int, the depth of the range's median in the tree
+   * @param best     a one-element array, the smallest squared distance yet
+   * @param bestNode a one-element array, the graph index of that Node
+   */
+  private void nearest(double lat, double lon, int lo, int hi, int depth,
+                       double[] best, int[] bestNode) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int node = this.kdOrder.get(mid);
+    double dLat = lat - this.latitude.get(node);
+    double dLon = lon - this.longitude.get(node);
+    double dist = dLat * dLat + dLon * dLon;
+    if (dist < best[0]) {
+      best[0] = dist;
+      bestNode[0] = node;
+    }
+    double diff = depth % 2 == 0 ? dLat : dLon;
+    if (diff < 0) {
+      nearest(lat, lon, lo, mid, depth + 1, best, bestNode);
+      if (diff * diff < best[0]) {
+        nearest(lat, lon, mid + 1, hi, depth + 1, best, bestNode);
+      }
+    } else {
+      nearest(lat, lon, mid + 1, hi, depth + 1, best, bestNode);
+      if (diff * diff < best[0]) {
+        nearest(lat, lon, lo, mid, depth + 1, best, bestNode);
+      }
+    }
+  }
+
+  /**
+   * A helper function which searches one range of the flattened KD-tree
+   * for Nodes within a radius.
+   *
+   * @param lat      a double, the latitude of the search point
+   * @param lon      a double, the longitude of the search point
+   * @param radiusSq a double, the squared radius
+   * @param lo       an int, the start of the range (inclusive)
+   * @param hi       an int, the end of the range (exclusive)
+   * @param depth    an int, the depth of the range's median in the tree
+   * @param found    an IntStream.Builder to add the Nodes found to
+   */
+  private void within(double lat, double lon, double radiusSq, int lo,
+                      int hi, int depth, IntStream.Builder found) {
+    if (lo >= hi) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int node = this.kdOrder.get(mid);
+    double dLat = lat - this.latitude.get(node);
+    double dLon = lon - this.longitude.get(node);
+    if (dLat * dLat + dLon * dLon <= radiusSq) {
+      found.add(node);
+    }
+    double diff = depth % 2 == 0 ? dLat : dLon;
+    if (diff < 0 || diff * diff <= radiusSq) {
+      within(lat, lon, radiusSq, lo, mid, depth + 1, found);
+    }
+    if (diff >= 0 || diff * diff <= radiusSq) {
+      within(lat, lon, radiusSq, mid + 1, hi, depth + 1, found);
+    }
+  }
+
+  /**
+   * A helper function which decodes one string from the string pool.
+   *
+   * @param offsets an IntBuffer of offsets into the string pool
+   * @param index   an int, the index of the string's offset
+   * @return the decoded String, or null if a null String was stored
+   */
+  private String string(IntBuffer offsets, int index) {
+    int start = offsets.get(index);
+    if (start < 0) {
+      return null;
+    }
+    int end = offsets.get(index + 1);
+    // The next string may be null, so its offset complemented
+    byte[] bytes = new byte[(end < 0 ? ~end : end) - start];
+    ByteBuffer view = this.strings.duplicate();
+    view.position(start);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A helper function which encodes a possibly-null String as UTF-8.
+   *
+   * @param string a String, or null
+   * @return its UTF-8 bytes, or null for null
+   */
+  private static byte[] utf8(String string) {
+    return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A helper function which views one section of a mapped file as ints.
+   *
+   * @param map      the whole mapped file
+   * @param position an int, the byte offset of the section
+   * @param count    an int, the number of ints in the section
+   * @return an IntBuffer over the section
+   */
+  private static IntBuffer ints(ByteBuffer map, int position, int count) {
+    ByteBuffer section = map.duplicate();
+    section.position(position).limit(position + count * Integer.BYTES);
+    return section.slice().asIntBuffer();
+  }
+
+  /**
+   * A helper function which views one section of a mapped file as doubles.
+   *
+   * @param map      the whole mapped file
+   * @param position an int, the byte offset of the section
+   * @param count    an int, the number of doubles in the section
+   * @return a DoubleBuffer over the section
+   */
+  private static DoubleBuffer doubles(ByteBuffer map, int position,
+                                      int count) {
+    ByteBuffer section = map.duplicate();
+    section.position(position).limit(position + count * Double.BYTES);
+    return section.slice().asDoubleBuffer();
+  }
+}
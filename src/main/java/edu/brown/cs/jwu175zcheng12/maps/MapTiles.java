@@ -0,0 +1,234 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.google.common.hash.Hashing;
+import edu.brown.cs.jwu175zcheng12.cache.CachePolicy;
+import edu.brown.cs.jwu175zcheng12.cache.MyCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * A class which serves the GUI's ways and cells as a pyramid of tiles over the
+ * 0.01 degree grid of cells used by the ways-and-cells request.
+ * <p>
+ * A cell is addressed by the indices of its northwest corner, in hundredths of
+ * a degree: its row is the latitude rounded up and its column the longitude
+ * rounded down. The tile (zoom, x, y) holds the square of 2^zoom by 2^zoom
+ * cells whose columns are in [x * 2^zoom, (x + 1) * 2^zoom) and whose rows
+ * are in [y * 2^zoom, (y + 1) * 2^zoom), so y grows northwards. Each tile's
+ * body has the same {ways, cells} contents as a ways-and-cells response, in
+ * either WireFormat.
+ * <p>
+ * Tiles are encoded when first requested, then kept as bytes in a MyCache
+ * weighted by their size, with a weak ETag made from a hash of those bytes
+ * (weak, since the same tile may be sent gzipped or not). Overlapping
+ * requests from panning the map become cache hits, and unchanged tiles can be
+ * revalidated without resending them. The cache is cleared whenever the
+ * MapDatabase's map version changes.
+ */
+final class MapTiles {
+
+  static final int MAX_ZOOM = 6;
+  static final int DEFAULT_MAX_SIZE = 64 << 20;
+  private static final int MAX_KEY_SIZE = 1 << 6;
+  private static final int MAX_TILE_SIZE = 16 << 20;
+  private static final int CELLS_PER_DEGREE = 100;
+  private static final int MAX_ROW = 90 * CELLS_PER_DEGREE;
+  private static final int MAX_COLUMN = 180 * CELLS_PER_DEGREE;
+
+  private final MapDatabase mapDatabase;
+  private final MyCache<String, Tile> cache;
+  private volatile long mapVersion = Long.MIN_VALUE;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param mapDatabase the MapDatabase to render tiles from
+   * @param maxSize     an int, the total size of the tiles to keep, in bytes
+   */
+  MapTiles(MapDatabase mapDatabase, int maxSize) {
+    this.mapDatabase = mapDatabase;
+    this.cache = new MyCache<>(maxSize, MAX_KEY_SIZE, MAX_TILE_SIZE,
+        CachePolicy.TINY_LFU);
+  }
+
+  /**
+   * A function which gets a tile, rendering it if it is not cached.
+   *
+   * @param zoom   an int, the tile's zoom; it holds 2^zoom by 2^zoom cells
+   * @param x      an int, the tile's column
+   * @param y      an int, the tile's row
+   * @param format the WireFormat to encode the tile in
+   * @return the Tile, or null if the tile is out of range or could not be
+   * rendered (e.g. if no map data is loaded)
+   * @throws IOException if the tile cannot be encoded
+   */
+  Tile getTile(int zoom, int x, int y, WireFormat format) throws IOException {
+    if (!isValidTile(zoom, x, y)) {
+      return null;
+    }
+    // Read the version first, so a tile rendered from a map which is replaced
+    // meanwhile is cached under the old version
+    long version = this.mapDatabase.getMapVersion();
+    this.checkVersion(version);
+    String key = Long.toString(version) + '/' + zoom + '/' + x + '/' + y
+        + '/' + format.name();
+    Tile tile = this.cache.get(key);
+    if (tile != null) {
+      return tile;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    if (!this.mapDatabase.writeWaysAndCellsForTile(zoom, x, y,
+        format.encoder(bytes))) {
+      return null;
+    }
+    byte[] body = bytes.toByteArray();
+    tile = new Tile(body);
+    this.cache.addToCache(key, tile, key.length(), body.length);
+    return tile;
+  }
+
+  /**
+   * A getter function for this class' cache, for its hit and miss counts.
+   *
+   * @return the MyCache of Tiles
+   */
+  MyCache<String, Tile> getCache() {
+    return this.cache;
+  }
+
+  /**
+   * A function which checks that a tile lies within the range of latitudes
+   * and longitudes.
+   *
+   * @param zoom an int, the tile's zoom
+   * @param x    an int, the tile's column
+   * @param y    an int, the tile's row
+   * @return true if the tile exists, false otherwise
+   */
+  static boolean isValidTile(int zoom, int x, int y) {
+    if (zoom < 0 || zoom > MAX_ZOOM) {
+      return false;
+    }
+    return Math.floorDiv(-MAX_ROW, 1 << zoom) <= y
+        && y <= Math.floorDiv(MAX_ROW, 1 << zoom)
+        && Math.floorDiv(-MAX_COLUMN, 1 << zoom) <= x
+        && x <= Math.floorDiv(MAX_COLUMN, 1 << zoom);
+  }
+
+  /**
+   * A function which finds the row of the cell containing a latitude, i.e.
+   * the latitude rounded up to the nearest hundredth, in hundredths. Values
+   * on a grid line belong to the cell below it, as with BigDecimal rounding.
+   *
+   * @param lat a double, a latitude
+   * @return the row of its cell
+   */
+  static int cellRow(double lat) {
+    int row = (int) Math.ceil(lat * CELLS_PER_DEGREE);
+    // Correct for the rounding error of the multiplication; row / 100.0 is
+    // the double closest to the grid line itself
+    while ((row - 1) / (double) CELLS_PER_DEGREE >= lat) {
+      row--;
+    }
+    while (row / (double) CELLS_PER_DEGREE < lat) {
+      row++;
+    }
+    return row;
+  }
+
+  /**
+   * A function which finds the column of the cell containing a longitude,
+   * i.e. the longitude rounded down to the nearest hundredth, in hundredths.
+   *
+   * @param lon a double, a longitude
+   * @return the column of its cell
+   */
+  static int cellColumn(double lon) {
+    int column = (int) Math.floor(lon * CELLS_PER_DEGREE);
+    while (column / (double) CELLS_PER_DEGREE > lon) {
+      column--;
+    }
+    while ((column + 1) / (double) CELLS_PER_DEGREE <= lon) {
+      column++;
+    }
+    return column;
+  }
+
+  /**
+   * A function which formats a cell row or column as the key used for it in
+   * the cells of a ways-and-cells response, e.g. 4182 becomes "41.82".
+   *
+   * @param index an int, a cell row or column
+   * @return its latitude or longitude, without trailing zeros
+   */
+  static String cellKey(int index) {
+    return BigDecimal.valueOf(index, 2).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * A function which converts a cell row or column to degrees.
+   *
+   * @param index an int, a cell row or column
+   * @return its latitude or longitude
+   */
+  static double toDegrees(int index) {
+    return index / (double) CELLS_PER_DEGREE;
+  }
+
+  /**
+   * A helper function which clears the cache the first time it sees a newer
+   * map version.
+   *
+   * @param version a long, a map version
+   */
+  private void checkVersion(long version) {
+    if (version <= this.mapVersion) {
+      return;
+    }
+    synchronized (this) {
+      if (version > this.mapVersion) {
+        this.cache.clearCache();
+        this.mapVersion = version;
+      }
+    }
+  }
+
+  /**
+   * A class which represents one rendered tile.
+   */
+  static final class Tile {
+
+    private final byte[] body;
+    private final String etag;
+
+    /**
+     * The constructor for this class.
+     *
+     * @param body the tile's encoded bytes
+     */
+    Tile(byte[] body) {
+      this.body = body;
+      this.etag = "W/\"" + Hashing.murmur3_128().hashBytes(body) + '"';
+    }
+
+    /**
+     * A getter function for this class' body field.
+     *
+     * @return the tile's encoded bytes; not to be modified
+     */
+    byte[] getBody() {
+      return this.body;
+    }
+
+    /**
+     * A getter function for this class' etag field.
+     *
+     * @return the tile's weak ETag
+     */
+    String getEtag() {
+      return this.etag;
+    }
+  }
+}
@@ -19,7 +19,9 @@ import java.util.PriorityQueue;
 public class Node extends GeneralNode<Node, Way> {
 
   private Collection<Way> waysOut = null;
+  private Collection<Way> waysIn = null;
   private MapDatabase workingMapDatabase = null;
+  private int graphIndex = -1;
 
   // ----------------------------- Constructors ----------------------------
 
@@ -81,6 +83,27 @@ public class Node extends GeneralNode<Node, Way> {
     this.waysOut = waysOut;
   }
 
+  /**
+   * A getter function for this class' graphIndex field, the dense index of
+   * this Node in its MapDatabase's RoadGraph.
+   *
+   * @return an int, the graphIndex of this Node, or -1 if it has none
+   */
+  public int getGraphIndex() {
+    return this.graphIndex;
+  }
+
+  /**
+   * A setter function for this class' graphIndex field. Only the MapDatabase
+   * which created this Node should call this.
+   *
+   * @param graphIndex an int, the dense index of this Node in its
+   *                   MapDatabase's RoadGraph
+   */
+  void setGraphIndex(int graphIndex) {
+    this.graphIndex = graphIndex;
+  }
+
   // ------------------ Implementation of Abstract Methods -----------------
 
   @Override
@@ -95,8 +118,9 @@ public class Node extends GeneralNode<Node, Way> {
 
   /**
    * A helper function to get this class' waysOut field. If not already
-   * loaded (i.e. waysOut == null), this function does a database query to fill
-   * in that field before getting and returning it.
+   * loaded (i.e. waysOut == null), this function fills in that field from the
+   * MapDatabase's RoadGraph if one was built, or else does a database query,
+   * before getting and returning it.
    *
    * @return a Collection of Ways which leads out of this Node.
    */
@@ -108,14 +132,45 @@ public class Node extends GeneralNode<Node, Way> {
             "Node was constructed without specifying workingMapDatabase. "
                 + "Cannot getWaysOut before calling setWaysOut/setWayDatabase.");
       }
-      // Set waysOut to the result of a database query
-      this.waysOut = this.workingMapDatabase
-          .getWaysInOrOutOfNode(super.getNodeId(), true);
+      RoadGraph roadGraph = this.workingMapDatabase.getRoadGraph();
+      if (roadGraph != null && this.graphIndex >= 0) {
+        // Set waysOut to this Node's slice of the RoadGraph
+        this.waysOut = roadGraph.getWaysOut(this.graphIndex);
+      } else {
+        // Set waysOut to the result of a database query
+        this.waysOut = this.workingMapDatabase
+            .getWaysInOrOutOfNode(super.getNodeId(), true);
+      }
     }
     // Return
     return this.waysOut;
   }
 
+  /**
+   * A helper function to get the Ways which lead into this Node, loading them
+   * the same way as getWaysOut. Nodes constructed without a MapDatabase have
+   * no known ways in, so this returns null for them.
+   *
+   * @return a Collection of Ways which leads into this Node, or null if not
+   * known
+   */
+  public Collection<Way> getWaysIn() {
+    // If not already loaded, load in from database
+    if (this.waysIn == null && this.workingMapDatabase != null) {
+      RoadGraph roadGraph = this.workingMapDatabase.getRoadGraph();
+      if (roadGraph != null && this.graphIndex >= 0) {
+        // Set waysIn to this Node's slice of the reverse RoadGraph
+        this.waysIn = roadGraph.getWaysIn(this.graphIndex);
+      } else {
+        // Set waysIn to the result of a database query
+        this.waysIn = this.workingMapDatabase
+            .getWaysInOrOutOfNode(super.getNodeId(), false);
+      }
+    }
+    // Return
+    return this.waysIn;
+  }
+
   // ----------------------------- Pathfinding -----------------------------
 
   /**
@@ -144,11 +199,93 @@ public class Node extends GeneralNode<Node, Way> {
     return aStarHelper(targetNode, 1.);
   }
 
+  /**
+   * A function which uses a bidirectional Dijkstra search, growing one search
+   * forward from this Node and one backward from the target Node until they
+   * meet, to find the optimal path, represented as an ordered list of Ways.
+   * <p>
+   * The backward search needs the Ways leading into each Node, so Nodes
+   * which do not share a MapDatabase fall back to a one-directional search.
+   *
+   * @param targetNode the target Node
+   * @return a List of Ways which represents the optimal path from this Node to
+   * the target Node. The List will be empty if the targetNode is this Node.
+   * Null will be returned if the targetNode cannot be reached from this Node.
+   */
+  public List<Way> bidirectionalPath(Node targetNode) {
+    // Handle base case
+    if (this.equals(targetNode)) {
+      return new ArrayList<>(0);
+    }
+    if (this.workingMapDatabase != null) {
+      RouteEngine routeEngine = this.workingMapDatabase.getRouteEngine();
+      if (routeEngine != null && routeEngine.owns(this)
+          && routeEngine.owns(targetNode)) {
+        return routeEngine.bidirectionalPath(this, targetNode);
+      }
+    }
+    return aStarHelper(targetNode, 0.);
+  }
+
+  /**
+   * A function which uses the contraction hierarchy of this Node's
+   * MapDatabase to find the optimal path, represented as an ordered list of
+   * Ways, from this Node to the target Node. If no hierarchy has been built
+   * or loaded, this falls back to bidirectionalPath.
+   *
+   * @param targetNode the target Node
+   * @return a List of Ways which represents the optimal path from this Node to
+   * the target Node. The List will be empty if the targetNode is this Node.
+   * Null will be returned if the targetNode cannot be reached from this Node.
+   */
+  public List<Way> contractionHierarchyPath(Node targetNode) {
+    if (this.workingMapDatabase != null) {
+      ContractionHierarchy hierarchy =
+          this.workingMapDatabase.getContractionHierarchy();
+      if (hierarchy != null && hierarchy.owns(this)
+          && hierarchy.owns(targetNode)) {
+        return hierarchy.shortestPath(this, targetNode);
+      }
+    }
+    return bidirectionalPath(targetNode);
+  }
+
+  /**
+   * A function which finds the optimal path from this Node to the target Node
+   * with the given algorithm.
+   *
+   * @param targetNode the target Node
+   * @param algorithm  the RouteAlgorithm to use
+   * @return a List of Ways which represents the optimal path from this Node to
+   * the target Node. The List will be empty if the targetNode is this Node.
+   * Null will be returned if the targetNode cannot be reached from this Node.
+   */
+  public List<Way> findPath(Node targetNode, RouteAlgorithm algorithm) {
+    switch (algorithm) {
+      case DIJKSTRA:
+        return dijkstraPath(targetNode);
+      case BIDIRECTIONAL:
+        return bidirectionalPath(targetNode);
+      case CONTRACTION_HIERARCHY:
+        return contractionHierarchyPath(targetNode);
+      case A_STAR:
+      default:
+        return aStarPath(targetNode);
+    }
+  }
+
   /**
    * A helper function which uses an A* algorithm to find the optimal path,
    * represented as an ordered list of Ways, from this Node to the target Node.
    * The heuristic is haversine distance to the target Node, and the input
    * heuristicWeight determines how much weight to give to this heuristic.
+   * <p>
+   * If both Nodes came from the same MapDatabase, the search is handed to
+   * that MapDatabase's RouteEngine, which works on primitive arrays. There,
+   * a nonzero heuristicWeight uses the MapDatabase's LandmarkTable (ALT) as
+   * the heuristic if one is loaded, since it is a true lower bound on road
+   * distance. The HashMap-based search below is only used for Nodes built by
+   * hand.
    *
    * @param targetNode      the target Node
    * @param heuristicWeight a double, by which to scale the distance heuristic
@@ -163,6 +300,20 @@ public class Node extends GeneralNode<Node, Way> {
       return new ArrayList<>(0);
     }
 
+    // Use the primitive-array RouteEngine whenever possible
+    if (this.workingMapDatabase != null) {
+      RouteEngine routeEngine = this.workingMapDatabase.getRouteEngine();
+      if (routeEngine != null && routeEngine.owns(this)
+          && routeEngine.owns(targetNode)) {
+        LandmarkTable landmarks = this.workingMapDatabase.getLandmarkTable();
+        if (heuristicWeight != 0 && landmarks != null
+            && landmarks.owns(this) && landmarks.owns(targetNode)) {
+          return routeEngine.shortestPath(this, targetNode, landmarks);
+        }
+        return routeEngine.shortestPath(this, targetNode);
+      }
+    }
+
     // Create hashmap of the best distance a Node had when it was processed
     Map<Node, Double> processed = new HashMap<>();
     // Create hashmap of the last Way which is on the shortest path to a Node
@@ -0,0 +1,96 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which replays recorded checkins from an NDJSON file, one
+ * {"timestamp", "id", "name", "latitude", "longitude"} object per line, in
+ * timestamp order. Checkins are released as their timestamps come due,
+ * measured from the first checkin and the first poll, with time sped up by
+ * a factor, so a recording can be replayed at many times its real rate.
+ * The file is read lazily, so recordings can be larger than memory.
+ */
+final class ReplayCheckinSource implements CheckinSource {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final BufferedReader reader;
+  private final double speedup;
+  private long startNanos;
+  private double firstTimestamp;
+  private UserCheckin next;
+  private boolean started = false;
+  private int lineNumber = 0;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param path    the Path of the NDJSON file
+   * @param speedup a double, how many times faster than real time to replay
+   * @throws IOException if the file cannot be opened
+   */
+  ReplayCheckinSource(Path path, double speedup) throws IOException {
+    if (!(speedup > 0)) {
+      throw new IllegalArgumentException("Speed-up must be positive.");
+    }
+    this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    this.speedup = speedup;
+  }
+
+  @Override
+  public void poll(List<UserCheckin> out) throws IOException {
+    if (!this.started) {
+      this.started = true;
+      this.next = this.readCheckin();
+      this.startNanos = System.nanoTime();
+      if (this.next != null) {
+        this.firstTimestamp = this.next.getTimestamp();
+      }
+    }
+    double due = this.firstTimestamp
+        + (System.nanoTime() - this.startNanos) / NANOS_PER_SECOND
+        * this.speedup;
+    while (this.next != null && this.next.getTimestamp() <= due) {
+      out.add(this.next);
+      this.next = this.readCheckin();
+    }
+  }
+
+  /**
+   * A helper function which reads the next checkin, skipping blank and bad
+   * lines, and closes the file at its end.
+   *
+   * @return the next UserCheckin, or null at the end of the file
+   * @throws IOException if the file cannot be read
+   */
+  private UserCheckin readCheckin() throws IOException {
+    String line;
+    while ((line = this.reader.readLine()) != null) {
+      this.lineNumber++;
+      if (line.isBlank()) {
+        continue;
+      }
+      try {
+        JSONObject data = new JSONObject(line);
+        return new UserCheckin(data.getInt("id"),
+            data.optString("name", null), data.getDouble("timestamp"),
+            data.getDouble("latitude"), data.getDouble("longitude"));
+      } catch (JSONException e) {
+        printError("Skipping bad checkin on line " + this.lineNumber + ": "
+            + e.getMessage());
+      }
+    }
+    this.reader.close();
+    return null;
+  }
+}
@@ -0,0 +1,402 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which represents every traversable Way in a MapDatabase as a
+ * compressed-sparse-row (CSR) adjacency structure. Nodes are identified by
+ * dense int indices (see Node.getGraphIndex), and the Ways leading out of
+ * Node i are the edges firstOut[i] (inclusive) to firstOut[i + 1] (exclusive).
+ * A second, reverse CSR structure lists the edges leading into each Node, for
+ * searches which run backwards from a target.
+ * <p>
+ * A RoadGraph is built once, either by streaming the whole way table or by
+ * wrapping the sections of a memory-mapped MapSnapshot, and is immutable
+ * afterwards (apart from creating snapshot Nodes and Ways on first use,
+ * which is thread-safe), so it can be shared freely between threads.
+ */
+public final class RoadGraph {
+
+  private static final long FINGERPRINT_PRIME = 1_000_003L;
+
+  private final int numNodes;
+  private final int numEdges;
+  private final AtomicReferenceArray<Node> nodes;
+  private final AtomicReferenceArray<Way> edgeWay;
+  private final MapSnapshot snapshot;
+  private final MapDatabase database;
+  private final IntBuffer firstOut;
+  private final IntBuffer edgeTarget;
+  private final DoubleBuffer edgeWeight;
+  private final IntBuffer edgeSource;
+  private final IntBuffer firstIn;
+  private final IntBuffer inEdge;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class. The edge arrays must already be grouped
+   * by their start Node, as described by firstOut.
+   *
+   * @param nodes      an array of Nodes, where nodes[i] has graph index i
+   * @param firstOut   an int array of length nodes.length + 1, the offset of
+   *                   the first edge leading out of each Node
+   * @param edgeTarget an int array, the graph index of each edge's end Node
+   * @param edgeWeight a double array, the weight of each edge
+   * @param edgeWay    an array of Ways, the Way which each edge represents
+   */
+  private RoadGraph(Node[] nodes, int[] firstOut, int[] edgeTarget,
+                    double[] edgeWeight, Way[] edgeWay) {
+    this.numNodes = nodes.length;
+    this.numEdges = edgeTarget.length;
+    this.nodes = new AtomicReferenceArray<>(nodes);
+    this.edgeWay = new AtomicReferenceArray<>(edgeWay);
+    this.snapshot = null;
+    this.database = null;
+    this.firstOut = IntBuffer.wrap(firstOut);
+    this.edgeTarget = IntBuffer.wrap(edgeTarget);
+    this.edgeWeight = DoubleBuffer.wrap(edgeWeight);
+
+    // Recover each edge's start Node from the forward offsets
+    int[] sources = new int[this.numEdges];
+    for (int node = 0; node < this.numNodes; node++) {
+      for (int e = firstOut[node]; e < firstOut[node + 1]; e++) {
+        sources[e] = node;
+      }
+    }
+    // Counting-sort the edges by end Node for the reverse CSR structure
+    int[] offsets = new int[this.numNodes + 1];
+    for (int e = 0; e < this.numEdges; e++) {
+      offsets[edgeTarget[e] + 1]++;
+    }
+    for (int node = 0; node < this.numNodes; node++) {
+      offsets[node + 1] += offsets[node];
+    }
+    int[] positions = new int[this.numEdges];
+    int[] nextSlot = Arrays.copyOf(offsets, this.numNodes);
+    for (int e = 0; e < this.numEdges; e++) {
+      positions[nextSlot[edgeTarget[e]]++] = e;
+    }
+    this.edgeSource = IntBuffer.wrap(sources);
+    this.firstIn = IntBuffer.wrap(offsets);
+    this.inEdge = IntBuffer.wrap(positions);
+  }
+
+  /**
+   * Another constructor for this class, over the sections of a MapSnapshot.
+   * Its Nodes and Ways are only created when first asked for.
+   *
+   * @param snapshot   the MapSnapshot which holds the graph
+   * @param database   the MapDatabase which created Nodes belong to
+   * @param firstOut   the offset of the first edge leading out of each Node
+   * @param edgeTarget the graph index of each edge's end Node
+   * @param edgeWeight the weight of each edge
+   * @param edgeSource the graph index of each edge's start Node
+   * @param firstIn    the position of the first edge leading into each Node
+   * @param inEdge     the edge at each position of the reverse structure
+   */
+  RoadGraph(MapSnapshot snapshot, MapDatabase database, IntBuffer firstOut,
+            IntBuffer edgeTarget, DoubleBuffer edgeWeight, IntBuffer edgeSource,
+            IntBuffer firstIn, IntBuffer inEdge) {
+    this.numNodes = snapshot.getNumNodes();
+    this.numEdges = snapshot.getNumEdges();
+    this.nodes = new AtomicReferenceArray<>(this.numNodes);
+    this.edgeWay = new AtomicReferenceArray<>(this.numEdges);
+    this.snapshot = snapshot;
+    this.database = database;
+    this.firstOut = firstOut;
+    this.edgeTarget = edgeTarget;
+    this.edgeWeight = edgeWeight;
+    this.edgeSource = edgeSource;
+    this.firstIn = firstIn;
+    this.inEdge = inEdge;
+  }
+
+  /**
+   * A function which builds a RoadGraph by streaming every traversable Way
+   * out of the database in one query.
+   * <p>
+   * Effects: also adds every traversable Way it finds to the wayHashMap, if
+   * not already in there, so that Way identity is shared with the rest of the
+   * MapDatabase.
+   *
+   * @param conn       a Connection to the database
+   * @param nodes      a List of every traversable Node, where the i-th Node
+   *                   has graph index i
+   * @param nodeMap    a Map of nodeIds to traversable Nodes
+   * @param wayHashMap a Map of wayIds to Ways, to be read from and filled in
+   * @return a RoadGraph of every traversable Way in the database
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   */
+  static RoadGraph load(Connection conn, List<Node> nodes,
+                        Map<String, Node> nodeMap,
+                        Map<String, Way> wayHashMap) throws SQLException {
+    int numNodes = nodes.size();
+    List<Way> ways = new ArrayList<>();
+    int[] outDegree = new int[numNodes];
+    // Use Try-with-resources
+    try (PreparedStatement prep = conn.prepareStatement(
+        "SELECT id, name, type, start, end FROM way "
+            + "WHERE (type != '' AND type != 'unclassified');")) {
+      // Nested Try-with-resources necessary
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          String wayId = rs.getString(1);
+          Node start = nodeMap.get(rs.getString(4));
+          Node end = nodeMap.get(rs.getString(5));
+          // Skip if either end isn't a traversable Node
+          if (start == null || end == null) {
+            continue;
+          }
+          Way way = wayHashMap.get(wayId);
+          if (way == null) {
+            way = new Way(wayId, start, end, rs.getString(2), rs.getString(3));
+            wayHashMap.put(wayId, way);
+          }
+          ways.add(way);
+          outDegree[start.getGraphIndex()]++;
+        }
+      }
+    } catch (SQLException e) {
+      printError("SQL Exception when loading RoadGraph: " + e.getMessage());
+      throw e;
+    }
+
+    // Turn out-degrees into offsets, then counting-sort the edges by start
+    int[] firstOut = new int[numNodes + 1];
+    for (int i = 0; i < numNodes; i++) {
+      firstOut[i + 1] = firstOut[i] + outDegree[i];
+    }
+    int numEdges = ways.size();
+    int[] edgeTarget = new int[numEdges];
+    double[] edgeWeight = new double[numEdges];
+    Way[] edgeWay = new Way[numEdges];
+    int[] nextSlot = Arrays.copyOf(firstOut, numNodes);
+    for (Way way : ways) {
+      int slot = nextSlot[way.getStart().getGraphIndex()]++;
+      edgeTarget[slot] = way.getEnd().getGraphIndex();
+      edgeWeight[slot] = way.getWeight();
+      edgeWay[slot] = way;
+    }
+    return new RoadGraph(nodes.toArray(new Node[0]), firstOut, edgeTarget,
+        edgeWeight, edgeWay);
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the number of Nodes in this RoadGraph.
+   *
+   * @return the number of Nodes in this RoadGraph
+   */
+  public int getNumNodes() {
+    return this.numNodes;
+  }
+
+  /**
+   * A getter function for the number of edges (Ways) in this RoadGraph.
+   *
+   * @return the number of edges in this RoadGraph
+   */
+  public int getNumEdges() {
+    return this.numEdges;
+  }
+
+  /**
+   * A getter function for the Node with a given graph index. Over a
+   * MapSnapshot, the Node is created the first time it is asked for, and the
+   * same Node is returned every time after.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the Node with that graph index
+   */
+  public Node getNode(int node) {
+    Node result = this.nodes.get(node);
+    if (result == null) {
+      result = new Node(this.snapshot.nodeId(node),
+          this.snapshot.latitude(node), this.snapshot.longitude(node),
+          this.database);
+      result.setGraphIndex(node);
+      // Keep whichever Node was published first, if another thread raced us
+      if (!this.nodes.compareAndSet(node, null, result)) {
+        result = this.nodes.get(node);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A getter function for the offset of the first edge leading out of a Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the offset of the first edge leading out of that Node
+   */
+  public int firstOut(int node) {
+    return this.firstOut.get(node);
+  }
+
+  /**
+   * A getter function for the offset one past the last edge leading out of a
+   * Node.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the offset one past the last edge leading out of that Node
+   */
+  public int endOut(int node) {
+    return this.firstOut.get(node + 1);
+  }
+
+  /**
+   * A getter function for the graph index of an edge's end Node.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the graph index of that edge's end Node
+   */
+  public int target(int edge) {
+    return this.edgeTarget.get(edge);
+  }
+
+  /**
+   * A getter function for the graph index of an edge's start Node.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the graph index of that edge's start Node
+   */
+  public int source(int edge) {
+    return this.edgeSource.get(edge);
+  }
+
+  /**
+   * A getter function for the position of the first edge leading into a Node,
+   * in the reverse CSR structure.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the position of the first edge leading into that Node
+   */
+  public int firstIn(int node) {
+    return this.firstIn.get(node);
+  }
+
+  /**
+   * A getter function for the position one past the last edge leading into a
+   * Node, in the reverse CSR structure.
+   *
+   * @param node an int, the graph index of a Node
+   * @return the position one past the last edge leading into that Node
+   */
+  public int endIn(int node) {
+    return this.firstIn.get(node + 1);
+  }
+
+  /**
+   * A getter function for the edge at a position in the reverse CSR
+   * structure.
+   *
+   * @param position an int, a position between firstIn and endIn of a Node
+   * @return the offset of the edge at that position
+   */
+  public int inEdge(int position) {
+    return this.inEdge.get(position);
+  }
+
+  /**
+   * A getter function for the weight of an edge.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the weight of that edge
+   */
+  public double weight(int edge) {
+    return this.edgeWeight.get(edge);
+  }
+
+  /**
+   * A getter function for the Way which an edge represents. Over a
+   * MapSnapshot, the Way is created the first time it is asked for, and the
+   * same Way is returned every time after.
+   *
+   * @param edge an int, the offset of an edge
+   * @return the Way which that edge represents
+   */
+  public Way getWay(int edge) {
+    Way result = this.edgeWay.get(edge);
+    if (result == null) {
+      result = new Way(this.snapshot.wayId(edge), getNode(source(edge)),
+          getNode(target(edge)), this.snapshot.wayName(edge),
+          this.snapshot.wayType(edge));
+      // Keep whichever Way was published first, if another thread raced us
+      if (!this.edgeWay.compareAndSet(edge, null, result)) {
+        result = this.edgeWay.get(edge);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A function which gets the Ways leading out of a Node, without touching
+   * the database.
+   *
+   * @param node an int, the graph index of a Node
+   * @return an unmodifiable List of the Ways leading out of that Node
+   */
+  public List<Way> getWaysOut(int node) {
+    List<Way> waysOut = new ArrayList<>(endOut(node) - firstOut(node));
+    for (int e = firstOut(node); e < endOut(node); e++) {
+      waysOut.add(getWay(e));
+    }
+    return Collections.unmodifiableList(waysOut);
+  }
+
+  /**
+   * A function which gets the Ways leading into a Node, without touching
+   * the database.
+   *
+   * @param node an int, the graph index of a Node
+   * @return an unmodifiable List of the Ways leading into that Node
+   */
+  public List<Way> getWaysIn(int node) {
+    List<Way> waysIn = new ArrayList<>(endIn(node) - firstIn(node));
+    for (int i = firstIn(node); i < endIn(node); i++) {
+      waysIn.add(getWay(inEdge(i)));
+    }
+    return Collections.unmodifiableList(waysIn);
+  }
+
+  /**
+   * A function which summarizes this RoadGraph's Node and Way ids, in graph
+   * order, and its weights, so that files precomputed from one RoadGraph are
+   * never used with a different database (or a different load order of the
+   * same one, or different weights). Over a MapSnapshot, this is the
+   * fingerprint recorded when it was exported.
+   *
+   * @return a long hash of this RoadGraph's structure
+   */
+  public long fingerprint() {
+    if (this.snapshot != null) {
+      return this.snapshot.getFingerprint();
+    }
+    long hash = this.numNodes;
+    for (int node = 0; node < this.numNodes; node++) {
+      hash = hash * FINGERPRINT_PRIME + getNode(node).getNodeId().hashCode();
+    }
+    for (int e = 0; e < this.numEdges; e++) {
+      hash = hash * FINGERPRINT_PRIME + getWay(e).getWayId().hashCode();
+      hash = hash * FINGERPRINT_PRIME + target(e);
+      hash = hash * FINGERPRINT_PRIME + Double.hashCode(weight(e));
+    }
+    return hash;
+  }
+}
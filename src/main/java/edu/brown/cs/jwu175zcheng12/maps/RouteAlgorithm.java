@@ -0,0 +1,50 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+/**
+ * An enum which represents the pathfinding algorithms that a route request
+ * can ask for. Every algorithm returns an optimal path; they differ only in
+ * how much of the map they search to find it.
+ */
+public enum RouteAlgorithm {
+
+  DIJKSTRA("dijkstra"),
+  A_STAR("astar"),
+  BIDIRECTIONAL("bidirectional"),
+  CONTRACTION_HIERARCHY("ch");
+
+  private final String algorithmName;
+
+  /**
+   * The constructor for this enum.
+   *
+   * @param algorithmName a String, the name used to request this algorithm
+   */
+  RouteAlgorithm(String algorithmName) {
+    this.algorithmName = algorithmName;
+  }
+
+  /**
+   * A getter function for this enum's algorithmName field.
+   *
+   * @return the name used to request this algorithm
+   */
+  public String getAlgorithmName() {
+    return this.algorithmName;
+  }
+
+  /**
+   * A function which finds the RouteAlgorithm with a given name, ignoring
+   * case.
+   *
+   * @param algorithmName a String, the name of an algorithm
+   * @return the RouteAlgorithm with that name, or null if there is none
+   */
+  public static RouteAlgorithm fromName(String algorithmName) {
+    for (RouteAlgorithm algorithm : values()) {
+      if (algorithm.algorithmName.equalsIgnoreCase(algorithmName)) {
+        return algorithm;
+      }
+    }
+    return null;
+  }
+}
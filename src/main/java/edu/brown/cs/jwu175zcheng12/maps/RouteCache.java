@@ -0,0 +1,113 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.cache.CachePolicy;
+import edu.brown.cs.jwu175zcheng12.cache.MyCache;
+
+/**
+ * A class which caches the encoded responses to route requests, keyed by
+ * the start and end Nodes' ids, the RouteAlgorithm and the WireFormat. Sizes
+ * are counted in bytes. Keys also carry the MapDatabase's map version, and
+ * the whole cache is cleared whenever that changes, so a response is never
+ * reused once a new map is loaded. A few origin/destination pairs make up
+ * most requests, so the cache uses the TINY_LFU policy to keep them through
+ * bursts of one-off routes.
+ */
+final class RouteCache {
+
+  static final int DEFAULT_MAX_SIZE = 16 << 20;
+  private static final int MAX_KEY_SIZE = 1 << 10;
+  private static final int MAX_RESPONSE_SIZE = 1 << 20;
+  private static final char SEPARATOR = '\n';
+
+  private final MyCache<String, byte[]> cache;
+  private volatile long mapVersion = Long.MIN_VALUE;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param maxSize an int, the total size of the responses (and keys) to
+   *                keep, in bytes
+   */
+  RouteCache(int maxSize) {
+    this.cache = new MyCache<>(maxSize, MAX_KEY_SIZE, MAX_RESPONSE_SIZE,
+        CachePolicy.TINY_LFU);
+  }
+
+  /**
+   * A function which gets a cached route response.
+   *
+   * @param version   a long, the map version the route would be found on
+   * @param startId   the id of the route's start Node
+   * @param endId     the id of the route's end Node
+   * @param algorithm the RouteAlgorithm the route would be found with
+   * @param format    the WireFormat the response would be encoded in
+   * @return the cached response, or null if there is none; not to be modified
+   */
+  byte[] get(long version, String startId, String endId,
+             RouteAlgorithm algorithm, WireFormat format) {
+    this.checkVersion(version);
+    return this.cache.get(key(version, startId, endId, algorithm, format));
+  }
+
+  /**
+   * A function which caches a route response. Responses too large to cache
+   * are ignored.
+   *
+   * @param version   a long, the map version the route was found on, read
+   *                  before finding it
+   * @param startId   the id of the route's start Node
+   * @param endId     the id of the route's end Node
+   * @param algorithm the RouteAlgorithm the route was found with
+   * @param format    the WireFormat the response was encoded in
+   * @param response  the encoded response
+   */
+  void put(long version, String startId, String endId,
+           RouteAlgorithm algorithm, WireFormat format, byte[] response) {
+    this.checkVersion(version);
+    String key = key(version, startId, endId, algorithm, format);
+    this.cache.addToCache(key, response, key.length(), response.length);
+  }
+
+  /**
+   * A getter function for this class' cache, for its hit and miss counts.
+   *
+   * @return the MyCache of responses
+   */
+  MyCache<String, byte[]> getCache() {
+    return this.cache;
+  }
+
+  /**
+   * A helper function which clears the cache the first time it sees a newer
+   * map version.
+   *
+   * @param version a long, a map version
+   */
+  private void checkVersion(long version) {
+    if (version <= this.mapVersion) {
+      return;
+    }
+    synchronized (this) {
+      if (version > this.mapVersion) {
+        this.cache.clearCache();
+        this.mapVersion = version;
+      }
+    }
+  }
+
+  /**
+   * A helper function which makes the cache key for a route.
+   *
+   * @param version   a long, the map version
+   * @param startId   the id of the route's start Node
+   * @param endId     the id of the route's end Node
+   * @param algorithm the RouteAlgorithm
+   * @param format    the WireFormat
+   * @return the key
+   */
+  private static String key(long version, String startId, String endId,
+                            RouteAlgorithm algorithm, WireFormat format) {
+    return Long.toString(version) + SEPARATOR + startId + SEPARATOR + endId
+        + SEPARATOR + algorithm.name() + SEPARATOR + format.name();
+  }
+}
@@ -0,0 +1,398 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.Heuristic;
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class which finds shortest paths between the Nodes of one MapDatabase,
+ * working entirely on dense graph indices and primitive arrays.
+ * <p>
+ * Each thread gets its own pair of SearchScratches (forward and backward),
+ * which are reset in O(1) between searches, so a search allocates nothing but
+ * the List it returns. If the MapDatabase has a RoadGraph, edges are read
+ * straight from it; otherwise each Node's ways out (or in) are fetched (and
+ * cached) through Node.getWaysOut (or Node.getWaysIn).
+ */
+public final class RouteEngine {
+
+  private final Node[] nodes;
+  private final RoadGraph graph;
+  private final int numNodes;
+  private final ThreadLocal<SearchScratch> forwardScratch;
+  private final ThreadLocal<SearchScratch> backwardScratch;
+
+  // ----------------------------- Constructors ----------------------------
+
+  /**
+   * The constructor for this class.
+   *
+   * @param nodes an array of Nodes, where nodes[i] has graph index i, or
+   *              null to get every Node from the RoadGraph
+   * @param graph the RoadGraph over those Nodes, or null if edges should be
+   *              fetched through Node.getWaysOut instead
+   */
+  RouteEngine(Node[] nodes, RoadGraph graph) {
+    this.nodes = nodes;
+    this.graph = graph;
+    this.numNodes = nodes != null ? nodes.length : graph.getNumNodes();
+    this.forwardScratch = ThreadLocal.withInitial(
+        () -> new SearchScratch(this.numNodes));
+    this.backwardScratch = ThreadLocal.withInitial(
+        () -> new SearchScratch(this.numNodes));
+  }
+
+  // ----------------------------- Pathfinding -----------------------------
+
+  /**
+   * A function which checks whether a Node belongs to this RouteEngine's
+   * graph, i.e. whether it can be passed to shortestPath.
+   *
+   * @param node a Node
+   * @return true if the Node was indexed by this RouteEngine's MapDatabase
+   */
+  public boolean owns(Node node) {
+    int index = node.getGraphIndex();
+    return index >= 0 && index < this.numNodes && node(index) == node;
+  }
+
+  /**
+   * A function which uses Dijkstra's algorithm to find the optimal path,
+   * represented as an ordered list of Ways, from one Node to another. Both
+   * Nodes must be owned by this RouteEngine.
+   *
+   * @param startNode  the starting Node
+   * @param targetNode the target Node
+   * @return a List of Ways which represents the optimal path from startNode
+   * to targetNode. The List will be empty if they are the same Node. Null
+   * will be returned if targetNode cannot be reached from startNode.
+   */
+  public List<Way> shortestPath(Node startNode, Node targetNode) {
+    return shortestPath(startNode, targetNode, null);
+  }
+
+  /**
+   * A function which uses an A* algorithm with the given heuristic to find
+   * the optimal path, represented as an ordered list of Ways, from one Node
+   * to another. Both Nodes must be owned by this RouteEngine.
+   *
+   * @param startNode  the starting Node
+   * @param targetNode the target Node
+   * @param heuristic  a consistent Heuristic over this RouteEngine's Nodes,
+   *                   or null for Dijkstra's algorithm
+   * @return a List of Ways which represents the optimal path from startNode
+   * to targetNode. The List will be empty if they are the same Node. Null
+   * will be returned if targetNode cannot be reached from startNode.
+   */
+  public List<Way> shortestPath(Node startNode, Node targetNode,
+                                Heuristic<Node> heuristic) {
+    int source = startNode.getGraphIndex();
+    int target = targetNode.getGraphIndex();
+
+    // Handle base case
+    if (source == target) {
+      return new ArrayList<>(0);
+    }
+
+    // Prepare this thread's scratch space (the backward one is only reset so
+    // that lastSearchSettled counts this search alone)
+    SearchScratch search = this.forwardScratch.get();
+    search.reset();
+    this.backwardScratch.get().reset();
+    IndexedMinHeap heap = search.heap();
+
+    // Add starting Node
+    search.relax(source, 0, null);
+    heap.insertOrDecrease(source, 0);
+    // Settle Nodes in order of distance until the target is settled
+    while (!heap.isEmpty()) {
+      int curr = heap.poll();
+      if (curr == target) {
+        break;
+      }
+      search.settle(curr);
+      relaxEdges(search, null, curr, true, heuristic, targetNode);
+    }
+
+    // Return null if no path exists
+    if (!search.isReached(target)) {
+      return null;
+    }
+    return unpackPath(search, target);
+  }
+
+  /**
+   * A function which uses a bidirectional Dijkstra search to find the optimal
+   * path, represented as an ordered list of Ways, from one Node to another.
+   * One search grows forward from startNode over ways out, the other
+   * backward from targetNode over ways in; the side with the smaller frontier
+   * is expanded next. The search stops once the two frontiers' smallest
+   * distances add up to at least the best meeting found, since no path
+   * through an unsettled Node can then be shorter. Both Nodes must be owned
+   * by this RouteEngine.
+   *
+   * @param startNode  the starting Node
+   * @param targetNode the target Node
+   * @return a List of Ways which represents the optimal path from startNode
+   * to targetNode. The List will be empty if they are the same Node. Null
+   * will be returned if targetNode cannot be reached from startNode.
+   */
+  public List<Way> bidirectionalPath(Node startNode, Node targetNode) {
+    int source = startNode.getGraphIndex();
+    int target = targetNode.getGraphIndex();
+
+    // Handle base case
+    if (source == target) {
+      return new ArrayList<>(0);
+    }
+
+    // Prepare this thread's scratch space
+    SearchScratch forward = this.forwardScratch.get();
+    SearchScratch backward = this.backwardScratch.get();
+    forward.reset();
+    backward.reset();
+    IndexedMinHeap forwardHeap = forward.heap();
+    IndexedMinHeap backwardHeap = backward.heap();
+
+    // Add starting and target Nodes
+    forward.relax(source, 0, null);
+    forwardHeap.insertOrDecrease(source, 0);
+    backward.relax(target, 0, null);
+    backwardHeap.insertOrDecrease(target, 0);
+    // Expand the smaller frontier until no better meeting is possible
+    double bestDist = Double.POSITIVE_INFINITY;
+    int meeting = -1;
+    while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()
+        && forwardHeap.peekKey() + backwardHeap.peekKey() < bestDist) {
+      boolean isForward = forwardHeap.size() <= backwardHeap.size();
+      SearchScratch search = isForward ? forward : backward;
+      SearchScratch other = isForward ? backward : forward;
+      int curr = search.heap().poll();
+      search.settle(curr);
+      int candidate = relaxEdges(search, other, curr, isForward, null, null);
+      if (candidate >= 0) {
+        double candidateDist =
+            forward.dist(candidate) + backward.dist(candidate);
+        if (candidateDist < bestDist) {
+          bestDist = candidateDist;
+          meeting = candidate;
+        }
+      }
+    }
+
+    // Return null if the searches never met
+    if (meeting < 0) {
+      return null;
+    }
+    // Join the forward half with the backward half
+    List<Way> results = unpackPath(forward, meeting);
+    for (Way way = lastWay(backward, meeting); way != null;
+         way = lastWay(backward, way.getEnd().getGraphIndex())) {
+      results.add(way);
+    }
+    return results;
+  }
+
+  /**
+   * A function which uses Dijkstra's algorithm to find the distances from
+   * one Node to each of several others, stopping once every target is
+   * settled or the search has gone past a maximum distance. All the Nodes
+   * must be owned by this RouteEngine.
+   *
+   * @param startNode   the starting Node
+   * @param targetNodes an array of target Nodes
+   * @param maxDist     a double, the distance past which to give up
+   * @return a double array, the distance to each target Node, or positive
+   * infinity for those which are unreachable or farther than maxDist
+   */
+  public double[] distances(Node startNode, Node[] targetNodes,
+                            double maxDist) {
+    int source = startNode.getGraphIndex();
+    int[] targets = new int[targetNodes.length];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = targetNodes[i].getGraphIndex();
+    }
+
+    // Prepare this thread's scratch space
+    SearchScratch search = this.forwardScratch.get();
+    search.reset();
+    this.backwardScratch.get().reset();
+    IndexedMinHeap heap = search.heap();
+
+    // Add starting Node
+    search.relax(source, 0, null);
+    heap.insertOrDecrease(source, 0);
+    // Settle Nodes in order of distance until every target is settled
+    int remaining = targets.length;
+    while (!heap.isEmpty() && remaining > 0 && heap.peekKey() <= maxDist) {
+      int curr = heap.poll();
+      search.settle(curr);
+      for (int target : targets) {
+        if (target == curr) {
+          remaining--;
+        }
+      }
+      relaxEdges(search, null, curr, true, null, null);
+    }
+
+    double[] results = new double[targets.length];
+    for (int i = 0; i < targets.length; i++) {
+      results[i] = search.isSettled(targets[i])
+          ? search.dist(targets[i]) : Double.POSITIVE_INFINITY;
+    }
+    return results;
+  }
+
+  /**
+   * A function which gets the number of Nodes settled by the last search
+   * run on this thread, in both directions.
+   *
+   * @return the number of Nodes settled by the last search on this thread
+   */
+  int lastSearchSettled() {
+    return this.forwardScratch.get().numSettled()
+        + this.backwardScratch.get().numSettled();
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which relaxes every Way leading out of (or, for a
+   * backward search, into) a Node. If another search is given, this also
+   * looks for the relaxed Node which that search has reached with the
+   * shortest combined distance. If a heuristic is given, Nodes are queued by
+   * distance plus their estimated distance to the target.
+   *
+   * @param search     the SearchScratch of the current search
+   * @param other      the SearchScratch of the opposite search, or null
+   * @param curr       an int, the graph index of the Node just settled
+   * @param isForward  a boolean, true to follow ways out, false for ways in
+   * @param heuristic  a Heuristic to queue Nodes with, or null
+   * @param targetNode the target Node of the heuristic, or null
+   * @return the graph index of the best meeting Node among those relaxed, or
+   * -1 if the other search has reached none of them
+   */
+  private int relaxEdges(SearchScratch search, SearchScratch other, int curr,
+                         boolean isForward, Heuristic<Node> heuristic,
+                         Node targetNode) {
+    double currDist = search.dist(curr);
+    int meeting = -1;
+    double meetingDist = Double.POSITIVE_INFINITY;
+    if (this.graph != null) {
+      int first =
+          isForward ? this.graph.firstOut(curr) : this.graph.firstIn(curr);
+      int end =
+          isForward ? this.graph.endOut(curr) : this.graph.endIn(curr);
+      for (int i = first; i < end; i++) {
+        int e = isForward ? i : this.graph.inEdge(i);
+        int next = isForward ? this.graph.target(e) : this.graph.source(e);
+        // Record the edge rather than its Way, which may not exist yet
+        relax(search, next, currDist + this.graph.weight(e), null, e,
+            heuristic, targetNode);
+        if (other != null && other.isReached(next)
+            && search.dist(next) + other.dist(next) < meetingDist) {
+          meetingDist = search.dist(next) + other.dist(next);
+          meeting = next;
+        }
+      }
+    } else {
+      Collection<Way> ways = isForward
+          ? node(curr).getWaysOut() : node(curr).getWaysIn();
+      if (ways == null) {
+        return -1;
+      }
+      for (Way way : ways) {
+        int next = (isForward ? way.getEnd() : way.getStart()).getGraphIndex();
+        relax(search, next, currDist + way.getWeight(), way, -1, heuristic,
+            targetNode);
+        if (other != null && other.isReached(next)
+            && search.dist(next) + other.dist(next) < meetingDist) {
+          meetingDist = search.dist(next) + other.dist(next);
+          meeting = next;
+        }
+      }
+    }
+    return meeting;
+  }
+
+  /**
+   * A helper function which offers an unsettled Node a new tentative
+   * distance, and queues it if the distance was kept.
+   *
+   * @param search     the SearchScratch of the current search
+   * @param next       an int, the graph index of the Node at the Way's far
+   *                   end
+   * @param nextDist   a double, the distance to that Node through the Way
+   * @param way        the Way which was followed, or null if edge is given
+   * @param edge       an int, the RoadGraph edge which was followed, or -1
+   * @param heuristic  a Heuristic to queue the Node with, or null
+   * @param targetNode the target Node of the heuristic, or null
+   */
+  private void relax(SearchScratch search, int next, double nextDist, Way way,
+                     int edge, Heuristic<Node> heuristic, Node targetNode) {
+    if (!search.isSettled(next) && search.relax(next, nextDist, way, edge)) {
+      double key = nextDist;
+      if (heuristic instanceof LandmarkTable) {
+        // Estimate by graph index, so no Node has to be looked up
+        key += ((LandmarkTable) heuristic)
+            .estimate(next, targetNode.getGraphIndex());
+      } else if (heuristic != null) {
+        key += heuristic.estimate(node(next), targetNode);
+      }
+      search.heap().insertOrDecrease(next, key);
+    }
+  }
+
+  /**
+   * A helper function which gets the Node with a given graph index.
+   *
+   * @param index an int, the graph index of a Node
+   * @return the Node with that graph index
+   */
+  private Node node(int index) {
+    return this.nodes != null ? this.nodes[index] : this.graph.getNode(index);
+  }
+
+  /**
+   * A helper function which gets the Way a search last reached a Node by,
+   * whether it recorded the Way itself or its RoadGraph edge.
+   *
+   * @param search the SearchScratch of the finished search
+   * @param node   an int, the graph index of a reached Node
+   * @return the Way which reached that Node, or null if it was a source
+   */
+  private Way lastWay(SearchScratch search, int node) {
+    Way way = search.lastWay(node);
+    if (way == null && search.lastEdge(node) >= 0) {
+      way = this.graph.getWay(search.lastEdge(node));
+    }
+    return way;
+  }
+
+  /**
+   * A helper function which walks the lastWay links back from a reached
+   * Node, and returns the Ways in path order.
+   *
+   * @param search the SearchScratch of the finished search
+   * @param target an int, the graph index of the reached target Node
+   * @return a List of Ways, from the search's source to the target
+   */
+  private List<Way> unpackPath(SearchScratch search, int target) {
+    int length = 0;
+    for (Way way = lastWay(search, target); way != null;
+         way = lastWay(search, way.getStart().getGraphIndex())) {
+      length++;
+    }
+    List<Way> results = new ArrayList<>(length);
+    for (Way way = lastWay(search, target); way != null;
+         way = lastWay(search, way.getStart().getGraphIndex())) {
+      results.add(way);
+    }
+    Collections.reverse(results);
+    return results;
+  }
+}
@@ -0,0 +1,170 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+
+import java.util.Arrays;
+
+/**
+ * A class which holds the per-Node bookkeeping of one shortest-path search,
+ * in primitive arrays indexed by graph index.
+ * <p>
+ * Instead of clearing every array between searches, each entry is stamped
+ * with the generation of the search which last wrote it; bumping the
+ * generation invalidates every entry at once. One SearchScratch is meant to
+ * be reused, by one thread at a time, for many searches.
+ */
+final class SearchScratch {
+
+  private final int[] reachedStamp;
+  private final int[] settledStamp;
+  private final double[] dist;
+  private final Way[] lastWay;
+  private final int[] lastEdge;
+  private final IndexedMinHeap heap;
+  private int generation = 0;
+  private int numSettled = 0;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param numNodes an int, the number of Nodes in the graph to be searched
+   */
+  SearchScratch(int numNodes) {
+    this.reachedStamp = new int[numNodes];
+    this.settledStamp = new int[numNodes];
+    this.dist = new double[numNodes];
+    this.lastWay = new Way[numNodes];
+    this.lastEdge = new int[numNodes];
+    this.heap = new IndexedMinHeap(numNodes);
+  }
+
+  /**
+   * A function which forgets everything about the previous search.
+   */
+  void reset() {
+    this.heap.clear();
+    this.generation++;
+    this.numSettled = 0;
+    // On wrap-around, old stamps could collide with new ones
+    if (this.generation == Integer.MAX_VALUE) {
+      Arrays.fill(this.reachedStamp, 0);
+      Arrays.fill(this.settledStamp, 0);
+      this.generation = 1;
+    }
+  }
+
+  /**
+   * A getter function for the heap of this search.
+   *
+   * @return the IndexedMinHeap of this search
+   */
+  IndexedMinHeap heap() {
+    return this.heap;
+  }
+
+  /**
+   * A function which checks whether a Node has been reached in this search.
+   *
+   * @param node an int, the graph index of a Node
+   * @return true if the Node has a tentative distance, false otherwise
+   */
+  boolean isReached(int node) {
+    return this.reachedStamp[node] == this.generation;
+  }
+
+  /**
+   * A function which checks whether a Node has been settled in this search.
+   *
+   * @param node an int, the graph index of a Node
+   * @return true if the Node's distance is final, false otherwise
+   */
+  boolean isSettled(int node) {
+    return this.settledStamp[node] == this.generation;
+  }
+
+  /**
+   * A function which marks a Node as settled in this search.
+   *
+   * @param node an int, the graph index of a Node
+   */
+  void settle(int node) {
+    this.settledStamp[node] = this.generation;
+    this.numSettled++;
+  }
+
+  /**
+   * A getter function for the number of Nodes settled in this search.
+   *
+   * @return the number of Nodes settled since the last reset
+   */
+  int numSettled() {
+    return this.numSettled;
+  }
+
+  /**
+   * A getter function for a reached Node's tentative distance.
+   *
+   * @param node an int, the graph index of a reached Node
+   * @return the tentative distance to that Node
+   */
+  double dist(int node) {
+    return this.dist[node];
+  }
+
+  /**
+   * A getter function for the last Way on a reached Node's tentative path.
+   *
+   * @param node an int, the graph index of a reached Node
+   * @return the last Way on the path to that Node, or null for the source
+   */
+  Way lastWay(int node) {
+    return this.lastWay[node];
+  }
+
+  /**
+   * A getter function for the id of the last edge on a reached Node's
+   * tentative path, for searches over graphs whose edges are not all Ways.
+   *
+   * @param node an int, the graph index of a reached Node
+   * @return the id of the last edge on the path to that Node, or -1 for the
+   * source
+   */
+  int lastEdge(int node) {
+    return this.lastEdge[node];
+  }
+
+  /**
+   * A function which offers a Node a new tentative distance, keeping it only
+   * if the Node is unreached or the new distance is strictly shorter.
+   *
+   * @param node    an int, the graph index of a Node
+   * @param newDist a double, the new tentative distance
+   * @param way     the last Way on the new path, or null for the source
+   * @return true if the new distance was kept, false otherwise
+   */
+  boolean relax(int node, double newDist, Way way) {
+    return relax(node, newDist, way, -1);
+  }
+
+  /**
+   * A function which offers a Node a new tentative distance, keeping it only
+   * if the Node is unreached or the new distance is strictly shorter.
+   *
+   * @param node    an int, the graph index of a Node
+   * @param newDist a double, the new tentative distance
+   * @param way     the last Way on the new path, or null
+   * @param edge    an int, the id of the last edge on the new path, or -1
+   * @return true if the new distance was kept, false otherwise
+   */
+  boolean relax(int node, double newDist, Way way, int edge) {
+    if (this.reachedStamp[node] == this.generation
+        && this.dist[node] <= newDist) {
+      return false;
+    }
+    this.reachedStamp[node] = this.generation;
+    this.dist[node] = newDist;
+    this.lastWay[node] = way;
+    this.lastEdge[node] = edge;
+    return true;
+  }
+}
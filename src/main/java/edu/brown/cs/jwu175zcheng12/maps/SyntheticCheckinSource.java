@@ -0,0 +1,92 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A class which generates synthetic checkins at a steady rate, for load
+ * testing without a checkin server. Each checkin is by one of a fixed set
+ * of users, who each wander randomly around a box of the map.
+ */
+final class SyntheticCheckinSource implements CheckinSource {
+
+  static final int DEFAULT_USERS = 1000;
+  static final double DEFAULT_LAT = 41.82;
+  static final double DEFAULT_LON = -71.4;
+  static final double DEFAULT_RADIUS = 0.05;
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double MS_PER_SECOND = 1e3;
+  private static final double STEP = 1e-4;
+
+  private final double rate;
+  private final double centerLat;
+  private final double centerLon;
+  private final double radius;
+  private final double[] lats;
+  private final double[] lons;
+  private final Random random;
+  private long startNanos;
+  private boolean started = false;
+  private long generated = 0;
+
+  /**
+   * The constructor for this class.
+   *
+   * @param rate      a double, how many checkins to generate per second
+   * @param numUsers  an int, how many users there are
+   * @param centerLat a double, the latitude of the center of the box
+   * @param centerLon a double, the longitude of the center of the box
+   * @param radius    a double, half the box's width and height, in degrees
+   * @param seed      a long, the seed of the random positions
+   */
+  SyntheticCheckinSource(double rate, int numUsers, double centerLat,
+                         double centerLon, double radius, long seed) {
+    if (!(rate > 0) || numUsers <= 0) {
+      throw new IllegalArgumentException(
+          "Rate and number of users must be positive.");
+    }
+    this.rate = rate;
+    this.centerLat = centerLat;
+    this.centerLon = centerLon;
+    this.radius = radius;
+    this.lats = new double[numUsers];
+    this.lons = new double[numUsers];
+    this.random = new Random(seed);
+    for (int i = 0; i < numUsers; i++) {
+      this.lats[i] = centerLat + (2 * this.random.nextDouble() - 1) * radius;
+      this.lons[i] = centerLon + (2 * this.random.nextDouble() - 1) * radius;
+    }
+  }
+
+  @Override
+  public void poll(List<UserCheckin> out) {
+    long now = System.nanoTime();
+    if (!this.started) {
+      this.started = true;
+      this.startNanos = now;
+    }
+    long due = (long) ((now - this.startNanos) / NANOS_PER_SECOND * this.rate);
+    double timestamp = System.currentTimeMillis() / MS_PER_SECOND;
+    for (; this.generated < due; this.generated++) {
+      int user = this.random.nextInt(this.lats.length);
+      this.lats[user] = this.wander(this.lats[user], this.centerLat);
+      this.lons[user] = this.wander(this.lons[user], this.centerLon);
+      out.add(new UserCheckin(user + 1, "user" + (user + 1), timestamp,
+          this.lats[user], this.lons[user]));
+    }
+  }
+
+  /**
+   * A helper function which moves a coordinate a random step, keeping it in
+   * the box.
+   *
+   * @param value  a double, a latitude or longitude
+   * @param center a double, the box's center latitude or longitude
+   * @return the moved coordinate
+   */
+  private double wander(double value, double center) {
+    double moved = value + (2 * this.random.nextDouble() - 1) * STEP;
+    return Math.max(center - this.radius,
+        Math.min(center + this.radius, moved));
+  }
+}
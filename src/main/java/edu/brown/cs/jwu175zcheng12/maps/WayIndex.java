@@ -0,0 +1,364 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which indexes the ends of every way in a database, traversable or
+ * otherwise, by the 0.01 degree cell they lie in (see MapTiles), so that
+ * bounding box queries never touch the database.
+ * <p>
+ * Ways are numbered in order of their ids, and the ends of way i are
+ * numbered 2i (its start) and 2i + 1 (its end). The ends are grouped by
+ * cell, and the cells are sorted by row, then column, so that a box query
+ * reads one run of cells per row of the box. The index is immutable once
+ * loaded, and safe to query from several threads at once.
+ */
+final class WayIndex {
+
+  // The farthest from the origin a coordinate is placed; beyond this, cell
+  // indices would overflow
+  private static final double MAX_DEGREES = 1e7;
+  private static final int INITIAL_CAPACITY = 16;
+  // Columns of the load query, which CheckStyle would call magic numbers
+  private static final int START_LAT = 6;
+  private static final int START_LON = 7;
+  private static final int END_LAT = 8;
+  private static final int END_LON = 9;
+
+  private final String[] ids;
+  private final String[] names;
+  private final String[] types;
+  private final String[] nodeIds;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final long[] cells;
+  private final int[] firstEnd;
+  private final int[] cellEnds;
+
+  /**
+   * The constructor for this class, which groups the ends by cell.
+   *
+   * @param ids        the ways' ids, sorted
+   * @param names      the ways' names
+   * @param types      the ways' types
+   * @param nodeIds    the ends' nodeIds
+   * @param latitudes  the ends' latitudes
+   * @param longitudes the ends' longitudes
+   */
+  private WayIndex(String[] ids, String[] names, String[] types,
+                   String[] nodeIds, double[] latitudes, double[] longitudes) {
+    this.ids = ids;
+    this.names = names;
+    this.types = types;
+    this.nodeIds = nodeIds;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+
+    // Find the distinct cells, then counting-sort the ends into them
+    int numEnds = latitudes.length;
+    long[] endCells = new long[numEnds];
+    for (int i = 0; i < numEnds; i++) {
+      endCells[i] = cellOf(latitudes[i], longitudes[i]);
+    }
+    long[] sortedCells = endCells.clone();
+    Arrays.sort(sortedCells);
+    int numCells = 0;
+    for (int i = 0; i < numEnds; i++) {
+      if (i == 0 || sortedCells[i] != sortedCells[i - 1]) {
+        sortedCells[numCells++] = sortedCells[i];
+      }
+    }
+    this.cells = Arrays.copyOf(sortedCells, numCells);
+    int[] endCell = new int[numEnds];
+    this.firstEnd = new int[numCells + 1];
+    for (int i = 0; i < numEnds; i++) {
+      endCell[i] = Arrays.binarySearch(this.cells, endCells[i]);
+      this.firstEnd[endCell[i] + 1]++;
+    }
+    for (int i = 0; i < numCells; i++) {
+      this.firstEnd[i + 1] += this.firstEnd[i];
+    }
+    int[] nextSlot = Arrays.copyOf(this.firstEnd, numCells);
+    this.cellEnds = new int[numEnds];
+    for (int i = 0; i < numEnds; i++) {
+      this.cellEnds[nextSlot[endCell[i]]++] = i;
+    }
+  }
+
+  /**
+   * A function which builds a WayIndex by streaming every way, along with
+   * the coordinates of its ends, out of the database in one query. Ways whose
+   * ends are missing from the node table are left out, as in a join.
+   *
+   * @param conn a Connection to the database
+   * @return a WayIndex of every way in the database
+   * @throws SQLException whenever one of the SQL commands sent by Java is
+   *                      malformed
+   */
+  static WayIndex load(Connection conn) throws SQLException {
+    List<String> ids = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<String> types = new ArrayList<>();
+    List<String> nodeIds = new ArrayList<>();
+    double[] latitudes = new double[INITIAL_CAPACITY];
+    double[] longitudes = new double[INITIAL_CAPACITY];
+    // Names and types repeat a lot, so share their Strings
+    Map<String, String> shared = new HashMap<>();
+    // Use Try-with-resources
+    try (PreparedStatement prep = conn.prepareStatement(
+        "SELECT way.id, way.name, way.type, way.start, way.end, "
+            + "s.latitude, s.longitude, e.latitude, e.longitude FROM way "
+            + "INNER JOIN node s ON way.start == s.id "
+            + "INNER JOIN node e ON way.end == e.id "
+            + "ORDER BY way.id;")) {
+      // Nested Try-with-resources necessary
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          int end = nodeIds.size();
+          if (end + 2 > latitudes.length) {
+            latitudes = Arrays.copyOf(latitudes, latitudes.length * 2);
+            longitudes = Arrays.copyOf(longitudes, longitudes.length * 2);
+          }
+          ids.add(rs.getString(1));
+          names.add(shared.computeIfAbsent(rs.getString(2), k -> k));
+          types.add(shared.computeIfAbsent(rs.getString(3), k -> k));
+          nodeIds.add(rs.getString(4));
+          nodeIds.add(rs.getString(5));
+          latitudes[end] = rs.getDouble(START_LAT);
+          longitudes[end] = rs.getDouble(START_LON);
+          latitudes[end + 1] = rs.getDouble(END_LAT);
+          longitudes[end + 1] = rs.getDouble(END_LON);
+        }
+      }
+    } catch (SQLException e) {
+      printError("SQL Exception when indexing ways: " + e.getMessage());
+      throw e;
+    }
+    int numEnds = nodeIds.size();
+    return new WayIndex(ids.toArray(new String[0]),
+        names.toArray(new String[0]), types.toArray(new String[0]),
+        nodeIds.toArray(new String[0]), Arrays.copyOf(latitudes, numEnds),
+        Arrays.copyOf(longitudes, numEnds));
+  }
+
+  // ------------------------------- Queries -------------------------------
+
+  /**
+   * A function which finds the way ends which lie inside a bounding box
+   * (inclusive), with northwest point (lat1, lon1) and southeast point
+   * (lat2, lon2).
+   *
+   * @param lat1 the latitude of the northwest point of the bounding box
+   * @param lon1 the longitude of the northwest point of the bounding box
+   * @param lat2 the latitude of the southeast point of the bounding box
+   * @param lon2 the longitude of the southeast point of the bounding box
+   * @return an array of the ends inside the box, in no particular order
+   */
+  int[] findEnds(double lat1, double lon1, double lat2, double lon2) {
+    if (!(lat1 >= lat2 && lon1 <= lon2)) {
+      return new int[0];
+    }
+    int[] found = new int[INITIAL_CAPACITY];
+    int numFound = 0;
+    int lastRow = cellRow(lat1);
+    int firstColumn = cellColumn(lon1);
+    int lastColumn = cellColumn(lon2);
+    int cell = lowerBound(key(cellRow(lat2), firstColumn));
+    while (cell < this.cells.length) {
+      int row = (int) (this.cells[cell] >> Integer.SIZE);
+      int column = (int) this.cells[cell] + Integer.MIN_VALUE;
+      if (row > lastRow) {
+        break;
+      }
+      // Skip to the part of this row, or the next row, inside the box
+      if (column < firstColumn) {
+        cell = lowerBound(key(row, firstColumn));
+        continue;
+      }
+      if (column > lastColumn) {
+        cell = lowerBound(key(row + 1, firstColumn));
+        continue;
+      }
+      for (int i = this.firstEnd[cell]; i < this.firstEnd[cell + 1]; i++) {
+        int end = this.cellEnds[i];
+        double lat = this.latitudes[end];
+        double lon = this.longitudes[end];
+        if (lat <= lat1 && lat >= lat2 && lon >= lon1 && lon <= lon2) {
+          if (numFound == found.length) {
+            found = Arrays.copyOf(found, numFound * 2);
+          }
+          found[numFound++] = end;
+        }
+      }
+      cell++;
+    }
+    return Arrays.copyOf(found, numFound);
+  }
+
+  /**
+   * A function which finds the ways with at least one end inside a bounding
+   * box (inclusive), with northwest point (lat1, lon1) and southeast point
+   * (lat2, lon2).
+   *
+   * @param lat1 the latitude of the northwest point of the bounding box
+   * @param lon1 the longitude of the northwest point of the bounding box
+   * @param lat2 the latitude of the southeast point of the bounding box
+   * @param lon2 the longitude of the southeast point of the bounding box
+   * @return a sorted array of the distinct ways inside the box, which is
+   * also the order of their ids
+   */
+  int[] findWays(double lat1, double lon1, double lat2, double lon2) {
+    int[] ends = this.findEnds(lat1, lon1, lat2, lon2);
+    for (int i = 0; i < ends.length; i++) {
+      ends[i] >>= 1;
+    }
+    Arrays.sort(ends);
+    int numWays = 0;
+    for (int i = 0; i < ends.length; i++) {
+      if (i == 0 || ends[i] != ends[i - 1]) {
+        ends[numWays++] = ends[i];
+      }
+    }
+    return Arrays.copyOf(ends, numWays);
+  }
+
+  // ------------------------------- Getters -------------------------------
+
+  /**
+   * A getter function for the number of ways in this WayIndex.
+   *
+   * @return the number of ways
+   */
+  int size() {
+    return this.ids.length;
+  }
+
+  /**
+   * A getter function for the id of a way.
+   *
+   * @param way an int, a way
+   * @return the way's id
+   */
+  String getId(int way) {
+    return this.ids[way];
+  }
+
+  /**
+   * A getter function for the name of a way.
+   *
+   * @param way an int, a way
+   * @return the way's name
+   */
+  String getName(int way) {
+    return this.names[way];
+  }
+
+  /**
+   * A getter function for the type of a way.
+   *
+   * @param way an int, a way
+   * @return the way's type
+   */
+  String getType(int way) {
+    return this.types[way];
+  }
+
+  /**
+   * A getter function for the nodeId of a way end.
+   *
+   * @param end an int, a way end
+   * @return the nodeId of the end's node
+   */
+  String getNodeId(int end) {
+    return this.nodeIds[end];
+  }
+
+  /**
+   * A getter function for the latitude of a way end.
+   *
+   * @param end an int, a way end
+   * @return the end's latitude
+   */
+  double getLatitude(int end) {
+    return this.latitudes[end];
+  }
+
+  /**
+   * A getter function for the longitude of a way end.
+   *
+   * @param end an int, a way end
+   * @return the end's longitude
+   */
+  double getLongitude(int end) {
+    return this.longitudes[end];
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which finds the first cell at or after a key.
+   *
+   * @param key a long, a cell key
+   * @return the index of the first cell whose key is at least key
+   */
+  private int lowerBound(long key) {
+    int index = Arrays.binarySearch(this.cells, key);
+    return index < 0 ? -index - 1 : index;
+  }
+
+  /**
+   * A helper function which finds the key of the cell a point lies in.
+   *
+   * @param lat a double, a latitude
+   * @param lon a double, a longitude
+   * @return the cell's key
+   */
+  private static long cellOf(double lat, double lon) {
+    return key(cellRow(lat), cellColumn(lon));
+  }
+
+  /**
+   * A helper function which finds the row of the cell a latitude lies in,
+   * clamped so that it fits in an int.
+   *
+   * @param lat a double, a latitude
+   * @return the cell's row
+   */
+  private static int cellRow(double lat) {
+    return MapTiles.cellRow(Math.max(-MAX_DEGREES, Math.min(MAX_DEGREES, lat)));
+  }
+
+  /**
+   * A helper function which finds the column of the cell a longitude lies
+   * in, clamped so that it fits in an int.
+   *
+   * @param lon a double, a longitude
+   * @return the cell's column
+   */
+  private static int cellColumn(double lon) {
+    return MapTiles.cellColumn(
+        Math.max(-MAX_DEGREES, Math.min(MAX_DEGREES, lon)));
+  }
+
+  /**
+   * A helper function which packs a cell's row and column into a key, so
+   * that keys sort by row, then column.
+   *
+   * @param row    an int, a cell row
+   * @param column an int, a cell column
+   * @return the cell's key
+   */
+  private static long key(int row, int column) {
+    return ((long) row << Integer.SIZE) | ((long) column - Integer.MIN_VALUE);
+  }
+}
@@ -0,0 +1,101 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.IOException;
+
+/**
+ * An interface for the ways of encoding a response to the GUI which holds
+ * ways, and either the cells they lie in or a route over them. A response is
+ * written in order: begin, an optional error, the ways, then the cells or the
+ * route, then end. Cells and routes refer to ways by their position in the
+ * order they were written.
+ */
+interface WaysEncoder {
+
+  /**
+   * A function which starts the response.
+   *
+   * @throws IOException if the response cannot be written
+   */
+  void begin() throws IOException;
+
+  /**
+   * A function which writes an error message for the GUI to show.
+   *
+   * @param message the error message
+   * @throws IOException if the response cannot be written
+   */
+  void writeError(String message) throws IOException;
+
+  /**
+   * A function which starts the ways of the response.
+   *
+   * @param numWays an int, how many ways will be written
+   * @throws IOException if the response cannot be written
+   */
+  void beginWays(int numWays) throws IOException;
+
+  /**
+   * A function which writes one way.
+   *
+   * @param id       the way's id
+   * @param startLat a double, the latitude of the way's start
+   * @param startLon a double, the longitude of the way's start
+   * @param endLat   a double, the latitude of the way's end
+   * @param endLon   a double, the longitude of the way's end
+   * @param type     the way's type
+   * @param name     the way's name
+   * @throws IOException if the response cannot be written
+   */
+  void writeWay(String id, double startLat, double startLon,
+                double endLat, double endLon, String type, String name)
+      throws IOException;
+
+  /**
+   * A function which ends the ways of the response.
+   *
+   * @throws IOException if the response cannot be written
+   */
+  void endWays() throws IOException;
+
+  /**
+   * A function which starts the cells of the response. Every cell must then
+   * be written, row by row.
+   *
+   * @param rowKeys    the keys (latitudes) of the rows of cells
+   * @param columnKeys the keys (longitudes) of the columns of cells
+   * @throws IOException if the response cannot be written
+   */
+  void beginCells(String[] rowKeys, String[] columnKeys) throws IOException;
+
+  /**
+   * A function which writes the ways in the next cell.
+   *
+   * @param positions the positions of the ways in the cell
+   * @param count     an int, how many of positions are in the cell
+   * @throws IOException if the response cannot be written
+   */
+  void writeCell(int[] positions, int count) throws IOException;
+
+  /**
+   * A function which ends the cells of the response.
+   *
+   * @throws IOException if the response cannot be written
+   */
+  void endCells() throws IOException;
+
+  /**
+   * A function which writes a route.
+   *
+   * @param positions the positions of the ways along the route
+   * @param count     an int, how many of positions are in the route
+   * @throws IOException if the response cannot be written
+   */
+  void writeRoute(int[] positions, int count) throws IOException;
+
+  /**
+   * A function which ends and flushes the response.
+   *
+   * @throws IOException if the response cannot be written
+   */
+  void end() throws IOException;
+}
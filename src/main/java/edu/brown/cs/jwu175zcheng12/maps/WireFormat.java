@@ -0,0 +1,68 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import java.io.OutputStream;
+
+/**
+ * An enum of the formats the GUI's ways-and-cells, tile and route responses
+ * can be sent in. Clients opt in to the binary format by listing its media
+ * type in their Accept header.
+ */
+enum WireFormat {
+
+  /**
+   * The JSON format, as {ways: {...}, cells: {...}} or {ways: {...},
+   * route: [...]}.
+   */
+  JSON("application/json"),
+
+  /**
+   * The compact binary format described in BinaryWaysEncoder.
+   */
+  BINARY("application/x-maps-ways");
+
+  private final String mediaType;
+
+  /**
+   * The constructor for this enum.
+   *
+   * @param mediaType the format's media type
+   */
+  WireFormat(String mediaType) {
+    this.mediaType = mediaType;
+  }
+
+  /**
+   * A getter function for this enum's mediaType field.
+   *
+   * @return the format's media type
+   */
+  String getMediaType() {
+    return this.mediaType;
+  }
+
+  /**
+   * A function which makes a WaysEncoder which writes this format.
+   *
+   * @param out the OutputStream to write to
+   * @return a new WaysEncoder
+   */
+  WaysEncoder encoder(OutputStream out) {
+    if (this == BINARY) {
+      return new BinaryWaysEncoder(out);
+    }
+    return new JsonWaysEncoder(out);
+  }
+
+  /**
+   * A function which picks the format for a request.
+   *
+   * @param accept the request's Accept header, or null if it has none
+   * @return BINARY if the request accepts it, JSON otherwise
+   */
+  static WireFormat fromAccept(String accept) {
+    if (accept != null && accept.contains(BINARY.mediaType)) {
+      return BINARY;
+    }
+    return JSON;
+  }
+}
@@ -0,0 +1,63 @@
+package edu.brown.cs.jwu175zcheng12.mapscommands;
+
+import edu.brown.cs.jwu175zcheng12.maps.ContractionHierarchy;
+import edu.brown.cs.jwu175zcheng12.maps.MapDatabase;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralREPLCommand;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.print;
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which represents the "contract" command, which preprocesses the
+ * loaded map into a contraction hierarchy, saves it next to the database
+ * (so that later "map" commands load it), and routes with it from then on.
+ *
+ * Accepted syntax:
+ * - contract
+ */
+public class CommandContract implements GeneralREPLCommand {
+
+  private final MapDatabase workingMapDatabase;
+
+  /**
+   * The constructor for this class. Note that the workingMapDatabase is
+   * totally mutable, as is intended---we want workingMapDatabase to refer to
+   * the same MapDatabase that the other commands are using, if not any changes
+   * we make here won't be reflected by those commands.
+   *
+   * @param workingMapDatabase the MapDatabase to work with.
+   */
+  public CommandContract(MapDatabase workingMapDatabase) {
+    this.workingMapDatabase = workingMapDatabase;
+  }
+
+  @Override
+  public String getCommandName() {
+    return "contract";
+  }
+
+  @Override
+  public void executeCommand(String[] argArray) {
+    // Check for appropriate syntax
+    if (argArray.length == 1) {
+      ContractionHierarchy hierarchy;
+      try {
+        hierarchy = workingMapDatabase.buildContractionHierarchy();
+      } catch (SQLException | IOException e) {
+        printError("Failed to build contraction hierarchy: " + e.getMessage());
+        return;
+      }
+      if (hierarchy == null) {
+        return;
+      }
+      // Print
+      print("contracted map with " + hierarchy.getNumShortcuts()
+          + " shortcuts");
+    } else {
+      printError("Malformed input for contract command.");
+    }
+  }
+}
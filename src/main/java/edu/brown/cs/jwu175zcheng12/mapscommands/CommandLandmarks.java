@@ -0,0 +1,78 @@
+package edu.brown.cs.jwu175zcheng12.mapscommands;
+
+import edu.brown.cs.jwu175zcheng12.maps.LandmarkTable;
+import edu.brown.cs.jwu175zcheng12.maps.MapDatabase;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralREPLCommand;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.print;
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which represents the "landmarks" command, which precomputes ALT
+ * landmark distances for the loaded map, saves them next to the database (so
+ * that later "map" commands load them), and uses them for A* from then on.
+ *
+ * Accepted syntax:
+ * - landmarks
+ * - landmarks numLandmarks
+ */
+public class CommandLandmarks implements GeneralREPLCommand {
+
+  private static final int DEFAULT_LANDMARKS = 16;
+
+  private final MapDatabase workingMapDatabase;
+
+  /**
+   * The constructor for this class. Note that the workingMapDatabase is
+   * totally mutable, as is intended---we want workingMapDatabase to refer to
+   * the same MapDatabase that the other commands are using, if not any changes
+   * we make here won't be reflected by those commands.
+   *
+   * @param workingMapDatabase the MapDatabase to work with.
+   */
+  public CommandLandmarks(MapDatabase workingMapDatabase) {
+    this.workingMapDatabase = workingMapDatabase;
+  }
+
+  @Override
+  public String getCommandName() {
+    return "landmarks";
+  }
+
+  @Override
+  public void executeCommand(String[] argArray) {
+    // Check for appropriate syntax
+    if (argArray.length == 1 || (argArray.length == 2 && argArray[1] != null)) {
+      int numLandmarks = DEFAULT_LANDMARKS;
+      if (argArray.length == 2) {
+        try {
+          numLandmarks = Integer.parseInt(argArray[1]);
+        } catch (NumberFormatException e) {
+          printError("Number of landmarks must be an integer.");
+          return;
+        }
+        if (numLandmarks < 1) {
+          printError("Number of landmarks must be at least 1.");
+          return;
+        }
+      }
+      LandmarkTable table;
+      try {
+        table = workingMapDatabase.buildLandmarkTable(numLandmarks);
+      } catch (SQLException | IOException e) {
+        printError("Failed to build landmarks: " + e.getMessage());
+        return;
+      }
+      if (table == null) {
+        return;
+      }
+      // Print
+      print("picked " + table.getNumLandmarks() + " landmarks");
+    } else {
+      printError("Malformed input for landmarks command.");
+    }
+  }
+}
@@ -2,6 +2,7 @@ package edu.brown.cs.jwu175zcheng12.mapscommands;
 
 import edu.brown.cs.jwu175zcheng12.maps.MapDatabase;
 import edu.brown.cs.jwu175zcheng12.maps.Node;
+import edu.brown.cs.jwu175zcheng12.maps.RouteAlgorithm;
 import edu.brown.cs.jwu175zcheng12.maps.Way;
 import edu.brown.cs.jwu175zcheng12.repl.GeneralREPLCommand;
 
@@ -14,8 +15,11 @@ import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
  * A class which represents the "route" command for the Maps 1 and 2 project.
  *
  * Accepted syntax:
- * - route  startLat startLon  endLat endLon
- * - route  "st1" "cross-st1"  "st2" "cross-st2"
+ * - route  startLat startLon  endLat endLon  [algorithm]
+ * - route  "st1" "cross-st1"  "st2" "cross-st2"  [algorithm]
+ * where the optional algorithm is one of astar, dijkstra, bidirectional or
+ * ch. Without one, contraction hierarchies are used if they have been built
+ * for the loaded map (see the "contract" command), and A* otherwise.
  */
 public class CommandRoute implements GeneralREPLCommand {
 
@@ -42,9 +46,19 @@ public class CommandRoute implements GeneralREPLCommand {
   @Override
   public void executeCommand(String[] argArray) {
     // Check for appropriate syntax
-    if (argArray.length == 5 && argArray[1] != null
+    if ((argArray.length == 5 || argArray.length == 6) && argArray[1] != null
         && argArray[2] != null && argArray[3] != null
         && argArray[4] != null) {
+      // Get algorithm, if specified
+      RouteAlgorithm algorithm = workingMapDatabase.getDefaultRouteAlgorithm();
+      if (argArray.length == 6) {
+        algorithm = RouteAlgorithm.fromName(argArray[5]);
+        if (algorithm == null) {
+          printError("Algorithm passed to route command must be one of "
+              + "astar, dijkstra, bidirectional or ch.");
+          return;
+        }
+      }
       Node start;
       Node end;
       try {
@@ -87,7 +101,7 @@ public class CommandRoute implements GeneralREPLCommand {
         return;
       }
       // Get path
-      List<Way> pathWays = start.aStarPath(end);
+      List<Way> pathWays = start.findPath(end, algorithm);
       // If no path, print "-/-" message
       if (pathWays == null) {
         print(start.getNodeId() + " -/- " + end.getNodeId());
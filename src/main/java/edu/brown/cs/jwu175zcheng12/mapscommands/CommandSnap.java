@@ -0,0 +1,112 @@
+package edu.brown.cs.jwu175zcheng12.mapscommands;
+
+import edu.brown.cs.jwu175zcheng12.maps.MapDatabase;
+import edu.brown.cs.jwu175zcheng12.maps.Node;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralREPLCommand;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.print;
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which represents the "snap" command, which finds the nearest
+ * traversable Node to every point in a CSV file in one batch. The file has a
+ * header line, then one "latitude,longitude" row per point. One Node id is
+ * printed per point, in file order ("none" if no Node was found).
+ *
+ * Accepted syntax:
+ * - snap path/to/points.csv
+ */
+public class CommandSnap implements GeneralREPLCommand {
+
+  private final MapDatabase workingMapDatabase;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The constructor for this class. Note that the workingMapDatabase is
+   * totally mutable, as is intended---we want workingMapDatabase to refer to
+   * the same MapDatabase that the other commands are using, if not any changes
+   * we make here won't be reflected by those commands.
+   *
+   * @param workingMapDatabase the MapDatabase to work with.
+   */
+  public CommandSnap(MapDatabase workingMapDatabase) {
+    this.workingMapDatabase = workingMapDatabase;
+  }
+
+  @Override
+  public String getCommandName() {
+    return "snap";
+  }
+
+  @Override
+  public void executeCommand(String[] argArray) {
+    // Check for appropriate syntax
+    if (argArray.length != 2 || argArray[1] == null) {
+      printError("Malformed input for snap command.");
+      return;
+    }
+    // Parse inputs in 'snap path/to/points.csv' format
+    String filename = argArray[1];
+    double[] lats = new double[INITIAL_CAPACITY];
+    double[] lons = new double[INITIAL_CAPACITY];
+    int numPoints = 0;
+    // Use Try-with-resources
+    try (BufferedReader csvReader = new BufferedReader(
+        new FileReader(filename, StandardCharsets.UTF_8))) {
+      // Skip the headers line
+      csvReader.readLine();
+      String rowString = csvReader.readLine();
+      while (rowString != null) {
+        String[] rowStringArray = rowString.split(",");
+        if (rowStringArray.length != 2) {
+          printError("Malformed row " + (numPoints + 1) + " in '"
+              + filename + "'.");
+          return;
+        }
+        if (numPoints == lats.length) {
+          lats = Arrays.copyOf(lats, numPoints * 2);
+          lons = Arrays.copyOf(lons, numPoints * 2);
+        }
+        lats[numPoints] = Double.parseDouble(rowStringArray[0].trim());
+        lons[numPoints] = Double.parseDouble(rowStringArray[1].trim());
+        numPoints++;
+        rowString = csvReader.readLine();
+      }
+    } catch (FileNotFoundException error) {
+      printError("File does not exist.");
+      return;
+    } catch (NumberFormatException error) {
+      printError("Bad number format in row " + (numPoints + 1) + " of '"
+          + filename + "'.");
+      return;
+    } catch (IOException error) {
+      printError("IOException returned when trying to read file '"
+          + filename + "': " + error.getMessage());
+      return;
+    }
+    // Get results
+    Node[] nearest = workingMapDatabase.getNearestNodes(
+        Arrays.copyOf(lats, numPoints), Arrays.copyOf(lons, numPoints));
+    if (nearest == null) {
+      return;
+    }
+    // Print
+    StringBuilder sb = new StringBuilder();
+    for (Node node : nearest) {
+      if (sb.length() > 0) {
+        sb.append(System.lineSeparator());
+      }
+      sb.append(node == null ? "none" : node.getNodeId());
+    }
+    if (sb.length() > 0) {
+      print(sb.toString());
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package edu.brown.cs.jwu175zcheng12.mapscommands;
+
+import edu.brown.cs.jwu175zcheng12.maps.MapDatabase;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralREPLCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.print;
+import static edu.brown.cs.jwu175zcheng12.repl.GeneralREPL.printError;
+
+/**
+ * A class which represents the "snapshot" command, which exports the loaded
+ * map's Nodes, Ways and KD-tree to a binary snapshot next to the database,
+ * so that later "map" commands map it into memory instead of reading the
+ * database's tables.
+ *
+ * Accepted syntax:
+ * - snapshot
+ */
+public class CommandSnapshot implements GeneralREPLCommand {
+
+  private final MapDatabase workingMapDatabase;
+
+  /**
+   * The constructor for this class. Note that the workingMapDatabase is
+   * totally mutable, as is intended---we want workingMapDatabase to refer to
+   * the same MapDatabase that the other commands are using, if not any changes
+   * we make here won't be reflected by those commands.
+   *
+   * @param workingMapDatabase the MapDatabase to work with.
+   */
+  public CommandSnapshot(MapDatabase workingMapDatabase) {
+    this.workingMapDatabase = workingMapDatabase;
+  }
+
+  @Override
+  public String getCommandName() {
+    return "snapshot";
+  }
+
+  @Override
+  public void executeCommand(String[] argArray) {
+    // Check for appropriate syntax
+    if (argArray.length == 1) {
+      File snapshot;
+      try {
+        snapshot = workingMapDatabase.exportSnapshot();
+      } catch (SQLException | IOException e) {
+        printError("Failed to export snapshot: " + e.getMessage());
+        return;
+      }
+      if (snapshot == null) {
+        return;
+      }
+      // Print
+      print("wrote snapshot to " + snapshot.getPath());
+    } else {
+      printError("Malformed input for snapshot command.");
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the BinaryWaysEncoder class.
+ */
+public class BinaryWaysEncoderTest {
+
+  private static final double TOLERANCE = 1e-7;
+
+  /**
+   * Tests that a ways-and-cells response decodes to the same ways and cells
+   * as the JSON response, and is smaller.
+   */
+  @Test
+  public void testWaysAndCells()
+      throws SQLException, ClassNotFoundException, IOException {
+    MapDatabase db = new MapDatabase("data/maps/smallMaps.sqlite3");
+    BigDecimal lat1 = new BigDecimal("41.84");
+    BigDecimal lon1 = new BigDecimal("-71.42");
+    BigDecimal lat2 = new BigDecimal("41.8");
+    BigDecimal lon2 = new BigDecimal("-71.38");
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    assertTrue(db.writeWaysAndCellsForGUI(lat1, lon1, lat2, lon2,
+        WireFormat.JSON.encoder(json)));
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    assertTrue(db.writeWaysAndCellsForGUI(lat1, lon1, lat2, lon2,
+        WireFormat.BINARY.encoder(binary)));
+    assertTrue(binary.size() < json.size());
+
+    MapTilesTest.WaysAndCells expected = new Gson().fromJson(
+        json.toString(StandardCharsets.UTF_8),
+        MapTilesTest.WaysAndCells.class);
+    Decoded decoded = decode(binary.toByteArray());
+    assertNull(decoded.errorMessage);
+    assertNull(decoded.route);
+    assertEquals(expected.getCells(), decoded.cells);
+    assertEquals(expected.getWays().keySet(), decoded.ways.keySet());
+    for (Map.Entry<String, Object> entry : expected.getWays().entrySet()) {
+      Map<?, ?> expectedWay = (Map<?, ?>) entry.getValue();
+      Map<String, Object> way = decoded.ways.get(entry.getKey());
+      for (String field : new String[] {"startLat", "startLon", "endLat",
+          "endLon"}) {
+        assertEquals((Double) expectedWay.get(field), (Double) way.get(field),
+            TOLERANCE);
+      }
+      assertEquals(expectedWay.get("type"), way.get("type"));
+      assertEquals(expectedWay.get("name"), way.get("name"));
+    }
+  }
+
+  /**
+   * Tests that routes, errors, repeated and null strings, and large varints
+   * decode back to what was written.
+   */
+  @Test
+  public void testRoutesAndErrors() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WaysEncoder out = WireFormat.BINARY.encoder(bytes);
+    out.begin();
+    out.writeError("No route found; Nodes are not connected!");
+    out.beginWays(3);
+    out.writeWay("/w/0", 41.82, -71.4, 41.8203, -71.4, "residential", "Elm");
+    out.writeWay("/w/1", -33.9, 151.2, -33.91, 151.21, "residential", null);
+    out.writeWay("/w/2", 89.5, -179.9, 89.5, 179.9, null, "Elm");
+    out.endWays();
+    out.writeRoute(new int[] {2, 0, 1, 0}, 4);
+    out.end();
+
+    Decoded decoded = decode(bytes.toByteArray());
+    assertEquals("No route found; Nodes are not connected!",
+        decoded.errorMessage);
+    assertNull(decoded.cells);
+    assertEquals(List.of("/w/2", "/w/0", "/w/1", "/w/0"), decoded.route);
+    Map<String, Object> way = decoded.ways.get("/w/1");
+    assertEquals(-33.91, (Double) way.get("endLat"), TOLERANCE);
+    assertEquals(151.21, (Double) way.get("endLon"), TOLERANCE);
+    assertEquals("residential", way.get("type"));
+    assertNull(way.get("name"));
+    way = decoded.ways.get("/w/2");
+    assertEquals(179.9, (Double) way.get("endLon"), TOLERANCE);
+    assertNull(way.get("type"));
+    assertEquals("Elm", way.get("name"));
+  }
+
+  /**
+   * A helper function which decodes a binary response, as
+   * my-app/src/waysWire.js does.
+   *
+   * @param bytes the response
+   * @return its contents
+   * @throws IOException if the response is malformed
+   */
+  private static Decoded decode(byte[] bytes) throws IOException {
+    InputStream in = new ByteArrayInputStream(bytes);
+    assertEquals('M', in.read());
+    assertEquals('W', in.read());
+    assertEquals(BinaryWaysEncoder.VERSION, in.read());
+    Decoded decoded = new Decoded();
+    List<String> strings = new ArrayList<>();
+    List<String> wayIds = new ArrayList<>();
+    while (true) {
+      int tag = in.read();
+      if (tag == BinaryWaysEncoder.END) {
+        assertEquals(-1, in.read());
+        return decoded;
+      } else if (tag == BinaryWaysEncoder.ERROR) {
+        decoded.errorMessage = readString(in);
+      } else if (tag == BinaryWaysEncoder.WAYS) {
+        long lat = 0;
+        long lon = 0;
+        for (long i = readVarint(in); i > 0; i--) {
+          String id = readString(in);
+          Map<String, Object> way = new LinkedHashMap<>();
+          String type = readReference(in, strings);
+          String name = readReference(in, strings);
+          lat += readZigzag(in);
+          lon += readZigzag(in);
+          way.put("startLat", lat / BinaryWaysEncoder.FIXED_POINT);
+          way.put("startLon", lon / BinaryWaysEncoder.FIXED_POINT);
+          way.put("endLat",
+              (lat + readZigzag(in)) / BinaryWaysEncoder.FIXED_POINT);
+          way.put("endLon",
+              (lon + readZigzag(in)) / BinaryWaysEncoder.FIXED_POINT);
+          way.put("type", type);
+          way.put("name", name);
+          wayIds.add(id);
+          decoded.ways.put(id, way);
+        }
+      } else if (tag == BinaryWaysEncoder.CELLS) {
+        String[] rowKeys = new String[(int) readVarint(in)];
+        for (int i = 0; i < rowKeys.length; i++) {
+          rowKeys[i] = readString(in);
+        }
+        String[] columnKeys = new String[(int) readVarint(in)];
+        for (int i = 0; i < columnKeys.length; i++) {
+          columnKeys[i] = readString(in);
+        }
+        decoded.cells = new LinkedHashMap<>();
+        for (String rowKey : rowKeys) {
+          Map<String, List<String>> row = new LinkedHashMap<>();
+          for (String columnKey : columnKeys) {
+            List<String> cell = new ArrayList<>();
+            long position = 0;
+            for (long i = readVarint(in); i > 0; i--) {
+              position += readZigzag(in);
+              cell.add(wayIds.get((int) position));
+            }
+            row.put(columnKey, cell);
+          }
+          decoded.cells.put(rowKey, row);
+        }
+      } else if (tag == BinaryWaysEncoder.ROUTE) {
+        decoded.route = new ArrayList<>();
+        for (long i = readVarint(in); i > 0; i--) {
+          decoded.route.add(wayIds.get((int) readVarint(in)));
+        }
+      } else {
+        throw new IOException("Unknown tag " + tag);
+      }
+    }
+  }
+
+  /**
+   * A helper function which reads a varint.
+   *
+   * @param in the InputStream
+   * @return the varint
+   * @throws IOException if the stream ends
+   */
+  private static long readVarint(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Truncated varint");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * A helper function which reads a zigzag varint.
+   *
+   * @param in the InputStream
+   * @return the signed value
+   * @throws IOException if the stream ends
+   */
+  private static long readZigzag(InputStream in) throws IOException {
+    long value = readVarint(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * A helper function which reads a string.
+   *
+   * @param in the InputStream
+   * @return the string
+   * @throws IOException if the stream ends
+   */
+  private static String readString(InputStream in) throws IOException {
+    byte[] bytes = in.readNBytes((int) readVarint(in));
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A helper function which reads a string reference.
+   *
+   * @param in      the InputStream
+   * @param strings the string table so far
+   * @return the string, or null
+   * @throws IOException if the stream ends
+   */
+  private static String readReference(InputStream in, List<String> strings)
+      throws IOException {
+    int reference = (int) readVarint(in);
+    if (reference == 0) {
+      return null;
+    } else if (reference == 1) {
+      String value = readString(in);
+      strings.add(value);
+      return value;
+    }
+    return strings.get(reference - 2);
+  }
+
+  /**
+   * A class which a binary response is decoded into.
+   */
+  private static final class Decoded {
+    private String errorMessage;
+    private final Map<String, Map<String, Object>> ways =
+        new LinkedHashMap<>();
+    private Map<String, Map<String, List<String>>> cells;
+    private List<String> route;
+  }
+}
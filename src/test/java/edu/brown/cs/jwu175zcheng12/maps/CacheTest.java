@@ -1,11 +1,18 @@
 package edu.brown.cs.jwu175zcheng12.maps;
 
+import edu.brown.cs.jwu175zcheng12.cache.CachePolicy;
 import edu.brown.cs.jwu175zcheng12.cache.MyCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -42,4 +49,150 @@ public class CacheTest {
     assertEquals(testCache.get("a"), "1");
     takeDown();
   }
+
+  @Test
+  public void testLeastRecentlyUsedAndAccounting() {
+    setUp();
+    assertTrue(testCache.addToCache("a", "1", 10, 10));
+    assertTrue(testCache.addToCache("b", "2", 10, 10));
+    // Overwriting replaces the old size rather than adding to it
+    assertTrue(testCache.addToCache("a", "3", 10, 5));
+    assertEquals(35, testCache.getSize());
+    // Reading "b" makes "a" the least recently used pair
+    assertEquals("2", testCache.get("b"));
+    assertTrue(testCache.addToCache("c", "4", 10, 10));
+    assertFalse(testCache.containsKey("a"));
+    assertTrue(testCache.containsKey("b"));
+    assertEquals(40, testCache.getSize());
+    assertNull(testCache.get("a"));
+    assertEquals(1, testCache.getHitCount());
+    assertEquals(1, testCache.getMissCount());
+    assertEquals(1, testCache.getEvictionCount());
+    testCache.clearCache();
+    assertEquals(0, testCache.getSize());
+    assertFalse(testCache.containsKey("b"));
+    takeDown();
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException {
+    MyCache<Integer, Integer> cache = new MyCache<>(1000, 10, 10, 8);
+    int numThreads = 8;
+    int opsPerThread = 20000;
+    Thread[] threads = new Thread[numThreads];
+    AtomicBoolean wrongValue = new AtomicBoolean(false);
+    for (int t = 0; t < numThreads; t++) {
+      int seed = t;
+      threads[t] = new Thread(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < opsPerThread; i++) {
+          int key = random.nextInt(500);
+          if (random.nextBoolean()) {
+            cache.addToCache(key, key, 1 + key % 10, 1 + key % 7);
+          } else {
+            Integer value = cache.get(key);
+            if (value != null && value != key) {
+              wrongValue.set(true);
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(cache.getSize() <= 1000);
+    assertTrue(cache.getEvictionCount() > 0);
+    // The size must account for exactly the pairs still cached
+    int expected = 0;
+    for (int key = 0; key < 500; key++) {
+      if (cache.containsKey(key)) {
+        expected += 2 + key % 10 + key % 7;
+      }
+    }
+    assertEquals(expected, cache.getSize());
+    assertFalse(wrongValue.get());
+    assertEquals(countGets(numThreads, opsPerThread),
+        cache.getHitCount() + cache.getMissCount());
+    cache.clearCache();
+    assertEquals(0, cache.getSize());
+  }
+
+  /**
+   * Counts the gets testConcurrentUse makes, by replaying its random choices.
+   */
+  private static long countGets(int numThreads, int opsPerThread) {
+    long gets = 0;
+    for (int t = 0; t < numThreads; t++) {
+      Random random = new Random(t);
+      for (int i = 0; i < opsPerThread; i++) {
+        random.nextInt(500);
+        if (!random.nextBoolean()) {
+          gets++;
+        }
+      }
+    }
+    return gets;
+  }
+
+  @Test
+  public void testTinyLfuKeepsHotKeysThroughScans() {
+    // A skewed (Zipf) stream of 10000 keys, interrupted by scans of keys
+    // which are only ever seen once
+    Random random = new Random(12);
+    int numKeys = 10000;
+    double[] cumulative = new double[numKeys];
+    double total = 0;
+    for (int i = 0; i < numKeys; i++) {
+      total += 1 / Math.pow(i + 1, 0.9);
+      cumulative[i] = total;
+    }
+    int[] trace = new int[200000];
+    int nextScanKey = numKeys;
+    for (int i = 0; i < trace.length; i++) {
+      if (i % 20000 < 2000) {
+        trace[i] = nextScanKey++;
+      } else {
+        int key = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+        trace[i] = key < 0 ? -key - 1 : key;
+      }
+    }
+
+    MyCache<Integer, Integer> lru = new MyCache<>(1000, 1, 1, CachePolicy.LRU);
+    MyCache<Integer, Integer> tinyLfu =
+        new MyCache<>(1000, 1, 1, CachePolicy.TINY_LFU);
+    for (MyCache<Integer, Integer> cache : List.of(lru, tinyLfu)) {
+      for (int key : trace) {
+        if (cache.get(key) == null) {
+          assertTrue(cache.addToCache(key, key, 1, 1));
+        }
+        assertTrue(cache.getSize() <= 1000);
+      }
+      assertEquals(trace.length, cache.getHitCount() + cache.getMissCount());
+    }
+    double lruHitRate = lru.getHitCount() / (double) trace.length;
+    double tinyLfuHitRate = tinyLfu.getHitCount() / (double) trace.length;
+    assertTrue(tinyLfuHitRate > lruHitRate + 0.03);
+
+    // Weighted sizes are still honoured, and overwrites still replace them
+    MyCache<String, String> weighted =
+        new MyCache<>(100, 10, 40, CachePolicy.TINY_LFU);
+    for (int i = 0; i < 50; i++) {
+      assertTrue(weighted.addToCache("k" + i, "v", 5, 1 + i % 40));
+      assertTrue(weighted.getSize() <= 100);
+    }
+    assertTrue(weighted.addToCache("hot", "v", 10, 40));
+    assertTrue(weighted.addToCache("hot", "w", 10, 10));
+    assertEquals("w", weighted.get("hot"));
+    int expected = 0;
+    for (int i = 0; i < 50; i++) {
+      if (weighted.containsKey("k" + i)) {
+        expected += 6 + i % 40;
+      }
+    }
+    assertEquals(expected + 20, weighted.getSize());
+    weighted.clearCache();
+    assertEquals(0, weighted.getSize());
+  }
 }
@@ -0,0 +1,146 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the CheckinLog class.
+ */
+public class CheckinLogTest {
+
+  private static final int NUM_CHECKINS = 200000;
+  private static final int NUM_READERS = 4;
+
+  /**
+   * Tests reading from cursors, including cursors which fell behind, and
+   * that checkins with the same timestamp are all kept.
+   */
+  @Test
+  public void testCursors() {
+    CheckinLog log = new CheckinLog(4);
+    List<UserCheckin> out = new ArrayList<>();
+    assertEquals(0, log.read(0, 10, out));
+    assertTrue(out.isEmpty());
+
+    for (int i = 0; i < 3; i++) {
+      log.append(new UserCheckin(i, "user" + i, 1.0, 0, 0));
+    }
+    assertEquals(2, log.read(0, 2, out));
+    assertEquals(3, log.read(2, 2, out));
+    assertEquals(ids(0, 3), ids(out));
+    // Cursors past the head start from it
+    out.clear();
+    assertEquals(3, log.read(100, 2, out));
+    assertTrue(out.isEmpty());
+
+    // A reader more than the capacity behind skips to the oldest kept
+    for (int i = 3; i < 10; i++) {
+      log.append(new UserCheckin(i, "user" + i, i, 0, 0));
+    }
+    assertEquals(10, log.getHead());
+    assertEquals(10, log.read(3, 10, out));
+    assertEquals(ids(6, 10), ids(out));
+
+    // The shared cursor hands each checkin out once
+    out.clear();
+    log.readShared(3, out);
+    log.readShared(10, out);
+    assertEquals(ids(6, 10), ids(out));
+    log.readShared(10, out);
+    assertEquals(4, out.size());
+
+    try {
+      new CheckinLog(3);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Capacities must be powers of two
+    }
+  }
+
+  /**
+   * Tests that readers with their own cursors each see every checkin, in
+   * order, and that readers sharing a cursor see each checkin once between
+   * them, while checkins are being appended.
+   */
+  @Test
+  public void testConcurrentReaders() throws InterruptedException {
+    CheckinLog log = new CheckinLog(Integer.highestOneBit(NUM_CHECKINS) << 1);
+    List<List<UserCheckin>> own = new ArrayList<>();
+    List<List<UserCheckin>> shared = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < NUM_READERS; i++) {
+      List<UserCheckin> ownOut = new ArrayList<>();
+      List<UserCheckin> sharedOut = new ArrayList<>();
+      own.add(ownOut);
+      shared.add(sharedOut);
+      threads.add(new Thread(() -> {
+        long cursor = 0;
+        while (cursor < NUM_CHECKINS) {
+          cursor = log.read(cursor, 100, ownOut);
+        }
+      }));
+      threads.add(new Thread(() -> {
+        // The main thread reads whatever is left once they stop
+        while (log.getHead() < NUM_CHECKINS) {
+          log.readShared(100, sharedOut);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (int i = 0; i < NUM_CHECKINS; i++) {
+      log.append(new UserCheckin(i, null, 0, 0, 0));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    List<UserCheckin> rest = new ArrayList<>();
+    log.readShared(NUM_CHECKINS, rest);
+
+    List<Integer> all = ids(0, NUM_CHECKINS);
+    for (List<UserCheckin> out : own) {
+      assertEquals(all, ids(out));
+    }
+    List<Integer> union = new ArrayList<>(ids(rest));
+    for (List<UserCheckin> out : shared) {
+      union.addAll(ids(out));
+    }
+    Collections.sort(union);
+    assertEquals(all, union);
+  }
+
+  /**
+   * A helper function which lists the user ids of checkins.
+   *
+   * @param checkins a List of UserCheckins
+   * @return their ids
+   */
+  private static List<Integer> ids(List<UserCheckin> checkins) {
+    List<Integer> ids = new ArrayList<>();
+    for (UserCheckin checkin : checkins) {
+      ids.add(checkin.getId());
+    }
+    return ids;
+  }
+
+  /**
+   * A helper function which lists a range of ids.
+   *
+   * @param from an int, the first id
+   * @param to   an int, one past the last id
+   * @return the ids
+   */
+  private static List<Integer> ids(int from, int to) {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,191 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CheckinParserTest {
+
+  /**
+   * Tests parsing the checkin server's format, however it is laid out.
+   */
+  @Test
+  public void testParse() throws IOException {
+    List<UserCheckin> checkins = parse(new CheckinParser(),
+        "[[1617.5, 1, \"Ann\", 41.82, -71.4],\n [ 1618.25 ,2,\"Bo \\\"B\\\" "
+            + "\\u00e9\u00e9\\n\ud83d\ude00\",-4.1e1 , 7E-1 ], [-0, -3, null, "
+            + "0.00001, 1e400]]");
+    assertEquals(3, checkins.size());
+    UserCheckin ann = checkins.get(0);
+    assertEquals(1617.5, ann.getTimestamp(), 0);
+    assertEquals(1, ann.getId());
+    assertEquals("Ann", ann.getName());
+    assertEquals(41.82, ann.getLat(), 0);
+    assertEquals(-71.4, ann.getLon(), 0);
+    UserCheckin bo = checkins.get(1);
+    assertEquals(2, bo.getId());
+    assertEquals("Bo \"B\" \u00e9\u00e9\n\ud83d\ude00", bo.getName());
+    assertEquals(-41, bo.getLat(), 0);
+    assertEquals(0.7, bo.getLon(), 0);
+    UserCheckin third = checkins.get(2);
+    assertEquals(-3, third.getId());
+    assertNull(third.getName());
+    assertEquals(0.00001, third.getLat(), 0);
+    assertEquals(Double.POSITIVE_INFINITY, third.getLon(), 0);
+
+    assertTrue(parse(new CheckinParser(), " [ ]\n").isEmpty());
+  }
+
+  /**
+   * Tests that a response arriving a byte at a time parses the same.
+   */
+  @Test
+  public void testSplitReads() throws IOException {
+    CheckinParser parser = new CheckinParser();
+    String body = "[[1617.5, 1, \"\u00e9\ud83d\ude00\", 41.82, -71.4]]";
+    parser.reset(new FilterInputStream(new ByteArrayInputStream(
+        body.getBytes(StandardCharsets.UTF_8))) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    });
+    assertTrue(parser.next());
+    assertEquals("\u00e9\ud83d\ude00", parser.getName());
+    assertEquals(-71.4, parser.getLon(), 0);
+    assertFalse(parser.next());
+  }
+
+  /**
+   * Tests that names are reused while unchanged, across responses.
+   */
+  @Test
+  public void testNameReuse() throws IOException {
+    CheckinParser parser = new CheckinParser();
+    List<UserCheckin> first = parse(parser,
+        "[[1, 1, \"Ann\", 0, 0], [2, 1, \"Ann\", 0, 0], "
+            + "[3, 2, \"Ann\", 0, 0]]");
+    List<UserCheckin> second = parse(parser,
+        "[[4, 1, \"Ann\", 0, 0], [5, 1, \"Anne\", 0, 0]]");
+    assertSame(first.get(0).getName(), first.get(1).getName());
+    assertSame(first.get(0).getName(), second.get(0).getName());
+    assertEquals("Ann", first.get(2).getName());
+    assertEquals("Anne", second.get(1).getName());
+  }
+
+  /**
+   * Tests that malformed responses are rejected.
+   */
+  @Test
+  public void testMalformed() {
+    String[] bodies = {"", "{}", "[[1, 2, \"a\", 3]]", "[[1, 2, \"a\", 3, 4]",
+        "[[1, 2, \"a\", 3, 4] [1, 2, \"a\", 3, 4]]", "[[1, 2.5, \"a\", 3, 4]]",
+        "[[1, 2, \"a, 3, 4]]", "[[1, 2, \"\\x\", 3, 4]]",
+        "[[., 2, \"a\", 3, 4]]", "[[1, 99999999999, \"a\", 3, 4]]",
+        "[[1e, 2, \"a\", 3, 4]]"};
+    for (String body : bodies) {
+      try {
+        parse(new CheckinParser(), body);
+        fail("Parsed " + body);
+      } catch (IOException e) {
+        assertTrue(e.getMessage().startsWith("Malformed checkins"));
+      }
+    }
+  }
+
+  /**
+   * Tests that numbers are rounded exactly as Double.parseDouble() does.
+   */
+  @Test
+  public void testNumbers() throws IOException {
+    Random random = new Random(0);
+    List<String> numbers = new ArrayList<>(List.of("0", "0.0", "-0.0", "1",
+        "123456789012345678", "9223372036854775807", "12345678901234567890",
+        "0.1", "0.30000000000000004", "41.82539618888889",
+        "-71.40282373627118", "1617302400.123456", "9007199254740993e-10",
+        "1.7976931348623157e308", "4.9e-324", "2.2250738585072014E-308",
+        "1234567890123456789e-27", "1234567890123456789e-28"));
+    for (int i = 0; i < 100000; i++) {
+      double value;
+      switch (i % 4) {
+        case 0:
+          value = 90 * (2 * random.nextDouble() - 1);
+          break;
+        case 1:
+          value = 180 * (2 * random.nextDouble() - 1);
+          break;
+        case 2:
+          value = 1.6e9 + 1e8 * random.nextDouble();
+          break;
+        default:
+          value = Double.longBitsToDouble(random.nextLong());
+      }
+      if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+        numbers.add(Double.toString(value));
+      }
+    }
+    for (int i = 0; i < 10000; i++) {
+      // Up to 19 significant digits, with up to 27 after the point
+      long mantissa = random.nextLong() >>> random.nextInt(64);
+      numbers.add(mantissa + "e-" + random.nextInt(28));
+    }
+
+    StringBuilder body = new StringBuilder("[");
+    for (String number : numbers) {
+      body.append(body.length() > 1 ? ", " : "")
+          .append("[0, 1, \"a\", ").append(number).append(", 0]");
+    }
+    List<UserCheckin> checkins =
+        parse(new CheckinParser(), body.append(']').toString());
+    assertEquals(numbers.size(), checkins.size());
+    for (int i = 0; i < numbers.size(); i++) {
+      assertEquals(numbers.get(i),
+          Double.doubleToRawLongBits(Double.parseDouble(numbers.get(i))),
+          Double.doubleToRawLongBits(checkins.get(i).getLat()));
+    }
+  }
+
+  /**
+   * Tests the exact division directly, at its edges.
+   */
+  @Test
+  public void testDivideByPow10() {
+    long[] mantissas = {1, 5, 9007199254740993L, Long.MAX_VALUE - 9};
+    for (long mantissa : mantissas) {
+      for (int power = 0; power <= 27; power++) {
+        assertEquals(Double.parseDouble(mantissa + "e-" + power),
+            CheckinParser.divideByPow10(mantissa, power), 0);
+      }
+    }
+    assertEquals(0, CheckinParser.divideByPow10(0, 3), 0);
+  }
+
+  /**
+   * A helper function which parses a whole response.
+   *
+   * @param parser the CheckinParser
+   * @param body   the response's body
+   * @return the UserCheckins parsed
+   * @throws IOException if the response is malformed
+   */
+  private static List<UserCheckin> parse(CheckinParser parser, String body)
+      throws IOException {
+    InputStream in =
+        new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    parser.reset(in);
+    List<UserCheckin> checkins = new ArrayList<>();
+    while (parser.next()) {
+      checkins.add(parser.toUserCheckin());
+    }
+    return checkins;
+  }
+}
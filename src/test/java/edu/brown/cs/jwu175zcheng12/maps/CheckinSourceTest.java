@@ -0,0 +1,100 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CheckinSourceTest {
+
+  private static final long TIMEOUT = 5000;
+
+  /**
+   * Tests that a recording is replayed in order, sped up, skipping bad lines.
+   */
+  @Test
+  public void testReplay() throws IOException, InterruptedException {
+    Path path = Files.createTempFile("checkins", ".ndjson");
+    path.toFile().deleteOnExit();
+    Files.write(path, List.of(
+        "{\"timestamp\": 1000, \"id\": 1, \"name\": \"Ann\", "
+            + "\"latitude\": 41.82, \"longitude\": -71.4}",
+        "",
+        "not json",
+        "{\"timestamp\": 1001, \"id\": 2, \"name\": \"Bo\", "
+            + "\"latitude\": 41.83, \"longitude\": -71.41}",
+        "{\"timestamp\": 1100, \"id\": 3, \"name\": \"Cy\", "
+            + "\"latitude\": 41.84, \"longitude\": -71.42}"),
+        StandardCharsets.UTF_8);
+    // At 1000x, a second of recording passes every millisecond
+    ReplayCheckinSource source = new ReplayCheckinSource(path, 1000);
+    List<UserCheckin> checkins = new ArrayList<>();
+    source.poll(checkins);
+    assertEquals(1, checkins.size());
+    assertEquals("Ann", checkins.get(0).getName());
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (checkins.size() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      source.poll(checkins);
+    }
+    assertEquals(3, checkins.size());
+    assertEquals(2, checkins.get(1).getId());
+    assertEquals(1100, checkins.get(2).getTimestamp(), 0);
+    assertEquals(-71.42, checkins.get(2).getLon(), 0);
+    // Polling past the end of the recording gives nothing
+    source.poll(checkins);
+    assertEquals(3, checkins.size());
+  }
+
+  /**
+   * Tests that synthetic checkins come at the given rate and stay in the box.
+   */
+  @Test
+  public void testSynthetic() throws InterruptedException {
+    SyntheticCheckinSource source =
+        new SyntheticCheckinSource(10000, 10, 41.82, -71.4, 0.01, 0);
+    List<UserCheckin> checkins = new ArrayList<>();
+    source.poll(checkins);
+    Thread.sleep(100);
+    source.poll(checkins);
+    // About 1000 checkins in 100ms, allowing for slow sleeps
+    assertTrue(checkins.size() >= 900);
+    assertTrue(checkins.size() <= 10000);
+    for (UserCheckin checkin : checkins) {
+      assertTrue(checkin.getId() >= 1 && checkin.getId() <= 10);
+      assertEquals(41.82, checkin.getLat(), 0.01 + 1e-9);
+      assertEquals(-71.4, checkin.getLon(), 0.01 + 1e-9);
+    }
+  }
+
+  /**
+   * Tests that the HTTP source reads what the stand-in server serves.
+   */
+  @Test
+  public void testStandInServer() throws IOException {
+    List<UserCheckin> served = List.of(
+        new UserCheckin(1, "Ann", 1617.5, 41.82, -71.4),
+        new UserCheckin(2, "Bo", 1618.25, 41.83, -71.41));
+    CheckinStandInServer standIn = new CheckinStandInServer(
+        out -> out.addAll(served), 0);
+    standIn.start();
+    try {
+      List<UserCheckin> checkins = new ArrayList<>();
+      new HttpCheckinSource("http://localhost:" + standIn.getPort())
+          .poll(checkins);
+      assertEquals(2, checkins.size());
+      assertEquals(1617.5, checkins.get(0).getTimestamp(), 0);
+      assertEquals("Ann", checkins.get(0).getName());
+      assertEquals(2, checkins.get(1).getId());
+      assertEquals(-71.41, checkins.get(1).getLon(), 0);
+    } finally {
+      standIn.stop();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the CheckinStore class.
+ */
+public class CheckinStoreTest {
+
+  private static final long TIMEOUT = 5000;
+
+  /**
+   * Tests that queued checkins are written once enough are queued, or once
+   * they have waited long enough, and that the db is in WAL mode.
+   */
+  @Test
+  public void testBatching() throws IOException, SQLException,
+      ClassNotFoundException, InterruptedException {
+    String dbPath = CheckinThreadTest.copyDb();
+    // Only the batch size can trigger a write
+    CheckinStore store = new CheckinStore(dbPath, 10, TIMEOUT * 10);
+    for (int i = 0; i < 25; i++) {
+      store.add(new UserCheckin(1, "Ann", i, 41.82, -71.4));
+    }
+    assertTrue(waitFor(store, 1, 10) >= 10);
+    store.flush();
+    List<UserCheckin> checkins = store.getUserCheckins(1);
+    assertEquals(25, checkins.size());
+    assertEquals("Ann", checkins.get(0).getName());
+    assertEquals(-71.4, checkins.get(24).getLon(), 0);
+    store.close();
+
+    // Only the delay can trigger a write
+    store = new CheckinStore(dbPath, 1000, 20);
+    assertTrue(store.getUserCheckins(1).isEmpty());
+    for (int i = 0; i < 3; i++) {
+      store.add(new UserCheckin(2, "Bo", i, 41.82, -71.4));
+    }
+    assertEquals(3, waitFor(store, 2, 3));
+    store.close();
+
+    try (Connection conn = DriverManager.getConnection(
+        "jdbc:sqlite:" + dbPath);
+         Statement stat = conn.createStatement();
+         ResultSet rs = stat.executeQuery("PRAGMA journal_mode;")) {
+      assertEquals("wal", rs.getString(1));
+    }
+  }
+
+  /**
+   * Tests that deleting a user's checkins deletes queued ones too, and that
+   * closing writes any still queued.
+   */
+  @Test
+  public void testDeleteAndClose() throws IOException, SQLException,
+      ClassNotFoundException, InterruptedException {
+    String dbPath = CheckinThreadTest.copyDb();
+    CheckinStore store = new CheckinStore(dbPath, 1000, TIMEOUT * 10);
+    store.add(new UserCheckin(1, "Ann", 0, 41.82, -71.4));
+    store.add(new UserCheckin(2, "Bo", 1, 41.82, -71.4));
+    store.add(new UserCheckin(1, "Ann", 2, 41.82, -71.4));
+    store.deleteUserCheckins(1);
+    assertTrue(store.getUserCheckins(1).isEmpty());
+    assertEquals(1, store.getUserCheckins(2).size());
+    store.add(new UserCheckin(3, "Cy", 3, 41.82, -71.4));
+    store.close();
+
+    try (Connection conn = DriverManager.getConnection(
+        "jdbc:sqlite:" + dbPath);
+         Statement stat = conn.createStatement();
+         ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM checkins;")) {
+      assertEquals(2, rs.getInt(1));
+    }
+  }
+
+  /**
+   * Tests that paging through a user's checkins in a time range gets each
+   * exactly once, newest first, even where they share timestamps across
+   * pages, and that the range is read through the index.
+   */
+  @Test
+  public void testHistoryPages() throws IOException, SQLException,
+      ClassNotFoundException, InterruptedException {
+    String dbPath = CheckinThreadTest.copyDb();
+    CheckinStore store = new CheckinStore(dbPath, 1000, TIMEOUT * 10);
+    Random random = new Random(0);
+    List<UserCheckin> expected = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      int id = 1 + random.nextInt(3);
+      // Timestamps often repeat, and arrive a little out of order
+      UserCheckin checkin = new UserCheckin(id, "user" + id,
+          i / 4 + random.nextInt(3), 41.82, i);
+      store.add(checkin);
+      if (id == 1 && checkin.getTimestamp() >= 20
+          && checkin.getTimestamp() < 100) {
+        expected.add(checkin);
+      }
+    }
+    store.flush();
+    // Stably, so those with equal timestamps stay newest first
+    Collections.reverse(expected);
+    expected.sort((a, b) -> Double.compare(b.getTimestamp(),
+        a.getTimestamp()));
+
+    for (int limit : new int[]{1, 7, 1000}) {
+      List<UserCheckin> found = new ArrayList<>();
+      double to = 100;
+      long beforeRow = 0;
+      CheckinStore.HistoryPage page;
+      do {
+        page = store.getUserCheckins(1, 20, to, beforeRow, limit);
+        assertTrue(page.getCheckins().size() <= limit);
+        found.addAll(page.getCheckins());
+        to = page.getNextTo();
+        beforeRow = page.getNextBeforeRow();
+      } while (page.hasMore());
+      assertEquals(expected.size(), found.size());
+      for (int i = 0; i < found.size(); i++) {
+        assertEquals(expected.get(i).getTimestamp(),
+            found.get(i).getTimestamp(), 0);
+        assertEquals(expected.get(i).getLon(), found.get(i).getLon(), 0);
+        assertEquals(1, found.get(i).getId());
+      }
+    }
+    assertTrue(store.getUserCheckins(1, 100, 20, 0, 10)
+        .getCheckins().isEmpty());
+    assertEquals(store.getUserCheckins(2).size(),
+        store.getUserCheckins(2, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY, 0, 1000).getCheckins().size());
+    store.close();
+
+    try (Connection conn = DriverManager.getConnection(
+        "jdbc:sqlite:" + dbPath);
+         Statement stat = conn.createStatement();
+         ResultSet rs = stat.executeQuery("EXPLAIN QUERY PLAN "
+             + "SELECT rowid, * FROM checkins WHERE id = 1 "
+             + "AND timestamp >= 0 AND timestamp <= 1 "
+             + "AND (timestamp < 1 OR rowid < 1) "
+             + "ORDER BY timestamp DESC, rowid DESC LIMIT 1;")) {
+      StringBuilder plan = new StringBuilder();
+      while (rs.next()) {
+        plan.append(rs.getString(4)).append('\n');
+      }
+      assertTrue(plan.toString(),
+          plan.toString().contains("USING INDEX checkins_by_user_time"));
+      assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+    }
+  }
+
+  /**
+   * A helper function which waits until a user has at least some checkins
+   * in the db, or a timeout passes.
+   *
+   * @param store the CheckinStore
+   * @param id    an int, the user's id
+   * @param count an int, how many checkins to wait for
+   * @return how many checkins the user has
+   */
+  private static int waitFor(CheckinStore store, int id, int count)
+      throws SQLException, InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    int found = store.getUserCheckins(id).size();
+    while (found < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      found = store.getUserCheckins(id).size();
+    }
+    return found;
+  }
+}
@@ -0,0 +1,208 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the CheckinThread class.
+ */
+public class CheckinThreadTest {
+
+  private static final long TIMEOUT = 5000;
+
+  /**
+   * Tests that the delay between polls doubles with each failure, up to the
+   * maximum.
+   */
+  @Test
+  public void testBackoffDelay() {
+    assertEquals(1000, CheckinThread.backoffDelay(1000, 30000, 0));
+    assertEquals(2000, CheckinThread.backoffDelay(1000, 30000, 1));
+    assertEquals(16000, CheckinThread.backoffDelay(1000, 30000, 4));
+    assertEquals(30000, CheckinThread.backoffDelay(1000, 30000, 5));
+    assertEquals(30000,
+        CheckinThread.backoffDelay(1000, 30000, Integer.MAX_VALUE));
+    // The poll interval wins if it is longer than the maximum
+    assertEquals(1000, CheckinThread.backoffDelay(1000, 500, 3));
+  }
+
+  /**
+   * Tests that checkins are polled, stored and handed to the GUI, and that
+   * the poller stops cleanly.
+   */
+  @Test
+  public void testPolling() throws IOException, InterruptedException {
+    HttpServer server = serve(200,
+        "[[1617.5, 1, \"Ann\", 41.82, -71.4], [1618.25, 2, \"Bo\", 41.83, "
+            + "-71.41]]", new AtomicInteger());
+    CheckinThread poller = new CheckinThread(copyDb(),
+        new HttpCheckinSource(url(server)));
+    poller.setPollInterval(10);
+    poller.start();
+    try {
+      // The server always sends the same two checkins
+      List<UserCheckin> checkins = new ArrayList<>();
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (checkins.size() < 4 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+        checkins.addAll(poller.getLatestCheckins(Integer.MAX_VALUE));
+      }
+      assertTrue(checkins.size() >= 4);
+      UserCheckin ann = checkins.get(2);
+      assertEquals(1617.5, ann.getTimestamp(), 0);
+      assertEquals(1, ann.getId());
+      assertEquals("Ann", ann.getName());
+      assertEquals(-71.4, ann.getLon(), 0);
+      assertEquals("Bo", checkins.get(3).getName());
+      // Their users are placed at their latest positions
+      assertEquals(2, poller.getLiveUsers().size());
+      assertEquals(-71.41,
+          poller.getLiveUsers().get(2).getNthCoordinate(1), 0);
+      // Checkins reach the db in batches, a little later
+      while (poller.getOneUsersCheckinsHandlerForGUI(2).isEmpty()
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertFalse(poller.getOneUsersCheckinsHandlerForGUI(2).isEmpty());
+
+      // A caller with its own cursor sees them all again
+      List<UserCheckin> fromStart = new ArrayList<>();
+      long cursor = poller.getCheckinsFrom(0, 3, fromStart);
+      assertEquals(3, cursor);
+      assertEquals(1617.5, fromStart.get(0).getTimestamp(), 0);
+      assertEquals(1618.25, fromStart.get(1).getTimestamp(), 0);
+    } finally {
+      poller.stop();
+      server.stop(0);
+    }
+    // Stopping twice is harmless, and releases anyone waiting
+    poller.stop();
+    poller.join();
+  }
+
+  /**
+   * Tests that the poller backs off while the checkin server fails.
+   */
+  @Test
+  public void testBackoff() throws IOException, InterruptedException {
+    AtomicInteger requests = new AtomicInteger();
+    HttpServer server = serve(500, "", requests);
+    CheckinThread poller = new CheckinThread(copyDb(),
+        new HttpCheckinSource(url(server)));
+    poller.setPollInterval(20);
+    poller.setMaxBackoff(320);
+    poller.start();
+    Thread.sleep(600);
+    poller.stop();
+    server.stop(0);
+    // Without backing off, there would be about 30 requests
+    assertTrue(requests.get() >= 2);
+    assertTrue(requests.get() <= 8);
+  }
+
+  /**
+   * Tests that the poller backs off while the source throws unchecked
+   * exceptions, and keeps polling without a db.
+   */
+  @Test
+  public void testRuntimeFailures() throws IOException, InterruptedException {
+    AtomicInteger polls = new AtomicInteger();
+    CheckinThread poller = new CheckinThread(copyDb(), out -> {
+      polls.incrementAndGet();
+      throw new IllegalStateException("broken source");
+    });
+    poller.setPollInterval(20);
+    poller.setMaxBackoff(320);
+    poller.start();
+    Thread.sleep(600);
+    poller.stop();
+    assertTrue(polls.get() >= 2);
+    assertTrue(polls.get() <= 8);
+
+    // The db cannot be opened in a missing directory
+    poller = new CheckinThread("data/maps/missing/checkins.sqlite3", out ->
+        out.add(new UserCheckin(1, "Ann", polls.incrementAndGet(),
+            41.82, -71.4)));
+    poller.setPollInterval(10);
+    poller.start();
+    try {
+      List<UserCheckin> checkins = new ArrayList<>();
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (checkins.size() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+        checkins.addAll(poller.getLatestCheckins(Integer.MAX_VALUE));
+      }
+      assertTrue(checkins.size() >= 3);
+      assertTrue(poller.getOneUsersCheckinsHandlerForGUI(1).isEmpty());
+      poller.deleteUserData(1);
+    } finally {
+      poller.stop();
+    }
+  }
+
+  /**
+   * A helper function which starts a checkin server which always gives the
+   * same response.
+   *
+   * @param status   an int, the response's status
+   * @param body     the response's body
+   * @param requests an AtomicInteger to count requests in
+   * @return the running HttpServer
+   * @throws IOException if the server cannot start
+   */
+  private static HttpServer serve(int status, String body,
+                                  AtomicInteger requests) throws IOException {
+    HttpServer server = HttpServer.create(
+        new InetSocketAddress("localhost", 0), 0);
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    server.createContext("/", exchange -> {
+      requests.incrementAndGet();
+      exchange.sendResponseHeaders(status,
+          bytes.length == 0 ? -1 : bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  /**
+   * A helper function which gets the URL of a checkin server.
+   *
+   * @param server the HttpServer
+   * @return its URL
+   */
+  private static String url(HttpServer server) {
+    return "http://localhost:" + server.getAddress().getPort() + "/";
+  }
+
+  /**
+   * A helper function which copies the checkins db, since CheckinThread
+   * clears it.
+   *
+   * @return the path of the copy, which is deleted on exit
+   * @throws IOException if the db cannot be copied
+   */
+  static String copyDb() throws IOException {
+    Path copy = Files.createTempFile("checkins", ".sqlite3");
+    copy.toFile().deleteOnExit();
+    Files.copy(Paths.get("data/maps/userCheckins.sqlite3"), copy,
+        StandardCopyOption.REPLACE_EXISTING);
+    return copy.toString();
+  }
+}
@@ -0,0 +1,128 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.List;
+
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.assertSameCost;
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.createRandomDatabase;
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the ContractionHierarchy class and its builder.
+ */
+public class ContractionHierarchyTest {
+
+  /**
+   * Tests that hierarchy routes cost exactly what Dijkstra's routes cost.
+   */
+  @Test
+  public void testMatchesDijkstra()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(250, 800, 3);
+    File sidecar = ContractionHierarchy.sidecarFor(dbFile.getPath());
+    try {
+      MapDatabase db = new MapDatabase(dbFile.getPath());
+      assertNull(db.getContractionHierarchy());
+      assertEquals(RouteAlgorithm.A_STAR, db.getDefaultRouteAlgorithm());
+
+      // Building also builds the RoadGraph, and saves the sidecar
+      ContractionHierarchy hierarchy = db.buildContractionHierarchy();
+      assertNotNull(hierarchy);
+      assertNotNull(db.getRoadGraph());
+      assertTrue(sidecar.isFile());
+      assertEquals(RouteAlgorithm.CONTRACTION_HIERARCHY,
+          db.getDefaultRouteAlgorithm());
+
+      RoadGraph graph = db.getRoadGraph();
+      for (int i = 0; i < graph.getNumNodes(); i += 3) {
+        for (int j = 0; j < graph.getNumNodes(); j += 7) {
+          Node start = graph.getNode(i);
+          Node end = graph.getNode(j);
+          List<Way> actual = start.contractionHierarchyPath(end);
+          assertSameCost(start.dijkstraPath(end), actual);
+          if (actual != null && !actual.isEmpty()) {
+            assertEquals(start, actual.get(0).getStart());
+            assertEquals(end, actual.get(actual.size() - 1).getEnd());
+          }
+        }
+      }
+    } finally {
+      assertTrue(!sidecar.exists() || sidecar.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that the sidecar file is loaded by setUpMapDatabase, and gives the
+   * same routes as the hierarchy which was saved.
+   */
+  @Test
+  public void testSidecar()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(120, 400, 17);
+    File sidecar = ContractionHierarchy.sidecarFor(dbFile.getPath());
+    try {
+      MapDatabase builtDb = new MapDatabase(dbFile.getPath());
+      ContractionHierarchy built = builtDb.buildContractionHierarchy();
+
+      // A lazy MapDatabase still loads the RoadGraph to use the sidecar
+      MapDatabase loadedDb = new MapDatabase(dbFile.getPath());
+      ContractionHierarchy loaded = loadedDb.getContractionHierarchy();
+      assertNotNull(loaded);
+      assertNotNull(loadedDb.getRoadGraph());
+      assertEquals(built.getNumShortcuts(), loaded.getNumShortcuts());
+
+      RoadGraph graph = loadedDb.getRoadGraph();
+      for (int i = 0; i < graph.getNumNodes(); i++) {
+        assertEquals(built.getRank(i), loaded.getRank(i));
+        for (int j = 0; j < graph.getNumNodes(); j += 5) {
+          Node start = graph.getNode(i);
+          Node end = graph.getNode(j);
+          assertSameCost(start.dijkstraPath(end), start.findPath(end,
+              loadedDb.getDefaultRouteAlgorithm()));
+        }
+      }
+    } finally {
+      assertTrue(!sidecar.exists() || sidecar.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that a sidecar built for a different database is ignored.
+   */
+  @Test
+  public void testMismatchedSidecar()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(50, 150, 1);
+    File otherDbFile = createRandomDatabase(50, 150, 2);
+    File sidecar = ContractionHierarchy.sidecarFor(dbFile.getPath());
+    File otherSidecar = ContractionHierarchy.sidecarFor(otherDbFile.getPath());
+    try {
+      new MapDatabase(otherDbFile.getPath()).buildContractionHierarchy();
+      Files.copy(otherSidecar.toPath(), sidecar.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+      MapDatabase db = new MapDatabase(dbFile.getPath());
+      assertNull(db.getContractionHierarchy());
+      assertEquals(RouteAlgorithm.A_STAR, db.getDefaultRouteAlgorithm());
+      // Asking for the hierarchy anyway falls back to bidirectional search
+      Node start = db.getNodeById("/n/0");
+      Node end = db.getNodeById("/n/1");
+      if (start != null && end != null) {
+        assertSameCost(start.dijkstraPath(end), start.findPath(end,
+            RouteAlgorithm.CONTRACTION_HIERARCHY));
+      }
+    } finally {
+      assertTrue(!sidecar.exists() || sidecar.delete());
+      assertTrue(!otherSidecar.exists() || otherSidecar.delete());
+      assertTrue(dbFile.delete());
+      assertTrue(otherDbFile.delete());
+    }
+  }
+}
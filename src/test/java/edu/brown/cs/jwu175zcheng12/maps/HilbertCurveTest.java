@@ -0,0 +1,64 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the HilbertCurve class.
+ */
+public class HilbertCurveTest {
+
+  private static final int SIDE = HilbertCurve.SIDE;
+
+  /**
+   * Tests that points come out in order along the curve, all the way to its
+   * far end, with points with a non-finite coordinate first.
+   */
+  @Test
+  public void testOrderFollowsCurve() {
+    Random random = new Random(10);
+    int n = 1000;
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    // The corners make the bounding box the whole grid, so each point lies
+    // exactly on a cell
+    double[][] fixed = {{0, 0}, {SIDE - 1, SIDE - 1}, {SIDE - 1, 0},
+        {SIDE - 1, 1}, {SIDE - 2, 0}, {SIDE / 2, 0}, {SIDE / 2 - 1, 0},
+        {Double.NaN, 5}, {5, Double.POSITIVE_INFINITY},
+        {Double.NEGATIVE_INFINITY, Double.NaN}};
+    for (int i = 0; i < n; i++) {
+      if (i < fixed.length) {
+        xs[i] = fixed[i][0];
+        ys[i] = fixed[i][1];
+      } else {
+        xs[i] = random.nextInt(SIDE);
+        ys[i] = random.nextInt(SIDE);
+      }
+    }
+    int[] order = HilbertCurve.order(xs, ys);
+
+    int[] sorted = order.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, sorted[i]);
+    }
+    int numNonFinite = 3;
+    for (int i = 0; i < numNonFinite; i++) {
+      assertTrue(order[i] >= fixed.length - numNonFinite);
+      assertTrue(order[i] < fixed.length);
+    }
+    long last = -1;
+    for (int i = numNonFinite; i < n; i++) {
+      long index = HilbertCurve.index((int) xs[order[i]], (int) ys[order[i]]);
+      assertTrue(index >= last);
+      last = index;
+    }
+    // The curve ends at the last cell of the bottom row
+    assertEquals((long) SIDE * SIDE - 1, HilbertCurve.index(SIDE - 1, 0));
+    assertEquals(2, order[n - 1]);
+  }
+}
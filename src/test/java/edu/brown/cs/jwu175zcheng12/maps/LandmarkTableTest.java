@@ -0,0 +1,108 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.List;
+
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.assertSameCost;
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.createRandomDatabase;
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.pathWeight;
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the LandmarkTable class, and A* searches which use it.
+ */
+public class LandmarkTableTest {
+
+  /**
+   * Tests that landmark estimates are lower bounds, and that A* with them
+   * finds paths as short as Dijkstra's while settling fewer Nodes.
+   */
+  @Test
+  public void testAdmissibleAndOptimal()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(300, 900, 23);
+    File sidecar = LandmarkTable.sidecarFor(dbFile.getPath());
+    try {
+      MapDatabase db = new MapDatabase(dbFile.getPath(), true);
+      assertNull(db.getLandmarkTable());
+      LandmarkTable table = db.buildLandmarkTable(8);
+      assertNotNull(table);
+      assertEquals(8, table.getNumLandmarks());
+      assertTrue(sidecar.isFile());
+
+      RoadGraph graph = db.getRoadGraph();
+      RouteEngine engine = db.getRouteEngine();
+      long dijkstraSettled = 0;
+      long altSettled = 0;
+      for (int i = 0; i < graph.getNumNodes(); i += 7) {
+        for (int j = 0; j < graph.getNumNodes(); j += 5) {
+          Node start = graph.getNode(i);
+          Node end = graph.getNode(j);
+          List<Way> expected = start.dijkstraPath(end);
+          dijkstraSettled += engine.lastSearchSettled();
+          List<Way> actual = start.aStarPath(end);
+          altSettled += engine.lastSearchSettled();
+          assertSameCost(expected, actual);
+          if (expected != null) {
+            assertTrue(table.estimate(start, end)
+                <= pathWeight(expected) + 1e-9);
+          }
+          // The same heuristic plugs into GeneralNode's search
+          assertSameCost(expected, start.runAStar(end, table));
+        }
+      }
+      assertTrue(altSettled < dijkstraSettled);
+      // Landmarks are the farthest-apart Nodes, so never repeat
+      for (int a = 0; a < table.getNumLandmarks(); a++) {
+        for (int b = a + 1; b < table.getNumLandmarks(); b++) {
+          assertNotSame(table.getLandmark(a), table.getLandmark(b));
+        }
+      }
+    } finally {
+      assertTrue(!sidecar.exists() || sidecar.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that the sidecar file is loaded by setUpMapDatabase, and that it
+   * is ignored for a different database.
+   */
+  @Test
+  public void testSidecar()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(100, 300, 29);
+    File sidecar = LandmarkTable.sidecarFor(dbFile.getPath());
+    File otherDbFile = createRandomDatabase(100, 300, 31);
+    File otherSidecar = LandmarkTable.sidecarFor(otherDbFile.getPath());
+    try {
+      LandmarkTable built =
+          new MapDatabase(dbFile.getPath()).buildLandmarkTable(4);
+      MapDatabase loadedDb = new MapDatabase(dbFile.getPath());
+      LandmarkTable loaded = loadedDb.getLandmarkTable();
+      assertNotNull(loaded);
+      assertNotNull(loadedDb.getRoadGraph());
+      assertEquals(built.getNumLandmarks(), loaded.getNumLandmarks());
+      RoadGraph graph = loadedDb.getRoadGraph();
+      for (int i = 0; i < graph.getNumNodes(); i += 3) {
+        for (int j = 0; j < graph.getNumNodes(); j += 3) {
+          assertEquals(built.estimate(i, j), loaded.estimate(i, j), 0);
+        }
+      }
+
+      // Copy the sidecar next to an unrelated database
+      Files.copy(sidecar.toPath(), otherSidecar.toPath());
+      assertNull(new MapDatabase(otherDbFile.getPath()).getLandmarkTable());
+    } finally {
+      assertTrue(!sidecar.exists() || sidecar.delete());
+      assertTrue(!otherSidecar.exists() || otherSidecar.delete());
+      assertTrue(dbFile.delete());
+      assertTrue(otherDbFile.delete());
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LiveUserIndexTest {
+
+  /**
+   * Tests the great-circle distance.
+   */
+  @Test
+  public void testDistance() {
+    assertEquals(0, LiveUserIndex.distance(41.82, -71.4, 41.82, -71.4), 0);
+    // A degree of latitude, or of longitude at the equator
+    assertEquals(111.195, LiveUserIndex.distance(41, -71.4, 42, -71.4), 1e-3);
+    assertEquals(111.195, LiveUserIndex.distance(0, 179.5, 0, -179.5), 1e-3);
+    assertEquals(Math.PI * LiveUserIndex.EARTH_RADIUS,
+        LiveUserIndex.distance(90, 0, -90, 0), 1e-9);
+  }
+
+  /**
+   * Tests that users are added, moved and removed, and that old checkins
+   * do not move them back.
+   */
+  @Test
+  public void testUpdates() {
+    LiveUserIndex index = new LiveUserIndex(0.01);
+    index.update(List.of(new UserCheckin(1, "Ann", 10, 41.82, -71.4),
+        new UserCheckin(2, "Bo", 10, 41.83, -71.4)));
+    assertEquals(2, index.size());
+    index.update(List.of(new UserCheckin(1, "Ann", 12, 41.9, -71.5),
+        new UserCheckin(1, "Ann", 11, 41.82, -71.4),
+        new UserCheckin(3, "Cy", 10, Double.NaN, -71.4)));
+    assertEquals(2, index.size());
+    assertEquals(41.9, index.get(1).getNthCoordinate(0), 0);
+    assertEquals(12, index.get(1).getCheckin().getTimestamp(), 0);
+    assertNull(index.get(3));
+
+    Double[] near = {41.82, -71.4};
+    List<LiveUserIndex.LiveUser> found = index.findRadiusSearch(2.0, near);
+    assertEquals(1, found.size());
+    assertEquals(2, found.get(0).getCheckin().getId());
+    found = index.findKNearestNeighbors(5, near);
+    assertEquals(2, found.size());
+    assertEquals(1, found.get(1).getCheckin().getId());
+
+    assertTrue(index.remove(2));
+    assertFalse(index.remove(2));
+    assertTrue(index.findRadiusSearch(2.0, near).isEmpty());
+    assertEquals(1, index.findKNearestNeighbors(1, near).size());
+    assertTrue(index.findKNearestNeighbors(0, near).isEmpty());
+  }
+
+  /**
+   * Tests queries against a brute force search, as users move around,
+   * including across the antimeridian and near the poles.
+   */
+  @Test
+  public void testAgainstBruteForce() {
+    Random random = new Random(0);
+    LiveUserIndex index = new LiveUserIndex(0.5);
+    Map<Integer, UserCheckin> latest = new HashMap<>();
+    for (int round = 0; round < 20; round++) {
+      List<UserCheckin> checkins = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        int id = random.nextInt(300);
+        UserCheckin checkin = new UserCheckin(id, "user" + id, round,
+            randomLat(random), randomLon(random));
+        checkins.add(checkin);
+        latest.put(id, checkin);
+      }
+      index.update(checkins);
+      int removed = random.nextInt(300);
+      assertEquals(latest.remove(removed) != null, index.remove(removed));
+      assertEquals(latest.size(), index.size());
+
+      for (int query = 0; query < 20; query++) {
+        double lat = randomLat(random);
+        double lon = randomLon(random);
+        Double[] target = {lat, lon};
+        List<Double> distances = new ArrayList<>();
+        for (UserCheckin checkin : latest.values()) {
+          distances.add(LiveUserIndex.distance(lat, lon, checkin.getLat(),
+              checkin.getLon()));
+        }
+        distances.sort(null);
+
+        double radius = 1000 * random.nextDouble();
+        List<LiveUserIndex.LiveUser> inRadius =
+            index.findRadiusSearch(radius, target);
+        long expected = distances.stream().filter(d -> d <= radius).count();
+        assertEquals(expected, inRadius.size());
+        checkSorted(inRadius, lat, lon, distances);
+
+        int k = random.nextInt(20);
+        List<LiveUserIndex.LiveUser> nearest =
+            index.findKNearestNeighbors(k, target);
+        assertEquals(Math.min(k, distances.size()), nearest.size());
+        checkSorted(nearest, lat, lon, distances);
+      }
+    }
+  }
+
+  /**
+   * A helper function which checks that users found are the closest, in
+   * order, and are where their latest checkins put them.
+   *
+   * @param found     the LiveUsers found
+   * @param lat       a double, the target's latitude
+   * @param lon       a double, the target's longitude
+   * @param distances the sorted distances of every user from the target
+   */
+  private static void checkSorted(List<LiveUserIndex.LiveUser> found,
+                                  double lat, double lon,
+                                  List<Double> distances) {
+    for (int i = 0; i < found.size(); i++) {
+      UserCheckin checkin = found.get(i).getCheckin();
+      assertEquals(checkin.getLat(), found.get(i).getNthCoordinate(0), 0);
+      assertEquals(distances.get(i), LiveUserIndex.distance(lat, lon,
+          checkin.getLat(), checkin.getLon()), 1e-9);
+    }
+  }
+
+  /**
+   * A helper function which picks a latitude, often near a pole.
+   *
+   * @param random a Random
+   * @return the latitude
+   */
+  private static double randomLat(Random random) {
+    return random.nextBoolean() ? 180 * random.nextDouble() - 90
+        : 88 + 2 * random.nextDouble();
+  }
+
+  /**
+   * A helper function which picks a longitude, often near the antimeridian.
+   *
+   * @param random a Random
+   * @return the longitude
+   */
+  private static double randomLon(Random random) {
+    return random.nextBoolean() ? 360 * random.nextDouble() - 180
+        : 178 + 4 * random.nextDouble() - 360 * random.nextInt(2);
+  }
+}
@@ -1,11 +1,15 @@
 package edu.brown.cs.jwu175zcheng12.maps;
 
+import com.google.gson.Gson;
 import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -88,6 +92,59 @@ public class MapDatabaseTest {
     tearDown();
   }
 
+  /**
+   * Tests the getNearestNodes() function.
+   */
+  @Test
+  public void testGetNearestNodes() {
+    setUp();
+    // Test Null Data case
+    assertNull(new MapDatabase().getNearestNodes(new double[]{0.0},
+        new double[]{0.0}));
+
+    // Test Mismatched Arrays case
+    assertNull(smallMapsDb.getNearestNodes(new double[]{0.0, 1.0},
+        new double[]{0.0}));
+
+    // Test Empty Data and Empty Batch cases
+    assertArrayEquals(new Node[]{null, null},
+        emptyMapsDb.getNearestNodes(new double[]{0.1, 0.2},
+            new double[]{1.0, 2.0}));
+    assertEquals(0, smallMapsDb.getNearestNodes(new double[0],
+        new double[0]).length);
+
+    // Test Get Nearest Nodes, in input order, skipping non-finite points
+    assertArrayEquals(new Node[]{new Node("/n/0", 41.82, -71.4), null,
+            new Node("/n/3", 41.82, -71.4003)},
+        smallMapsDb.getNearestNodes(new double[]{0.0, Double.NaN, 0.0},
+            new double[]{0.0, 0.0, -100.0}));
+
+    // Test a batch large enough to be split across threads
+    Random random = new Random(3);
+    double[] lats = new double[5000];
+    double[] lons = new double[5000];
+    for (int i = 0; i < lats.length; i++) {
+      lats[i] = 41.82 + (random.nextDouble() - 0.5) / 1000;
+      lons[i] = -71.4 + (random.nextDouble() - 0.5) / 1000;
+    }
+    Node[] nearest = smallMapsDb.getNearestNodes(lats, lons);
+    for (int i = 0; i < lats.length; i++) {
+      Double[] point = {lats[i], lons[i]};
+      assertEquals(smallMapsDb.getNearestNode(lats[i], lons[i])
+              .squaredEuclideanDistance(point),
+          nearest[i].squaredEuclideanDistance(point), 0);
+    }
+
+    // Test Tied Nodes
+    List<Node> possibleTiedNodes = new ArrayList<>();
+    possibleTiedNodes.add(new Node("/n/0", 10.0, 20.0));
+    possibleTiedNodes.add(new Node("/n/1", 10.0, 20.0));
+    possibleTiedNodes.add(new Node("/n/2", 10.0, 20.0));
+    assertTrue(possibleTiedNodes.contains(tiedMapsDb.getNearestNodes(
+        new double[]{10.0}, new double[]{19.0})[0]));
+    tearDown();
+  }
+
   /**
    * Tests the getNodeById() function.
    */
@@ -388,4 +445,45 @@ public class MapDatabaseTest {
 
     tearDown();
   }
+
+  /**
+   * Tests that streaming the ways and cells for the GUI writes the same
+   * ways and cells as getWaysAndCellsForGUI returns.
+   */
+  @Test
+  public void testWriteWaysAndCellsForGUI() throws IOException {
+    setUp();
+    assertFalse(new MapDatabase().writeWaysAndCellsForGUI(BigDecimal.ONE,
+        BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ONE,
+        WireFormat.JSON.encoder(new ByteArrayOutputStream())));
+    assertFalse(smallMapsDb.writeWaysAndCellsForGUI(BigDecimal.ZERO,
+        BigDecimal.ZERO, BigDecimal.ONE, BigDecimal.ONE,
+        WireFormat.JSON.encoder(new ByteArrayOutputStream())));
+
+    String[][] boxes = {
+        {"41.84", "-71.42", "41.8", "-71.38"},
+        {"41.830", "-71.41", "41.81", "-71.39"},
+        {"41.8206", "-71.4003", "41.82", "-71.4"},
+        {"10", "-10", "9.9", "-9.8"}};
+    for (MapDatabase db : new MapDatabase[] {smallMapsDb, nonTraversableDb,
+        emptyMapsDb}) {
+      for (String[] box : boxes) {
+        BigDecimal lat1 = new BigDecimal(box[0]);
+        BigDecimal lon1 = new BigDecimal(box[1]);
+        BigDecimal lat2 = new BigDecimal(box[2]);
+        BigDecimal lon2 = new BigDecimal(box[3]);
+        GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+            expected = db.getWaysAndCellsForGUI(lat1, lon1, lat2, lon2);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        assertTrue(db.writeWaysAndCellsForGUI(lat1, lon1, lat2, lon2,
+            WireFormat.JSON.encoder(json)));
+        MapTilesTest.WaysAndCells written = new Gson().fromJson(
+            json.toString(StandardCharsets.UTF_8),
+            MapTilesTest.WaysAndCells.class);
+        assertEquals(expected.getFirst(), written.getWays());
+        assertEquals(expected.getSecond(), written.getCells());
+      }
+    }
+    tearDown();
+  }
 }
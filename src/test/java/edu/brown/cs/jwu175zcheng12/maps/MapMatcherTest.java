@@ -0,0 +1,220 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MapMatcherTest {
+
+  // Chihiro Ave runs north along longitude -71.4, through /n/0, /n/1 and
+  // /n/2, 0.0003 degrees apart; Sootball Ln runs west from /n/1 to /n/4
+  private static final double SIGMA = 0.005;
+  private static final double BETA = 0.05;
+  private static final double SEARCH_RADIUS = 0.02;
+  private static final double MAX_GAP = 60;
+
+  private MapDatabase db;
+  private MapMatcher matcher;
+
+  @Before
+  public void setUp() throws SQLException, ClassNotFoundException {
+    db = new MapDatabase("data/maps/smallMaps.sqlite3");
+    matcher = new MapMatcher(db, SIGMA, BETA, SEARCH_RADIUS, MAX_GAP);
+  }
+
+  @After
+  public void tearDown() {
+    matcher.close();
+  }
+
+  /**
+   * Tests projecting a checkin onto a Way.
+   */
+  @Test
+  public void testProject() {
+    Way way = wayOf(db.getNodesNear(41.82, -71.4, 1e-6).get(0), "/w/0");
+    MapMatcher.MatchedCheckin match = MapMatcher.project(
+        new UserCheckin(1, "Ann", 0, 41.8201, -71.40001), way);
+    assertEquals(1.0 / 3, match.getFraction(), 1e-9);
+    assertEquals(41.8201, match.getLat(), 1e-9);
+    assertEquals(-71.4, match.getLon(), 1e-9);
+    assertEquals(LiveUserIndex.distance(41.8201, -71.40001, 41.8201, -71.4),
+        match.getDistance(), 1e-9);
+    // Past the end of the Way, the match is its end
+    match = MapMatcher.project(
+        new UserCheckin(1, "Ann", 0, 41.9, -71.4), way);
+    assertEquals(1, match.getFraction(), 0);
+    assertEquals(41.8203, match.getLat(), 1e-9);
+  }
+
+  /**
+   * Tests the RouteEngine's one-to-many distances against its shortest
+   * paths.
+   */
+  @Test
+  public void testDistances() {
+    RouteEngine engine = db.getRouteEngine();
+    Node start = db.getNodesNear(41.82, -71.4, 1e-6).get(0);
+    List<Node> targets = db.getNodesNear(41.8203, -71.40015, 0.001);
+    assertEquals(6, targets.size());
+    double[] distances =
+        engine.distances(start, targets.toArray(new Node[0]), 1);
+    for (int i = 0; i < distances.length; i++) {
+      double expected = 0;
+      for (Way way : engine.shortestPath(start, targets.get(i))) {
+        expected += way.getWeight();
+      }
+      assertEquals(expected, distances[i], 1e-9);
+    }
+    // A degree of latitude is about 111 km, so ways are about 0.033 km long
+    assertEquals(0.0334, engine.distances(start, new Node[]{
+        db.getNodesNear(41.8203, -71.4, 1e-6).get(0)}, 1)[0], 1e-3);
+    double[] tooFar =
+        engine.distances(start, targets.toArray(new Node[0]), 0.01);
+    for (int i = 0; i < tooFar.length; i++) {
+      assertEquals(targets.get(i).equals(start) ? 0 : Double.POSITIVE_INFINITY,
+          tooFar[i], 0);
+    }
+  }
+
+  /**
+   * Tests that checkins along a street match onto it, in order, and that
+   * earlier checkins are decided before the trace ends.
+   */
+  @Test
+  public void testMatchAlongStreet() {
+    double[] lats = {41.82005, 41.8201, 41.8202, 41.8204, 41.8205};
+    for (int i = 0; i < lats.length; i++) {
+      matcher.match(new UserCheckin(1, "Ann", i, lats[i], -71.40001));
+    }
+    assertFalse(matcher.getTrace(1).isEmpty());
+    matcher.finish(1);
+    assertEquals(List.of("/w/0", "/w/0", "/w/0", "/w/1", "/w/1"),
+        wayIds(matcher.getTrace(1)));
+    for (MapMatcher.MatchedCheckin match : matcher.getTrace(1)) {
+      assertEquals(-71.4, match.getLon(), 1e-9);
+      assertEquals(match.getCheckin().getLat(), match.getLat(), 1e-9);
+    }
+  }
+
+  /**
+   * Tests that a checkin nearer a side street than the main street, at a
+   * turn, matches onto the side street, and that a checkin far from any Way
+   * or out of order is skipped.
+   */
+  @Test
+  public void testMatchTurn() {
+    matcher.match(new UserCheckin(1, "Ann", 0, 41.8201, -71.40001));
+    matcher.match(new UserCheckin(1, "Ann", 1, 41.82028, -71.40001));
+    matcher.match(new UserCheckin(1, "Ann", 2, 45, -71.4));
+    matcher.match(new UserCheckin(1, "Ann", 3, 41.82029, -71.4001));
+    matcher.match(new UserCheckin(1, "Ann", 2.5, 41.82029, -71.4001));
+    matcher.match(new UserCheckin(1, "Ann", 4, 41.82029, -71.4002));
+    matcher.finish(1);
+    List<MapMatcher.MatchedCheckin> trace = matcher.getTrace(1);
+    assertEquals(List.of("/w/0", "/w/0", "/w/3", "/w/3"), wayIds(trace));
+    assertEquals(14.0 / 15, trace.get(1).getFraction(), 1e-3);
+    assertEquals(4, trace.get(3).getCheckin().getTimestamp(), 0);
+  }
+
+  /**
+   * Tests that a checkin decided at once, having one candidate, is still
+   * routed from by the next checkin, and still rejects an out of order one.
+   */
+  @Test
+  public void testMatchAfterDecided() {
+    // Within 10 m, the first checkin is only near Chihiro Ave; with beta
+    // 1 m, routes outweigh the second checkin being nearer Sootball Ln
+    MapMatcher strict = new MapMatcher(db, SIGMA, 0.001, 0.01, MAX_GAP);
+    try {
+      strict.match(new UserCheckin(1, "Ann", 10, 41.82015, -71.39999));
+      assertEquals(List.of("/w/0"), wayIds(strict.getTrace(1)));
+      strict.match(new UserCheckin(1, "Ann", 5, 41.82015, -71.39999));
+      strict.match(new UserCheckin(1, "Ann", 11, 41.82029, -71.40003));
+      strict.finish(1);
+      List<MapMatcher.MatchedCheckin> trace = strict.getTrace(1);
+      assertEquals(List.of("/w/0", "/w/0"), wayIds(trace));
+      assertEquals(10, trace.get(0).getCheckin().getTimestamp(), 0);
+      assertEquals(11, trace.get(1).getCheckin().getTimestamp(), 0);
+    } finally {
+      strict.close();
+    }
+  }
+
+  /**
+   * Tests that a long gap between checkins ends one trace and starts
+   * another, that users are matched apart, and that removed users are
+   * forgotten.
+   */
+  @Test
+  public void testGapsAndUsers() {
+    matcher.match(new UserCheckin(1, "Ann", 0, 41.8201, -71.40001));
+    matcher.match(new UserCheckin(2, "Bo", 0, 41.8204, -71.40001));
+    matcher.match(new UserCheckin(1, "Ann", 2 * MAX_GAP, 41.8202, -71.40001));
+    // The gap decided the first checkin, without waiting for the next
+    assertEquals(List.of("/w/0"), wayIds(matcher.getTrace(1)));
+    matcher.finish(1);
+    matcher.finish(2);
+    assertEquals(List.of("/w/0", "/w/0"), wayIds(matcher.getTrace(1)));
+    assertEquals(List.of("/w/1"), wayIds(matcher.getTrace(2)));
+    matcher.remove(2);
+    assertTrue(matcher.getTrace(2).isEmpty());
+    assertTrue(matcher.getTrace(3).isEmpty());
+  }
+
+  /**
+   * Tests matching on the matcher thread.
+   */
+  @Test
+  public void testAddAll() throws InterruptedException {
+    List<UserCheckin> checkins = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      checkins.add(new UserCheckin(1, "Ann", i * 2 * MAX_GAP,
+          41.8201, -71.40001));
+    }
+    matcher.addAll(checkins);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (matcher.getTrace(1).isEmpty()
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(List.of("/w/0"), wayIds(matcher.getTrace(1)));
+    assertEquals(0, matcher.getDropped());
+  }
+
+  /**
+   * A helper function which finds a Way out of a Node by its id.
+   *
+   * @param node  the Node
+   * @param wayId a String, the Way's id
+   * @return the Way
+   */
+  private static Way wayOf(Node node, String wayId) {
+    for (Way way : node.getWaysOut()) {
+      if (way.getWayId().equals(wayId)) {
+        return way;
+      }
+    }
+    throw new AssertionError("No way " + wayId);
+  }
+
+  /**
+   * A helper function which gets the ids of the Ways of a trace.
+   *
+   * @param trace the MatchedCheckins
+   * @return a List of their Ways' ids
+   */
+  private static List<String> wayIds(List<MapMatcher.MatchedCheckin> trace) {
+    List<String> ids = new ArrayList<>();
+    for (MapMatcher.MatchedCheckin match : trace) {
+      ids.add(match.getWay().getWayId());
+    }
+    return ids;
+  }
+}
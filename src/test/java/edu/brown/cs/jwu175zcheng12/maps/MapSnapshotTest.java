@@ -0,0 +1,283 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.assertSameCost;
+import static edu.brown.cs.jwu175zcheng12.maps.RoadGraphTest.createRandomDatabase;
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the MapSnapshot class.
+ */
+public class MapSnapshotTest {
+
+  /**
+   * Tests that a MapDatabase over a snapshot finds the same Nodes, nearest
+   * Nodes and routes as one over the database's tables, and still loads the
+   * other sidecars.
+   */
+  @Test
+  public void testMatchesDatabase()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(300, 900, 5);
+    File snapshotFile = MapSnapshot.sidecarFor(dbFile.getPath());
+    File altSidecar = LandmarkTable.sidecarFor(dbFile.getPath());
+    try {
+      MapDatabase tableDb = new MapDatabase(dbFile.getPath(), true);
+      tableDb.buildLandmarkTable(4);
+      assertEquals(snapshotFile, tableDb.exportSnapshot());
+      assertTrue(snapshotFile.isFile());
+
+      MapDatabase snapshotDb = new MapDatabase(dbFile.getPath());
+      RoadGraph tableGraph = tableDb.getRoadGraph();
+      RoadGraph snapshotGraph = snapshotDb.getRoadGraph();
+      assertNotNull(snapshotGraph);
+      assertEquals(tableGraph.getNumNodes(), snapshotGraph.getNumNodes());
+      assertEquals(tableGraph.getNumEdges(), snapshotGraph.getNumEdges());
+      assertEquals(tableGraph.fingerprint(), snapshotGraph.fingerprint());
+      // The landmarks were built over the same RoadGraph, so still load
+      assertNotNull(snapshotDb.getLandmarkTable());
+
+      for (int i = 0; i < tableGraph.getNumNodes(); i++) {
+        Node expected = tableGraph.getNode(i);
+        Node actual = snapshotDb.getNodeById(expected.getNodeId());
+        assertEquals(expected, actual);
+        assertSame(actual, snapshotGraph.getNode(i));
+        assertEquals(expected.getNthCoordinate(0),
+            actual.getNthCoordinate(0), 0);
+        assertEquals(expected.getNthCoordinate(1),
+            actual.getNthCoordinate(1), 0);
+        assertEquals(expected.getWaysOut(), actual.getWaysOut());
+      }
+      assertNull(snapshotDb.getNodeById("/n/missing"));
+
+      Random random = new Random(11);
+      double[] lats = new double[2000];
+      double[] lons = new double[2000];
+      for (int i = 0; i < lats.length; i++) {
+        lats[i] = 41.8 + random.nextDouble() / 10;
+        lons[i] = -71.4 + random.nextDouble() / 10;
+      }
+      Node[] tableBatch = tableDb.getNearestNodes(lats, lons);
+      Node[] snapshotBatch = snapshotDb.getNearestNodes(lats, lons);
+      for (int i = 0; i < lats.length; i++) {
+        Double[] point = {lats[i], lons[i]};
+        double expected = tableDb.getNearestNode(lats[i], lons[i])
+            .squaredEuclideanDistance(point);
+        assertEquals(expected, snapshotDb.getNearestNode(lats[i], lons[i])
+            .squaredEuclideanDistance(point), 0);
+        assertEquals(expected,
+            tableBatch[i].squaredEuclideanDistance(point), 0);
+        assertEquals(expected,
+            snapshotBatch[i].squaredEuclideanDistance(point), 0);
+        if (i % 20 == 0) {
+          double radius = random.nextDouble() / 50;
+          Set<Node> tableNear = new HashSet<>(
+              tableDb.getNodesNear(lats[i], lons[i], radius));
+          assertEquals(tableNear, new HashSet<>(
+              snapshotDb.getNodesNear(lats[i], lons[i], radius)));
+        }
+      }
+
+      for (int i = 0; i < snapshotGraph.getNumNodes(); i += 7) {
+        for (int j = 0; j < snapshotGraph.getNumNodes(); j += 11) {
+          Node tableStart = tableGraph.getNode(i);
+          Node tableEnd = tableGraph.getNode(j);
+          Node start = snapshotGraph.getNode(i);
+          Node end = snapshotGraph.getNode(j);
+          assertSameCost(tableStart.dijkstraPath(tableEnd),
+              start.dijkstraPath(end));
+          assertSameCost(tableStart.dijkstraPath(tableEnd),
+              start.aStarPath(end));
+        }
+      }
+    } finally {
+      assertTrue(!snapshotFile.exists() || snapshotFile.delete());
+      assertTrue(!altSidecar.exists() || altSidecar.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that exporting a snapshot over the one a MapDatabase has mapped
+   * leaves that MapDatabase working, and writes a snapshot which maps to
+   * the same graph.
+   */
+  @Test
+  public void testReexportOverMappedSnapshot()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(200, 600, 9);
+    File snapshotFile = MapSnapshot.sidecarFor(dbFile.getPath());
+    try {
+      new MapDatabase(dbFile.getPath(), true).exportSnapshot();
+      MapDatabase snapshotDb = new MapDatabase(dbFile.getPath());
+      RoadGraph mapped = snapshotDb.getRoadGraph();
+      assertNotNull(mapped);
+      long fingerprint = mapped.fingerprint();
+
+      // Twice, so the second replaces a snapshot nothing has read yet
+      assertEquals(snapshotFile, snapshotDb.exportSnapshot());
+      assertEquals(snapshotFile, snapshotDb.exportSnapshot());
+      assertEquals(fingerprint, mapped.fingerprint());
+      for (int i = 0; i < mapped.getNumNodes(); i += 13) {
+        assertSameCost(mapped.getNode(0).dijkstraPath(mapped.getNode(i)),
+            mapped.getNode(0).aStarPath(mapped.getNode(i)));
+      }
+      RoadGraph remapped = new MapDatabase(dbFile.getPath()).getRoadGraph();
+      assertNotNull(remapped);
+      assertEquals(fingerprint, remapped.fingerprint());
+      File[] leftovers = dbFile.getAbsoluteFile().getParentFile().listFiles(
+          (dir, name) -> name.startsWith(snapshotFile.getName())
+              && name.endsWith(".tmp"));
+      assertNotNull(leftovers);
+      assertEquals(0, leftovers.length);
+    } finally {
+      assertTrue(!snapshotFile.exists() || snapshotFile.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that mapping a snapshot leaves reading the ways for box queries
+   * until the first one, and that loading another map reads them again.
+   */
+  @Test
+  public void testWaysReadOnFirstBoxQuery()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(50, 150, 10);
+    File snapshotFile = MapSnapshot.sidecarFor(dbFile.getPath());
+    try {
+      new MapDatabase(dbFile.getPath()).exportSnapshot();
+      MapDatabase db = new MapDatabase(dbFile.getPath());
+      assertNotNull(db.getRoadGraph());
+      // A way added after the map was loaded is still found
+      try (Connection conn = DriverManager.getConnection(
+          "jdbc:sqlite:" + dbFile.getPath());
+           Statement stat = conn.createStatement()) {
+        stat.executeUpdate("INSERT INTO way VALUES "
+            + "('/w/late', 'Late St', 'residential', '/n/0', '/n/1');");
+      }
+      List<String> wayIds = db.getWayIdsInBox(90, -180, -90, 180);
+      assertEquals(151, wayIds.size());
+      assertTrue(wayIds.contains("/w/late"));
+
+      db.setUpMapDatabase("data/maps/smallMaps.sqlite3");
+      assertEquals(List.of("/w/0", "/w/1", "/w/2", "/w/3", "/w/4", "/w/5",
+          "/w/6"), db.getWayIdsInBox(90, -180, -90, 180));
+    } finally {
+      assertTrue(!snapshotFile.exists() || snapshotFile.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that null Way names and types stay null through a snapshot,
+   * rather than becoming empty strings.
+   */
+  @Test
+  public void testNullWayStrings()
+      throws SQLException, ClassNotFoundException, IOException {
+    String dbPath = "data/maps/smallMaps.sqlite3";
+    RoadGraph tableGraph = new MapDatabase(dbPath, true).getRoadGraph();
+    List<Node> nodes = new ArrayList<>();
+    Map<String, Node> nodeMap = new HashMap<>();
+    for (int i = 0; i < tableGraph.getNumNodes(); i++) {
+      nodes.add(tableGraph.getNode(i));
+      nodeMap.put(tableGraph.getNode(i).getNodeId(), tableGraph.getNode(i));
+    }
+    // Ways cannot be constructed with null strings, but could hold them
+    Map<String, Way> wayHashMap = new HashMap<>();
+    wayHashMap.put("/w/0", new Way("/w/0", nodeMap.get("/n/0"),
+        nodeMap.get("/n/1"), "", "residential") {
+      @Override
+      public String getName() {
+        return null;
+      }
+    });
+    wayHashMap.put("/w/1", new Way("/w/1", nodeMap.get("/n/1"),
+        nodeMap.get("/n/2"), "Chihiro Ave", "residential") {
+      @Override
+      public String getType() {
+        return null;
+      }
+    });
+    RoadGraph graph;
+    try (Connection conn = DriverManager.getConnection(
+        "jdbc:sqlite:" + dbPath)) {
+      graph = RoadGraph.load(conn, nodes, nodeMap, wayHashMap);
+    }
+    File snapshotFile = File.createTempFile("nullWays", ".snap");
+    try {
+      MapSnapshot.write(snapshotFile, new File(dbPath), graph);
+      MapSnapshot snapshot =
+          MapSnapshot.open(snapshotFile, new File(dbPath));
+      assertEquals(graph.getNumEdges(), snapshot.getNumEdges());
+      for (int e = 0; e < graph.getNumEdges(); e++) {
+        Way way = graph.getWay(e);
+        assertEquals(way.getWayId(), snapshot.wayId(e));
+        assertEquals(way.getName(), snapshot.wayName(e));
+        assertEquals(way.getType(), snapshot.wayType(e));
+      }
+      assertNull(snapshot.wayName(edgeOf(graph, "/w/0")));
+      assertEquals("Chihiro Ave", snapshot.wayName(edgeOf(graph, "/w/1")));
+      assertNull(snapshot.wayType(edgeOf(graph, "/w/1")));
+      assertEquals("residential", snapshot.wayType(edgeOf(graph, "/w/0")));
+      assertEquals("Radish Spirit Blvd",
+          snapshot.wayName(edgeOf(graph, "/w/2")));
+    } finally {
+      assertTrue(snapshotFile.delete());
+    }
+  }
+
+  /**
+   * A helper function which finds the edge of a Way in a RoadGraph.
+   *
+   * @param graph the RoadGraph
+   * @param wayId a String, the Way's id
+   * @return the edge's offset
+   */
+  private static int edgeOf(RoadGraph graph, String wayId) {
+    for (int e = 0; e < graph.getNumEdges(); e++) {
+      if (graph.getWay(e).getWayId().equals(wayId)) {
+        return e;
+      }
+    }
+    throw new AssertionError("No way " + wayId);
+  }
+
+  /**
+   * Tests that a snapshot is ignored once its database has changed.
+   */
+  @Test
+  public void testStaleSnapshot()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(50, 150, 8);
+    File snapshotFile = MapSnapshot.sidecarFor(dbFile.getPath());
+    try {
+      new MapDatabase(dbFile.getPath()).exportSnapshot();
+      assertNotNull(new MapDatabase(dbFile.getPath()).getRoadGraph());
+
+      assertTrue(dbFile.setLastModified(dbFile.lastModified() + 10_000));
+      MapDatabase db = new MapDatabase(dbFile.getPath());
+      assertNull(db.getRoadGraph());
+      assertNotNull(db.getNearestNode(41.85, -71.35));
+    } finally {
+      assertTrue(!snapshotFile.exists() || snapshotFile.delete());
+      assertTrue(dbFile.delete());
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import com.google.gson.Gson;
+import edu.brown.cs.jwu175zcheng12.repl.GeneralPair;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the MapTiles class.
+ */
+public class MapTilesTest {
+
+  /**
+   * Tests that values are put in the same cells as BigDecimal rounding would,
+   * including values on grid lines.
+   */
+  @Test
+  public void testCells() {
+    double[] values = {41.82, 41.8201, 41.8199, -71.4, -71.4001, -71.3999,
+        0.0, 0.01, -0.01, 0.07, 0.29, 1.005, 41.8206, -71.4003};
+    for (double value : values) {
+      BigDecimal decimal = BigDecimal.valueOf(value);
+      assertEquals(decimal.movePointRight(2)
+              .setScale(0, RoundingMode.CEILING).intValueExact(),
+          MapTiles.cellRow(value));
+      assertEquals(decimal.movePointRight(2)
+              .setScale(0, RoundingMode.FLOOR).intValueExact(),
+          MapTiles.cellColumn(value));
+    }
+    assertEquals("41.82", MapTiles.cellKey(4182));
+    assertEquals("-71.4", MapTiles.cellKey(-7140));
+    assertEquals("42", MapTiles.cellKey(4200));
+    assertEquals("0", MapTiles.cellKey(0));
+
+    assertTrue(MapTiles.isValidTile(0, -7140, 4182));
+    assertTrue(MapTiles.isValidTile(MapTiles.MAX_ZOOM, -1, -1));
+    assertFalse(MapTiles.isValidTile(-1, 0, 0));
+    assertFalse(MapTiles.isValidTile(MapTiles.MAX_ZOOM + 1, 0, 0));
+    assertFalse(MapTiles.isValidTile(0, 18001, 0));
+    assertFalse(MapTiles.isValidTile(0, 0, -9001));
+  }
+
+  /**
+   * Tests that tiles hold the same ways and cells as a ways-and-cells query,
+   * at every zoom, and that they are cached until a new map is loaded.
+   */
+  @Test
+  public void testTiles()
+      throws SQLException, ClassNotFoundException, IOException {
+    MapDatabase db = new MapDatabase("data/maps/smallMaps.sqlite3");
+    assertNull(tile(new MapDatabase(), 0, 0, 0));
+    assertNull(tile(db, MapTiles.MAX_ZOOM + 1, 0, 0));
+
+    // The cells with rows 4181 to 4184 and columns -7142 to -7139
+    GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+        expected = db.getWaysAndCellsForGUI(new BigDecimal("41.84"),
+        new BigDecimal("-71.42"), new BigDecimal("41.80"),
+        new BigDecimal("-71.38"));
+    assertFalse(expected.getFirst().isEmpty());
+    GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+        fromTiles = merge(db, 0, 4181, 4184, -7142, -7139);
+    assertEquals(expected.getFirst().keySet(), fromTiles.getFirst().keySet());
+    assertEquals(sorted(expected.getSecond()), sorted(fromTiles.getSecond()));
+    for (Map.Entry<String, Object> entry : expected.getFirst().entrySet()) {
+      Map<?, ?> expectedWay = (Map<?, ?>) entry.getValue();
+      Map<?, ?> way = (Map<?, ?>) fromTiles.getFirst().get(entry.getKey());
+      assertEquals(expectedWay.get("name"), way.get("name"));
+      assertEquals(expectedWay.get("type"), way.get("type"));
+      assertEquals(expectedWay.get("endLon"), way.get("endLon"));
+    }
+
+    // A tile at a higher zoom holds the cells of the tiles below it
+    for (int zoom = 1; zoom <= 3; zoom++) {
+      int size = 1 << zoom;
+      int x = Math.floorDiv(-7141, size);
+      int y = Math.floorDiv(4182, size);
+      GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+          tile = tile(db, zoom, x, y);
+      GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+          below = merge(db, 0, y * size, y * size + size - 1,
+          x * size, x * size + size - 1);
+      assertEquals(size, tile.getSecond().size());
+      assertEquals(below.getFirst().keySet(), tile.getFirst().keySet());
+      assertEquals(sorted(below.getSecond()), sorted(tile.getSecond()));
+    }
+
+    // Tiles are cached, and have ETags which depend on their contents
+    MapTiles tiles = new MapTiles(db, MapTiles.DEFAULT_MAX_SIZE);
+    assertNull(tiles.getTile(-1, 0, 0, WireFormat.JSON));
+    MapTiles.Tile tile = tiles.getTile(0, -7141, 4183, WireFormat.JSON);
+    assertTrue(new String(tile.getBody(), StandardCharsets.UTF_8)
+        .startsWith("{\"ways\":{"));
+    assertSame(tile, tiles.getTile(0, -7141, 4183, WireFormat.JSON));
+    assertEquals(1, tiles.getCache().getHitCount());
+    MapTiles.Tile empty = tiles.getTile(0, 0, 0, WireFormat.JSON);
+    assertNotEquals(tile.getEtag(), empty.getEtag());
+    // Each format is cached separately, with its own ETag
+    MapTiles.Tile binary = tiles.getTile(0, -7141, 4183, WireFormat.BINARY);
+    assertEquals('M', binary.getBody()[0]);
+    assertTrue(binary.getBody().length < tile.getBody().length);
+    assertNotEquals(tile.getEtag(), binary.getEtag());
+    assertSame(binary, tiles.getTile(0, -7141, 4183, WireFormat.BINARY));
+
+    // Loading a map empties the cache; an unchanged tile keeps its ETag
+    db.setUpMapDatabase("data/maps/smallMaps.sqlite3");
+    MapTiles.Tile reloaded = tiles.getTile(0, -7141, 4183, WireFormat.JSON);
+    assertNotSame(tile, reloaded);
+    assertEquals(tile.getEtag(), reloaded.getEtag());
+  }
+
+  /**
+   * A helper function which writes a tile, then parses it back.
+   *
+   * @param db   the MapDatabase
+   * @param zoom the tile's zoom
+   * @param x    the tile's column
+   * @param y    the tile's row
+   * @return the tile's ways and cells, or null if it was not written
+   * @throws IOException if the tile cannot be written
+   */
+  private static GeneralPair<Map<String, Object>,
+      Map<String, Map<String, List<String>>>> tile(
+      MapDatabase db, int zoom, int x, int y) throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    if (!db.writeWaysAndCellsForTile(zoom, x, y,
+        WireFormat.JSON.encoder(json))) {
+      return null;
+    }
+    WaysAndCells parsed = new Gson().fromJson(
+        json.toString(StandardCharsets.UTF_8), WaysAndCells.class);
+    return new GeneralPair<>(parsed.ways, parsed.cells);
+  }
+
+  /**
+   * A class which a ways-and-cells response is parsed into.
+   */
+  static final class WaysAndCells {
+    private Map<String, Object> ways;
+    private Map<String, Map<String, List<String>>> cells;
+
+    /**
+     * A getter function for this class' ways field.
+     *
+     * @return the ways
+     */
+    Map<String, Object> getWays() {
+      return this.ways;
+    }
+
+    /**
+     * A getter function for this class' cells field.
+     *
+     * @return the cells
+     */
+    Map<String, Map<String, List<String>>> getCells() {
+      return this.cells;
+    }
+  }
+
+  /**
+   * A helper function which merges the tiles covering some rows and columns.
+   *
+   * @param db          the MapDatabase
+   * @param zoom        the zoom of the tiles
+   * @param firstRow    the first tile row
+   * @param lastRow     the last tile row
+   * @param firstColumn the first tile column
+   * @param lastColumn  the last tile column
+   * @return the merged ways and cells
+   * @throws IOException if a tile cannot be written
+   */
+  private static GeneralPair<Map<String, Object>,
+      Map<String, Map<String, List<String>>>> merge(
+      MapDatabase db, int zoom, int firstRow, int lastRow,
+      int firstColumn, int lastColumn) throws IOException {
+    Map<String, Object> ways = new HashMap<>();
+    Map<String, Map<String, List<String>>> cells = new HashMap<>();
+    for (int y = firstRow; y <= lastRow; y++) {
+      for (int x = firstColumn; x <= lastColumn; x++) {
+        GeneralPair<Map<String, Object>, Map<String, Map<String, List<String>>>>
+            tile = tile(db, zoom, x, y);
+        ways.putAll(tile.getFirst());
+        for (Map.Entry<String, Map<String, List<String>>> row
+            : tile.getSecond().entrySet()) {
+          cells.computeIfAbsent(row.getKey(), k -> new HashMap<>())
+              .putAll(row.getValue());
+        }
+      }
+    }
+    return new GeneralPair<>(ways, cells);
+  }
+
+  /**
+   * A helper function which copies cells with their lists of ways sorted.
+   *
+   * @param cells the cells
+   * @return the sorted copy
+   */
+  private static Map<String, Map<String, List<String>>> sorted(
+      Map<String, Map<String, List<String>>> cells) {
+    Map<String, Map<String, List<String>>> copy = new HashMap<>();
+    for (Map.Entry<String, Map<String, List<String>>> row : cells.entrySet()) {
+      Map<String, List<String>> rowCopy = new HashMap<>();
+      for (Map.Entry<String, List<String>> cell : row.getValue().entrySet()) {
+        List<String> ways = new ArrayList<>(cell.getValue());
+        Collections.sort(ways);
+        rowCopy.put(cell.getKey(), ways);
+      }
+      copy.put(row.getKey(), rowCopy);
+    }
+    return copy;
+  }
+}
@@ -131,6 +131,47 @@ public class NodeAndWaysTest {
     assertSameContents(Arrays.asList(way02, way01), n0.getWaysOut());
   }
 
+  /**
+   * Tests that Ways are weighed by the great-circle distance between their
+   * ends, in kilometres, and that routes follow those distances
+   */
+  @Test
+  public void testWayWeights() {
+
+    // Tests distances between Nodes
+    Node providence = new Node("providence", 41.824, -71.4128);
+    Node boston = new Node("boston", 42.3601, -71.0589);
+    assertEquals(66.3797, providence.distanceTo(boston), 1e-4);
+    assertEquals(66.3797, boston.distanceTo(providence), 1e-4);
+    assertEquals(0, providence.distanceTo(providence), 0);
+    // A degree of latitude, and of longitude at the equator, across 180
+    assertEquals(111.1949, new Node("a", 41.82, -71.4)
+        .distanceTo(new Node("b", 42.82, -71.4)), 1e-4);
+    assertEquals(111.1949, new Node("c", 0., 179.5)
+        .distanceTo(new Node("d", 0., -179.5)), 1e-4);
+    assertEquals(66.3797,
+        new Way("pvd-bos", providence, boston, "", "road").getWeight(), 1e-4);
+
+    // Tests that a route takes two short Ways over a long detour, which
+    // summing coordinates (rather than differencing them) weighed as shorter
+    Node a = new Node("a", 41.82, -71.40);
+    Node near = new Node("near", 41.83, -71.40);
+    Node far = new Node("far", 40.8, -70.4);
+    Node d = new Node("d", 41.84, -71.40);
+    Way aNear = new Way("a-near", a, near, "", "road");
+    Way nearD = new Way("near-d", near, d, "", "road");
+    Way aFar = new Way("a-far", a, far, "", "road");
+    Way farD = new Way("far-d", far, d, "", "road");
+    a.setWaysOut(Arrays.asList(aFar, aNear));
+    near.setWaysOut(Collections.singletonList(nearD));
+    far.setWaysOut(Collections.singletonList(farD));
+    d.setWaysOut(Collections.emptyList());
+    assertEquals(Arrays.asList(aNear, nearD), a.dijkstraPath(d));
+    assertEquals(Arrays.asList(aNear, nearD), a.aStarPath(d));
+    assertEquals(2.2239, aNear.getWeight() + nearD.getWeight(), 1e-4);
+    assertEquals(283.494, aFar.getWeight() + farD.getWeight(), 1e-3);
+  }
+
   // ------------------------ Database Interactions ------------------------
 
   /**
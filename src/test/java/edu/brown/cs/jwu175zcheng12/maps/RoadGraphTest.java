@@ -0,0 +1,326 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import edu.brown.cs.jwu175zcheng12.graph.IndexedMinHeap;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the RoadGraph class, and pathfinding over it.
+ */
+public class RoadGraphTest {
+
+  /**
+   * Tests that the RoadGraph holds exactly the traversable Ways.
+   */
+  @Test
+  public void testLoad() throws SQLException, ClassNotFoundException {
+    MapDatabase lazyDb = new MapDatabase("data/maps/tinyMaps.sqlite3");
+    MapDatabase graphDb = new MapDatabase("data/maps/tinyMaps.sqlite3", true);
+
+    // Lazy databases have no RoadGraph
+    assertNull(lazyDb.getRoadGraph());
+    assertNull(new MapDatabase().getRoadGraph());
+
+    // Only the 6 traversable Ways make it in
+    RoadGraph graph = graphDb.getRoadGraph();
+    assertNotNull(graph);
+    assertEquals(5, graph.getNumNodes());
+    assertEquals(6, graph.getNumEdges());
+
+    // Every Node's ways out match a database query, and share identity
+    for (int i = 0; i < graph.getNumNodes(); i++) {
+      Node node = graph.getNode(i);
+      assertEquals(i, node.getGraphIndex());
+      assertSame(node, graphDb.getNodeById(node.getNodeId()));
+      Collection<Way> fromGraph = node.getWaysOut();
+      assertEquals(new HashSet<>(fromGraph),
+          graphDb.getWaysInOrOutOfNode(node.getNodeId(), true));
+      for (Way way : fromGraph) {
+        assertSame(way, graphDb.getWayById(way.getWayId()));
+      }
+      // Same for ways in, through the reverse CSR structure
+      assertEquals(new HashSet<>(node.getWaysIn()),
+          graphDb.getWaysInOrOutOfNode(node.getNodeId(), false));
+      for (int p = graph.firstIn(i); p < graph.endIn(i); p++) {
+        assertEquals(i, graph.target(graph.inEdge(p)));
+        assertSame(graph.getNode(graph.source(graph.inEdge(p))),
+            graph.getWay(graph.inEdge(p)).getStart());
+      }
+    }
+  }
+
+  /**
+   * Tests that bidirectional search finds paths as short as Dijkstra's, with
+   * and without a RoadGraph, while settling fewer Nodes.
+   */
+  @Test
+  public void testBidirectional()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(300, 900, 11);
+    try {
+      MapDatabase lazyDb = new MapDatabase(dbFile.getPath());
+      MapDatabase graphDb = new MapDatabase(dbFile.getPath(), true);
+      RoadGraph graph = graphDb.getRoadGraph();
+      RouteEngine engine = graphDb.getRouteEngine();
+      long oneWaySettled = 0;
+      long twoWaySettled = 0;
+      for (int i = 0; i < graph.getNumNodes(); i += 5) {
+        for (int j = 0; j < graph.getNumNodes(); j += 11) {
+          Node start = graph.getNode(i);
+          Node end = graph.getNode(j);
+          List<Way> expected = start.dijkstraPath(end);
+          oneWaySettled += engine.lastSearchSettled();
+          List<Way> actual = start.bidirectionalPath(end);
+          twoWaySettled += engine.lastSearchSettled();
+          assertSameCost(expected, actual);
+          assertSameCost(expected, start.findPath(end,
+              RouteAlgorithm.BIDIRECTIONAL));
+          // Paths must actually run from start to end
+          if (actual != null && !actual.isEmpty()) {
+            assertEquals(start, actual.get(0).getStart());
+            assertEquals(end, actual.get(actual.size() - 1).getEnd());
+          }
+          // Without a RoadGraph, ways in come from the database
+          assertSameCost(expected, lazyDb.getNodeById(start.getNodeId())
+              .bidirectionalPath(lazyDb.getNodeById(end.getNodeId())));
+        }
+      }
+      assertTrue(twoWaySettled < oneWaySettled);
+    } finally {
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that bidirectional search falls back to a one-directional search
+   * for Nodes built by hand, and that algorithms are looked up by name.
+   */
+  @Test
+  public void testBidirectionalWithoutDatabase()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(40, 120, 5);
+    try {
+      MapDatabase graphDb = new MapDatabase(dbFile.getPath(), true);
+      RoadGraph graph = graphDb.getRoadGraph();
+      List<Node> handBuilt = copyWithoutDatabase(graph);
+      for (int i = 0; i < graph.getNumNodes(); i++) {
+        for (int j = 0; j < graph.getNumNodes(); j += 3) {
+          assertSameCost(graph.getNode(i).dijkstraPath(graph.getNode(j)),
+              handBuilt.get(i).bidirectionalPath(handBuilt.get(j)));
+        }
+      }
+    } finally {
+      assertTrue(dbFile.delete());
+    }
+    assertEquals(RouteAlgorithm.A_STAR, RouteAlgorithm.fromName("astar"));
+    assertEquals(RouteAlgorithm.BIDIRECTIONAL,
+        RouteAlgorithm.fromName("Bidirectional"));
+    assertNull(RouteAlgorithm.fromName("teleport"));
+  }
+
+  /**
+   * Tests that routes over a RoadGraph match routes found lazily.
+   */
+  @Test
+  public void testPathsMatchLazyDatabase()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(60, 240, 32);
+    try {
+      MapDatabase lazyDb = new MapDatabase(dbFile.getPath());
+      MapDatabase graphDb = new MapDatabase(dbFile.getPath(), true);
+      RoadGraph graph = graphDb.getRoadGraph();
+      for (int i = 0; i < graph.getNumNodes(); i++) {
+        for (int j = 0; j < graph.getNumNodes(); j += 7) {
+          Node start = graph.getNode(i);
+          Node end = graph.getNode(j);
+          List<Way> expected = lazyDb.getNodeById(start.getNodeId())
+              .dijkstraPath(lazyDb.getNodeById(end.getNodeId()));
+          assertSameCost(expected, start.dijkstraPath(end));
+          assertSameCost(expected, start.aStarPath(end));
+        }
+      }
+    } finally {
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests that the RouteEngine agrees with the HashMap-based search used for
+   * Nodes built by hand.
+   */
+  @Test
+  public void testEngineMatchesHashMapSearch()
+      throws SQLException, ClassNotFoundException, IOException {
+    File dbFile = createRandomDatabase(80, 300, 7);
+    try {
+      MapDatabase graphDb = new MapDatabase(dbFile.getPath(), true);
+      RoadGraph graph = graphDb.getRoadGraph();
+      List<Node> handBuilt = copyWithoutDatabase(graph);
+      for (int i = 0; i < graph.getNumNodes(); i += 3) {
+        for (int j = 0; j < graph.getNumNodes(); j++) {
+          assertSameCost(handBuilt.get(i).dijkstraPath(handBuilt.get(j)),
+              graph.getNode(i).aStarPath(graph.getNode(j)));
+        }
+      }
+    } finally {
+      assertTrue(dbFile.delete());
+    }
+  }
+
+  /**
+   * Tests the IndexedMinHeap used by the RouteEngine.
+   */
+  @Test
+  public void testIndexedMinHeap() {
+    IndexedMinHeap heap = new IndexedMinHeap(10);
+    assertTrue(heap.isEmpty());
+    assertTrue(heap.insertOrDecrease(3, 5.));
+    assertTrue(heap.insertOrDecrease(7, 2.));
+    assertTrue(heap.insertOrDecrease(1, 9.));
+    assertTrue(heap.insertOrDecrease(4, 4.));
+    assertTrue(heap.insertOrDecrease(0, 6.));
+    assertTrue(heap.insertOrDecrease(9, 8.));
+    // Keys are never raised
+    assertFalse(heap.insertOrDecrease(7, 3.));
+    // Decrease-key moves an id up in place
+    assertTrue(heap.insertOrDecrease(1, 1.));
+    assertEquals(6, heap.size());
+    assertEquals(1., heap.peekKey(), 0);
+    int[] expectedOrder = {1, 7, 4, 3, 0, 9};
+    for (int id : expectedOrder) {
+      assertTrue(heap.contains(id));
+      assertEquals(id, heap.poll());
+      assertFalse(heap.contains(id));
+    }
+    assertTrue(heap.isEmpty());
+    // Clearing forgets every id
+    heap.insertOrDecrease(2, 1.);
+    heap.insertOrDecrease(5, 1.);
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertFalse(heap.contains(2));
+    assertFalse(heap.contains(5));
+  }
+
+  // --------------------------- Helper Functions --------------------------
+
+  /**
+   * A helper function which copies a RoadGraph into Nodes and Ways which
+   * belong to no MapDatabase, so that they are searched the HashMap way.
+   *
+   * @param graph a RoadGraph
+   * @return a List of copied Nodes, where the i-th is a copy of Node i
+   */
+  static List<Node> copyWithoutDatabase(RoadGraph graph) {
+    List<Node> copies = new ArrayList<>();
+    for (int i = 0; i < graph.getNumNodes(); i++) {
+      Node node = graph.getNode(i);
+      copies.add(new Node(node.getNodeId(),
+          node.getNthCoordinate(0), node.getNthCoordinate(1)));
+    }
+    for (int i = 0; i < graph.getNumNodes(); i++) {
+      List<Way> waysOut = new ArrayList<>();
+      for (int e = graph.firstOut(i); e < graph.endOut(i); e++) {
+        Way way = graph.getWay(e);
+        waysOut.add(new Way(way.getWayId(), copies.get(i),
+            copies.get(graph.target(e)), way.getName(), way.getType()));
+      }
+      copies.get(i).setWaysOut(waysOut);
+    }
+    return copies;
+  }
+
+  /**
+   * A helper function which writes a random map database to a temporary file.
+   * Roughly a tenth of the Ways are non-traversable.
+   *
+   * @param numNodes the number of Nodes to generate
+   * @param numWays  the number of Ways to generate
+   * @param seed     the seed for the random generator
+   * @return the temporary database File, which the caller should delete
+   */
+  static File createRandomDatabase(int numNodes, int numWays, long seed)
+      throws IOException, SQLException {
+    Random random = new Random(seed);
+    File dbFile = File.createTempFile("randomMaps", ".sqlite3");
+    try (Connection conn =
+             DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath())) {
+      try (Statement stat = conn.createStatement()) {
+        stat.executeUpdate("CREATE TABLE node "
+            + "(id text primary key, latitude real, longitude real);");
+        stat.executeUpdate("CREATE TABLE way "
+            + "(id text, name text, type text, start text, end text);");
+      }
+      conn.setAutoCommit(false);
+      try (PreparedStatement prep = conn.prepareStatement(
+          "INSERT INTO node VALUES (?, ?, ?);")) {
+        for (int i = 0; i < numNodes; i++) {
+          prep.setString(1, "/n/" + i);
+          prep.setDouble(2, 41.8 + random.nextDouble() / 10);
+          prep.setDouble(3, -71.4 + random.nextDouble() / 10);
+          prep.addBatch();
+        }
+        prep.executeBatch();
+      }
+      try (PreparedStatement prep = conn.prepareStatement(
+          "INSERT INTO way VALUES (?, ?, ?, ?, ?);")) {
+        for (int i = 0; i < numWays; i++) {
+          int start = random.nextInt(numNodes);
+          int end = random.nextInt(numNodes);
+          prep.setString(1, "/w/" + i);
+          prep.setString(2, "Street " + (i % 17));
+          prep.setString(3, random.nextInt(10) == 0 ? "" : "residential");
+          prep.setString(4, "/n/" + start);
+          prep.setString(5, "/n/" + end);
+          prep.addBatch();
+        }
+        prep.executeBatch();
+      }
+      conn.commit();
+    }
+    return dbFile;
+  }
+
+  /**
+   * A helper function which asserts that two paths are either both null, or
+   * both connected and of the same total weight.
+   *
+   * @param expected the expected path
+   * @param actual   the actual path
+   */
+  static void assertSameCost(List<Way> expected, List<Way> actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertNotNull(actual);
+    for (int i = 1; i < actual.size(); i++) {
+      assertEquals(actual.get(i - 1).getEnd(), actual.get(i).getStart());
+    }
+    assertEquals(pathWeight(expected), pathWeight(actual), 1e-9);
+  }
+
+  /**
+   * A helper function which sums the weights of a path's Ways.
+   *
+   * @param path a List of Ways
+   * @return the total weight of the path
+   */
+  static double pathWeight(List<Way> path) {
+    return path.stream().mapToDouble(Way::getWeight).sum();
+  }
+}
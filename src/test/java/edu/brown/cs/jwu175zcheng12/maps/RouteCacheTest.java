@@ -0,0 +1,67 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import static edu.brown.cs.jwu175zcheng12.maps.WireFormat.BINARY;
+import static edu.brown.cs.jwu175zcheng12.maps.WireFormat.JSON;
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the RouteCache class.
+ */
+public class RouteCacheTest {
+
+  /**
+   * Tests that responses are keyed by Nodes, algorithm and format, and
+   * dropped when the map version changes.
+   */
+  @Test
+  public void testKeysAndInvalidation()
+      throws SQLException, ClassNotFoundException {
+    RouteCache cache = new RouteCache(1000);
+    assertNull(cache.get(0, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON));
+    cache.put(0, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON,
+        bytes("route01"));
+    cache.put(0, "/n/1", "/n/0", RouteAlgorithm.A_STAR, JSON,
+        bytes("route10"));
+    cache.put(0, "/n/0", "/n/1", RouteAlgorithm.DIJKSTRA, JSON,
+        bytes("dijkstra01"));
+    assertArrayEquals(bytes("route01"),
+        cache.get(0, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON));
+    assertArrayEquals(bytes("route10"),
+        cache.get(0, "/n/1", "/n/0", RouteAlgorithm.A_STAR, JSON));
+    assertArrayEquals(bytes("dijkstra01"),
+        cache.get(0, "/n/0", "/n/1", RouteAlgorithm.DIJKSTRA, JSON));
+    // Each format is cached separately
+    assertNull(cache.get(0, "/n/0", "/n/1", RouteAlgorithm.A_STAR, BINARY));
+    assertEquals(3, cache.getCache().getHitCount());
+    assertEquals(2, cache.getCache().getMissCount());
+
+    // A newer map version empties the cache
+    assertNull(cache.get(1, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON));
+    assertEquals(0, cache.getCache().getSize());
+    // A route found on the old map is never served for the new one
+    cache.put(0, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON,
+        bytes("stale"));
+    assertNull(cache.get(1, "/n/0", "/n/1", RouteAlgorithm.A_STAR, JSON));
+
+    // Loading a map changes its version
+    MapDatabase db = new MapDatabase("data/maps/smallMaps.sqlite3");
+    long version = db.getMapVersion();
+    db.setUpMapDatabase("data/maps/smallMaps.sqlite3");
+    assertTrue(db.getMapVersion() > version);
+  }
+
+  /**
+   * A helper function which encodes a String as UTF-8.
+   *
+   * @param s a String
+   * @return its bytes
+   */
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+}
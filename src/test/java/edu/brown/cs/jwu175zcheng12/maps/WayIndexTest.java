@@ -0,0 +1,96 @@
+package edu.brown.cs.jwu175zcheng12.maps;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * A class which tests the WayIndex class.
+ */
+public class WayIndexTest {
+
+  /**
+   * Tests that box queries find the same ways as the bounding box join they
+   * replace, including boxes on cell lines and boxes holding no ends.
+   */
+  @Test
+  public void testFindWaysMatchesQuery()
+      throws SQLException, ClassNotFoundException {
+    String[] paths = {"data/maps/smallMaps.sqlite3",
+        "data/maps/smallMapsWithNontraversables.sqlite3",
+        "data/maps/tied.sqlite3", "data/maps/empty.sqlite3"};
+    Class.forName("org.sqlite.JDBC");
+    Random random = new Random(14);
+    for (String path : paths) {
+      try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path)) {
+        WayIndex index = WayIndex.load(conn);
+        List<double[]> boxes = new ArrayList<>();
+        boxes.add(new double[] {90, -180, -90, 180});
+        boxes.add(new double[] {41.83, -71.41, 41.82, -71.4});
+        boxes.add(new double[] {41.8206, -71.4003, 41.82, -71.4});
+        boxes.add(new double[] {41.82, -71.4, 41.82, -71.4});
+        boxes.add(new double[] {1, 1, 0, 0});
+        for (int i = 0; i < 200; i++) {
+          double lat = 41.8195 + random.nextDouble() * 0.0015;
+          double lon = -71.4010 + random.nextDouble() * 0.0015;
+          boxes.add(new double[] {lat, lon, lat - random.nextDouble() * 0.001,
+              lon + random.nextDouble() * 0.001});
+        }
+        for (double[] box : boxes) {
+          List<String> found = new ArrayList<>();
+          for (int way : index.findWays(box[0], box[1], box[2], box[3])) {
+            found.add(index.getId(way));
+          }
+          assertEquals(path, query(conn, box), found);
+        }
+        // Backwards boxes hold nothing
+        assertEquals(0, index.findEnds(0, 0, 1, 1).length);
+      }
+    }
+  }
+
+  /**
+   * A helper function which finds the ways in a box with the bounding box
+   * join once used by MapDatabase.
+   *
+   * @param conn a Connection to the database
+   * @param box  the box, as [lat1, lon1, lat2, lon2]
+   * @return the ids of the ways in the box, sorted
+   * @throws SQLException if the query fails
+   */
+  private static List<String> query(Connection conn, double[] box)
+      throws SQLException {
+    List<String> wayIds = new ArrayList<>();
+    try (PreparedStatement prep = conn.prepareStatement(
+        "SELECT way.id FROM way "
+            + "INNER JOIN node s ON way.start == s.id "
+            + "INNER JOIN node e ON way.end == e.id "
+            + "WHERE (s.latitude <= ? AND s.latitude >= ? "
+            + "AND s.longitude >= ? AND s.longitude <= ?) "
+            + "OR (e.latitude <= ? AND e.latitude >= ? "
+            + "AND e.longitude >= ? AND e.longitude <= ?) "
+            + "ORDER BY way.id;")) {
+      for (int i = 0; i < 2; i++) {
+        prep.setDouble(4 * i + 1, box[0]);
+        prep.setDouble(4 * i + 2, box[2]);
+        prep.setDouble(4 * i + 3, box[1]);
+        prep.setDouble(4 * i + 4, box[3]);
+      }
+      try (ResultSet rs = prep.executeQuery()) {
+        while (rs.next()) {
+          wayIds.add(rs.getString(1));
+        }
+      }
+    }
+    return wayIds;
+  }
+}
@@ -0,0 +1,169 @@
+package edu.brown.cs.jwu175zcheng12.stars;
+
+import edu.brown.cs.jwu175zcheng12.csvdataset.StarDataset;
+import edu.brown.cs.jwu175zcheng12.kdtree.FlatKDTree;
+import edu.brown.cs.jwu175zcheng12.kdtree.KDTree;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FlatKDTreeTest {
+
+  /**
+   * Makes a list of random Stars on a coarse grid, so that many are tied.
+   */
+  private static List<Star> randomStars(int n, Random random) {
+    List<Star> stars = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      stars.add(new Star(i, "star" + i, random.nextInt(20),
+          random.nextInt(20), random.nextInt(20)));
+    }
+    return stars;
+  }
+
+  /**
+   * Tests that kNN and radius searches return the same distances as a
+   * naive scan, and that ties for the last place are broken at random.
+   */
+  @Test
+  public void matchesNaiveSearch() {
+    Random random = new Random(42);
+    List<Star> stars = randomStars(2000, random);
+    FlatKDTree<Star> tree = new FlatKDTree<>(3, stars);
+    assertEquals(2000, tree.size());
+    for (int q = 0; q < 200; q++) {
+      Double[] target = {random.nextDouble() * 20, random.nextDouble() * 20,
+          random.nextDouble() * 20};
+      List<Star> sorted = new ArrayList<>(stars);
+      sorted.sort(Comparator.comparingDouble(
+          star -> star.squaredEuclideanDistance(target)));
+
+      int k = random.nextInt(30);
+      List<Star> nearest = tree.findKNearestNeighbors(k, target);
+      assertEquals(k, nearest.size());
+      for (int i = 0; i < k; i++) {
+        assertEquals(sorted.get(i).squaredEuclideanDistance(target),
+            nearest.get(i).squaredEuclideanDistance(target), 0);
+      }
+
+      double r = random.nextDouble() * 4;
+      List<Star> within = tree.findRadiusSearch(r, target);
+      int expected = 0;
+      while (expected < sorted.size()
+          && sorted.get(expected).squaredEuclideanDistance(target) <= r * r) {
+        expected++;
+      }
+      assertEquals(expected, within.size());
+      for (int i = 0; i < expected; i++) {
+        assertEquals(sorted.get(i).squaredEuclideanDistance(target),
+            within.get(i).squaredEuclideanDistance(target), 0);
+      }
+    }
+
+    // Eight Stars tie for nearest to the centre of a cube
+    List<Star> cube = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      cube.add(new Star(i, "corner" + i, i & 1, (i >> 1) & 1, (i >> 2) & 1));
+    }
+    FlatKDTree<Star> cubeTree = new FlatKDTree<>(3, cube);
+    Set<Star> seen = new HashSet<>();
+    for (int i = 0; i < 200; i++) {
+      seen.addAll(cubeTree.findKNearestNeighbors(1,
+          new Double[]{0.5, 0.5, 0.5}));
+    }
+    assertEquals(8, seen.size());
+  }
+
+  /**
+   * Tests that the flat tree agrees with the KDTree on the star datasets.
+   */
+  @Test
+  public void matchesKDTree() {
+    StarDataset radStarDataset = new StarDataset();
+    radStarDataset.loadData("data/stars/stars-radius-13-from-origin.csv", true);
+    List<Star> stars = new ArrayList<>(radStarDataset.getAllData());
+    FlatKDTree<Star> flat = new FlatKDTree<>(3, stars);
+    KDTree<Star> tree = new KDTree<>(3, new ArrayList<>(stars));
+    Double[] origin = {0., 0., 0.};
+    assertEquals(new HashSet<>(tree.findRadiusSearch(13., origin)),
+        new HashSet<>(flat.findRadiusSearch(13., origin)));
+    assertEquals(tree.findKNearestNeighbors(stars.size(), origin).size(),
+        flat.findKNearestNeighbors(stars.size() + 5, origin).size());
+  }
+
+  /**
+   * Tests that a tree large enough to be arranged in parallel still holds
+   * the layout invariant and matches a naive scan.
+   */
+  @Test
+  public void parallelArrange() {
+    Random random = new Random(7);
+    int n = 50000;
+    double[] coordinates = new double[n * 2];
+    for (int i = 0; i < coordinates.length; i++) {
+      coordinates[i] = random.nextInt(1000);
+    }
+    int[] order = FlatKDTree.arrange(coordinates, 2);
+    assertEquals(n, new HashSet<>(Arrays.stream(order).boxed()
+        .collect(Collectors.toList())).size());
+    checkLayout(order, coordinates, 0, n, 0);
+
+    List<Star> stars = randomStars(n, random);
+    FlatKDTree<Star> tree = new FlatKDTree<>(3, stars);
+    Double[] target = {10., 10., 10.};
+    assertEquals(stars.stream()
+            .filter(star -> star.squaredEuclideanDistance(target) <= 4)
+            .count(),
+        tree.findRadiusSearch(2., target).size());
+  }
+
+  /**
+   * Checks that every range's median splits it along the range's axis.
+   */
+  private static void checkLayout(int[] order, double[] coordinates,
+                                  int lo, int hi, int depth) {
+    if (hi - lo <= 1) {
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int axis = depth % 2;
+    double split = coordinates[order[mid] * 2 + axis];
+    for (int i = lo; i < mid; i++) {
+      assertTrue(coordinates[order[i] * 2 + axis] <= split);
+    }
+    for (int i = mid + 1; i < hi; i++) {
+      assertTrue(coordinates[order[i] * 2 + axis] >= split);
+    }
+    checkLayout(order, coordinates, lo, mid, depth + 1);
+    checkLayout(order, coordinates, mid + 1, hi, depth + 1);
+  }
+
+  /**
+   * Tests empty trees and malformed arguments.
+   */
+  @Test
+  public void edgeCases() {
+    FlatKDTree<Star> empty = new FlatKDTree<>(3, new ArrayList<>());
+    assertEquals(0, empty.size());
+    assertTrue(empty.findKNearestNeighbors(3, new Double[]{0., 0., 0.})
+        .isEmpty());
+    assertTrue(empty.findRadiusSearch(3., new Double[]{0., 0., 0.})
+        .isEmpty());
+    assertThrows(Error.class, () -> new FlatKDTree<Star>(0, new ArrayList<>()));
+    assertThrows(Error.class,
+        () -> empty.findKNearestNeighbors(-1, new Double[]{0., 0., 0.}));
+    assertThrows(Error.class,
+        () -> empty.findRadiusSearch(-1., new Double[]{0., 0., 0.}));
+    assertThrows(Error.class,
+        () -> empty.findKNearestNeighbors(1, new Double[]{0., 0.}));
+  }
+}
@@ -10,8 +10,11 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -338,4 +341,85 @@ public class KDTreeTest {
     assertEquals(tieStarKDTree.findRadiusSearch(3.0, new Double[]{1.0, 2.0, 3.0}), tieStarSolution);
     tearDown();
   }
+
+  /**
+   * Checks a tree against the one KDTree used to build, by stable-sorting
+   * every sublist.
+   */
+  private static void assertMatchesSortedBuild(List<Star> stars, int depth,
+                                               KDTreeNode<Star> actual) {
+    assertEquals(stars.isEmpty(), actual.isEmpty());
+    if (stars.isEmpty()) {
+      return;
+    }
+    int axis = depth % 3;
+    stars.sort((o1, o2) -> Double.compare(o1.getNthCoordinate(axis),
+        o2.getNthCoordinate(axis)));
+    int mid = stars.size() / 2;
+    assertSame(stars.get(mid), actual.getNodeVal());
+    assertMatchesSortedBuild(stars.subList(0, mid), depth + 1,
+        actual.getLeftNode());
+    assertMatchesSortedBuild(stars.subList(mid + 1, stars.size()), depth + 1,
+        actual.getRightNode());
+  }
+
+  @Test
+  public void KDBuilderMatchesSortedBuild() {
+    // A coarse grid makes many coordinates tie, and enough Stars to take the
+    // parallel path
+    Random random = new Random(8);
+    for (int size : new int[]{1, 2, 7, 500, 40000}) {
+      List<Star> stars = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        stars.add(new Star(i, "star" + i, random.nextInt(10),
+            random.nextInt(10), random.nextInt(10)));
+      }
+      List<Star> unchanged = new ArrayList<>(stars);
+      KDTree<Star> tree = new KDTree<>(3, stars);
+      assertEquals(unchanged, stars);
+      assertMatchesSortedBuild(new ArrayList<>(stars), 0, tree.getTree());
+    }
+  }
+
+  @Test
+  public void KNearestNeighborsMatchNaiveSearch() {
+    // A coarse grid makes many Stars tie for the k-th place
+    Random random = new Random(9);
+    List<Star> stars = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      stars.add(new Star(i, "star" + i, random.nextInt(15),
+          random.nextInt(15), random.nextInt(15)));
+    }
+    KDTree<Star> tree = new KDTree<>(3, new ArrayList<>(stars));
+    for (int q = 0; q < 200; q++) {
+      Double[] target = {random.nextDouble() * 15, random.nextDouble() * 15,
+          (double) random.nextInt(15)};
+      List<Star> sorted = new ArrayList<>(stars);
+      sorted.sort(Comparator.comparingDouble(
+          star -> star.squaredEuclideanDistance(target)));
+      int k = random.nextInt(40);
+      List<Star> nearest = tree.findKNearestNeighbors(k, target);
+      assertEquals(k, nearest.size());
+      assertEquals(k, new HashSet<>(nearest).size());
+      for (int i = 0; i < k; i++) {
+        assertEquals(sorted.get(i).squaredEuclideanDistance(target),
+            nearest.get(i).squaredEuclideanDistance(target), 0);
+      }
+    }
+
+    // Eight Stars tie for nearest to the centre of a cube
+    List<Star> cube = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      cube.add(new Star(i, "corner" + i, i & 1, (i >> 1) & 1, (i >> 2) & 1));
+    }
+    KDTree<Star> cubeTree = new KDTree<>(3, cube);
+    Set<Star> seen = new HashSet<>();
+    for (int i = 0; i < 200; i++) {
+      List<Star> nearest =
+          cubeTree.findKNearestNeighbors(3, new Double[]{0.5, 0.5, 0.5});
+      assertEquals(3, new HashSet<>(nearest).size());
+      seen.addAll(nearest);
+    }
+    assertEquals(8, seen.size());
+  }
 }